@@ -0,0 +1,68 @@
+package com.monitor.threads;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one sample: reading every connector pool from the MBeanServer. {@code queryPools} is the name
+ * lookup the collector caches, measured separately to show what a per-request query would cost.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CollectorBenchmark {
+
+    @Param({"1", "10", "50"})
+    int connectors;
+
+    @Param({"0", "5000"})
+    int unrelatedMBeans;
+
+    private MBeanServer server;
+    private ThreadPoolCollector collector;
+    private ObjectName threadPoolPattern;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JMException, IOException {
+        server = StandInMBeans.server(connectors, unrelatedMBeans);
+        collector = new ThreadPoolCollector(server);
+        collector.start();
+        threadPoolPattern = new ObjectName("Catalina:type=ThreadPool,*");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        collector.stop();
+    }
+
+    @Benchmark
+    public ThreadInfo collect() throws JMException {
+        return collector.collect();
+    }
+
+    @Benchmark
+    public Set<ObjectName> queryPools() {
+        return server.queryNames(threadPoolPattern, null);
+    }
+}
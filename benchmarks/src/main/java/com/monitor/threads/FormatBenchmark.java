@@ -0,0 +1,114 @@
+package com.monitor.threads;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one sample into each served or logged representation. Run with {@code -prof gc} to see
+ * the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark {
+
+    @Param({"1", "10", "50"})
+    int pools;
+
+    private ThreadInfo[] samples;
+    private int next;
+    private SegmentFormat segmentFormat;
+    private ByteSink sink;
+    private CsvFormat csvFormat;
+    private ThreadSampler sampler;
+    private SelfMonitor self;
+    private OutputStream discardBytes;
+    private Writer discard;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Alternate between two samples so delta encodings see changing values
+        samples = new ThreadInfo[] {
+            StandInMBeans.sample(1761046200000L, pools), StandInMBeans.sample(1761046201000L, pools)
+        };
+        segmentFormat = new SegmentFormat();
+        sink = new ByteSink(64 * 1024);
+        segmentFormat.beginFile(sink, true);
+        csvFormat = new CsvFormat();
+        sampler = new ThreadSampler(() -> {
+            throw new JMException("not sampling");
+        }, 1000);
+        self = new SelfMonitor();
+        discardBytes = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+            }
+        };
+        discard = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private ThreadInfo nextSample() {
+        next ^= 1;
+        return samples[next];
+    }
+
+    @Benchmark
+    public void json() throws IOException {
+        JsonFormat.write(nextSample(), 60, 80, Collections.<LatencyTracker.Source>emptyList(), discardBytes);
+    }
+
+    @Benchmark
+    public int csvRow() {
+        sink.reset();
+        csvFormat.append(nextSample(), sink);
+        return sink.length();
+    }
+
+    @Benchmark
+    public int segmentRow() {
+        sink.reset();
+        segmentFormat.append(nextSample(), sink);
+        return sink.length();
+    }
+
+    @Benchmark
+    public void metrics() throws IOException {
+        MetricsWriter.write(nextSample(), sampler, Collections.<LatencyTracker.Source>emptyList(), self, discard);
+    }
+}
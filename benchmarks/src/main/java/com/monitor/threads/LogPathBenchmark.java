@@ -0,0 +1,99 @@
+package com.monitor.threads;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the file log path. {@code offer} is what {@code ?action=log} pays on the request thread;
+ * {@code writeRow} is what the writer thread pays per row when batches hold a single row, its worst case.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LogPathBenchmark {
+
+    @Param({"csv", "binary"})
+    String logFormat;
+
+    @Param({"10"})
+    int pools;
+
+    private File directory;
+    private LogWriter writer;
+    private ThreadInfo sample;
+    private LogFormat format;
+    private ByteSink sink;
+    private FileChannel channel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("thread-monitor-bench").toFile();
+        sample = StandInMBeans.sample(System.currentTimeMillis(), pools);
+        LogFormat writerFormat = "binary".equals(logFormat) ? new SegmentFormat() : new CsvFormat();
+        writer = new LogWriter(new LogCatalog(directory, writerFormat.extension()), writerFormat, Long.MAX_VALUE, 2,
+                               1024, LogWriter.SYNC_NEVER, false, new SelfMonitor());
+        writer.start();
+
+        format = "binary".equals(logFormat) ? new SegmentFormat() : new CsvFormat();
+        sink = new ByteSink(64 * 1024);
+        channel = FileChannel.open(new File(directory, "rows." + format.extension()).toPath(),
+                                   StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        format.beginFile(sink, true);
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() throws IOException {
+        // Keep the file from growing across iterations
+        channel.truncate(0);
+        channel.position(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        writer.stop();
+        channel.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public boolean offer() {
+        // Drops once the writer falls behind, exactly as a request would
+        return writer.offer(sample);
+    }
+
+    @Benchmark
+    public int writeRow() throws IOException {
+        sink.reset();
+        format.append(sample, sink);
+        int length = sink.length();
+        sink.writeTo(channel);
+        return length;
+    }
+}
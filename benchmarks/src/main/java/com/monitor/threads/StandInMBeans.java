@@ -0,0 +1,129 @@
+package com.monitor.threads;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A private MBeanServer laid out like a busy Tomcat: connector thread pools under
+ * {@code Catalina:type=ThreadPool} plus many unrelated MBeans in the same domain.
+ */
+final class StandInMBeans {
+
+    private StandInMBeans() {
+    }
+
+    static MBeanServer server(int connectors, int unrelated) throws JMException {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        for (int i = 0; i < connectors; i++) {
+            String name = (i % 5 == 4 ? "ajp-nio-" : "http-nio-") + (8080 + i);
+            server.registerMBean(threadPool(40 + i % 60, 200), new ObjectName("Catalina:type=ThreadPool,name=\"" + name + "\""));
+        }
+        for (int i = 0; i < unrelated; i++) {
+            Map<String, Object> attributes = new TreeMap<>();
+            attributes.put("requestCount", i);
+            attributes.put("errorCount", 0);
+            attributes.put("processingTime", 1000L * i);
+            server.registerMBean(new StandIn(attributes), new ObjectName(
+                "Catalina:j2eeType=Servlet,WebModule=//localhost/app" + (i % 20) + ",name=servlet" + i +
+                ",J2EEApplication=none,J2EEServer=none"));
+        }
+        return server;
+    }
+
+    /**
+     * Tomcat's MBeans expose lowercase attribute names; a Standard MBean would capitalize them,
+     * so stand-ins are dynamic.
+     */
+    static DynamicMBean threadPool(int busy, int max) {
+        Map<String, Object> attributes = new TreeMap<>();
+        attributes.put("maxThreads", max);
+        attributes.put("currentThreadsBusy", busy);
+        attributes.put("currentThreadCount", Math.min(max, busy + 10));
+        attributes.put("connectionCount", (long) busy * 3);
+        attributes.put("maxConnections", 8192);
+        attributes.put("acceptCount", 100);
+        attributes.put("name", "stand-in");
+        return new StandIn(attributes);
+    }
+
+    /** A sample with {@code pools} connector pools and thread states, as the collector would build it. */
+    static ThreadInfo sample(long timestamp, int pools) {
+        PoolInfo[] infos = new PoolInfo[pools];
+        for (int i = 0; i < pools; i++) {
+            String name = (i % 5 == 4 ? "ajp-nio-" : "http-nio-") + (8080 + i);
+            int busy = 40 + (int) ((timestamp / 1000 + i) % 60);
+            infos[i] = new PoolInfo(PoolInfo.THREAD_POOL, name, busy, busy + 10, 200, busy * 3, 8192, 100,
+                                    PoolInfo.NOT_AVAILABLE)
+                .withThreads(new PoolThreadStates(busy / 2, busy / 4, busy / 4, 10, 120, 14, 900, 31, new long[0]));
+        }
+        return new ThreadInfo(timestamp, 180 + pools * 50, 240 + pools * 50, 160 + pools * 50, infos);
+    }
+
+    private static final class StandIn implements DynamicMBean {
+
+        private final Map<String, Object> attributes;
+        private final MBeanInfo info;
+
+        StandIn(Map<String, Object> attributes) {
+            this.attributes = attributes;
+            MBeanAttributeInfo[] infos = new MBeanAttributeInfo[attributes.size()];
+            int i = 0;
+            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                infos[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                                                    entry.getKey(), true, false, false);
+            }
+            this.info = new MBeanInfo(StandIn.class.getName(), "Tomcat stand-in", infos, null, null, null);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = attributes.get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList(names.length);
+            for (String name : names) {
+                Object value = attributes.get(name);
+                if (value != null) {
+                    list.add(new Attribute(name, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList list) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+}
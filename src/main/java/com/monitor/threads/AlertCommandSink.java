@@ -0,0 +1,55 @@
+package com.monitor.threads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs a local command for every alert event, for example a script that posts to a paging webhook.
+ * The event is passed as {@code ALERT_*} environment variables and as JSON on standard input.
+ * Output goes to the container's standard output; a command still running after the timeout is killed.
+ */
+final class AlertCommandSink implements AlertSink {
+
+    private static final Logger LOG = Logger.getLogger(AlertCommandSink.class.getName());
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final List<String> command;
+
+    AlertCommandSink(String command) {
+        this.command = Arrays.asList(command.trim().split("\\s+"));
+    }
+
+    @Override
+    public void deliver(AlertEvent event) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        Map<String, String> env = builder.environment();
+        env.put("ALERT_STATE", event.state());
+        env.put("ALERT_POOL", event.pool);
+        env.put("ALERT_RULE", event.rule.text);
+        env.put("ALERT_METRIC", event.rule.metric);
+        env.put("ALERT_VALUE", event.formattedValue());
+        env.put("ALERT_TIMESTAMP", String.valueOf(event.timestamp));
+
+        Process process = builder.start();
+        try (OutputStream stdin = process.getOutputStream()) {
+            stdin.write(event.toJson().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The command does not read its input
+        }
+        if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            LOG.warning("Alert command did not finish within " + TIMEOUT_SECONDS + " seconds and was killed: " + command);
+        } else if (process.exitValue() != 0) {
+            LOG.warning("Alert command exited with status " + process.exitValue() + ": " + command);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.monitor.threads;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates alert rules against every sample.
+ *
+ * <p>Each rule keeps its state in arrays indexed by pool position, allocated only when the pool set changes,
+ * so evaluating a sample allocates nothing unless an alert changes state. Events are handed to the sinks
+ * by a dedicated dispatcher thread.
+ */
+final class AlertEngine implements ThreadSampler.Listener {
+
+    private static final Logger LOG = Logger.getLogger(AlertEngine.class.getName());
+
+    private static final int OK = 0;
+    private static final int PENDING = 1;
+    private static final int FIRING = 2;
+    private static final int RESOLVING = 3;
+
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int RECENT_EVENTS = 100;
+    private static final int MAX_WINDOW_SLOTS = 100000;
+
+    private final RuleState[] rules;
+    private final long sampleIntervalMillis;
+    private final List<AlertSink> sinks;
+    private final BlockingQueue<AlertEvent> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ArrayDeque<AlertEvent> recent = new ArrayDeque<>(RECENT_EVENTS);
+    private final Thread dispatcher;
+
+    private volatile boolean running = true;
+    private volatile long firedCount;
+    private volatile long droppedCount;
+
+    // Pool names the per-pool state arrays are laid out for; owned by the sampler thread
+    private String[] poolNames = new String[0];
+
+    AlertEngine(List<AlertRule> rules, long sampleIntervalMillis, List<AlertSink> sinks) {
+        this.sampleIntervalMillis = sampleIntervalMillis;
+        this.rules = new RuleState[rules.size()];
+        for (int i = 0; i < this.rules.length; i++) {
+            this.rules[i] = new RuleState(rules.get(i));
+        }
+        this.sinks = new ArrayList<>(sinks);
+        this.dispatcher = new Thread(this::dispatch, "thread-monitor-alerts");
+        this.dispatcher.setDaemon(true);
+    }
+
+    void start() {
+        dispatcher.start();
+    }
+
+    /**
+     * Delivers alerts already queued, then closes the sinks.
+     */
+    void stop() {
+        running = false;
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(15));
+            if (dispatcher.isAlive()) {
+                dispatcher.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (AlertSink sink : sinks) {
+            sink.close();
+        }
+    }
+
+    @Override
+    public synchronized void onSample(ThreadInfo info) {
+        if (!samePools(info)) {
+            relayout(info);
+        }
+        for (RuleState state : rules) {
+            AlertRule rule = state.rule;
+            if (rule.jvm) {
+                state.evaluate(0, AlertRule.JVM_SCOPE, rule.value(info), info.timestamp);
+            } else {
+                for (int p = 0; p < poolNames.length; p++) {
+                    if (state.applies[p]) {
+                        PoolInfo pool = info.pools.get(p);
+                        state.evaluate(p, pool.name, rule.value(pool), info.timestamp);
+                    }
+                }
+            }
+        }
+    }
+
+    List<AlertRule> getRules() {
+        List<AlertRule> list = new ArrayList<>(rules.length);
+        for (RuleState state : rules) {
+            list.add(state.rule);
+        }
+        return list;
+    }
+
+    /**
+     * Returns one event per currently firing alert, stamped with the time it fired and its latest value.
+     */
+    synchronized List<AlertEvent> getActive() {
+        List<AlertEvent> active = new ArrayList<>();
+        for (RuleState state : rules) {
+            for (int p = 0; p < state.states.length; p++) {
+                if (state.states[p] == FIRING || state.states[p] == RESOLVING) {
+                    String pool = state.rule.jvm ? AlertRule.JVM_SCOPE : poolNames[p];
+                    active.add(new AlertEvent(state.firedAt[p], true, state.rule, pool, state.lastValue[p]));
+                }
+            }
+        }
+        return active;
+    }
+
+    /** Most recent fired/resolved events, oldest first. */
+    List<AlertEvent> getRecent() {
+        synchronized (recent) {
+            return Collections.unmodifiableList(new ArrayList<>(recent));
+        }
+    }
+
+    long getFiredCount() {
+        return firedCount;
+    }
+
+    long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private boolean samePools(ThreadInfo info) {
+        if (info.pools.size() != poolNames.length) {
+            return false;
+        }
+        for (int i = 0; i < poolNames.length; i++) {
+            if (!info.pools.get(i).name.equals(poolNames[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reallocate per-pool state for a new pool set, carrying state over by pool name
+    private void relayout(ThreadInfo info) {
+        String[] names = new String[info.pools.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = info.pools.get(i).name;
+        }
+        for (RuleState state : rules) {
+            if (!state.rule.jvm) {
+                state.relayout(poolNames, names, info);
+            }
+        }
+        poolNames = names;
+    }
+
+    private void emit(AlertEvent event) {
+        if (event.fired) {
+            firedCount++;
+        }
+        synchronized (recent) {
+            if (recent.size() == RECENT_EVENTS) {
+                recent.removeFirst();
+            }
+            recent.addLast(event);
+        }
+        if (!queue.offer(event)) {
+            droppedCount++;
+            LOG.warning("Alert queue full, event not delivered: " + event.summary());
+        }
+    }
+
+    private void dispatch() {
+        while (running || !queue.isEmpty()) {
+            AlertEvent event;
+            try {
+                event = queue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (event == null) {
+                continue;
+            }
+            for (AlertSink sink : sinks) {
+                try {
+                    sink.deliver(event);
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Alert sink " + sink.getClass().getSimpleName() + " failed for: " +
+                            event.summary(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * State machine of one rule across pools: OK -> PENDING -> FIRING -> RESOLVING -> OK.
+     */
+    private final class RuleState {
+
+        final AlertRule rule;
+        final int windowSlots;
+
+        boolean[] applies;
+        int[] states;
+        long[] since;
+        long[] firedAt;
+        double[] lastValue;
+        // Growth rules: ring of recent raw values per pool
+        long[][] windowTimes;
+        double[][] windowValues;
+        int[] windowHead;
+        int[] windowSize;
+
+        RuleState(AlertRule rule) {
+            this.rule = rule;
+            // Enough slots for one window at the sampling rate, plus the sample that ages out
+            this.windowSlots = rule.growth
+                ? (int) Math.min(MAX_WINDOW_SLOTS, rule.windowMillis / sampleIntervalMillis + 2) : 0;
+            // JVM rules have a single slot; pool rules get theirs on the first sample
+            allocate(rule.jvm ? 1 : 0);
+        }
+
+        private void allocate(int slots) {
+            applies = new boolean[slots];
+            states = new int[slots];
+            since = new long[slots];
+            firedAt = new long[slots];
+            lastValue = new double[slots];
+            windowTimes = new long[slots][windowSlots];
+            windowValues = new double[slots][windowSlots];
+            windowHead = new int[slots];
+            windowSize = new int[slots];
+            Arrays.fill(applies, true);
+        }
+
+        void relayout(String[] oldNames, String[] newNames, ThreadInfo info) {
+            int[] oldStates = states;
+            long[] oldSince = since;
+            long[] oldFiredAt = firedAt;
+            double[] oldValue = lastValue;
+            long[][] oldTimes = windowTimes;
+            double[][] oldValues = windowValues;
+            int[] oldHead = windowHead;
+            int[] oldSize = windowSize;
+            boolean[] carried = new boolean[oldNames.length];
+
+            allocate(newNames.length);
+            for (int p = 0; p < newNames.length; p++) {
+                applies[p] = rule.matches(info.pools.get(p));
+                for (int o = 0; o < oldNames.length; o++) {
+                    if (oldNames[o].equals(newNames[p])) {
+                        states[p] = oldStates[o];
+                        since[p] = oldSince[o];
+                        firedAt[p] = oldFiredAt[o];
+                        lastValue[p] = oldValue[o];
+                        windowTimes[p] = oldTimes[o];
+                        windowValues[p] = oldValues[o];
+                        windowHead[p] = oldHead[o];
+                        windowSize[p] = oldSize[o];
+                        carried[o] = true;
+                        break;
+                    }
+                }
+            }
+            // A firing alert on a pool that went away is resolved
+            for (int o = 0; o < oldNames.length; o++) {
+                if (!carried[o] && (oldStates[o] == FIRING || oldStates[o] == RESOLVING)) {
+                    emit(new AlertEvent(info.timestamp, false, rule, oldNames[o], oldValue[o]));
+                }
+            }
+        }
+
+        void evaluate(int p, String pool, double raw, long now) {
+            if (Double.isNaN(raw)) {
+                return;
+            }
+            double value = rule.growth ? growth(p, raw, now) : raw;
+            lastValue[p] = value;
+
+            boolean breach = rule.above ? value > rule.threshold : value < rule.threshold;
+            boolean clear = rule.above ? value <= rule.clearLevel : value >= rule.clearLevel;
+
+            switch (states[p]) {
+                case OK:
+                    if (!breach) {
+                        return;
+                    }
+                    states[p] = PENDING;
+                    since[p] = now;
+                    // fall through: a rule without a duration fires on the first breaching sample
+                case PENDING:
+                    if (!breach) {
+                        states[p] = OK;
+                    } else if (now - since[p] >= rule.durationMillis) {
+                        states[p] = FIRING;
+                        firedAt[p] = now;
+                        emit(new AlertEvent(now, true, rule, pool, value));
+                    }
+                    return;
+                case FIRING:
+                    if (!clear) {
+                        return;
+                    }
+                    states[p] = RESOLVING;
+                    since[p] = now;
+                    // fall through
+                case RESOLVING:
+                default:
+                    if (!clear) {
+                        states[p] = FIRING;
+                    } else if (now - since[p] >= rule.durationMillis) {
+                        states[p] = OK;
+                        emit(new AlertEvent(now, false, rule, pool, value));
+                    }
+            }
+        }
+
+        // Increase of the raw value over the lowest value seen within the rule's window
+        private double growth(int p, double raw, long now) {
+            long[] times = windowTimes[p];
+            double[] values = windowValues[p];
+            int head = windowHead[p];
+            int size = windowSize[p];
+
+            while (size > 0 && now - times[head] > rule.windowMillis) {
+                head = (head + 1) % windowSlots;
+                size--;
+            }
+            if (size == windowSlots) {
+                head = (head + 1) % windowSlots;
+                size--;
+            }
+            int slot = (head + size) % windowSlots;
+            times[slot] = now;
+            values[slot] = raw;
+            size++;
+            windowHead[p] = head;
+            windowSize[p] = size;
+
+            double min = raw;
+            for (int i = 0; i < size; i++) {
+                min = Math.min(min, values[(head + i) % windowSlots]);
+            }
+            return raw - min;
+        }
+    }
+}
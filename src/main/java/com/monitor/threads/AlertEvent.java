@@ -0,0 +1,58 @@
+package com.monitor.threads;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * An alert rule firing or resolving for one pool (or for the JVM).
+ */
+final class AlertEvent {
+
+    // Thread-safe, so one instance serves every sink
+    private static final DateTimeFormatter TIME =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ROOT).withZone(ZoneId.systemDefault());
+
+    final long timestamp;
+    final boolean fired;
+    final AlertRule rule;
+    final String pool;
+    final double value;
+
+    AlertEvent(long timestamp, boolean fired, AlertRule rule, String pool, double value) {
+        this.timestamp = timestamp;
+        this.fired = fired;
+        this.rule = rule;
+        this.pool = pool;
+        this.value = value;
+    }
+
+    String state() {
+        return fired ? "FIRED" : "RESOLVED";
+    }
+
+    /** Local time of the event, {@code yyyy-MM-dd HH:mm:ss}. */
+    String time() {
+        return TIME.format(Instant.ofEpochMilli(timestamp));
+    }
+
+    /** The value with two decimals and a decimal point in every locale. */
+    String formattedValue() {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    /** One-line summary used by the alert log and notification messages. */
+    String summary() {
+        return state() + " " + pool + ": " + rule.text + " (value " + formattedValue() + ")";
+    }
+
+    String toJson() {
+        return "{\"timestamp\":" + timestamp +
+               ",\"time\":\"" + time() + "\"" +
+               ",\"state\":\"" + state() + "\"" +
+               ",\"pool\":\"" + ThreadMonitorServlet.escapeJson(pool) + "\"" +
+               ",\"rule\":\"" + ThreadMonitorServlet.escapeJson(rule.text) + "\"" +
+               ",\"value\":" + formattedValue() + "}";
+    }
+}
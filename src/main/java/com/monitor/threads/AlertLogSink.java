@@ -0,0 +1,54 @@
+package com.monitor.threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends one line per alert event to {@code thread-monitor-alerts.log} in the log directory.
+ * Alerts are rare, so the file is not rotated.
+ */
+final class AlertLogSink implements AlertSink {
+
+    static final String FILE_NAME = "thread-monitor-alerts.log";
+
+    private static final Logger LOG = Logger.getLogger(AlertLogSink.class.getName());
+
+    private final File file;
+    private FileChannel channel;
+
+    AlertLogSink(File directory) {
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    @Override
+    public void deliver(AlertEvent event) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        String line = event.time() + " " + event.summary() +
+                      System.lineSeparator();
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to close alert log " + file, e);
+            }
+            channel = null;
+        }
+    }
+}
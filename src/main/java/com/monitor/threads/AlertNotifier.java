@@ -0,0 +1,100 @@
+package com.monitor.threads;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes alert events as JMX notifications from {@code com.monitor:type=ThreadMonitorAlerts}, so existing
+ * JMX-based monitoring can subscribe without polling the servlet.
+ */
+public final class AlertNotifier extends NotificationBroadcasterSupport implements AlertNotifierMBean, AlertSink {
+
+    static final String OBJECT_NAME = "com.monitor:type=ThreadMonitorAlerts";
+    static final String FIRED = "threadmonitor.alert.fired";
+    static final String RESOLVED = "threadmonitor.alert.resolved";
+
+    private static final Logger LOG = Logger.getLogger(AlertNotifier.class.getName());
+
+    private final MBeanServer server;
+    private final AtomicLong sequence = new AtomicLong();
+    private AlertEngine engine;
+    private ObjectName name;
+
+    AlertNotifier(MBeanServer server) {
+        super(new MBeanNotificationInfo(new String[] {FIRED, RESOLVED}, Notification.class.getName(),
+                                        "Thread pool alert fired or resolved"));
+        this.server = server;
+    }
+
+    /**
+     * Registers the MBean. Another monitor instance in the same JVM may already own the name;
+     * alerts are then still delivered to the other sinks.
+     */
+    void register(AlertEngine engine) {
+        this.engine = engine;
+        try {
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            server.registerMBean(this, objectName);
+            name = objectName;
+        } catch (InstanceAlreadyExistsException e) {
+            LOG.warning(OBJECT_NAME + " is already registered; JMX alert notifications disabled for this instance");
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Failed to register " + OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public void deliver(AlertEvent event) {
+        if (name == null) {
+            return;
+        }
+        Notification notification = new Notification(event.fired ? FIRED : RESOLVED, name,
+                                                     sequence.incrementAndGet(), event.timestamp, event.summary());
+        notification.setUserData(event.toJson());
+        sendNotification(notification);
+    }
+
+    @Override
+    public void close() {
+        if (name != null) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOG.log(Level.WARNING, "Failed to unregister " + OBJECT_NAME, e);
+            }
+            name = null;
+        }
+    }
+
+    @Override
+    public int getActiveAlertCount() {
+        return engine != null ? engine.getActive().size() : 0;
+    }
+
+    @Override
+    public long getFiredCount() {
+        return engine != null ? engine.getFiredCount() : 0;
+    }
+
+    @Override
+    public String[] getActiveAlerts() {
+        if (engine == null) {
+            return new String[0];
+        }
+        List<AlertEvent> active = engine.getActive();
+        String[] summaries = new String[active.size()];
+        for (int i = 0; i < summaries.length; i++) {
+            summaries[i] = active.get(i).summary();
+        }
+        return summaries;
+    }
+}
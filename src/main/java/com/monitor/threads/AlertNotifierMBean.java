@@ -0,0 +1,13 @@
+package com.monitor.threads;
+
+/**
+ * Management interface of the alert notification MBean.
+ */
+public interface AlertNotifierMBean {
+
+    int getActiveAlertCount();
+
+    long getFiredCount();
+
+    String[] getActiveAlerts();
+}
@@ -0,0 +1,193 @@
+package com.monitor.threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One alert rule, parsed from the {@code alertRules} parameter. Rules are separated by semicolons:
+ *
+ * <pre>
+ * [pool:]metric &gt; value [for 30s] [clear value]
+ * [pool:]metric &lt; value [for 30s] [clear value]
+ * [pool:]metric grew value in 5m [for 0s] [clear value]
+ * </pre>
+ *
+ * {@code pool} is a pool name, optionally with {@code *} wildcards, and defaults to every pool.
+ * Pool metrics are {@code busy}, {@code current}, {@code max}, {@code available}, {@code utilization},
+ * {@code connections} and {@code queue}; JVM metrics are {@code threads}, {@code peak} and {@code daemon}.
+ *
+ * <p>A rule fires once its condition has held for the {@code for} duration and resolves once the value has
+ * stayed past the {@code clear} level for the same duration. Without {@code clear}, the level sits 10% inside
+ * the threshold, so a value hovering at the threshold does not flap.
+ */
+final class AlertRule {
+
+    static final String JVM_SCOPE = "jvm";
+
+    private static final String[] POOL_METRICS = {
+        "busy", "current", "max", "available", "utilization", "connections", "queue"
+    };
+    private static final String[] JVM_METRICS = {"threads", "peak", "daemon"};
+
+    private static final Pattern RULE = Pattern.compile(
+        "(?:([^:\\s]+):)?(\\w+)\\s*(>|<|grew\\s)\\s*(-?[\\d.]+)%?" +
+        "(?:\\s+in\\s+(\\d+(?:ms|s|m|h)))?" +
+        "(?:\\s+for\\s+(\\d+(?:ms|s|m|h)))?" +
+        "(?:\\s+clear\\s+(-?[\\d.]+)%?)?");
+
+    final String text;
+    final String scope;
+    final String metric;
+    final boolean jvm;
+    final boolean growth;
+    final boolean above;
+    final double threshold;
+    final double clearLevel;
+    final long durationMillis;
+    final long windowMillis;
+
+    private final Pattern poolPattern;
+    private final int metricIndex;
+
+    private AlertRule(String text, String scope, String metric, boolean growth, boolean above, double threshold,
+                      double clearLevel, long durationMillis, long windowMillis) {
+        this.text = text;
+        this.metric = metric;
+        this.growth = growth;
+        this.above = above;
+        this.threshold = threshold;
+        this.clearLevel = clearLevel;
+        this.durationMillis = durationMillis;
+        this.windowMillis = windowMillis;
+
+        int jvmIndex = indexOf(JVM_METRICS, metric);
+        this.jvm = jvmIndex >= 0;
+        this.metricIndex = jvm ? jvmIndex : indexOf(POOL_METRICS, metric);
+        if (metricIndex < 0) {
+            throw new IllegalArgumentException("Unknown metric '" + metric + "' in alert rule: " + text);
+        }
+        if (jvm && scope != null && !JVM_SCOPE.equals(scope)) {
+            throw new IllegalArgumentException("JVM metric '" + metric + "' cannot be scoped to a pool: " + text);
+        }
+        this.scope = jvm ? JVM_SCOPE : (scope != null ? scope : "*");
+        this.poolPattern = jvm ? null : Pattern.compile(globToRegex(this.scope));
+    }
+
+    /**
+     * Parses a semicolon-separated rule list. Throws IllegalArgumentException naming the first bad rule.
+     */
+    static List<AlertRule> parseAll(String spec) {
+        List<AlertRule> rules = new ArrayList<>();
+        for (String part : spec.split(";")) {
+            String text = part.trim();
+            if (!text.isEmpty()) {
+                rules.add(parse(text));
+            }
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    static AlertRule parse(String text) {
+        Matcher m = RULE.matcher(text);
+        if (!m.matches()) {
+            throw new IllegalArgumentException("Invalid alert rule: " + text);
+        }
+        String operator = m.group(3).trim();
+        boolean growth = "grew".equals(operator);
+        boolean above = !"<".equals(operator);
+        double threshold = parseNumber(m.group(4), text);
+        if (growth != (m.group(5) != null)) {
+            throw new IllegalArgumentException("'in' window is required for, and only allowed with, 'grew': " + text);
+        }
+        long window = growth ? parseDuration(m.group(5)) : 0;
+        long duration = m.group(6) != null ? parseDuration(m.group(6)) : 0;
+        double clear = m.group(7) != null ? parseNumber(m.group(7), text)
+                     : threshold - (above ? 0.1 : -0.1) * Math.abs(threshold);
+        if (above ? clear > threshold : clear < threshold) {
+            throw new IllegalArgumentException("Clear level must not be past the threshold: " + text);
+        }
+        return new AlertRule(text, m.group(1), m.group(2).toLowerCase(Locale.ROOT), growth, above, threshold,
+                             clear, duration, window);
+    }
+
+    boolean matches(PoolInfo pool) {
+        return !jvm && poolPattern.matcher(pool.name).matches();
+    }
+
+    /**
+     * Returns the rule's metric for a pool, or NaN if the pool type does not report it.
+     */
+    double value(PoolInfo pool) {
+        int value;
+        switch (metricIndex) {
+            case 0: value = pool.busyThreads; break;
+            case 1: value = pool.currentThreads; break;
+            case 2: value = pool.maxThreads; break;
+            case 3: value = pool.availableThreads(); break;
+            case 4: return pool.utilizationPercent();
+            case 5: value = pool.connectionCount; break;
+            default: value = pool.queueSize; break;
+        }
+        return value == PoolInfo.NOT_AVAILABLE ? Double.NaN : value;
+    }
+
+    double value(ThreadInfo info) {
+        switch (metricIndex) {
+            case 0: return info.totalThreadCount;
+            case 1: return info.peakThreadCount;
+            default: return info.daemonThreadCount;
+        }
+    }
+
+    private static long parseDuration(String value) {
+        if (value.endsWith("ms")) {
+            return Long.parseLong(value.substring(0, value.length() - 2));
+        }
+        long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        switch (value.charAt(value.length() - 1)) {
+            case 'h': return amount * 3600000L;
+            case 'm': return amount * 60000L;
+            default: return amount * 1000L;
+        }
+    }
+
+    private static double parseNumber(String value, String text) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number '" + value + "' in alert rule: " + text);
+        }
+    }
+
+    private static String globToRegex(String glob) {
+        String[] literals = glob.split("\\*", -1);
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < literals.length; i++) {
+            if (i > 0) {
+                regex.append(".*");
+            }
+            if (!literals[i].isEmpty()) {
+                regex.append(Pattern.quote(literals[i]));
+            }
+        }
+        return regex.toString();
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
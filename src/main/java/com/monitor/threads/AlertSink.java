@@ -0,0 +1,14 @@
+package com.monitor.threads;
+
+/**
+ * Receives fired and resolved alerts. Sinks are called one event at a time on the alert dispatcher thread,
+ * never on the sampler thread, so a slow sink delays only other alerts.
+ */
+interface AlertSink {
+
+    void deliver(AlertEvent event) throws Exception;
+
+    /** Releases files or registrations held by the sink. */
+    default void close() {
+    }
+}
@@ -0,0 +1,221 @@
+package com.monitor.threads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+
+/**
+ * Growable byte buffer that is reset and reused instead of reallocated, with the text encoders the
+ * JSON and CSV formats write through, so a warmed-up sink formats a sample without allocating.
+ */
+final class ByteSink {
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    private byte[] bytes;
+    private int length;
+
+    ByteSink(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    int length() {
+        return length;
+    }
+
+    ByteSink write(int b) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) b;
+        return this;
+    }
+
+    ByteSink write(byte[] src, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(src, offset, bytes, length, count);
+        length += count;
+        return this;
+    }
+
+    /**
+     * Encodes {@code text} as UTF-8 without an intermediate byte array. Unpaired surrogates become {@code '?'},
+     * as with {@link String#getBytes(java.nio.charset.Charset)}.
+     */
+    ByteSink writeUtf8(CharSequence text) {
+        int count = text.length();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (length == bytes.length) {
+                    ensureCapacity(count - i);
+                }
+                bytes[length++] = (byte) c;
+            } else {
+                i = writeNonAscii(text, i, count);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes {@code text} as a JSON string body, escaping exactly what {@link ThreadMonitorServlet#escapeJson}
+     * escapes. {@code null} writes nothing.
+     */
+    ByteSink writeJsonString(String text) {
+        if (text == null) {
+            return this;
+        }
+        int count = text.length();
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    write('\\').write('\\');
+                    break;
+                case '"':
+                    write('\\').write('"');
+                    break;
+                case '\n':
+                    write('\\').write('n');
+                    break;
+                case '\r':
+                    write('\\').write('r');
+                    break;
+                case '\t':
+                    write('\\').write('t');
+                    break;
+                default:
+                    if (c < 0x80) {
+                        write(c);
+                    } else {
+                        i = writeNonAscii(text, i, count);
+                    }
+            }
+        }
+        return this;
+    }
+
+    ByteSink writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return writeUtf8("-9223372036854775808");
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    /**
+     * Writes {@code value} with {@code decimals} fraction digits, byte for byte as {@code String.format("%.Nf")}
+     * does in an English locale: the shortest decimal representation of the value is rounded half up.
+     * Only values whose scaled fraction is within a few ulps of one half need that representation, and only
+     * they allocate.
+     */
+    ByteSink writeFixed(double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return writeUtf8(Double.toString(value));
+        }
+        boolean negative = Double.doubleToRawLongBits(value) < 0;
+        double magnitude = Math.abs(value);
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = magnitude * scale;
+
+        long rounded;
+        double fraction = scaled - Math.floor(scaled);
+        if (scaled < 1e15 && Math.abs(fraction - 0.5) > 4 * Math.ulp(scaled)) {
+            rounded = (long) Math.floor(scaled) + (fraction > 0.5 ? 1 : 0);
+        } else if (scaled < 1e17) {
+            rounded = new BigDecimal(Double.toString(magnitude)).setScale(decimals, RoundingMode.HALF_UP)
+                .unscaledValue().longValue();
+        } else {
+            return writeUtf8(String.format(Locale.ROOT, "%." + decimals + "f", value));
+        }
+
+        if (negative) {
+            write('-');
+        }
+        writeLong(rounded / scale);
+        if (decimals > 0) {
+            write('.');
+            long digits = rounded % scale;
+            for (long place = scale / 10; place > 0; place /= 10) {
+                write((int) ('0' + digits / place % 10));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     */
+    ByteSink writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        return write((int) value);
+    }
+
+    /**
+     * Writes a signed value as a zigzag varint, so small negative deltas stay small.
+     */
+    ByteSink writeZigZag(long value) {
+        return writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer view = ByteBuffer.wrap(bytes, 0, length);
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+    }
+
+    // Encodes the character at index, and its low surrogate if paired; returns the last index consumed
+    private int writeNonAscii(CharSequence text, int index, int count) {
+        char c = text.charAt(index);
+        if (c < 0x800) {
+            write(0xC0 | (c >> 6)).write(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && index + 1 < count && Character.isLowSurrogate(text.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(index + 1));
+            write(0xF0 | (codePoint >> 18)).write(0x80 | ((codePoint >> 12) & 0x3F))
+                .write(0x80 | ((codePoint >> 6) & 0x3F)).write(0x80 | (codePoint & 0x3F));
+            return index + 1;
+        } else if (Character.isSurrogate(c)) {
+            write('?');
+        } else {
+            write(0xE0 | (c >> 12)).write(0x80 | ((c >> 6) & 0x3F)).write(0x80 | (c & 0x3F));
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            byte[] larger = new byte[Math.max(bytes.length * 2, length + extra)];
+            System.arraycopy(bytes, 0, larger, 0, length);
+            bytes = larger;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.monitor.threads;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental per-pool statistics over the sample stream: when each pool runs out of threads at its current
+ * trend, and what {@code maxThreads} its busy threads over the last days call for.
+ *
+ * <p>Everything is updated once per sample in constant memory per pool, and nothing is read back from the
+ * sample history:
+ * <ul>
+ *   <li>Busy threads smoothed by two exponentially weighted moving averages (1 and 15 minute time constants).</li>
+ *   <li>A least-squares line through the busy threads of the last {@code windowMillis}, kept as running sums
+ *       over a ring of samples. The time to exhaustion extrapolates that line to {@code maxThreads}.</li>
+ *   <li>Busy thread counts in one histogram per day, in the {@link LatencyHistogram} bucket layout (exact up
+ *       to 63, within 3% above), for percentiles over the last {@code sizingDays} days.</li>
+ * </ul>
+ * Statistics start over on restart and when a pool disappears.
+ */
+final class CapacityForecaster implements ThreadSampler.Listener {
+
+    private static final long SHORT_EWMA_MILLIS = 60000;
+    private static final long LONG_EWMA_MILLIS = 900000;
+    private static final long DAY_MILLIS = 86400000L;
+    private static final int MAX_TREND_SAMPLES = 3600;
+    private static final int MIN_TREND_SAMPLES = 10;
+    // A straight line through a few minutes says little about the day; forecasts further out are not reported
+    private static final int HORIZON_WINDOWS = 12;
+    // Recommendations need at least this much history to mean anything
+    private static final long MIN_SIZING_MILLIS = 3600000L;
+    // Percentiles over days barely move from one sample to the next
+    private static final long SIZING_REFRESH_MILLIS = 60000;
+
+    /** Forecast and sizing of one pool as of the latest sample. */
+    static final class Forecast {
+        final String name;
+        final String type;
+        final int busyThreads;
+        final int maxThreads;
+        final double shortAverage;
+        final double longAverage;
+        // Threads per minute over the trend window; NaN until the window has enough samples
+        final double trendPerMinute;
+        // Seconds until busy threads reach maxThreads at the current trend; -1 when not heading there
+        final long exhaustionSeconds;
+        final Sizing sizing;
+
+        Forecast(String name, String type, int busyThreads, int maxThreads, double shortAverage, double longAverage,
+                 double trendPerMinute, long exhaustionSeconds, Sizing sizing) {
+            this.name = name;
+            this.type = type;
+            this.busyThreads = busyThreads;
+            this.maxThreads = maxThreads;
+            this.shortAverage = shortAverage;
+            this.longAverage = longAverage;
+            this.trendPerMinute = trendPerMinute;
+            this.exhaustionSeconds = exhaustionSeconds;
+            this.sizing = sizing;
+        }
+    }
+
+    /** Busy thread percentiles over the sizing period and the resulting recommendation. */
+    static final class Sizing {
+        static final String INSUFFICIENT_DATA = "insufficient-data";
+        static final String UNDERSIZED = "undersized";
+        static final String OVERSIZED = "oversized";
+        static final String OK = "ok";
+
+        final long coverageMillis;
+        final long samples;
+        final long p50;
+        final long p99;
+        final long p999;
+        final long peak;
+        final int recommendedMaxThreads;
+        final String verdict;
+        final String summary;
+
+        Sizing(long coverageMillis, long samples, long p50, long p99, long p999, long peak,
+               int recommendedMaxThreads, String verdict, String summary) {
+            this.coverageMillis = coverageMillis;
+            this.samples = samples;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.peak = peak;
+            this.recommendedMaxThreads = recommendedMaxThreads;
+            this.verdict = verdict;
+            this.summary = summary;
+        }
+    }
+
+    // Statistics of one pool; owned by the sampler thread
+    private final class PoolState {
+        double shortAverage = Double.NaN;
+        double longAverage = Double.NaN;
+        long lastTimestamp;
+
+        // Trend ring and running sums; x is seconds since trendBase
+        final long[] times = new long[trendCapacity];
+        final int[] values = new int[trendCapacity];
+        int head;
+        int size;
+        int sinceRebuild;
+        long trendBase;
+        double sumX;
+        double sumY;
+        double sumXX;
+        double sumXY;
+
+        // One busy-thread histogram per day of the sizing period, newest at slice
+        final long[][] days = new long[sizingDays + 1][];
+        final long[] dayPeaks = new long[sizingDays + 1];
+        final long[] dayStarts = new long[sizingDays + 1];
+        int slice;
+        Sizing sizing;
+        long sizingTimestamp;
+        int sizingMax;
+
+        void add(long timestamp, int busy, int max) {
+            updateAverages(timestamp, busy);
+            updateTrend(timestamp, busy);
+            updateHistogram(timestamp, busy, max);
+            lastTimestamp = timestamp;
+        }
+
+        private void updateAverages(long timestamp, int busy) {
+            if (Double.isNaN(shortAverage)) {
+                shortAverage = busy;
+                longAverage = busy;
+                return;
+            }
+            // Weights follow the elapsed time, so a late or skipped sample counts for what it covers
+            double elapsed = Math.max(0, timestamp - lastTimestamp);
+            shortAverage += (busy - shortAverage) * (1 - Math.exp(-elapsed / SHORT_EWMA_MILLIS));
+            longAverage += (busy - longAverage) * (1 - Math.exp(-elapsed / LONG_EWMA_MILLIS));
+        }
+
+        private void updateTrend(long timestamp, int busy) {
+            if (size == times.length) {
+                removePoint(times[head], values[head]);
+                head = (head + 1) % times.length;
+                size--;
+            }
+            while (size > 0 && timestamp - times[head] > windowMillis) {
+                removePoint(times[head], values[head]);
+                head = (head + 1) % times.length;
+                size--;
+            }
+            int slot = (head + size) % times.length;
+            times[slot] = timestamp;
+            values[slot] = busy;
+            size++;
+            if (++sinceRebuild >= times.length || size == 1) {
+                // Subtracting what was added leaves rounding behind; start over from the ring once per lap
+                rebuild();
+            } else {
+                addPoint(timestamp, busy);
+            }
+        }
+
+        private void addPoint(long timestamp, int busy) {
+            double x = (timestamp - trendBase) / 1000.0;
+            sumX += x;
+            sumY += busy;
+            sumXX += x * x;
+            sumXY += x * busy;
+        }
+
+        private void removePoint(long timestamp, int busy) {
+            double x = (timestamp - trendBase) / 1000.0;
+            sumX -= x;
+            sumY -= busy;
+            sumXX -= x * x;
+            sumXY -= x * busy;
+        }
+
+        private void rebuild() {
+            trendBase = times[head];
+            sumX = 0;
+            sumY = 0;
+            sumXX = 0;
+            sumXY = 0;
+            for (int i = 0; i < size; i++) {
+                int slot = (head + i) % times.length;
+                addPoint(times[slot], values[slot]);
+            }
+            sinceRebuild = 0;
+        }
+
+        // Threads per second, NaN without enough samples or spread in time
+        double slope() {
+            if (size < MIN_TREND_SAMPLES) {
+                return Double.NaN;
+            }
+            double denominator = size * sumXX - sumX * sumX;
+            return denominator > 0 ? (size * sumXY - sumX * sumY) / denominator : Double.NaN;
+        }
+
+        // The trend line at the newest sample
+        double fitted(double slope) {
+            double x = (lastTimestamp - trendBase) / 1000.0;
+            return sumY / size + slope * (x - sumX / size);
+        }
+
+        private void updateHistogram(long timestamp, int busy, int max) {
+            if (days[slice] == null) {
+                dayStarts[slice] = timestamp;
+            } else if (timestamp - dayStarts[slice] >= DAY_MILLIS) {
+                slice = (slice + 1) % days.length;
+                days[slice] = null;
+                dayPeaks[slice] = 0;
+                dayStarts[slice] = timestamp;
+            }
+            int bucket = LatencyHistogram.bucket(Math.max(0, busy));
+            long[] counts = days[slice];
+            // Sized for the pool, so a day of a 200 thread pool takes about a kilobyte
+            int length = Math.max(bucket, LatencyHistogram.bucket(Math.max(0, max))) + 1;
+            if (counts == null || counts.length < length) {
+                counts = counts == null ? new long[length] : Arrays.copyOf(counts, length);
+                days[slice] = counts;
+            }
+            counts[bucket]++;
+            dayPeaks[slice] = Math.max(dayPeaks[slice], busy);
+        }
+
+        Sizing sizing(int max) {
+            if (sizing == null || max != sizingMax || lastTimestamp - sizingTimestamp >= SIZING_REFRESH_MILLIS) {
+                sizing = computeSizing(max);
+                sizingTimestamp = lastTimestamp;
+                sizingMax = max;
+            }
+            return sizing;
+        }
+
+        private Sizing computeSizing(int max) {
+            int length = 0;
+            for (long[] day : days) {
+                if (day != null) {
+                    length = Math.max(length, day.length);
+                }
+            }
+            long[] merged = new long[length];
+            long samples = 0;
+            long peak = 0;
+            long oldestStart = lastTimestamp;
+            for (int d = 0; d < days.length; d++) {
+                long[] day = days[d];
+                if (day == null) {
+                    continue;
+                }
+                oldestStart = Math.min(oldestStart, dayStarts[d]);
+                for (int b = 0; b < day.length; b++) {
+                    merged[b] += day[b];
+                    samples += day[b];
+                }
+                peak = Math.max(peak, dayPeaks[d]);
+            }
+            long coverage = lastTimestamp - oldestStart;
+
+            long p50 = Math.min(peak, percentile(merged, samples, 0.5));
+            long p99 = Math.min(peak, percentile(merged, samples, 0.99));
+            long p999 = Math.min(peak, percentile(merged, samples, 0.999));
+
+            // Enough threads for p99 to stay below the warning threshold and for p99.9 to fit at all. A pool that
+            // ran out of threads hides its real demand, so it gets at least a quarter more than it has
+            long recommended = Math.max(Math.max(1, p999), (p99 * 100 + warningThreshold - 1) / warningThreshold);
+            if (max > 0 && peak >= max) {
+                recommended = Math.max(recommended, max + (max + 3) / 4);
+            }
+            String period = period(coverage);
+            String verdict;
+            String summary;
+            if (coverage < MIN_SIZING_MILLIS || max <= 0) {
+                verdict = Sizing.INSUFFICIENT_DATA;
+                summary = max <= 0 ? "maxThreads is not reported"
+                                   : "Not enough history yet (" + coverage / 60000 + " of at least " +
+                                     MIN_SIZING_MILLIS / 60000 + " minutes)";
+            } else if (peak >= max || p99 * 100 >= (long) max * criticalThreshold) {
+                verdict = Sizing.UNDERSIZED;
+                summary = "maxThreads=" + max + " is undersized; " +
+                          (peak >= max ? "all threads were busy" : "p99 busy was " + p99) + " over " + period +
+                          ", consider " + recommended;
+            } else if (recommended * 2 <= max) {
+                verdict = Sizing.OVERSIZED;
+                summary = "maxThreads=" + max + " is oversized; p99 busy over " + period + " was " + p99 +
+                          ", " + recommended + " would do";
+            } else {
+                verdict = Sizing.OK;
+                summary = "maxThreads=" + max + " fits; p99 busy over " + period + " was " + p99;
+            }
+            return new Sizing(coverage, samples, p50, p99, p999, peak, (int) Math.min(Integer.MAX_VALUE, recommended),
+                              verdict, summary);
+        }
+
+        private String period(long coverage) {
+            long days = Math.min(sizingDays, coverage / DAY_MILLIS);
+            if (days >= 2) {
+                return days + " days";
+            }
+            long hours = coverage / 3600000;
+            return hours + (hours == 1 ? " hour" : " hours");
+        }
+    }
+
+    private final long windowMillis;
+    private final int trendCapacity;
+    private final int sizingDays;
+    private final int warningThreshold;
+    private final int criticalThreshold;
+    private final Map<String, PoolState> states = new HashMap<>();
+
+    private volatile List<Forecast> current = Collections.emptyList();
+
+    CapacityForecaster(long windowMillis, long sampleIntervalMillis, int sizingDays,
+                       int warningThreshold, int criticalThreshold) {
+        this.windowMillis = windowMillis;
+        this.trendCapacity = (int) Math.min(MAX_TREND_SAMPLES, windowMillis / Math.max(1, sampleIntervalMillis) + 1);
+        this.sizingDays = sizingDays;
+        this.warningThreshold = warningThreshold;
+        this.criticalThreshold = criticalThreshold;
+    }
+
+    /** Forecasts of every pool in the latest sample, in pool order. */
+    List<Forecast> current() {
+        return current;
+    }
+
+    long getWindowMillis() {
+        return windowMillis;
+    }
+
+    int getSizingDays() {
+        return sizingDays;
+    }
+
+    @Override
+    public void onSample(ThreadInfo info) {
+        List<Forecast> forecasts = new ArrayList<>(info.pools.size());
+        Map<String, PoolState> seen = new HashMap<>();
+        for (PoolInfo pool : info.pools) {
+            String key = pool.type + ':' + pool.name;
+            PoolState state = states.get(key);
+            if (state == null) {
+                state = new PoolState();
+            }
+            seen.put(key, state);
+            state.add(info.timestamp, pool.busyThreads, pool.maxThreads);
+
+            double slope = state.slope();
+            long exhaustion = -1;
+            if (pool.maxThreads > 0 && pool.busyThreads >= pool.maxThreads) {
+                exhaustion = 0;
+            } else if (pool.maxThreads > 0 && slope > 0) {
+                double seconds = Math.max(0, (pool.maxThreads - state.fitted(slope)) / slope);
+                if (seconds <= (double) windowMillis * HORIZON_WINDOWS / 1000) {
+                    exhaustion = (long) Math.ceil(seconds);
+                }
+            }
+            forecasts.add(new Forecast(pool.name, pool.type, pool.busyThreads, pool.maxThreads,
+                                       state.shortAverage, state.longAverage, slope * 60, exhaustion,
+                                       state.sizing(pool.maxThreads)));
+        }
+        // Pools that are gone start over if they come back
+        states.clear();
+        states.putAll(seen);
+        current = Collections.unmodifiableList(forecasts);
+    }
+
+    // Upper bound of the bucket holding the value at quantile
+    private static long percentile(long[] counts, long total, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * quantile));
+        long seen = 0;
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return LatencyHistogram.highestValue(b);
+            }
+        }
+        return LatencyHistogram.highestValue(counts.length - 1);
+    }
+}
@@ -0,0 +1,349 @@
+package com.monitor.threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Polls other monitor instances (over HTTP) or Tomcat JVMs (over JMX) and merges their latest samples with
+ * the local one into a cluster view.
+ *
+ * <p>Every round polls all peers concurrently on a small pool and waits at most {@code timeoutMillis} for
+ * them. A peer that does not answer in time is reported as failed for the round; while its poll is still
+ * running it is skipped, so a hung peer never holds more than one pool thread. Peers give up on their own
+ * after about {@code timeoutMillis}, but a poll that cannot be interrupted (a blocked RMI read) may hold its
+ * thread longer, so the pool gets one extra thread per peer still stuck in an earlier round.
+ */
+final class ClusterPoller {
+
+    private static final Logger LOG = Logger.getLogger(ClusterPoller.class.getName());
+
+    interface Peer {
+        String name();
+
+        /** Where the peer is polled, without credentials. */
+        String address();
+
+        /** Returns the peer's latest sample, giving up after about {@code timeoutMillis}. */
+        ThreadInfo poll(int timeoutMillis) throws Exception;
+
+        void close();
+    }
+
+    /** One node of the cluster as of the last round. */
+    static final class Node {
+        final String name;
+        final String address;
+        final boolean reporting;
+        final String error;
+        // Latest sample received, possibly from an earlier round; null if the node never answered
+        final ThreadInfo info;
+        final long lastSuccessMillis;
+        final long pollMillis;
+        final long busyThreads;
+        final long maxThreads;
+        final double utilizationPercent;
+        final PoolInfo hottestPool;
+
+        Node(String name, String address, boolean reporting, String error, ThreadInfo info,
+             long lastSuccessMillis, long pollMillis) {
+            this.name = name;
+            this.address = address;
+            this.reporting = reporting;
+            this.error = error;
+            this.info = info;
+            this.lastSuccessMillis = lastSuccessMillis;
+            this.pollMillis = pollMillis;
+
+            long busy = 0;
+            long max = 0;
+            PoolInfo hottest = null;
+            if (info != null) {
+                // Executors back connectors that already report their threads; count connector pools only
+                boolean connectors = false;
+                for (PoolInfo pool : info.pools) {
+                    connectors |= !pool.isExecutor();
+                }
+                for (PoolInfo pool : info.pools) {
+                    if (!connectors || !pool.isExecutor()) {
+                        busy += pool.busyThreads;
+                        max += pool.maxThreads;
+                    }
+                    if (pool.maxThreads > 0 && (hottest == null || pool.utilizationPercent() > hottest.utilizationPercent())) {
+                        hottest = pool;
+                    }
+                }
+            }
+            this.busyThreads = busy;
+            this.maxThreads = max;
+            this.utilizationPercent = max > 0 ? (double) busy / max * 100 : 0;
+            this.hottestPool = hottest;
+        }
+    }
+
+    /** Nodes ranked hottest first, failed nodes last, with fleet totals over the reporting nodes. */
+    static final class View {
+        final long timestamp;
+        final List<Node> nodes;
+        final int reporting;
+        final long busyThreads;
+        final long maxThreads;
+        final double utilizationPercent;
+        final int deadlockedThreads;
+
+        View(long timestamp, List<Node> nodes) {
+            this.timestamp = timestamp;
+            List<Node> ranked = new ArrayList<>(nodes);
+            ranked.sort((a, b) -> a.reporting != b.reporting ? (a.reporting ? -1 : 1)
+                                                             : Double.compare(b.utilizationPercent, a.utilizationPercent));
+            this.nodes = Collections.unmodifiableList(ranked);
+
+            int count = 0;
+            long busy = 0;
+            long max = 0;
+            int deadlocked = 0;
+            for (Node node : nodes) {
+                if (node.reporting) {
+                    count++;
+                    busy += node.busyThreads;
+                    max += node.maxThreads;
+                    deadlocked += node.info.deadlockedThreads.size();
+                }
+            }
+            this.reporting = count;
+            this.busyThreads = busy;
+            this.maxThreads = max;
+            this.utilizationPercent = max > 0 ? (double) busy / max * 100 : 0;
+            this.deadlockedThreads = deadlocked;
+        }
+    }
+
+    // Poll results of one peer; written by pool threads, read by the round thread
+    private static final class PeerState {
+        final Peer peer;
+        final AtomicBoolean inFlight = new AtomicBoolean();
+        volatile ThreadInfo info;
+        volatile long lastSuccessMillis;
+        volatile long lastSuccessRound = -1;
+        volatile long pollMillis;
+        volatile String error;
+
+        PeerState(Peer peer) {
+            this.peer = peer;
+        }
+    }
+
+    private final List<PeerState> peers = new ArrayList<>();
+    private final long intervalMillis;
+    private final int timeoutMillis;
+    private final int parallelism;
+
+    private ScheduledExecutorService scheduler;
+    private ThreadPoolExecutor pollers;
+    private long round;
+    private volatile View current = new View(0, Collections.<Node>emptyList());
+
+    ClusterPoller(List<Peer> peers, long intervalMillis, int timeoutMillis, int parallelism) {
+        for (Peer peer : peers) {
+            this.peers.add(new PeerState(peer));
+        }
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * A peer for this monitor's own sampler, so the local node is part of the cluster view.
+     */
+    static Peer local(String name, ThreadSampler sampler) {
+        return new Peer() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public String address() {
+                return "local";
+            }
+
+            @Override
+            public ThreadInfo poll(int timeoutMillis) throws Exception {
+                return sampler.current();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Parses the {@code peers} parameter: entries separated by commas or whitespace, each a monitor URL
+     * ({@code http://host:8080/thread-monitor/thread-monitor}) or a JMX service URL, optionally prefixed
+     * with {@code name=}.
+     */
+    static List<Peer> parsePeers(String spec) {
+        List<Peer> peers = new ArrayList<>();
+        for (String entry : spec.trim().split("[,\\s]+")) {
+            if (entry.isEmpty()) {
+                continue;
+            }
+            String name = null;
+            String address = entry;
+            int equals = entry.indexOf('=');
+            if (equals > 0 && entry.substring(0, equals).matches("[A-Za-z0-9_.:-]+")
+                    && !entry.startsWith("http") && !entry.startsWith("service:")) {
+                name = entry.substring(0, equals);
+                address = entry.substring(equals + 1);
+            }
+            if (address.startsWith("service:jmx:")) {
+                peers.add(new JmxPeer(name, address));
+            } else if (address.startsWith("http://") || address.startsWith("https://")) {
+                peers.add(new HttpPeer(name, address));
+            } else {
+                throw new IllegalArgumentException("Unsupported peer address: " + redact(address));
+            }
+        }
+        return peers;
+    }
+
+    /** Masks the user info of a URL, so error messages never carry a peer's credentials. */
+    static String redact(String address) {
+        return address.replaceAll("//[^/@]*@", "//***@");
+    }
+
+    int getPeerCount() {
+        return peers.size();
+    }
+
+    long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    View current() {
+        return current;
+    }
+
+    synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        AtomicInteger threads = new AtomicInteger();
+        pollers = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "thread-monitor-peer-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // Extra threads for stuck peers are released once those peers return
+        pollers.allowCoreThreadTimeOut(true);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "thread-monitor-cluster");
+            t.setDaemon(true);
+            return t;
+        });
+        // Fixed delay: a slow round postpones the next one instead of queueing behind it
+        scheduler.scheduleWithFixedDelay(this::pollRound, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        pollers.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOG.warning("Cluster poller thread did not terminate within 5 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (PeerState state : peers) {
+            state.peer.close();
+        }
+        scheduler = null;
+        pollers = null;
+    }
+
+    private void pollRound() {
+        try {
+            long thisRound = ++round;
+            List<Callable<Void>> tasks = new ArrayList<>();
+            int stuck = 0;
+            for (PeerState state : peers) {
+                if (!state.inFlight.compareAndSet(false, true)) {
+                    state.error = "Previous poll still running";
+                    stuck++;
+                    continue;
+                }
+                tasks.add(() -> {
+                    poll(state, thisRound);
+                    return null;
+                });
+            }
+            resize(parallelism + stuck);
+            // Unfinished polls are cancelled and interrupted; a poll that ignores the interrupt keeps its thread
+            pollers.invokeAll(tasks, timeoutMillis, TimeUnit.MILLISECONDS);
+
+            List<Node> nodes = new ArrayList<>(peers.size());
+            for (PeerState state : peers) {
+                boolean reporting = state.lastSuccessRound == thisRound;
+                String error = reporting ? null : state.error;
+                if (!reporting && error == null) {
+                    error = "Timed out after " + timeoutMillis + "ms";
+                }
+                nodes.add(new Node(state.peer.name(), state.peer.address(), reporting, error, state.info,
+                                   state.lastSuccessMillis, state.pollMillis));
+            }
+            current = new View(System.currentTimeMillis(), nodes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // An escaping exception would silently cancel the scheduled task
+            LOG.log(Level.SEVERE, "Unexpected error while polling cluster peers", e);
+        }
+    }
+
+    // Threads still held by stuck peers do not count against parallelism
+    private void resize(int threads) {
+        if (threads > pollers.getMaximumPoolSize()) {
+            pollers.setMaximumPoolSize(threads);
+            pollers.setCorePoolSize(threads);
+        } else if (threads < pollers.getMaximumPoolSize()) {
+            pollers.setCorePoolSize(threads);
+            pollers.setMaximumPoolSize(threads);
+        }
+    }
+
+    private void poll(PeerState state, long thisRound) {
+        long start = System.nanoTime();
+        try {
+            ThreadInfo info = state.peer.poll(timeoutMillis);
+            state.info = info;
+            state.lastSuccessMillis = System.currentTimeMillis();
+            state.error = null;
+            state.lastSuccessRound = thisRound;
+        } catch (Exception e) {
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            // Log once per streak of failures, like the sampler
+            if (state.error == null) {
+                LOG.log(Level.WARNING, "Cluster peer " + state.peer.name() + " failed: " + message, e);
+            }
+            state.error = message;
+        } finally {
+            state.pollMillis = (System.nanoTime() - start) / 1000000;
+            state.inFlight.set(false);
+        }
+    }
+}
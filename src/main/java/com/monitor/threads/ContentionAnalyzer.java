@@ -0,0 +1,172 @@
+package com.monitor.threads;
+
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Breaks each pool's worker threads down by {@link Thread.State} and measures how long they were blocked
+ * or waiting since the previous sample, from a single stackless {@code getThreadInfo} call over all threads.
+ * Also reports deadlocked threads and the lock owners most worker threads are blocked behind, which tells
+ * "pool too small" (workers runnable) apart from "pool stuck behind one lock" (workers blocked on one owner).
+ */
+final class ContentionAnalyzer {
+
+    private static final Logger LOG = Logger.getLogger(ContentionAnalyzer.class.getName());
+
+    private static final int TOP_LOCKS = 5;
+    private static final long[] UNAVAILABLE = {
+        PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE
+    };
+
+    private final ThreadMXBean threads;
+    private final WorkerThreads workers;
+    private final boolean contentionEnabled;
+    // Whether contention monitoring was off before this analyzer turned it on, so close() turns it off again
+    private final boolean enabledHere;
+
+    // Per-thread totals at the previous sample, sorted by thread ID; owned by the sampler thread
+    private long[] previousIds = new long[0];
+    private long[] previousTotals = new long[0];
+    private String previousDeadlock = "";
+
+    ContentionAnalyzer(WorkerThreads workers, boolean enableContentionMonitoring) {
+        this.threads = workers.threadBean();
+        this.workers = workers;
+        boolean wasEnabled = threads.isThreadContentionMonitoringSupported()
+                             && threads.isThreadContentionMonitoringEnabled();
+        if (enableContentionMonitoring && threads.isThreadContentionMonitoringSupported() && !wasEnabled) {
+            threads.setThreadContentionMonitoringEnabled(true);
+            LOG.info("Enabled JVM thread contention monitoring");
+        }
+        this.contentionEnabled = threads.isThreadContentionMonitoringSupported()
+                                 && threads.isThreadContentionMonitoringEnabled();
+        this.enabledHere = contentionEnabled && !wasEnabled;
+    }
+
+    /**
+     * Restores JVM thread contention monitoring to what it was before this analyzer, since the setting is
+     * shared by every application in the JVM.
+     */
+    void close() {
+        if (enabledHere) {
+            threads.setThreadContentionMonitoringEnabled(false);
+            LOG.info("Disabled JVM thread contention monitoring");
+        }
+    }
+
+    boolean isContentionEnabled() {
+        return contentionEnabled;
+    }
+
+    ThreadInfo analyze(long timestamp, int totalThreadCount, int peakThreadCount, int daemonThreadCount,
+                       List<PoolInfo> pools) {
+        long[] ids = threads.getAllThreadIds();
+        Arrays.sort(ids);
+        java.lang.management.ThreadInfo[] infos = threads.getThreadInfo(ids, 0);
+
+        String[] prefixes = new String[pools.size()];
+        for (int p = 0; p < prefixes.length; p++) {
+            prefixes[p] = workers.prefix(pools.get(p));
+        }
+
+        // Per pool: runnable, blocked, waiting, timed waiting counts and blocked/waited deltas
+        int[][] counts = new int[prefixes.length][4];
+        long[][] deltas = new long[prefixes.length][4];
+        long[][] poolIds = new long[prefixes.length][ids.length];
+        int[] poolSizes = new int[prefixes.length];
+        long[] totals = new long[ids.length * 4];
+        Map<Long, LockContention> locks = new HashMap<>();
+
+        for (int i = 0; i < infos.length; i++) {
+            java.lang.management.ThreadInfo info = infos[i];
+            if (info == null) {
+                continue;
+            }
+            if (contentionEnabled) {
+                totals[i * 4] = info.getBlockedTime();
+                totals[i * 4 + 1] = info.getBlockedCount();
+                totals[i * 4 + 2] = info.getWaitedTime();
+                totals[i * 4 + 3] = info.getWaitedCount();
+            }
+
+            int pool = poolOf(info.getThreadName(), prefixes);
+            if (pool < 0) {
+                continue;
+            }
+            poolIds[pool][poolSizes[pool]++] = ids[i];
+            switch (info.getThreadState()) {
+                case RUNNABLE: counts[pool][0]++; break;
+                case BLOCKED: counts[pool][1]++; break;
+                case WAITING: counts[pool][2]++; break;
+                case TIMED_WAITING: counts[pool][3]++; break;
+                default: break;
+            }
+            if (contentionEnabled) {
+                int previous = Arrays.binarySearch(previousIds, ids[i]);
+                for (int k = 0; k < 4; k++) {
+                    long total = totals[i * 4 + k];
+                    deltas[pool][k] += previous >= 0 ? total - previousTotals[previous * 4 + k] : total;
+                }
+            }
+            if (info.getThreadState() == Thread.State.BLOCKED && info.getLockOwnerId() >= 0) {
+                LockContention lock = locks.get(info.getLockOwnerId());
+                locks.put(info.getLockOwnerId(), new LockContention(info.getLockName(), info.getLockOwnerId(),
+                    info.getLockOwnerName(), lock != null ? lock.blockedThreads + 1 : 1));
+            }
+        }
+        previousIds = ids;
+        previousTotals = totals;
+
+        PoolInfo[] annotated = new PoolInfo[prefixes.length];
+        for (int p = 0; p < annotated.length; p++) {
+            long[] d = contentionEnabled ? deltas[p] : UNAVAILABLE;
+            annotated[p] = pools.get(p).withThreads(new PoolThreadStates(
+                counts[p][0], counts[p][1], counts[p][2], counts[p][3], d[0], d[1], d[2], d[3],
+                Arrays.copyOf(poolIds[p], poolSizes[p])));
+        }
+
+        List<LockContention> contended = new ArrayList<>(locks.values());
+        contended.sort((a, b) -> Integer.compare(b.blockedThreads, a.blockedThreads));
+        if (contended.size() > TOP_LOCKS) {
+            contended = new ArrayList<>(contended.subList(0, TOP_LOCKS));
+        }
+
+        return new ThreadInfo(timestamp, totalThreadCount, peakThreadCount, daemonThreadCount, annotated,
+                              deadlockedThreads(), contended);
+    }
+
+    private List<String> deadlockedThreads() {
+        long[] deadlocked = threads.findDeadlockedThreads();
+        if (deadlocked == null) {
+            previousDeadlock = "";
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>(deadlocked.length);
+        for (java.lang.management.ThreadInfo info : threads.getThreadInfo(deadlocked, 0)) {
+            if (info != null) {
+                names.add(info.getThreadName());
+            }
+        }
+        String summary = names.toString();
+        if (!summary.equals(previousDeadlock)) {
+            LOG.warning("Deadlocked threads detected: " + summary);
+            previousDeadlock = summary;
+        }
+        return names;
+    }
+
+    private static int poolOf(String threadName, String[] prefixes) {
+        for (int p = 0; p < prefixes.length; p++) {
+            if (threadName.startsWith(prefixes[p])) {
+                return p;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,124 @@
+package com.monitor.threads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The CSV schema shared by {@code ?action=export}, the daily log files and the segment converter.
+ * Rows are written straight into a {@link ByteSink}; an instance caches the current date, so it must not be
+ * shared between threads. Export requests borrow pooled instances.
+ */
+final class CsvFormat implements LogFormat {
+
+    static final String HEADER =
+        "Timestamp,HTTP_Busy_Threads,HTTP_Max_Threads,HTTP_Available,HTTP_Utilization_Percent," +
+        "AJP_Busy_Threads,AJP_Max_Threads,AJP_Available,AJP_Utilization_Percent," +
+        "Total_System_Threads,Peak_System_Threads,Daemon_Threads,Pools";
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final ConcurrentLinkedQueue<CsvFormat> POOL = new ConcurrentLinkedQueue<>();
+
+    private final TimestampFormat timestamps = new TimestampFormat();
+    private ByteSink exportBuffer;
+
+    /**
+     * Writes the {@code ?action=export} document: the header and a row for the sample.
+     */
+    static void writeExport(ThreadInfo threadInfo, OutputStream out) throws IOException {
+        CsvFormat format = POOL.poll();
+        if (format == null) {
+            format = new CsvFormat();
+            format.exportBuffer = new ByteSink(1024);
+        }
+        try {
+            ByteSink sink = format.exportBuffer;
+            sink.reset();
+            sink.writeUtf8(HEADER).write('\n');
+            format.append(threadInfo, sink);
+            sink.writeTo(out);
+        } finally {
+            POOL.offer(format);
+        }
+    }
+
+    @Override
+    public String extension() {
+        return "csv";
+    }
+
+    @Override
+    public void beginFile(ByteSink out, boolean empty) {
+        if (empty) {
+            out.writeUtf8(HEADER).writeUtf8(LINE_SEPARATOR);
+        }
+    }
+
+    @Override
+    public void append(ThreadInfo threadInfo, ByteSink out) {
+        timestamps.write(threadInfo.timestamp, ' ', out);
+        out.write(',').writeLong(threadInfo.httpCurrentThreadsBusy);
+        out.write(',').writeLong(threadInfo.httpMaxThreads);
+        out.write(',').writeLong(threadInfo.httpMaxThreads - threadInfo.httpCurrentThreadsBusy);
+        out.write(',').writeFixed(utilization(threadInfo.httpCurrentThreadsBusy, threadInfo.httpMaxThreads), 2);
+        out.write(',').writeLong(threadInfo.ajpCurrentThreadsBusy);
+        out.write(',').writeLong(threadInfo.ajpMaxThreads);
+        out.write(',').writeLong(threadInfo.ajpMaxThreads - threadInfo.ajpCurrentThreadsBusy);
+        out.write(',').writeFixed(utilization(threadInfo.ajpCurrentThreadsBusy, threadInfo.ajpMaxThreads), 2);
+        out.write(',').writeLong(threadInfo.totalThreadCount);
+        out.write(',').writeLong(threadInfo.peakThreadCount);
+        out.write(',').writeLong(threadInfo.daemonThreadCount);
+        out.write(',');
+        appendPoolsColumn(threadInfo, out);
+        out.writeUtf8(LINE_SEPARATOR);
+    }
+
+    private static double utilization(int busy, int max) {
+        return max > 0 ? (double) busy / max * 100 : 0;
+    }
+
+    /**
+     * Encodes all pools into one quoted CSV field, so the column layout stays fixed however many pools exist:
+     * {@code Type:name=busy/current/max/connections/maxConnections/acceptCount/queueSize;...} with -1 for n/a.
+     * When worker thread states were collected, each entry ends with
+     * {@code @runnable/blocked/waiting/timedWaiting/blockedMillis/waitedMillis}.
+     */
+    private static void appendPoolsColumn(ThreadInfo threadInfo, ByteSink out) {
+        out.write('"');
+        for (int i = 0; i < threadInfo.pools.size(); i++) {
+            PoolInfo pool = threadInfo.pools.get(i);
+            if (i > 0) {
+                out.write(';');
+            }
+            out.writeUtf8(pool.type).write(':');
+            appendQuoted(pool.name, out);
+            out.write('=').writeLong(pool.busyThreads)
+               .write('/').writeLong(pool.currentThreads)
+               .write('/').writeLong(pool.maxThreads)
+               .write('/').writeLong(pool.connectionCount)
+               .write('/').writeLong(pool.maxConnections)
+               .write('/').writeLong(pool.acceptCount)
+               .write('/').writeLong(pool.queueSize);
+            PoolThreadStates threads = pool.threads;
+            if (threads != null) {
+                out.write('@').writeLong(threads.runnable)
+                   .write('/').writeLong(threads.blocked)
+                   .write('/').writeLong(threads.waiting)
+                   .write('/').writeLong(threads.timedWaiting)
+                   .write('/').writeLong(threads.blockedTimeMillis)
+                   .write('/').writeLong(threads.waitedTimeMillis);
+            }
+        }
+        out.write('"');
+    }
+
+    // Doubles quotes inside the quoted field
+    private static void appendQuoted(String text, ByteSink out) {
+        int start = 0;
+        for (int quote = text.indexOf('"'); quote >= 0; quote = text.indexOf('"', start)) {
+            out.writeUtf8(text.subSequence(start, quote + 1)).write('"');
+            start = quote + 1;
+        }
+        out.writeUtf8(start == 0 ? text : text.substring(start));
+    }
+}
@@ -0,0 +1,245 @@
+package com.monitor.threads;
+
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Captures what a pool's worker threads are doing when the pool saturates.
+ *
+ * <p>While a pool is at or above the warning threshold, the CPU time of its worker threads is recorded on
+ * every sample. Once it reaches the critical threshold, the workers are ranked by CPU consumed since the
+ * previous sample and the busiest get a bounded-depth stack trace. Only the pool's workers are inspected,
+ * never the whole JVM, and each pool is captured at most once per interval. The last captures are kept
+ * in memory.
+ */
+final class HotThreadCapture implements ThreadSampler.Listener {
+
+    private static final Logger LOG = Logger.getLogger(HotThreadCapture.class.getName());
+
+    private static final int TOP_THREADS = 10;
+
+    /** One worker thread in a capture. */
+    static final class HotThread {
+        final long id;
+        final String name;
+        final Thread.State state;
+        final long cpuNanos;
+        final String lockName;
+        final StackTraceElement[] stack;
+
+        HotThread(long id, String name, Thread.State state, long cpuNanos, String lockName, StackTraceElement[] stack) {
+            this.id = id;
+            this.name = name;
+            this.state = state;
+            this.cpuNanos = cpuNanos;
+            this.lockName = lockName;
+            this.stack = stack;
+        }
+    }
+
+    /** The busiest workers of one pool at one moment, ordered by CPU consumed since the previous sample. */
+    static final class Capture {
+        final long timestamp;
+        final String pool;
+        final double utilizationPercent;
+        final long intervalMillis;
+        final int workerCount;
+        final List<HotThread> threads;
+
+        Capture(long timestamp, String pool, double utilizationPercent, long intervalMillis, int workerCount,
+                List<HotThread> threads) {
+            this.timestamp = timestamp;
+            this.pool = pool;
+            this.utilizationPercent = utilizationPercent;
+            this.intervalMillis = intervalMillis;
+            this.workerCount = workerCount;
+            this.threads = Collections.unmodifiableList(threads);
+        }
+    }
+
+    // CPU baseline of one pool's workers, taken at the previous sample
+    private static final class Baseline {
+        long timestamp;
+        long[] ids = new long[0];
+        long[] cpu = new long[0];
+        long lastCapture;
+    }
+
+    private final ThreadMXBean threads;
+    private final WorkerThreads workers;
+    private final int warningThreshold;
+    private final int criticalThreshold;
+    private final long minIntervalMillis;
+    private final int maxDepth;
+    private final int maxCaptures;
+    private final ArrayDeque<Capture> captures;
+    private final boolean cpuTimeEnabled;
+
+    // Owned by the sampler thread
+    private final Map<String, Baseline> baselines = new HashMap<>();
+
+    private volatile long captureCount;
+    private volatile long skippedCount;
+
+    HotThreadCapture(WorkerThreads workers, int warningThreshold, int criticalThreshold,
+                     long minIntervalMillis, int maxDepth, int maxCaptures) {
+        this.threads = workers.threadBean();
+        this.workers = workers;
+        this.warningThreshold = warningThreshold;
+        this.criticalThreshold = criticalThreshold;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxDepth = maxDepth;
+        this.maxCaptures = maxCaptures;
+        this.captures = new ArrayDeque<>(maxCaptures);
+        this.cpuTimeEnabled = threads.isThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        if (!cpuTimeEnabled) {
+            LOG.info("Thread CPU time is not available; hot threads will be ranked by state only");
+        }
+    }
+
+    @Override
+    public void onSample(ThreadInfo info) {
+        for (PoolInfo pool : info.pools) {
+            double utilization = pool.utilizationPercent();
+            if (utilization < warningThreshold) {
+                baselines.remove(pool.name);
+                continue;
+            }
+
+            Baseline baseline = baselines.get(pool.name);
+            if (baseline == null) {
+                baseline = new Baseline();
+                baselines.put(pool.name, baseline);
+            }
+
+            try {
+                boolean due = utilization >= criticalThreshold && baseline.timestamp > 0;
+                if (due && info.timestamp - baseline.lastCapture < minIntervalMillis) {
+                    skippedCount++;
+                    due = false;
+                }
+                sample(pool, utilization, baseline, info.timestamp, due);
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Hot thread capture failed for pool " + pool.name, e);
+            }
+        }
+    }
+
+    /** Captures kept in memory, newest first. */
+    List<Capture> getCaptures() {
+        synchronized (captures) {
+            List<Capture> list = new ArrayList<>(captures);
+            Collections.reverse(list);
+            return list;
+        }
+    }
+
+    long getCaptureCount() {
+        return captureCount;
+    }
+
+    long getSkippedCount() {
+        return skippedCount;
+    }
+
+    private void sample(PoolInfo pool, double utilization, Baseline baseline, long now, boolean capture) {
+        long[] ids = pool.threads != null ? pool.threads.workerIds : workers.ids(pool);
+        long[] cpu = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            cpu[i] = cpuTimeEnabled ? threads.getThreadCpuTime(ids[i]) : -1;
+        }
+
+        if (capture) {
+            long[] deltas = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                deltas[i] = cpuDelta(baseline, ids[i], cpu[i]);
+            }
+            // A capture without workers, e.g. before the pool started any, does not count against the rate limit
+            if (record(pool, utilization, now - baseline.timestamp, now, ids, deltas)) {
+                baseline.lastCapture = now;
+            }
+        }
+
+        baseline.timestamp = now;
+        baseline.ids = ids;
+        baseline.cpu = cpu;
+    }
+
+    // Returns whether a capture was kept; none is when no worker thread could be found
+    private boolean record(PoolInfo pool, double utilization, long intervalMillis, long now, long[] ids, long[] deltas) {
+        if (ids.length == 0) {
+            return false;
+        }
+        // Stacks only for the busiest workers; state-only info for the rest keeps the capture cheap
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        java.lang.management.ThreadInfo[] states = threads.getThreadInfo(ids, 0);
+        Arrays.sort(order, (a, b) -> {
+            int byCpu = Long.compare(deltas[b], deltas[a]);
+            if (byCpu != 0) {
+                return byCpu;
+            }
+            // Without CPU times, runnable workers are the interesting ones
+            boolean runnableA = states[a] != null && states[a].getThreadState() == Thread.State.RUNNABLE;
+            boolean runnableB = states[b] != null && states[b].getThreadState() == Thread.State.RUNNABLE;
+            return Boolean.compare(runnableB, runnableA);
+        });
+
+        int top = Math.min(TOP_THREADS, order.length);
+        long[] topIds = new long[top];
+        for (int i = 0; i < top; i++) {
+            topIds[i] = ids[order[i]];
+        }
+        java.lang.management.ThreadInfo[] stacks = threads.getThreadInfo(topIds, maxDepth);
+
+        List<HotThread> hot = new ArrayList<>(top);
+        for (int i = 0; i < top; i++) {
+            java.lang.management.ThreadInfo thread = stacks[i];
+            if (thread != null) {
+                hot.add(new HotThread(thread.getThreadId(), thread.getThreadName(), thread.getThreadState(),
+                                      deltas[order[i]], thread.getLockName(), thread.getStackTrace()));
+            }
+        }
+
+        if (hot.isEmpty()) {
+            return false;
+        }
+
+        Capture capture = new Capture(now, pool.name, utilization, intervalMillis, ids.length, hot);
+        synchronized (captures) {
+            if (captures.size() == maxCaptures) {
+                captures.removeFirst();
+            }
+            captures.addLast(capture);
+        }
+        captureCount++;
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Captured " + hot.size() + " hot threads of pool " + pool.name + " at " +
+                     String.format("%.1f", utilization) + "% utilization");
+        }
+        return true;
+    }
+
+    private static long cpuDelta(Baseline baseline, long id, long cpu) {
+        if (cpu < 0) {
+            return -1;
+        }
+        for (int i = 0; i < baseline.ids.length; i++) {
+            if (baseline.ids[i] == id) {
+                return baseline.cpu[i] < 0 ? -1 : cpu - baseline.cpu[i];
+            }
+        }
+        // Worker started since the previous sample
+        return cpu;
+    }
+}
@@ -0,0 +1,187 @@
+package com.monitor.threads;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cluster peer read directly over remote JMX, for Tomcats that do not run the monitor. The connection is
+ * kept between polls and re-opened after a failure.
+ *
+ * <p>Connecting and the registry lookup go through a socket factory with the poll timeout as connect and
+ * read timeout, so a refused port or a peer that accepts but never answers fails within it. Calls on the
+ * connection itself use the socket factory the peer exported its connector with, which the client cannot
+ * replace; a peer that hangs there holds its polling thread until the connection breaks, and
+ * {@link ClusterPoller} adds a thread for every such peer so the others are still polled.
+ */
+final class JmxPeer implements ClusterPoller.Peer {
+
+    private static final Logger LOG = Logger.getLogger(JmxPeer.class.getName());
+
+    // JNDI environment property for the socket factory of the RMI registry context
+    private static final String JNDI_SOCKET_FACTORY = "com.sun.jndi.rmi.factory.socket";
+
+    private final String name;
+    private final JMXServiceURL url;
+
+    // Only one poll runs at a time, but close() is called from other threads; a poll that connected after a
+    // close() sees the generation changed and closes its connection instead of keeping it
+    private final Object lock = new Object();
+    private JMXConnector connector;
+    private ThreadPoolCollector collector;
+    private long generation;
+
+    JmxPeer(String name, String serviceUrl) {
+        try {
+            this.url = new JMXServiceURL(serviceUrl);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid JMX service URL: " + serviceUrl, e);
+        }
+        this.name = name != null ? name : defaultName(serviceUrl, url);
+    }
+
+    // service:jmx:rmi:///jndi/rmi://host:9010/jmxrmi names its host in the JNDI path, not the URL host
+    private static String defaultName(String serviceUrl, JMXServiceURL url) {
+        if (!url.getHost().isEmpty()) {
+            return url.getHost() + (url.getPort() > 0 ? ":" + url.getPort() : "");
+        }
+        int start = serviceUrl.lastIndexOf("//");
+        int end = serviceUrl.indexOf('/', start + 2);
+        return start >= 0 ? serviceUrl.substring(start + 2, end > start ? end : serviceUrl.length()) : serviceUrl;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String address() {
+        return url.toString();
+    }
+
+    @Override
+    public ThreadInfo poll(int timeoutMillis) throws IOException, JMException {
+        ThreadPoolCollector current;
+        long expected;
+        synchronized (lock) {
+            current = collector;
+            expected = generation;
+        }
+        try {
+            if (current == null) {
+                current = connect(timeoutMillis, expected);
+            }
+            return current.collect();
+        } catch (IOException | JMException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private ThreadPoolCollector connect(int timeoutMillis, long expected) throws IOException, JMException {
+        Map<String, Object> environment = new HashMap<>();
+        environment.put(JNDI_SOCKET_FACTORY, new TimeoutSocketFactory(timeoutMillis));
+        JMXConnector opened = JMXConnectorFactory.connect(url, environment);
+        try {
+            MBeanServerConnection connection = opened.getMBeanServerConnection();
+            ThreadMXBean threads = ManagementFactory.newPlatformMXBeanProxy(
+                connection, ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class);
+            ThreadPoolCollector opening = new ThreadPoolCollector(connection, threads);
+            opening.start();
+            synchronized (lock) {
+                if (generation == expected) {
+                    connector = opened;
+                    collector = opening;
+                    return opening;
+                }
+            }
+            throw new IOException("Peer closed while connecting");
+        } catch (IOException | JMException | RuntimeException e) {
+            close(opened);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        JMXConnector closing;
+        synchronized (lock) {
+            generation++;
+            closing = connector;
+            connector = null;
+            collector = null;
+        }
+        // Outside the lock: closing a connection to a hung peer can block
+        if (closing != null) {
+            close(closing);
+        }
+    }
+
+    private void close(JMXConnector closing) {
+        try {
+            closing.close();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Failed to close JMX connection to " + url, e);
+        }
+    }
+
+    /**
+     * Plain sockets with a connect and read timeout. Equal by timeout, since RMI reuses connections made
+     * through equal factories.
+     */
+    static final class TimeoutSocketFactory implements RMIClientSocketFactory, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int timeoutMillis;
+
+        TimeoutSocketFactory(int timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            // The RMI transport resets the read timeout for its handshake (60s by default) and for
+            // responses (none by default), so any value it asks for is capped at ours
+            Socket socket = new Socket() {
+                @Override
+                public synchronized void setSoTimeout(int timeout) throws SocketException {
+                    super.setSoTimeout(timeout == 0 ? timeoutMillis : Math.min(timeout, timeoutMillis));
+                }
+            };
+            try {
+                socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof TimeoutSocketFactory && ((TimeoutSocketFactory) other).timeoutMillis == timeoutMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return timeoutMillis;
+        }
+    }
+}
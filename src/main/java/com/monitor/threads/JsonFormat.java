@@ -0,0 +1,241 @@
+package com.monitor.threads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The JSON documents served by {@code ?action=json}, {@code ?action=latency} and {@code ?action=self}.
+ *
+ * <p>Documents are encoded straight into a pooled {@link ByteSink} and copied to the response in one write.
+ * Writers are pooled rather than thread-local, because Tomcat's worker threads outlive the web application
+ * and would keep its class loader reachable after an undeploy.
+ */
+final class JsonFormat {
+
+    private static final ConcurrentLinkedQueue<JsonFormat> POOL = new ConcurrentLinkedQueue<>();
+
+    private final ByteSink out = new ByteSink(16 * 1024);
+    private final TimestampFormat timestamps = new TimestampFormat();
+
+    private JsonFormat() {
+    }
+
+    static void write(ThreadInfo threadInfo, int warningThreshold, int criticalThreshold,
+                      List<LatencyTracker.Source> latency, OutputStream stream) throws IOException {
+        JsonFormat format = acquire();
+        try {
+            format.document(threadInfo, warningThreshold, criticalThreshold, latency);
+            format.out.writeTo(stream);
+        } finally {
+            POOL.offer(format);
+        }
+    }
+
+    /**
+     * Writes the {@code ?action=latency} document: the configured window and every source's percentiles.
+     */
+    static void writeLatency(long windowMillis, List<LatencyTracker.Source> sources, OutputStream stream)
+            throws IOException {
+        JsonFormat format = acquire();
+        try {
+            ByteSink out = format.out;
+            out.writeUtf8("{\"windowMillis\":").writeLong(windowMillis).writeUtf8(",\"sources\":");
+            latencySources(sources, out);
+            out.write('}');
+            out.writeTo(stream);
+        } finally {
+            POOL.offer(format);
+        }
+    }
+
+    /**
+     * Writes the {@code ?action=self} document: the monitor's own counters and the cost of each stage.
+     */
+    static void writeSelf(SelfMonitor self, OutputStream stream) throws IOException {
+        JsonFormat format = acquire();
+        try {
+            ByteSink out = format.out;
+            out.writeUtf8("{\"sampleCount\":").writeLong(self.getSampleCount());
+            out.writeUtf8(",\"sampleFailures\":").writeLong(self.getSampleFailureCount());
+            out.writeUtf8(",\"droppedSamples\":").writeLong(self.getDroppedSampleCount());
+            out.writeUtf8(",\"logQueueDepth\":").writeLong(self.getLogQueueDepth());
+            out.writeUtf8(",\"logBytesWritten\":").writeLong(self.getLogBytesWritten());
+            out.writeUtf8(",\"logWriteFailures\":").writeLong(self.getLogWriteFailureCount());
+            out.writeUtf8(",\"allocationMeasured\":").writeUtf8(self.isAllocationMeasured() ? "true" : "false");
+            out.writeUtf8(",\"stages\":[");
+            for (SelfMonitor.Stage stage : SelfMonitor.Stage.values()) {
+                LatencyTracker.Percentiles latency = self.latency(stage);
+                long allocated = self.allocated(stage);
+                out.writeUtf8(stage.ordinal() > 0 ? ",{" : "{");
+                out.writeUtf8("\"stage\":\"").writeUtf8(stage.label).write('"');
+                out.writeUtf8(",\"latency\":");
+                percentiles(latency, out);
+                out.writeUtf8(",\"totalMillis\":").writeFixed(latency.totalSumMicros / 1000.0, 3);
+                out.writeUtf8(",\"allocatedBytes\":").writeLong(allocated);
+                out.writeUtf8(",\"allocatedBytesPerCall\":")
+                   .writeLong(allocated >= 0 && latency.totalCount > 0 ? allocated / latency.totalCount : allocated);
+                out.write('}');
+            }
+            out.writeUtf8("]}");
+            out.writeTo(stream);
+        } finally {
+            POOL.offer(format);
+        }
+    }
+
+    private static JsonFormat acquire() {
+        JsonFormat format = POOL.poll();
+        if (format == null) {
+            format = new JsonFormat();
+        }
+        format.out.reset();
+        return format;
+    }
+
+    private void document(ThreadInfo threadInfo, int warningThreshold, int criticalThreshold,
+                          List<LatencyTracker.Source> latency) {
+        double httpUtilization = threadInfo.httpMaxThreads > 0 ?
+            (double) threadInfo.httpCurrentThreadsBusy / threadInfo.httpMaxThreads * 100 : 0;
+        double ajpUtilization = threadInfo.ajpMaxThreads > 0 ?
+            (double) threadInfo.ajpCurrentThreadsBusy / threadInfo.ajpMaxThreads * 100 : 0;
+
+        out.writeUtf8("{\n");
+        out.writeUtf8("  \"timestamp\": \"");
+        timestamps.write(threadInfo.timestamp, 'T', out);
+        out.writeUtf8("Z\",\n");
+        out.writeUtf8("  \"http\": {\n");
+        out.writeUtf8("    \"busyThreads\": ").writeLong(threadInfo.httpCurrentThreadsBusy).writeUtf8(",\n");
+        out.writeUtf8("    \"maxThreads\": ").writeLong(threadInfo.httpMaxThreads).writeUtf8(",\n");
+        out.writeUtf8("    \"availableThreads\": ").writeLong(threadInfo.httpMaxThreads - threadInfo.httpCurrentThreadsBusy).writeUtf8(",\n");
+        out.writeUtf8("    \"utilizationPercent\": ").writeFixed(httpUtilization, 2).write('\n');
+        out.writeUtf8("  },\n");
+        out.writeUtf8("  \"ajp\": {\n");
+        out.writeUtf8("    \"busyThreads\": ").writeLong(threadInfo.ajpCurrentThreadsBusy).writeUtf8(",\n");
+        out.writeUtf8("    \"maxThreads\": ").writeLong(threadInfo.ajpMaxThreads).writeUtf8(",\n");
+        out.writeUtf8("    \"availableThreads\": ").writeLong(threadInfo.ajpMaxThreads - threadInfo.ajpCurrentThreadsBusy).writeUtf8(",\n");
+        out.writeUtf8("    \"utilizationPercent\": ").writeFixed(ajpUtilization, 2).write('\n');
+        out.writeUtf8("  },\n");
+        out.writeUtf8("  \"pools\": [");
+        for (int i = 0; i < threadInfo.pools.size(); i++) {
+            PoolInfo pool = threadInfo.pools.get(i);
+            out.writeUtf8(i == 0 ? "\n" : ",\n");
+            out.writeUtf8("    {\n");
+            out.writeUtf8("      \"name\": \"").writeJsonString(pool.name).writeUtf8("\",\n");
+            out.writeUtf8("      \"type\": \"").writeUtf8(pool.type).writeUtf8("\",\n");
+            out.writeUtf8("      \"busyThreads\": ").writeLong(pool.busyThreads).writeUtf8(",\n");
+            out.writeUtf8("      \"currentThreads\": ").writeLong(pool.currentThreads).writeUtf8(",\n");
+            out.writeUtf8("      \"maxThreads\": ").writeLong(pool.maxThreads).writeUtf8(",\n");
+            out.writeUtf8("      \"availableThreads\": ").writeLong(pool.availableThreads()).writeUtf8(",\n");
+            out.writeUtf8("      \"utilizationPercent\": ").writeFixed(pool.utilizationPercent(), 2).writeUtf8(",\n");
+            out.writeUtf8("      \"connectionCount\": ").writeLong(pool.connectionCount).writeUtf8(",\n");
+            out.writeUtf8("      \"maxConnections\": ").writeLong(pool.maxConnections).writeUtf8(",\n");
+            out.writeUtf8("      \"acceptCount\": ").writeLong(pool.acceptCount).writeUtf8(",\n");
+            out.writeUtf8("      \"queueSize\": ").writeLong(pool.queueSize);
+            if (pool.threads != null) {
+                PoolThreadStates threads = pool.threads;
+                out.writeUtf8(",\n");
+                out.writeUtf8("      \"threadStates\": {\n");
+                out.writeUtf8("        \"workers\": ").writeLong(threads.workers()).writeUtf8(",\n");
+                out.writeUtf8("        \"runnable\": ").writeLong(threads.runnable).writeUtf8(",\n");
+                out.writeUtf8("        \"blocked\": ").writeLong(threads.blocked).writeUtf8(",\n");
+                out.writeUtf8("        \"waiting\": ").writeLong(threads.waiting).writeUtf8(",\n");
+                out.writeUtf8("        \"timedWaiting\": ").writeLong(threads.timedWaiting).writeUtf8(",\n");
+                out.writeUtf8("        \"blockedTimeMillis\": ").writeLong(threads.blockedTimeMillis).writeUtf8(",\n");
+                out.writeUtf8("        \"blockedCount\": ").writeLong(threads.blockedCount).writeUtf8(",\n");
+                out.writeUtf8("        \"waitedTimeMillis\": ").writeLong(threads.waitedTimeMillis).writeUtf8(",\n");
+                out.writeUtf8("        \"waitedCount\": ").writeLong(threads.waitedCount).write('\n');
+                out.writeUtf8("      }");
+            }
+            out.write('\n');
+            out.writeUtf8("    }");
+        }
+        out.writeUtf8(threadInfo.pools.isEmpty() ? "],\n" : "\n  ],\n");
+        if (threadInfo.virtualThreads != null) {
+            virtualThreads(threadInfo.virtualThreads);
+        }
+        out.writeUtf8("  \"system\": {\n");
+        out.writeUtf8("    \"totalThreads\": ").writeLong(threadInfo.totalThreadCount).writeUtf8(",\n");
+        out.writeUtf8("    \"peakThreads\": ").writeLong(threadInfo.peakThreadCount).writeUtf8(",\n");
+        out.writeUtf8("    \"daemonThreads\": ").writeLong(threadInfo.daemonThreadCount).writeUtf8(",\n");
+        out.writeUtf8("    \"nonDaemonThreads\": ").writeLong(threadInfo.totalThreadCount - threadInfo.daemonThreadCount).write('\n');
+        out.writeUtf8("  },\n");
+        out.writeUtf8("  \"contention\": {\n");
+        out.writeUtf8("    \"deadlockedThreads\": [");
+        for (int i = 0; i < threadInfo.deadlockedThreads.size(); i++) {
+            out.writeUtf8(i == 0 ? "\"" : ", \"").writeJsonString(threadInfo.deadlockedThreads.get(i)).write('"');
+        }
+        out.writeUtf8("],\n");
+        out.writeUtf8("    \"contendedLocks\": [");
+        for (int i = 0; i < threadInfo.contendedLocks.size(); i++) {
+            LockContention lock = threadInfo.contendedLocks.get(i);
+            out.writeUtf8(i == 0 ? "\n" : ",\n");
+            out.writeUtf8("      {\"lock\": \"").writeJsonString(lock.lockName).writeUtf8("\", ");
+            out.writeUtf8("\"ownerId\": ").writeLong(lock.ownerId).writeUtf8(", ");
+            out.writeUtf8("\"owner\": \"").writeJsonString(lock.ownerName).writeUtf8("\", ");
+            out.writeUtf8("\"blockedThreads\": ").writeLong(lock.blockedThreads).write('}');
+        }
+        out.writeUtf8(threadInfo.contendedLocks.isEmpty() ? "]\n" : "\n    ]\n");
+        out.writeUtf8("  },\n");
+        out.writeUtf8("  \"latency\": ");
+        latencySources(latency, out);
+        out.writeUtf8(",\n");
+        out.writeUtf8("  \"thresholds\": {\n");
+        out.writeUtf8("    \"warningPercent\": ").writeLong(warningThreshold).writeUtf8(",\n");
+        out.writeUtf8("    \"criticalPercent\": ").writeLong(criticalThreshold).write('\n');
+        out.writeUtf8("  }\n");
+        out.writeUtf8("}\n");
+    }
+
+    // Only present on Java 21 and later, so documents from older JVMs are unchanged
+    private void virtualThreads(VirtualThreadInfo virtual) {
+        out.writeUtf8("  \"virtualThreads\": {\n");
+        out.writeUtf8("    \"parallelism\": ").writeLong(virtual.parallelism).writeUtf8(",\n");
+        out.writeUtf8("    \"carrierThreads\": ").writeLong(virtual.carrierThreads).writeUtf8(",\n");
+        out.writeUtf8("    \"mountedThreads\": ").writeLong(virtual.mountedThreads).writeUtf8(",\n");
+        out.writeUtf8("    \"queuedThreads\": ").writeLong(virtual.queuedThreads).writeUtf8(",\n");
+        out.writeUtf8("    \"carrierUtilizationPercent\": ").writeFixed(virtual.carrierUtilizationPercent(), 2).writeUtf8(",\n");
+        out.writeUtf8("    \"pinnedCount\": ").writeLong(virtual.pinnedCount).writeUtf8(",\n");
+        out.writeUtf8("    \"pinnedMillis\": ").writeLong(virtual.pinnedMillis).writeUtf8(",\n");
+        out.writeUtf8("    \"pools\": [");
+        for (int i = 0; i < virtual.pools.size(); i++) {
+            PoolInfo pool = virtual.pools.get(i);
+            out.writeUtf8(i == 0 ? "\n" : ",\n");
+            out.writeUtf8("      {\"name\": \"").writeJsonString(pool.name).writeUtf8("\", ");
+            out.writeUtf8("\"type\": \"").writeUtf8(pool.type).writeUtf8("\", ");
+            out.writeUtf8("\"connectionCount\": ").writeLong(pool.connectionCount).writeUtf8(", ");
+            out.writeUtf8("\"maxConnections\": ").writeLong(pool.maxConnections).writeUtf8(", ");
+            out.writeUtf8("\"acceptCount\": ").writeLong(pool.acceptCount).write('}');
+        }
+        out.writeUtf8(virtual.pools.isEmpty() ? "]\n" : "\n    ]\n");
+        out.writeUtf8("  },\n");
+    }
+
+    private static void latencySources(List<LatencyTracker.Source> sources, ByteSink out) {
+        out.write('[');
+        for (int i = 0; i < sources.size(); i++) {
+            LatencyTracker.Source source = sources.get(i);
+            out.writeUtf8(i > 0 ? ",{" : "{");
+            out.writeUtf8("\"source\":\"").writeJsonString(source.name).write('"');
+            out.writeUtf8(",\"windowSeconds\":").writeLong(source.windowMillis / 1000);
+            out.writeUtf8(",\"service\":");
+            percentiles(source.service, out);
+            out.writeUtf8(",\"queue\":");
+            percentiles(source.queue, out);
+            out.writeUtf8(",\"inFlight\":").writeLong(source.inFlight);
+            out.write('}');
+        }
+        out.write(']');
+    }
+
+    private static void percentiles(LatencyTracker.Percentiles latency, ByteSink out) {
+        out.writeUtf8("{\"count\":").writeLong(latency.count);
+        out.writeUtf8(",\"meanMillis\":").writeFixed(latency.meanMicros / 1000, 3);
+        out.writeUtf8(",\"p50Millis\":").writeFixed(latency.p50Micros / 1000.0, 3);
+        out.writeUtf8(",\"p99Millis\":").writeFixed(latency.p99Micros / 1000.0, 3);
+        out.writeUtf8(",\"p999Millis\":").writeFixed(latency.p999Micros / 1000.0, 3);
+        out.writeUtf8(",\"totalCount\":").writeLong(latency.totalCount);
+        out.write('}');
+    }
+}
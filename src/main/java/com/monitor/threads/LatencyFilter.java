@@ -0,0 +1,118 @@
+package com.monitor.threads;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Records how long each request holds a worker thread, and how long it waited before reaching Tomcat when
+ * a front-end proxy sets a request start header. Map it in front of the application to be measured:
+ *
+ * <pre>
+ * &lt;filter&gt;
+ *     &lt;filter-name&gt;latency&lt;/filter-name&gt;
+ *     &lt;filter-class&gt;com.monitor.threads.LatencyFilter&lt;/filter-class&gt;
+ *     &lt;async-supported&gt;true&lt;/async-supported&gt;
+ * &lt;/filter&gt;
+ * </pre>
+ *
+ * Init parameters: {@code source} names the recorder (default: the context path), {@code queueHeader} the
+ * request start header (default {@code X-Request-Start}).
+ */
+public final class LatencyFilter implements Filter {
+
+    private LatencyRecorder recorder;
+    private String queueHeader = LatencyRecorder.DEFAULT_QUEUE_HEADER;
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        String source = config.getInitParameter("source");
+        if (source == null || source.trim().isEmpty()) {
+            String contextPath = config.getServletContext().getContextPath();
+            source = contextPath.isEmpty() ? "ROOT" : contextPath;
+        }
+        String queueHeaderParam = config.getInitParameter("queueHeader");
+        if (queueHeaderParam != null && !queueHeaderParam.trim().isEmpty()) {
+            queueHeader = queueHeaderParam.trim();
+        }
+        recorder = new LatencyRecorder(source.trim());
+        recorder.register(ManagementFactory.getPlatformMBeanServer());
+        config.getServletContext().log("Request latency recorded as source " + recorder.getSource() +
+                                       ", queue header: " + queueHeader);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            chain.doFilter(request, response);
+            return;
+        }
+        long start = System.nanoTime();
+        long queueMicros = request instanceof HttpServletRequest
+            ? LatencyRecorder.queueDelayMicros(((HttpServletRequest) request).getHeader(queueHeader),
+                                               System.currentTimeMillis())
+            : -1;
+        recorder.begin();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // The worker is released, but the request is not done until the async context completes
+                request.getAsyncContext().addListener(new AsyncCompletion(recorder, start, queueMicros));
+            } else {
+                recorder.record(System.nanoTime() - start, queueMicros);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (recorder != null) {
+            recorder.unregister();
+        }
+    }
+
+    // Shared with LatencyValve
+    static final class AsyncCompletion implements AsyncListener {
+
+        private final LatencyRecorder recorder;
+        private final long start;
+        private final long queueMicros;
+
+        AsyncCompletion(LatencyRecorder recorder, long start, long queueMicros) {
+            this.recorder = recorder;
+            this.start = start;
+            this.queueMicros = queueMicros;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            recorder.record(System.nanoTime() - start, queueMicros);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // onComplete follows once the timeout is handled
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Re-dispatches that start async again replace this listener unless it is re-added
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.monitor.threads;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear histogram of microsecond values, striped by recording thread.
+ *
+ * <p>Values below 64 get a bucket each; above that every power of two is split into 32 linear sub-buckets,
+ * so a recorded value is off by at most 1/32 (about 3%) of itself. Values up to 2^36 microseconds (19 hours)
+ * fit in 1024 buckets; larger ones land in the last bucket. Each stripe is its own run of counters, and a
+ * thread always records into the stripe picked by its ID, so concurrent request threads rarely touch the same
+ * cache line and recording is two uncontended atomic adds with no allocation.
+ */
+final class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+    static final int BUCKETS = 1024;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final long MAX_VALUE = (1L << 36) - 1;
+    private static final int MAX_STRIPES = 16;
+    // Sums are spaced a cache line apart so stripes do not share one
+    private static final int SUM_SPACING = 8;
+
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray sums;
+
+    LatencyHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * A histogram with at most {@code maxStripes} stripes; one suits values recorded by a single thread.
+     */
+    LatencyHistogram(int maxStripes) {
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, maxStripes)));
+        this.stripeMask = stripes - 1;
+        this.counts = new AtomicLongArray(stripes * BUCKETS);
+        this.sums = new AtomicLongArray(stripes * SUM_SPACING);
+    }
+
+    void record(long micros) {
+        if (micros < 0) {
+            return;
+        }
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        counts.getAndIncrement(stripe * BUCKETS + bucket(micros));
+        sums.getAndAdd(stripe * SUM_SPACING, micros);
+    }
+
+    /**
+     * Returns the bucket counts summed over all stripes. Counters are read one at a time, so a snapshot taken
+     * while requests complete may be off by the few values recorded during the copy.
+     */
+    long[] counts() {
+        long[] merged = new long[BUCKETS];
+        int stripes = stripeMask + 1;
+        for (int s = 0; s < stripes; s++) {
+            int offset = s * BUCKETS;
+            for (int b = 0; b < BUCKETS; b++) {
+                merged[b] += counts.get(offset + b);
+            }
+        }
+        return merged;
+    }
+
+    long sum() {
+        long total = 0;
+        for (int s = 0; s <= stripeMask; s++) {
+            total += sums.get(s * SUM_SPACING);
+        }
+        return total;
+    }
+
+    static int bucket(long micros) {
+        long value = Math.min(micros, MAX_VALUE);
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (int) (shift * SUB_BUCKETS + (value >>> shift));
+    }
+
+    /** Highest value that lands in {@code bucket}. */
+    static long highestValue(int bucket) {
+        int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+        long mantissa = bucket - (long) shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
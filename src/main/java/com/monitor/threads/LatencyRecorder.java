@@ -0,0 +1,169 @@
+package com.monitor.threads;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records the service time and queue delay of requests seen by a {@link LatencyFilter} or {@code LatencyValve}.
+ *
+ * <p>The recorder is published as {@code com.monitor:type=ThreadMonitorLatency,source=<name>}. The monitor
+ * servlet reads it through the MBeanServer rather than by reference, because a filter in another web
+ * application or a valve in Tomcat's {@code lib} directory is loaded by a different class loader.
+ */
+public final class LatencyRecorder implements LatencyRecorderMBean {
+
+    static final String DOMAIN_TYPE = "com.monitor:type=ThreadMonitorLatency";
+    static final String DEFAULT_QUEUE_HEADER = "X-Request-Start";
+
+    private static final Logger LOG = Logger.getLogger(LatencyRecorder.class.getName());
+
+    private final String source;
+    private final LatencyHistogram service = new LatencyHistogram();
+    private final LatencyHistogram queue = new LatencyHistogram();
+    // Striped like the histograms; begin and record run on every request thread
+    private final LongAdder inFlight = new LongAdder();
+    private MBeanServer server;
+    private ObjectName name;
+
+    LatencyRecorder(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Counts a request as in flight until it is recorded.
+     */
+    void begin() {
+        inFlight.increment();
+    }
+
+    /**
+     * Records one request passed to {@link #begin()}. {@code queueMicros} is negative when the queue delay
+     * is unknown.
+     */
+    void record(long serviceNanos, long queueMicros) {
+        inFlight.decrement();
+        service.record(serviceNanos / 1000);
+        if (queueMicros >= 0) {
+            queue.record(queueMicros);
+        }
+    }
+
+    /**
+     * Registers the MBean. A source name already registered by another filter or valve is left alone;
+     * requests are then recorded but not reported.
+     */
+    void register(MBeanServer server) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN_TYPE + ",source=" + ObjectName.quote(source));
+            server.registerMBean(this, objectName);
+            this.server = server;
+            this.name = objectName;
+        } catch (InstanceAlreadyExistsException e) {
+            LOG.warning("Latency source " + source + " is already registered; use a distinct name for this recorder");
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Failed to register latency source " + source, e);
+        }
+    }
+
+    void unregister() {
+        if (name != null) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOG.log(Level.WARNING, "Failed to unregister latency source " + source, e);
+            }
+            name = null;
+        }
+    }
+
+    /**
+     * Time the request spent between a front-end proxy and now, from a request start header in one of the
+     * common formats: {@code t=<microseconds>}, {@code t=<seconds>.<fraction>} (nginx {@code $msec}),
+     * or bare epoch milliseconds or microseconds. Returns -1 for a missing or unparseable header, and for a
+     * start time in the future, which means the proxy's clock is ahead of this one.
+     */
+    static long queueDelayMicros(String header, long nowMillis) {
+        if (header == null) {
+            return -1;
+        }
+        int length = header.length();
+        int i = header.startsWith("t=") ? 2 : 0;
+        long whole = 0;
+        int digits = 0;
+        for (; i < length && digits < 18; i++, digits++) {
+            char c = header.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            whole = whole * 10 + (c - '0');
+        }
+
+        long startMicros;
+        if (i < length && header.charAt(i) == '.' && digits >= 9) {
+            long fraction = 0;
+            int fractionDigits = 0;
+            for (i++; i < length && fractionDigits < 6; i++, fractionDigits++) {
+                char c = header.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                fraction = fraction * 10 + (c - '0');
+            }
+            for (; fractionDigits < 6; fractionDigits++) {
+                fraction *= 10;
+            }
+            startMicros = whole * 1000000 + fraction;
+        } else if (digits >= 15) {
+            startMicros = whole;
+        } else if (digits >= 12) {
+            startMicros = whole * 1000;
+        } else if (digits >= 9) {
+            startMicros = whole * 1000000;
+        } else {
+            return -1;
+        }
+
+        long delay = nowMillis * 1000 - startMicros;
+        return delay >= 0 ? delay : -1;
+    }
+
+    @Override
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public int getBucketCount() {
+        return LatencyHistogram.BUCKETS;
+    }
+
+    @Override
+    public long[] getServiceCounts() {
+        return service.counts();
+    }
+
+    @Override
+    public long getServiceSumMicros() {
+        return service.sum();
+    }
+
+    @Override
+    public long[] getQueueCounts() {
+        return queue.counts();
+    }
+
+    @Override
+    public long getQueueSumMicros() {
+        return queue.sum();
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        return (int) Math.max(0, inFlight.sum());
+    }
+}
@@ -0,0 +1,23 @@
+package com.monitor.threads;
+
+/**
+ * Management interface of a request latency recorder. Counts are cumulative per histogram bucket, so a
+ * reader gets interval histograms by subtracting two reads.
+ */
+public interface LatencyRecorderMBean {
+
+    String getSource();
+
+    int getBucketCount();
+
+    long[] getServiceCounts();
+
+    long getServiceSumMicros();
+
+    long[] getQueueCounts();
+
+    long getQueueSumMicros();
+
+    /** Requests started but not yet recorded, including asynchronous requests that released their thread. */
+    int getInFlightRequests();
+}
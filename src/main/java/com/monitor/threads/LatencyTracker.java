@@ -0,0 +1,246 @@
+package com.monitor.threads;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Turns the cumulative histograms of every registered {@link LatencyRecorder} into percentiles over a
+ * sliding window, once per sample.
+ *
+ * <p>Each source keeps a few cumulative snapshots spaced a sixth of the window apart; the published
+ * percentiles are computed from the difference between the newest read and the oldest snapshot, so the
+ * window covers between one and seven sixths of {@code windowMillis}.
+ */
+final class LatencyTracker implements ThreadSampler.Listener {
+
+    private static final Logger LOG = Logger.getLogger(LatencyTracker.class.getName());
+
+    private static final String[] ATTRIBUTES = {
+        "ServiceCounts", "ServiceSumMicros", "QueueCounts", "QueueSumMicros", "InFlightRequests"
+    };
+    // Recorders of earlier versions have no InFlightRequests
+    private static final int REQUIRED_ATTRIBUTES = 4;
+    private static final int SLOTS = 6;
+
+    /** Percentiles of one latency histogram over the window, in microseconds. */
+    static final class Percentiles {
+        final long count;
+        final double meanMicros;
+        final long p50Micros;
+        final long p99Micros;
+        final long p999Micros;
+        final long totalCount;
+        final long totalSumMicros;
+
+        Percentiles(long count, double meanMicros, long p50Micros, long p99Micros, long p999Micros,
+                    long totalCount, long totalSumMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+            this.totalCount = totalCount;
+            this.totalSumMicros = totalSumMicros;
+        }
+    }
+
+    /** Latency of one recorder over the window. */
+    static final class Source {
+        final String name;
+        final long windowMillis;
+        final Percentiles service;
+        final Percentiles queue;
+        // Requests in progress at the sample, or -1 when the recorder does not count them
+        final int inFlight;
+
+        Source(String name, long windowMillis, Percentiles service, Percentiles queue, int inFlight) {
+            this.name = name;
+            this.windowMillis = windowMillis;
+            this.service = service;
+            this.queue = queue;
+            this.inFlight = inFlight;
+        }
+    }
+
+    // Cumulative snapshots of one recorder; owned by the sampler thread
+    private static final class Window {
+        final long[] times = new long[SLOTS + 1];
+        final long[][] service = new long[SLOTS + 1][];
+        final long[][] queue = new long[SLOTS + 1][];
+        final long[] serviceSums = new long[SLOTS + 1];
+        final long[] queueSums = new long[SLOTS + 1];
+        int head;
+        int size;
+
+        void reset() {
+            head = 0;
+            size = 0;
+        }
+    }
+
+    private final MBeanServer server;
+    private final ObjectName pattern;
+    private final long windowMillis;
+    private final long slotMillis;
+    private final Map<ObjectName, Window> windows = new HashMap<>();
+
+    private volatile List<Source> current = Collections.emptyList();
+
+    LatencyTracker(MBeanServer server, long windowMillis) {
+        this.server = server;
+        this.windowMillis = windowMillis;
+        this.slotMillis = Math.max(1, windowMillis / SLOTS);
+        try {
+            this.pattern = new ObjectName(LatencyRecorder.DOMAIN_TYPE + ",*");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Latency of every registered source over the window, sorted by source name. */
+    List<Source> current() {
+        return current;
+    }
+
+    long getWindowMillis() {
+        return windowMillis;
+    }
+
+    @Override
+    public void onSample(ThreadInfo info) {
+        List<Source> sources = new ArrayList<>();
+        Map<ObjectName, Window> seen = new HashMap<>();
+        for (ObjectName name : server.queryNames(pattern, null)) {
+            try {
+                AttributeList values = server.getAttributes(name, ATTRIBUTES);
+                if (values.size() < REQUIRED_ATTRIBUTES) {
+                    continue;
+                }
+                long[] service = (long[]) ((Attribute) values.get(0)).getValue();
+                long serviceSum = (Long) ((Attribute) values.get(1)).getValue();
+                long[] queue = (long[]) ((Attribute) values.get(2)).getValue();
+                long queueSum = (Long) ((Attribute) values.get(3)).getValue();
+                int inFlight = values.size() > REQUIRED_ATTRIBUTES ? (Integer) ((Attribute) values.get(4)).getValue() : -1;
+                if (service.length != LatencyHistogram.BUCKETS || queue.length != LatencyHistogram.BUCKETS) {
+                    // A recorder from another version of the monitor with a different bucket layout
+                    continue;
+                }
+
+                Window window = windows.get(name);
+                if (window == null) {
+                    window = new Window();
+                }
+                seen.put(name, window);
+                if (name.getKeyProperty("source") == null) {
+                    continue;
+                }
+                sources.add(update(name.getKeyProperty("source"), window, info.timestamp,
+                                   service, serviceSum, queue, queueSum, inFlight));
+            } catch (JMException | ClassCastException e) {
+                LOG.log(Level.FINE, "Cannot read latency source " + name, e);
+            }
+        }
+        windows.keySet().retainAll(seen.keySet());
+        windows.putAll(seen);
+        sources.sort((a, b) -> a.name.compareTo(b.name));
+        current = Collections.unmodifiableList(sources);
+    }
+
+    private Source update(String quotedName, Window window, long now, long[] service, long serviceSum,
+                          long[] queue, long queueSum, int inFlight) {
+        if (window.size > 0) {
+            int oldest = window.head;
+            // Counts going down mean the recorder was replaced, e.g. by a redeployed application
+            if (decreased(window.service[oldest], service) || decreased(window.queue[oldest], queue)) {
+                window.reset();
+            }
+        }
+
+        int newest = (window.head + window.size - 1) % window.times.length;
+        if (window.size == 0 || now - window.times[newest] >= slotMillis) {
+            if (window.size == window.times.length) {
+                window.head = (window.head + 1) % window.times.length;
+                window.size--;
+            }
+            int slot = (window.head + window.size) % window.times.length;
+            window.times[slot] = now;
+            window.service[slot] = service;
+            window.queue[slot] = queue;
+            window.serviceSums[slot] = serviceSum;
+            window.queueSums[slot] = queueSum;
+            window.size++;
+        }
+
+        int oldest = window.head;
+        String name = quotedName != null && quotedName.startsWith("\"") ? ObjectName.unquote(quotedName) : quotedName;
+        return new Source(name, now - window.times[oldest],
+                          percentiles(window.service[oldest], service, window.serviceSums[oldest], serviceSum),
+                          percentiles(window.queue[oldest], queue, window.queueSums[oldest], queueSum), inFlight);
+    }
+
+    private static boolean decreased(long[] before, long[] after) {
+        for (int b = 0; b < before.length; b++) {
+            if (after[b] < before[b]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Percentiles of the values recorded between two reads of a histogram's counts and sum.
+     */
+    static Percentiles percentiles(long[] before, long[] after, long sumBefore, long totalSum) {
+        long count = 0;
+        long totalCount = 0;
+        for (int b = 0; b < after.length; b++) {
+            count += after[b] - before[b];
+            totalCount += after[b];
+        }
+        if (count == 0) {
+            return new Percentiles(0, 0, 0, 0, 0, totalCount, totalSum);
+        }
+
+        // Percentiles are reported as the highest value of their bucket, so they never understate
+        long p50Rank = rank(count, 0.5);
+        long p99Rank = rank(count, 0.99);
+        long p999Rank = rank(count, 0.999);
+        long p50 = -1;
+        long p99 = -1;
+        long p999 = -1;
+        long seen = 0;
+        for (int b = 0; b < after.length && p999 < 0; b++) {
+            long delta = after[b] - before[b];
+            if (delta == 0) {
+                continue;
+            }
+            seen += delta;
+            long value = LatencyHistogram.highestValue(b);
+            if (p50 < 0 && seen >= p50Rank) {
+                p50 = value;
+            }
+            if (p99 < 0 && seen >= p99Rank) {
+                p99 = value;
+            }
+            if (seen >= p999Rank) {
+                p999 = value;
+            }
+        }
+        return new Percentiles(count, (double) (totalSum - sumBefore) / count, p50, p99, p999, totalCount, totalSum);
+    }
+
+    private static long rank(long count, double quantile) {
+        return Math.max(1, (long) Math.ceil(quantile * count));
+    }
+}
@@ -0,0 +1,19 @@
+package com.monitor.threads;
+
+/**
+ * A lock that worker threads are blocked on, with the thread holding it.
+ */
+final class LockContention {
+
+    final String lockName;
+    final long ownerId;
+    final String ownerName;
+    final int blockedThreads;
+
+    LockContention(String lockName, long ownerId, String ownerName, int blockedThreads) {
+        this.lockName = lockName;
+        this.ownerId = ownerId;
+        this.ownerName = ownerName;
+        this.blockedThreads = blockedThreads;
+    }
+}
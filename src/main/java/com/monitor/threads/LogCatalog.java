@@ -0,0 +1,369 @@
+package com.monitor.threads;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The daily log files of one format and their rotations, tracked in memory. The directory is listed once, when
+ * the catalog is created; afterwards rotation, compression and range exports work from the catalog, and every
+ * rename or delete of a log file goes through it under its lock.
+ *
+ * <p>A day's file is {@code thread-monitor-<date>.<ext>}, its rotations {@code .1} (newest) to {@code .N}.
+ * A compressed file has a {@code .gz} suffix and a {@code .gz.idx} sidecar index written by
+ * {@link LogCompressor}.
+ */
+final class LogCatalog {
+
+    private static final Logger LOG = Logger.getLogger(LogCatalog.class.getName());
+
+    static final String COMPRESSED_SUFFIX = ".gz";
+    static final String INDEX_SUFFIX = ".idx";
+    private static final Pattern FILE_NAME =
+        Pattern.compile("thread-monitor-(\\d{4}-\\d{2}-\\d{2})\\.([a-z]+)(?:\\.(\\d+))?(\\.gz)?(\\.idx)?");
+
+    private final File directory;
+    private final String extension;
+    // Segments by day, each list ordered by rotation, the day's own file first
+    private final TreeMap<String, List<Segment>> days = new TreeMap<>();
+
+    /** A day's file or one of its rotations. Fields change only under the catalog lock. */
+    static final class Segment {
+        final String day;
+        int rotation;
+        boolean compressed;
+        // Appended to by the log writer; not compressed until the writer moves on
+        boolean writing;
+        boolean deleted;
+        // Block index of a compressed segment, loaded on first use
+        long[] index;
+
+        Segment(String day, int rotation, boolean compressed) {
+            this.day = day;
+            this.rotation = rotation;
+            this.compressed = compressed;
+        }
+    }
+
+    /** A segment opened for reading, with the index of a compressed one. */
+    static final class Opened {
+        final String name;
+        final FileChannel channel;
+        final boolean compressed;
+        final long[] index;
+
+        Opened(String name, FileChannel channel, boolean compressed, long[] index) {
+            this.name = name;
+            this.channel = channel;
+            this.compressed = compressed;
+            this.index = index;
+        }
+    }
+
+    LogCatalog(File directory, String extension) {
+        this.directory = directory;
+        this.extension = extension;
+        scan();
+    }
+
+    File directory() {
+        return directory;
+    }
+
+    String extension() {
+        return extension;
+    }
+
+    // The only directory listing; also clears what an interrupted compression left behind
+    private void scan() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> indexes = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith("thread-monitor-") && name.endsWith(".tmp")) {
+                delete(file);
+                continue;
+            }
+            Matcher matcher = FILE_NAME.matcher(name);
+            if (!matcher.matches() || !extension.equals(matcher.group(2))) {
+                continue;
+            }
+            if (matcher.group(5) != null) {
+                indexes.add(file);
+                continue;
+            }
+            String day = matcher.group(1);
+            int rotation = matcher.group(3) != null ? Integer.parseInt(matcher.group(3)) : 0;
+            boolean compressed = matcher.group(4) != null;
+            Segment existing = find(day, rotation);
+            if (existing == null) {
+                insert(new Segment(day, rotation, compressed));
+            } else if (compressed) {
+                // The compressed file is only renamed into place once complete, so the plain one is a leftover
+                delete(file(existing.day, existing.rotation, false));
+                existing.compressed = true;
+            } else {
+                delete(file);
+            }
+        }
+        for (File index : indexes) {
+            String name = index.getName();
+            if (!new File(directory, name.substring(0, name.length() - INDEX_SUFFIX.length())).exists()) {
+                delete(index);
+            }
+        }
+    }
+
+    /**
+     * Returns the file the log writer appends to for {@code day} and marks it as being written. A compressed
+     * file for the day, left when the clock went back, is moved out of the way as if rotated.
+     */
+    synchronized File beginWriting(String day) throws IOException {
+        Segment current = find(day, 0);
+        if (current != null && current.compressed) {
+            shift(day);
+            current = null;
+        }
+        if (current == null) {
+            current = new Segment(day, 0, false);
+            insert(current);
+        }
+        current.writing = true;
+        return file(day, 0, false);
+    }
+
+    /**
+     * Called when the log writer moves on from {@code day}. Returns the day's file for compression, or null.
+     */
+    synchronized Segment endWriting(String day) {
+        Segment current = find(day, 0);
+        if (current == null) {
+            return null;
+        }
+        current.writing = false;
+        return current.compressed ? null : current;
+    }
+
+    /**
+     * Renames the day's file to rotation 1 and shifts older rotations up, then deletes rotations beyond the
+     * retention: rotation {@code maxFiles} and above, or with {@code maxBytes} of zero or more, those that
+     * take the day over that many bytes with a full file being written. Returns the new rotation 1.
+     */
+    synchronized Segment rotate(String day, int maxFiles, long maxFileSize, long maxBytes) throws IOException {
+        Segment current = find(day, 0);
+        if (current == null) {
+            throw new IOException("No log file to rotate for " + day);
+        }
+        shift(day);
+        current.writing = false;
+
+        // Newest first, so the oldest rotations are the ones over the retention
+        List<Segment> expired = new ArrayList<>();
+        long used = maxFileSize;
+        for (Segment segment : days.get(day)) {
+            if (maxBytes < 0) {
+                if (segment.rotation >= maxFiles) {
+                    expired.add(segment);
+                }
+            } else {
+                used += size(segment);
+                if (used > maxBytes) {
+                    expired.add(segment);
+                }
+            }
+        }
+        for (Segment segment : expired) {
+            remove(segment);
+        }
+        LOG.info("Log file rotated: " + file(day, 0, false).getName() + " -> " + file(day, 1, false).getName());
+        return current;
+    }
+
+    // Moves every file of the day one rotation up, oldest first so no name is taken
+    private void shift(String day) throws IOException {
+        List<Segment> segments = days.get(day);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            File from = file(day, segment.rotation, segment.compressed);
+            if (!from.renameTo(file(day, segment.rotation + 1, segment.compressed))) {
+                if (segment.rotation == 0) {
+                    throw new IOException("Failed to rotate current log file: " + from.getAbsolutePath());
+                }
+                LOG.warning("Failed to rotate log file: " + from.getAbsolutePath());
+            }
+            if (segment.compressed) {
+                indexFile(day, segment.rotation).renameTo(indexFile(day, segment.rotation + 1));
+            }
+            segment.rotation++;
+        }
+    }
+
+    /**
+     * Plain files that are complete: rotations, and the files of days before {@code today}.
+     */
+    synchronized List<Segment> uncompressed(String today) {
+        List<Segment> result = new ArrayList<>();
+        for (List<Segment> segments : days.values()) {
+            for (Segment segment : segments) {
+                if (!segment.compressed && !segment.writing && (segment.rotation > 0 || segment.day.compareTo(today) < 0)) {
+                    result.add(segment);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Opens a plain segment for compression; null if it was deleted, compressed or written to since.
+     */
+    synchronized FileChannel openForCompression(Segment segment) throws IOException {
+        if (segment.deleted || segment.compressed || segment.writing) {
+            return null;
+        }
+        return FileChannel.open(file(segment.day, segment.rotation, false).toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Moves a finished compression into place: the index first, then the compressed file, then the plain file
+     * is deleted. Discards both temporary files when the segment changed meanwhile.
+     */
+    synchronized boolean compressed(Segment segment, File compressedTemp, File indexTemp) {
+        if (segment.deleted || segment.compressed || segment.writing) {
+            delete(compressedTemp);
+            delete(indexTemp);
+            return false;
+        }
+        File index = indexFile(segment.day, segment.rotation);
+        File compressed = file(segment.day, segment.rotation, true);
+        if (!indexTemp.renameTo(index) || !compressedTemp.renameTo(compressed)) {
+            LOG.warning("Failed to move compressed log file into place: " + compressed.getAbsolutePath());
+            delete(compressedTemp);
+            delete(indexTemp);
+            delete(index);
+            return false;
+        }
+        delete(file(segment.day, segment.rotation, false));
+        segment.compressed = true;
+        segment.index = null;
+        return true;
+    }
+
+    /** Days with log files from {@code fromDay} to {@code toDay} inclusive. */
+    synchronized List<String> days(String fromDay, String toDay) {
+        return new ArrayList<>(days.subMap(fromDay, true, toDay, true).keySet());
+    }
+
+    /**
+     * Opens every file of a day at once, oldest rotation first, so a rotation or compression while they are
+     * read neither skips nor repeats samples. The caller closes the channels.
+     */
+    synchronized List<Opened> open(String day) throws IOException {
+        List<Segment> segments = days.get(day);
+        List<Opened> opened = new ArrayList<>();
+        if (segments == null) {
+            return opened;
+        }
+        try {
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                Segment segment = segments.get(i);
+                File file = file(day, segment.rotation, segment.compressed);
+                FileChannel channel;
+                try {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                } catch (NoSuchFileException e) {
+                    // Not created yet by the log writer
+                    continue;
+                }
+                if (segment.compressed && segment.index == null) {
+                    segment.index = readIndex(indexFile(day, segment.rotation));
+                }
+                opened.add(new Opened(file.getName(), channel, segment.compressed, segment.index));
+            }
+        } catch (IOException e) {
+            for (Opened o : opened) {
+                o.channel.close();
+            }
+            throw e;
+        }
+        return opened;
+    }
+
+    // Pairs of block key and compressed offset; a missing or damaged index only costs reading from the start
+    private static long[] readIndex(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long[] index = new long[(int) (file.length() / 16) * 2];
+            for (int i = 0; i < index.length; i++) {
+                index[i] = in.readLong();
+            }
+            return index;
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Cannot read log index " + file, e);
+            return new long[0];
+        }
+    }
+
+    private long size(Segment segment) {
+        long size = file(segment.day, segment.rotation, segment.compressed).length();
+        return segment.compressed ? size + indexFile(segment.day, segment.rotation).length() : size;
+    }
+
+    private void remove(Segment segment) {
+        delete(file(segment.day, segment.rotation, segment.compressed));
+        if (segment.compressed) {
+            delete(indexFile(segment.day, segment.rotation));
+        }
+        segment.deleted = true;
+        days.get(segment.day).remove(segment);
+    }
+
+    private Segment find(String day, int rotation) {
+        List<Segment> segments = days.get(day);
+        if (segments != null) {
+            for (Segment segment : segments) {
+                if (segment.rotation == rotation) {
+                    return segment;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void insert(Segment segment) {
+        List<Segment> segments = days.computeIfAbsent(segment.day, d -> new ArrayList<>());
+        int i = 0;
+        while (i < segments.size() && segments.get(i).rotation < segment.rotation) {
+            i++;
+        }
+        segments.add(i, segment);
+    }
+
+    File file(String day, int rotation, boolean compressed) {
+        return new File(directory, "thread-monitor-" + day + "." + extension + (rotation > 0 ? "." + rotation : "") +
+                                   (compressed ? COMPRESSED_SUFFIX : ""));
+    }
+
+    private File indexFile(String day, int rotation) {
+        return new File(directory, file(day, rotation, true).getName() + INDEX_SUFFIX);
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            LOG.warning("Failed to delete log file: " + file.getAbsolutePath());
+        }
+    }
+}
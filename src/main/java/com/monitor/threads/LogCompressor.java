@@ -0,0 +1,305 @@
+package com.monitor.threads;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses complete log files on a background thread: rotations, and a day's file once the log writer has
+ * moved on to the next day.
+ *
+ * <p>A file is compressed in blocks of about {@value #BLOCK_SIZE} bytes, each a separate gzip member, so the
+ * result is an ordinary gzip file that {@code zcat} reads whole. CSV blocks end at a line break. Binary segments
+ * are re-encoded with a new delta chain at the start of every block, so each block decodes on its own. The
+ * sidecar index holds one pair of big-endian longs per block: the key of its first sample and the block's offset
+ * in the compressed file. The key is epoch milliseconds for binary segments and the CSV timestamp as the number
+ * {@code yyyyMMddHHmmss} for CSV files, which orders like the timestamp text.
+ */
+final class LogCompressor {
+
+    private static final Logger LOG = Logger.getLogger(LogCompressor.class.getName());
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    // A block without a sample, such as the CSV header
+    static final long NO_KEY = Long.MIN_VALUE;
+
+    private final LogCatalog catalog;
+    private final SelfMonitor self;
+    private final BlockingQueue<LogCatalog.Segment> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // Owned by the compressor thread
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private final ByteSink block = new ByteSink(BLOCK_SIZE + 4096);
+
+    LogCompressor(LogCatalog catalog, SelfMonitor self) {
+        this.catalog = catalog;
+        this.self = self;
+        this.thread = new Thread(this::run, "thread-monitor-log-compressor");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * Starts the thread and queues the complete files still uncompressed, e.g. from before an upgrade.
+     */
+    void start() {
+        queue.addAll(catalog.uncompressed(LocalDate.now().toString()));
+        thread.start();
+    }
+
+    void submit(LogCatalog.Segment segment) {
+        if (running) {
+            queue.offer(segment);
+        }
+    }
+
+    /**
+     * Stops after the file being compressed; files still queued are compressed after the next start.
+     */
+    void stop() {
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            if (thread.isAlive()) {
+                LOG.warning("Log compressor did not finish within 10 seconds; interrupting");
+                thread.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            LogCatalog.Segment segment;
+            try {
+                segment = queue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (segment != null) {
+                long allocated = self.allocatedBytes();
+                long start = System.nanoTime();
+                compress(segment);
+                self.record(SelfMonitor.Stage.COMPRESS, start, allocated);
+            }
+        }
+    }
+
+    private void compress(LogCatalog.Segment segment) {
+        File compressed = null;
+        File index = null;
+        try (FileChannel in = catalog.openForCompression(segment)) {
+            if (in == null) {
+                return;
+            }
+            long plainSize = in.size();
+            compressed = File.createTempFile("thread-monitor-", ".tmp", catalog.directory());
+            index = File.createTempFile("thread-monitor-", ".tmp", catalog.directory());
+            try (BlockOutput out = new BlockOutput(compressed, index)) {
+                if (SegmentFormat.EXTENSION.equals(catalog.extension())) {
+                    compressSegment(in, segment.day, out);
+                } else {
+                    compressCsv(in, out);
+                }
+            }
+            long compressedSize = compressed.length();
+            if (catalog.compressed(segment, compressed, index)) {
+                LOG.info("Log file compressed: " + catalog.file(segment.day, segment.rotation, true).getName() +
+                         " (" + plainSize + " -> " + compressedSize + " bytes, " +
+                         String.format("%.1f", compressedSize > 0 ? (double) plainSize / compressedSize : 0) + "x)");
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOG.log(Level.WARNING, "Failed to compress log file for " + segment.day + ", keeping it uncompressed", e);
+            if (compressed != null) {
+                compressed.delete();
+            }
+            if (index != null) {
+                index.delete();
+            }
+        }
+    }
+
+    private void compressCsv(FileChannel in, BlockOutput out) throws IOException {
+        long position = 0;
+        int filled = 0;
+        while (true) {
+            int read = in.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled), position);
+            if (read > 0) {
+                position += read;
+                filled += read;
+            }
+            if (read >= 0 && filled < buffer.length) {
+                continue;
+            }
+            int end = read < 0 ? filled : lastLineEnd(buffer, filled);
+            if (end == 0 && read >= 0) {
+                // A single row longer than the block
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                continue;
+            }
+            if (end > 0) {
+                out.block(csvKey(buffer, 0, end), buffer, 0, end);
+            }
+            System.arraycopy(buffer, end, buffer, 0, filled - end);
+            filled -= end;
+            if (read < 0) {
+                return;
+            }
+        }
+    }
+
+    private void compressSegment(FileChannel in, String name, BlockOutput out) throws IOException {
+        SegmentFormat format = new SegmentFormat();
+        block.reset();
+        format.beginFile(block, true);
+        long[] key = {NO_KEY};
+        SegmentFormat.scan(in, name, Long.MIN_VALUE, info -> {
+            try {
+                if (block.length() >= BLOCK_SIZE) {
+                    out.block(key[0], block);
+                    block.reset();
+                    // The next block starts with the pool list and absolute values
+                    format.beginFile(block, false);
+                    key[0] = NO_KEY;
+                }
+                if (key[0] == NO_KEY) {
+                    key[0] = info.timestamp;
+                }
+                format.append(info, block);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        out.block(key[0], block);
+    }
+
+    private static int lastLineEnd(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The index key of the CSV row starting at {@code start}: its {@code yyyy-MM-dd HH:mm:ss} timestamp as
+     * the number {@code yyyyMMddHHmmss}, or {@link #NO_KEY} when the line is not a row.
+     */
+    static long csvKey(byte[] bytes, int start, int end) {
+        if (end - start < 19) {
+            return NO_KEY;
+        }
+        long key = 0;
+        for (int i = start; i < start + 19; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                key = key * 10 + (b - '0');
+            } else if (i == start) {
+                return NO_KEY;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Offset of the block to start reading at for samples from {@code key} on: the last block before the first
+     * whose key is not below {@code key}. Keys are scanned in order, as CSV timestamps repeat when daylight
+     * saving time ends.
+     */
+    static long blockOffset(long[] index, long key) {
+        long offset = 0;
+        for (int i = 0; i < index.length; i += 2) {
+            if (index[i] != NO_KEY && index[i] >= key) {
+                break;
+            }
+            offset = index[i + 1];
+        }
+        return offset;
+    }
+
+    // Gzip members written back to back, with an index entry each
+    private static final class BlockOutput implements Closeable {
+        private final OutputStream file;
+        private final DataOutputStream index;
+        private long offset;
+        private boolean empty = true;
+        // What a member is written to; closing a member leaves the file open
+        private final OutputStream members = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                file.write(b);
+                offset++;
+            }
+
+            @Override
+            public void write(byte[] bytes, int off, int len) throws IOException {
+                file.write(bytes, off, len);
+                offset += len;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        BlockOutput(File compressed, File indexFile) throws IOException {
+            this.file = new BufferedOutputStream(new FileOutputStream(compressed), BLOCK_SIZE);
+            this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        }
+
+        void block(long key, byte[] bytes, int off, int len) throws IOException {
+            GZIPOutputStream gzip = begin(key);
+            gzip.write(bytes, off, len);
+            gzip.close();
+        }
+
+        void block(long key, ByteSink bytes) throws IOException {
+            GZIPOutputStream gzip = begin(key);
+            bytes.writeTo(gzip);
+            gzip.close();
+        }
+
+        private GZIPOutputStream begin(long key) throws IOException {
+            index.writeLong(key);
+            index.writeLong(offset);
+            empty = false;
+            return new GZIPOutputStream(members, 8192);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (empty) {
+                    // An empty member keeps the file readable as gzip
+                    block(NO_KEY, new byte[0], 0, 0);
+                }
+            } finally {
+                try {
+                    file.close();
+                } finally {
+                    index.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.monitor.threads;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the logged samples of a time range as one CSV document, across the daily log files and their
+ * rotations, oldest first.
+ *
+ * <p>Memory use does not depend on the range: CSV files are copied through one read buffer, and the first row
+ * of each file is found by binary search on the row timestamps, so rows before {@code from} are never read.
+ * CSV timestamps are local times with one-second resolution and are compared as text; rows from the hour
+ * repeated at the end of daylight saving time are selected by that text. Binary segments have no row
+ * boundaries to search for and are decoded from the start, materializing only the samples in range.
+ * Compressed files are decompressed from the block their index points to for {@code from}.
+ *
+ * <p>The files of a day are all opened at once through the {@link LogCatalog}, so a rotation or compression
+ * during the export neither skips nor repeats rows.
+ */
+final class LogExport {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TIMESTAMP_LENGTH = 19;
+    // 9999-12-31T00:00:00Z; later instants have no four-digit year in every zone, as the file names need
+    private static final long MAX_MILLIS = 253402214400000L;
+
+    private final LogCatalog catalog;
+
+    LogExport(LogCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Writes the CSV header and every logged sample taken between {@code fromMillis} and {@code toMillis}
+     * inclusive. Output is written in buffer-sized pieces as it is read; nothing is buffered per request
+     * beyond that.
+     */
+    void write(long fromMillis, long toMillis, OutputStream out) throws IOException {
+        ByteSink sink = new ByteSink(BUFFER_SIZE);
+        new CsvFormat().beginFile(sink, true);
+        sink.writeTo(out);
+
+        fromMillis = Math.max(fromMillis, 0);
+        toMillis = Math.min(toMillis, MAX_MILLIS);
+        if (fromMillis > toMillis) {
+            return;
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        String fromDay = Instant.ofEpochMilli(fromMillis).atZone(zone).toLocalDate().toString();
+        String toDay = Instant.ofEpochMilli(toMillis).atZone(zone).toLocalDate().toString();
+        byte[] fromText = timestamp(fromMillis);
+        byte[] toText = timestamp(toMillis);
+        Reader reader = SegmentFormat.EXTENSION.equals(catalog.extension())
+            ? new SegmentReader(fromMillis, toMillis, sink, out)
+            : new CsvReader(fromText, toText, out);
+
+        for (String day : catalog.days(fromDay, toDay)) {
+            List<LogCatalog.Opened> files = catalog.open(day);
+            try {
+                for (LogCatalog.Opened file : files) {
+                    if (!reader.copy(file)) {
+                        return;
+                    }
+                }
+            } finally {
+                for (LogCatalog.Opened file : files) {
+                    file.channel.close();
+                }
+            }
+        }
+    }
+
+    private static byte[] timestamp(long epochMillis) throws IOException {
+        ByteSink sink = new ByteSink(TIMESTAMP_LENGTH);
+        new TimestampFormat().write(epochMillis, ' ', sink);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(TIMESTAMP_LENGTH);
+        sink.writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    private interface Reader {
+        /** Copies the rows in range from one file; returns false once a row after the range was seen. */
+        boolean copy(LogCatalog.Opened file) throws IOException;
+    }
+
+    private static final class CsvReader implements Reader {
+        private final byte[] from;
+        private final byte[] to;
+        private final long fromKey;
+        private final OutputStream out;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+
+        CsvReader(byte[] from, byte[] to, OutputStream out) {
+            this.from = from;
+            this.to = to;
+            this.fromKey = LogCompressor.csvKey(from, 0, from.length);
+            this.out = out;
+        }
+
+        @Override
+        public boolean copy(LogCatalog.Opened file) throws IOException {
+            if (!file.compressed) {
+                file.channel.position(firstCandidate(file.channel));
+                return copy(Channels.newInputStream(file.channel));
+            }
+            file.channel.position(LogCompressor.blockOffset(file.index, fromKey));
+            try (InputStream in = new GZIPInputStream(Channels.newInputStream(file.channel), BUFFER_SIZE)) {
+                return copy(in);
+            }
+        }
+
+        private boolean copy(InputStream in) throws IOException {
+            int filled = 0;
+            while (true) {
+                if (filled == buffer.length) {
+                    // A single row longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int read = in.read(buffer, filled, buffer.length - filled);
+                if (read < 0) {
+                    // A trailing row without a line separator is still being written
+                    return true;
+                }
+                filled += read;
+
+                int lineStart = 0;
+                int runStart = -1;
+                for (int newline = indexOf(buffer, '\n', 0, filled); newline >= 0;
+                     newline = indexOf(buffer, '\n', lineStart, filled)) {
+                    int order = compare(buffer, lineStart, newline);
+                    if (order == 0) {
+                        if (runStart < 0) {
+                            runStart = lineStart;
+                        }
+                    } else {
+                        if (runStart >= 0) {
+                            out.write(buffer, runStart, lineStart - runStart);
+                            runStart = -1;
+                        }
+                        if (order > 0) {
+                            return false;
+                        }
+                    }
+                    lineStart = newline + 1;
+                }
+                if (runStart >= 0) {
+                    out.write(buffer, runStart, lineStart - runStart);
+                }
+                System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+                filled -= lineStart;
+            }
+        }
+
+        // -1 before the range (or not a row, like the header), 0 in range, 1 after it
+        private int compare(byte[] bytes, int start, int end) {
+            if (end - start < TIMESTAMP_LENGTH || bytes[start] < '0' || bytes[start] > '9') {
+                return -1;
+            }
+            if (compareTimestamp(bytes, start, from) < 0) {
+                return -1;
+            }
+            return compareTimestamp(bytes, start, to) > 0 ? 1 : 0;
+        }
+
+        /**
+         * Binary search for a row start at or before the first row in range. Each probe reads the row that
+         * follows an offset; the search stops once the remaining span fits in the copy buffer.
+         */
+        private long firstCandidate(FileChannel channel) throws IOException {
+            long low = 0;
+            long high = channel.size();
+            byte[] probe = new byte[4096];
+            while (high - low > BUFFER_SIZE) {
+                long middle = low + (high - low) / 2;
+                long rowStart = nextRowStart(channel, middle, probe);
+                if (rowStart < 0 || rowStart >= high) {
+                    high = middle;
+                    continue;
+                }
+                int read = channel.read(ByteBuffer.wrap(probe, 0, TIMESTAMP_LENGTH), rowStart);
+                if (read == TIMESTAMP_LENGTH && probe[0] >= '0' && probe[0] <= '9'
+                        && compareTimestamp(probe, 0, from) < 0) {
+                    low = rowStart;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        // Offset just after the first line separator at or after position, or -1 at the end of the file
+        private static long nextRowStart(FileChannel channel, long position, byte[] probe) throws IOException {
+            while (true) {
+                int read = channel.read(ByteBuffer.wrap(probe), position);
+                if (read <= 0) {
+                    return -1;
+                }
+                int newline = indexOf(probe, '\n', 0, read);
+                if (newline >= 0) {
+                    return position + newline + 1;
+                }
+                position += read;
+            }
+        }
+
+        private static int compareTimestamp(byte[] bytes, int start, byte[] timestamp) {
+            for (int i = 0; i < TIMESTAMP_LENGTH; i++) {
+                int difference = bytes[start + i] - timestamp[i];
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return 0;
+        }
+
+        private static int indexOf(byte[] bytes, char c, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bytes[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class SegmentReader implements Reader {
+        private final long from;
+        private final long to;
+        private final ByteSink sink;
+        private final OutputStream out;
+        private final CsvFormat format = new CsvFormat();
+        private boolean pastRange;
+
+        SegmentReader(long from, long to, ByteSink sink, OutputStream out) {
+            this.from = from;
+            this.to = to;
+            this.sink = sink;
+            this.out = out;
+        }
+
+        @Override
+        public boolean copy(LogCatalog.Opened file) throws IOException {
+            sink.reset();
+            Predicate<ThreadInfo> consumer = info -> {
+                if (info.timestamp > to) {
+                    pastRange = true;
+                    return false;
+                }
+                format.append(info, sink);
+                if (sink.length() > BUFFER_SIZE - 4096) {
+                    flush();
+                }
+                return true;
+            };
+            try {
+                if (!file.compressed) {
+                    SegmentFormat.scan(file.channel, file.name, from, consumer);
+                } else {
+                    long offset = LogCompressor.blockOffset(file.index, from);
+                    file.channel.position(offset);
+                    try (InputStream in = new GZIPInputStream(Channels.newInputStream(file.channel), BUFFER_SIZE)) {
+                        // Every block but the first starts a new delta chain without the file header
+                        SegmentFormat.scan(in, offset == 0, file.name, from, consumer);
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            flush();
+            return !pastRange;
+        }
+
+        private void flush() {
+            try {
+                sink.writeTo(out);
+                sink.reset();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
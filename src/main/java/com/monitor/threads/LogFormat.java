@@ -0,0 +1,21 @@
+package com.monitor.threads;
+
+/**
+ * Encoding of the daily log files written by {@link LogWriter}.
+ * Implementations are used by the single log writer thread and may keep per-file state.
+ */
+interface LogFormat {
+
+    /**
+     * File name extension without the dot, e.g. {@code csv}.
+     */
+    String extension();
+
+    /**
+     * Called when a file is opened for appending. Resets per-file state;
+     * {@code empty} tells whether the file header still has to be written.
+     */
+    void beginFile(ByteSink out, boolean empty);
+
+    void append(ThreadInfo info, ByteSink out);
+}
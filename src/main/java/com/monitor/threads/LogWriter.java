@@ -0,0 +1,281 @@
+package com.monitor.threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends samples to the daily log file on a dedicated thread, in CSV or binary segment format.
+ * Callers only enqueue; the writer drains the queue in batches and writes each batch with one
+ * FileChannel write (group commit). Rotation is decided from an in-memory byte count, and fsync
+ * follows the configured sync interval. Files are named and rotated through the {@link LogCatalog}; with
+ * compression, complete files are handed to a {@link LogCompressor}.
+ */
+final class LogWriter {
+
+    private static final Logger LOG = Logger.getLogger(LogWriter.class.getName());
+
+    private static final int MAX_BATCH = 256;
+    // Thread-safe, so request threads in fileFor() and the writer thread share it
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneId.systemDefault());
+
+    /** Never fsync; rely on the operating system to write back. */
+    static final long SYNC_NEVER = -1;
+    /** Fsync after every batch. */
+    static final long SYNC_EVERY_BATCH = 0;
+
+    private final LogCatalog catalog;
+    private final LogCompressor compressor;
+    private final SelfMonitor self;
+    private final LogFormat format;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final long syncIntervalMillis;
+    private final BlockingQueue<ThreadInfo> queue;
+    private final Thread thread;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile long bytesWritten;
+    private volatile long writeFailures;
+    private volatile boolean running = true;
+
+    // Owned by the writer thread
+    private final List<ThreadInfo> batch = new ArrayList<>(MAX_BATCH);
+    private final ByteSink buffer = new ByteSink(64 * 1024);
+    private FileChannel channel;
+    private File currentFile;
+    private String currentDay;
+    private long currentFileSize;
+    private long dayStart;
+    private long dayEnd;
+    private long lastSync;
+    private boolean unsynced;
+
+    /**
+     * With {@code compress}, rotations and the files of past days are compressed, and rotations are kept
+     * while the day's files fit in {@code maxFileSize * maxFiles} bytes instead of {@code maxFiles} files.
+     * Appends, syncs, rotations and compressions are recorded as {@code self} stages.
+     */
+    LogWriter(LogCatalog catalog, LogFormat format, long maxFileSize, int maxFiles, int queueCapacity,
+              long syncIntervalMillis, boolean compress, SelfMonitor self) {
+        this.catalog = catalog;
+        this.compressor = compress ? new LogCompressor(catalog, self) : null;
+        this.self = self;
+        this.format = format;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.thread = new Thread(this::run, "thread-monitor-log-writer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+        if (compressor != null) {
+            compressor.start();
+        }
+    }
+
+    /**
+     * Queues a sample for writing. Never blocks; returns false if the queue is full and the sample was dropped.
+     */
+    boolean offer(ThreadInfo info) {
+        if (!running || !queue.offer(info)) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the file a sample taken at the given time is written to. Does not touch the filesystem.
+     */
+    File fileFor(long timestamp) {
+        return catalog.file(DAY.format(Instant.ofEpochMilli(timestamp)), 0, false);
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    long getWriteFailures() {
+        return writeFailures;
+    }
+
+    /**
+     * Writes everything already queued, then closes the file.
+     */
+    void stop() {
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            if (thread.isAlive()) {
+                LOG.warning("Log writer did not finish within 10 seconds; interrupting");
+                thread.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (compressor != null) {
+            compressor.stop();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running || !queue.isEmpty()) {
+                ThreadInfo first;
+                try {
+                    first = queue.poll(200, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    writeBatch();
+                    batch.clear();
+                }
+                maybeSync(false);
+            }
+        } finally {
+            maybeSync(true);
+            closeChannel();
+        }
+    }
+
+    private void writeBatch() {
+        long allocated = self.allocatedBytes();
+        long start = System.nanoTime();
+        try {
+            buffer.reset();
+            for (ThreadInfo info : batch) {
+                if (channel == null || info.timestamp < dayStart || info.timestamp >= dayEnd) {
+                    // A new day starts a new file; write out rows for the previous one first
+                    flushBuffer();
+                    openFileFor(info.timestamp);
+                } else if (currentFileSize + buffer.length() > maxFileSize) {
+                    flushBuffer();
+                    closeChannel();
+                    rotate();
+                    openFileFor(info.timestamp);
+                }
+                format.append(info, buffer);
+            }
+            flushBuffer();
+        } catch (IOException e) {
+            writeFailures++;
+            LOG.log(Level.WARNING, "Failed to write " + batch.size() + " log rows to " + currentFile, e);
+            closeChannel();
+        }
+        self.record(SelfMonitor.Stage.APPEND, start, allocated);
+    }
+
+    private void flushBuffer() throws IOException {
+        int length = buffer.length();
+        if (length == 0) {
+            return;
+        }
+        buffer.writeTo(channel);
+        buffer.reset();
+        currentFileSize += length;
+        bytesWritten += length;
+        unsynced = true;
+    }
+
+    private void openFileFor(long timestamp) throws IOException {
+        closeChannel();
+
+        // The zone the file names are in; atStartOfDay skips a midnight lost to a daylight saving change
+        ZoneId zone = DAY.getZone();
+        LocalDate date = Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+        dayStart = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        dayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+
+        File directory = catalog.directory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory: " + directory.getAbsolutePath());
+        }
+        String day = DAY.format(Instant.ofEpochMilli(dayStart));
+        if (currentDay != null && !currentDay.equals(day)) {
+            LogCatalog.Segment finished = catalog.endWriting(currentDay);
+            if (finished != null && compressor != null && currentDay.compareTo(day) < 0) {
+                compressor.submit(finished);
+            }
+        }
+        currentDay = day;
+        currentFile = catalog.beginWriting(day);
+        channel = FileChannel.open(currentFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // The only size query per file; afterwards the size is tracked in memory
+        currentFileSize = channel.size();
+        format.beginFile(buffer, currentFileSize == 0);
+    }
+
+    private void maybeSync(boolean force) {
+        if (channel == null || !unsynced || syncIntervalMillis == SYNC_NEVER) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (force || syncIntervalMillis == SYNC_EVERY_BATCH || now - lastSync >= syncIntervalMillis) {
+            long allocated = self.allocatedBytes();
+            long start = System.nanoTime();
+            try {
+                channel.force(false);
+                unsynced = false;
+                lastSync = now;
+            } catch (IOException e) {
+                writeFailures++;
+                LOG.log(Level.WARNING, "Failed to sync log file " + currentFile, e);
+            }
+            self.record(SelfMonitor.Stage.SYNC, start, allocated);
+        }
+    }
+
+    private void rotate() throws IOException {
+        long allocated = self.allocatedBytes();
+        long start = System.nanoTime();
+        LogCatalog.Segment rotated = catalog.rotate(currentDay, maxFiles, maxFileSize,
+                                                    compressor != null ? maxFileSize * maxFiles : -1);
+        self.record(SelfMonitor.Stage.ROTATE, start, allocated);
+        if (compressor != null) {
+            compressor.submit(rotated);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to close log file " + currentFile, e);
+        }
+        channel = null;
+        dayStart = 0;
+        dayEnd = 0;
+    }
+}
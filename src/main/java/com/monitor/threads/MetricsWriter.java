@@ -0,0 +1,276 @@
+package com.monitor.threads;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes samples in the Prometheus text exposition format (version 0.0.4, also accepted by OpenMetrics scrapers).
+ * Instances are pooled and reuse their buffers, so a scrape performs no formatting allocations after warm-up.
+ */
+final class MetricsWriter {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final ConcurrentLinkedQueue<MetricsWriter> POOL = new ConcurrentLinkedQueue<>();
+
+    private final StringBuilder buffer = new StringBuilder(4096);
+    private final char[] chunk = new char[4096];
+
+    private MetricsWriter() {
+    }
+
+    /**
+     * Formats the sample, sampler counters and the monitor's own overhead into {@code out}.
+     */
+    static void write(ThreadInfo info, ThreadSampler sampler, List<LatencyTracker.Source> latency, SelfMonitor self,
+                      Writer out) throws IOException {
+        MetricsWriter writer = POOL.poll();
+        if (writer == null) {
+            writer = new MetricsWriter();
+        }
+        try {
+            writer.buffer.setLength(0);
+            writer.format(info, sampler);
+            writer.formatLatency(latency);
+            writer.formatSelf(self);
+            writer.flushTo(out);
+        } finally {
+            POOL.offer(writer);
+        }
+    }
+
+    private void format(ThreadInfo info, ThreadSampler sampler) {
+        List<PoolInfo> pools = info.pools;
+
+        family("threadmonitor_pool_busy_threads", "gauge", "Threads currently processing requests");
+        for (PoolInfo pool : pools) {
+            poolSample("threadmonitor_pool_busy_threads", pool, pool.busyThreads);
+        }
+        family("threadmonitor_pool_current_threads", "gauge", "Threads currently in the pool");
+        for (PoolInfo pool : pools) {
+            poolSample("threadmonitor_pool_current_threads", pool, pool.currentThreads);
+        }
+        family("threadmonitor_pool_max_threads", "gauge", "Configured maximum threads");
+        for (PoolInfo pool : pools) {
+            poolSample("threadmonitor_pool_max_threads", pool, pool.maxThreads);
+        }
+        family("threadmonitor_pool_utilization_ratio", "gauge", "Busy threads divided by maximum threads");
+        for (PoolInfo pool : pools) {
+            poolLabels("threadmonitor_pool_utilization_ratio", pool);
+            buffer.append(' ').append(pool.maxThreads > 0 ? (double) pool.busyThreads / pool.maxThreads : 0.0).append('\n');
+        }
+        family("threadmonitor_pool_connections", "gauge", "Open connections of the connector");
+        for (PoolInfo pool : pools) {
+            poolSample("threadmonitor_pool_connections", pool, pool.connectionCount);
+        }
+        family("threadmonitor_pool_max_connections", "gauge", "Configured maximum connections of the connector");
+        for (PoolInfo pool : pools) {
+            poolSample("threadmonitor_pool_max_connections", pool, pool.maxConnections);
+        }
+        family("threadmonitor_pool_accept_count", "gauge", "Configured accept queue length of the connector");
+        for (PoolInfo pool : pools) {
+            poolSample("threadmonitor_pool_accept_count", pool, pool.acceptCount);
+        }
+        family("threadmonitor_pool_queue_size", "gauge", "Tasks waiting in the executor queue");
+        for (PoolInfo pool : pools) {
+            poolSample("threadmonitor_pool_queue_size", pool, pool.queueSize);
+        }
+
+        family("threadmonitor_pool_thread_states", "gauge", "Worker threads of the pool by thread state");
+        for (PoolInfo pool : pools) {
+            if (pool.threads != null) {
+                stateSample(pool, "runnable", pool.threads.runnable);
+                stateSample(pool, "blocked", pool.threads.blocked);
+                stateSample(pool, "waiting", pool.threads.waiting);
+                stateSample(pool, "timed_waiting", pool.threads.timedWaiting);
+            }
+        }
+        family("threadmonitor_pool_blocked_seconds", "gauge",
+               "Time the pool's workers spent blocked on monitors during the last sample interval");
+        for (PoolInfo pool : pools) {
+            if (pool.threads != null && pool.threads.blockedTimeMillis >= 0) {
+                poolLabels("threadmonitor_pool_blocked_seconds", pool);
+                buffer.append(' ').append(pool.threads.blockedTimeMillis / 1000.0).append('\n');
+            }
+        }
+        if (info.virtualThreads != null) {
+            formatVirtualThreads(info.virtualThreads);
+        }
+        family("threadmonitor_deadlocked_threads", "gauge", "Threads deadlocked on monitors or ownable synchronizers");
+        sample("threadmonitor_deadlocked_threads", info.deadlockedThreads.size());
+
+        family("threadmonitor_jvm_threads", "gauge", "Live JVM threads");
+        sample("threadmonitor_jvm_threads", info.totalThreadCount);
+        family("threadmonitor_jvm_threads_peak", "gauge", "Peak live JVM threads");
+        sample("threadmonitor_jvm_threads_peak", info.peakThreadCount);
+        family("threadmonitor_jvm_threads_daemon", "gauge", "Live JVM daemon threads");
+        sample("threadmonitor_jvm_threads_daemon", info.daemonThreadCount);
+
+        family("threadmonitor_sample_timestamp_seconds", "gauge", "Time the served sample was collected");
+        // Seconds with millisecond precision, without going through floating point formatting
+        buffer.append("threadmonitor_sample_timestamp_seconds ").append(info.timestamp / 1000)
+              .append('.').append((char) ('0' + info.timestamp / 100 % 10))
+              .append((char) ('0' + info.timestamp / 10 % 10)).append((char) ('0' + info.timestamp % 10)).append('\n');
+        family("threadmonitor_samples_total", "counter", "Successful samples collected by the monitor");
+        sample("threadmonitor_samples_total", sampler.getSampleCount());
+        family("threadmonitor_sample_failures_total", "counter", "Failed sample collections");
+        sample("threadmonitor_sample_failures_total", sampler.getFailureCount());
+        family("threadmonitor_collection_seconds_total", "counter", "Time the monitor spent collecting samples");
+        buffer.append("threadmonitor_collection_seconds_total ").append(sampler.getCollectionNanos() / 1e9).append('\n');
+    }
+
+    private void formatVirtualThreads(VirtualThreadInfo virtual) {
+        family("threadmonitor_virtual_carrier_parallelism", "gauge", "Target parallelism of the virtual thread scheduler");
+        optionalSample("threadmonitor_virtual_carrier_parallelism", virtual.parallelism);
+        family("threadmonitor_virtual_carrier_threads", "gauge", "Carrier threads started by the virtual thread scheduler");
+        optionalSample("threadmonitor_virtual_carrier_threads", virtual.carrierThreads);
+        family("threadmonitor_virtual_mounted_threads", "gauge", "Virtual threads mounted on a carrier");
+        optionalSample("threadmonitor_virtual_mounted_threads", virtual.mountedThreads);
+        family("threadmonitor_virtual_queued_threads", "gauge", "Virtual threads waiting for a carrier");
+        optionalSample("threadmonitor_virtual_queued_threads", virtual.queuedThreads);
+        family("threadmonitor_virtual_pinned_total", "counter", "Virtual threads pinned to their carrier above the threshold");
+        optionalSample("threadmonitor_virtual_pinned_total", virtual.pinnedCount);
+        family("threadmonitor_virtual_pinned_seconds_total", "counter", "Time virtual threads spent pinned above the threshold");
+        if (virtual.pinnedMillis != PoolInfo.NOT_AVAILABLE) {
+            buffer.append("threadmonitor_virtual_pinned_seconds_total ").append(virtual.pinnedMillis / 1000.0).append('\n');
+        }
+        family("threadmonitor_virtual_pool_connections", "gauge", "Open connections of connectors on virtual threads");
+        for (PoolInfo pool : virtual.pools) {
+            poolSample("threadmonitor_virtual_pool_connections", pool, pool.connectionCount);
+        }
+    }
+
+    private void formatLatency(List<LatencyTracker.Source> sources) {
+        if (sources.isEmpty()) {
+            return;
+        }
+        family("threadmonitor_request_service_seconds", "summary",
+               "Time requests held a worker thread, percentiles over the latency window");
+        for (LatencyTracker.Source source : sources) {
+            summary("threadmonitor_request_service_seconds", "source", source.name, source.service);
+        }
+        family("threadmonitor_request_queue_seconds", "summary",
+               "Time requests waited between the front-end proxy and Tomcat, percentiles over the latency window");
+        for (LatencyTracker.Source source : sources) {
+            summary("threadmonitor_request_queue_seconds", "source", source.name, source.queue);
+        }
+        family("threadmonitor_request_in_flight", "gauge", "Requests started but not yet completed");
+        for (LatencyTracker.Source source : sources) {
+            if (source.inFlight >= 0) {
+                buffer.append("threadmonitor_request_in_flight{source=\"");
+                appendLabelValue(source.name);
+                buffer.append("\"} ").append(source.inFlight).append('\n');
+            }
+        }
+    }
+
+    private void formatSelf(SelfMonitor self) {
+        family("threadmonitor_self_stage_seconds", "summary",
+               "Time the monitor spent in each stage of its work, percentiles since it started");
+        for (SelfMonitor.Stage stage : SelfMonitor.Stage.values()) {
+            summary("threadmonitor_self_stage_seconds", "stage", stage.label, self.latency(stage));
+        }
+        if (self.isAllocationMeasured()) {
+            family("threadmonitor_self_allocated_bytes_total", "counter", "Bytes the monitor allocated in each stage");
+            for (SelfMonitor.Stage stage : SelfMonitor.Stage.values()) {
+                buffer.append("threadmonitor_self_allocated_bytes_total{stage=\"").append(stage.label).append("\"} ")
+                      .append(self.allocated(stage)).append('\n');
+            }
+        }
+        family("threadmonitor_log_queue_depth", "gauge", "Samples waiting for the log writer");
+        sample("threadmonitor_log_queue_depth", self.getLogQueueDepth());
+        family("threadmonitor_log_dropped_samples_total", "counter", "Samples dropped because the log queue was full");
+        sample("threadmonitor_log_dropped_samples_total", self.getDroppedSampleCount());
+        family("threadmonitor_log_written_bytes_total", "counter", "Bytes appended to log files");
+        sample("threadmonitor_log_written_bytes_total", self.getLogBytesWritten());
+        family("threadmonitor_log_write_failures_total", "counter", "Failed log writes and syncs");
+        sample("threadmonitor_log_write_failures_total", self.getLogWriteFailureCount());
+    }
+
+    private void summary(String name, String label, String value, LatencyTracker.Percentiles latency) {
+        if (latency.count > 0) {
+            quantile(name, label, value, "0.5", latency.p50Micros);
+            quantile(name, label, value, "0.99", latency.p99Micros);
+            quantile(name, label, value, "0.999", latency.p999Micros);
+        }
+        buffer.append(name).append("_sum{").append(label).append("=\"");
+        appendLabelValue(value);
+        buffer.append("\"} ").append(latency.totalSumMicros / 1e6).append('\n');
+        buffer.append(name).append("_count{").append(label).append("=\"");
+        appendLabelValue(value);
+        buffer.append("\"} ").append(latency.totalCount).append('\n');
+    }
+
+    private void quantile(String name, String label, String value, String quantile, long micros) {
+        buffer.append(name).append('{').append(label).append("=\"");
+        appendLabelValue(value);
+        buffer.append("\",quantile=\"").append(quantile).append("\"} ").append(micros / 1e6).append('\n');
+    }
+
+    private void family(String name, String type, String help) {
+        buffer.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        buffer.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void sample(String name, long value) {
+        buffer.append(name).append(' ').append(value).append('\n');
+    }
+
+    private void optionalSample(String name, long value) {
+        if (value != PoolInfo.NOT_AVAILABLE) {
+            sample(name, value);
+        }
+    }
+
+    private void poolSample(String name, PoolInfo pool, int value) {
+        // Attributes a pool does not expose are omitted rather than reported as -1
+        if (value == PoolInfo.NOT_AVAILABLE) {
+            return;
+        }
+        poolLabels(name, pool);
+        buffer.append(' ').append(value).append('\n');
+    }
+
+    private void stateSample(PoolInfo pool, String state, int value) {
+        buffer.append("threadmonitor_pool_thread_states{pool=\"");
+        appendLabelValue(pool.name);
+        buffer.append("\",type=\"").append(pool.type).append("\",state=\"").append(state).append("\"} ")
+              .append(value).append('\n');
+    }
+
+    private void poolLabels(String name, PoolInfo pool) {
+        buffer.append(name).append("{pool=\"");
+        appendLabelValue(pool.name);
+        buffer.append("\",type=\"").append(pool.type).append("\"}");
+    }
+
+    private void appendLabelValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    buffer.append("\\\\");
+                    break;
+                case '"':
+                    buffer.append("\\\"");
+                    break;
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+                default:
+                    buffer.append(c);
+            }
+        }
+    }
+
+    private void flushTo(Writer out) throws IOException {
+        int length = buffer.length();
+        for (int offset = 0; offset < length; offset += chunk.length) {
+            int count = Math.min(chunk.length, length - offset);
+            buffer.getChars(offset, offset + count, chunk, 0);
+            out.write(chunk, 0, count);
+        }
+    }
+}
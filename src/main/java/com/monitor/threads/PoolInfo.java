@@ -0,0 +1,61 @@
+package com.monitor.threads;
+
+/**
+ * Immutable metrics of one Tomcat thread pool: a connector {@code ThreadPool} or a shared {@code Executor}.
+ * Attributes the pool does not expose are reported as {@link #NOT_AVAILABLE}.
+ */
+final class PoolInfo {
+
+    static final String THREAD_POOL = "ThreadPool";
+    static final String EXECUTOR = "Executor";
+    static final int NOT_AVAILABLE = -1;
+
+    final String type;
+    final String name;
+    final int busyThreads;
+    final int currentThreads;
+    final int maxThreads;
+    final int connectionCount;
+    final int maxConnections;
+    final int acceptCount;
+    final int queueSize;
+    // Worker thread breakdown, or null when thread states were not analysed (e.g. read back from a version 1 segment)
+    final PoolThreadStates threads;
+
+    PoolInfo(String type, String name, int busyThreads, int currentThreads, int maxThreads,
+             int connectionCount, int maxConnections, int acceptCount, int queueSize) {
+        this(type, name, busyThreads, currentThreads, maxThreads, connectionCount, maxConnections, acceptCount,
+             queueSize, null);
+    }
+
+    PoolInfo(String type, String name, int busyThreads, int currentThreads, int maxThreads,
+             int connectionCount, int maxConnections, int acceptCount, int queueSize, PoolThreadStates threads) {
+        this.type = type;
+        this.name = name;
+        this.busyThreads = busyThreads;
+        this.currentThreads = currentThreads;
+        this.maxThreads = maxThreads;
+        this.connectionCount = connectionCount;
+        this.maxConnections = maxConnections;
+        this.acceptCount = acceptCount;
+        this.queueSize = queueSize;
+        this.threads = threads;
+    }
+
+    PoolInfo withThreads(PoolThreadStates threads) {
+        return new PoolInfo(type, name, busyThreads, currentThreads, maxThreads, connectionCount, maxConnections,
+                            acceptCount, queueSize, threads);
+    }
+
+    int availableThreads() {
+        return maxThreads - busyThreads;
+    }
+
+    double utilizationPercent() {
+        return maxThreads > 0 ? (double) busyThreads / maxThreads * 100 : 0;
+    }
+
+    boolean isExecutor() {
+        return EXECUTOR.equals(type);
+    }
+}
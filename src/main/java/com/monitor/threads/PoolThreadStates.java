@@ -0,0 +1,38 @@
+package com.monitor.threads;
+
+/**
+ * Thread.State breakdown and contention of one pool's worker threads in one sample.
+ * Blocked and waited times and counts are deltas since the previous sample, summed over the workers,
+ * or {@link PoolInfo#NOT_AVAILABLE} when the JVM does not monitor thread contention.
+ */
+final class PoolThreadStates {
+
+    final int runnable;
+    final int blocked;
+    final int waiting;
+    final int timedWaiting;
+    final long blockedTimeMillis;
+    final long blockedCount;
+    final long waitedTimeMillis;
+    final long waitedCount;
+
+    // Worker thread IDs the counts were taken from; reused by hot-thread capture and the profiler
+    final long[] workerIds;
+
+    PoolThreadStates(int runnable, int blocked, int waiting, int timedWaiting, long blockedTimeMillis,
+                     long blockedCount, long waitedTimeMillis, long waitedCount, long[] workerIds) {
+        this.runnable = runnable;
+        this.blocked = blocked;
+        this.waiting = waiting;
+        this.timedWaiting = timedWaiting;
+        this.blockedTimeMillis = blockedTimeMillis;
+        this.blockedCount = blockedCount;
+        this.waitedTimeMillis = waitedTimeMillis;
+        this.waitedCount = waitedCount;
+        this.workerIds = workerIds;
+    }
+
+    int workers() {
+        return workerIds.length;
+    }
+}
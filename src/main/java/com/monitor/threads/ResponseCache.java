@@ -0,0 +1,194 @@
+package com.monitor.threads;
+
+import javax.management.JMException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoded {@code ?action=json}, {@code ?action=export} and {@code ?action=metrics} bodies of the latest sample.
+ *
+ * <p>A sample's sequence number ({@link ThreadSampler#getSampleCount()} when it was published), together with
+ * the cache's start time, forms its ETag. A body is encoded the first time a client asks for it, once as plain bytes and once gzipped, so any number
+ * of clients polling at the sample interval cost one encoding per sample and a copy per request.
+ */
+final class ResponseCache implements ThreadSampler.Listener {
+
+    enum Representation {
+        JSON, CSV, METRICS
+    }
+
+    /** One sample and its lazily encoded bodies. */
+    static final class Snapshot {
+        final ThreadInfo info;
+        private final ResponseCache cache;
+        private final String tag;
+        private final List<LatencyTracker.Source> latency;
+        private final long failureCount;
+        // Plain bodies at the representation's ordinal, gzipped ones after them
+        private final AtomicReferenceArray<byte[]> bodies = new AtomicReferenceArray<>(2 * Representation.values().length);
+
+        private Snapshot(ResponseCache cache, long sequence, ThreadInfo info, List<LatencyTracker.Source> latency,
+                         long failureCount) {
+            this.cache = cache;
+            this.tag = cache.epoch + "-" + Long.toString(sequence, 36);
+            this.info = info;
+            this.latency = latency;
+            this.failureCount = failureCount;
+        }
+
+        /**
+         * Whether the body still describes the sampler's state. Metrics include the failure counter, which
+         * moves on without a new sample while collection fails.
+         */
+        boolean isCurrent(Representation representation) {
+            return representation != Representation.METRICS || failureCount == cache.sampler.getFailureCount();
+        }
+
+        String etag(Representation representation, boolean gzip) {
+            return "\"" + tag + "-" + representation.name().toLowerCase() + (gzip ? "-gzip\"" : "\"");
+        }
+
+        byte[] body(Representation representation, boolean gzip) throws IOException {
+            int slot = representation.ordinal() + (gzip ? Representation.values().length : 0);
+            byte[] body = bodies.get(slot);
+            if (body == null) {
+                // Pollers tend to arrive together right after a sample; encode once and let the rest wait
+                synchronized (this) {
+                    body = bodies.get(slot);
+                    if (body == null) {
+                        byte[] plain = gzip ? body(representation, false) : null;
+                        long allocated = cache.self.allocatedBytes();
+                        long start = System.nanoTime();
+                        body = gzip ? gzip(plain) : cache.encode(representation, this);
+                        cache.self.record(SelfMonitor.Stage.ENCODE, start, allocated);
+                        bodies.set(slot, body);
+                    }
+                }
+            }
+            return body;
+        }
+    }
+
+    private final ThreadSampler sampler;
+    private final LatencyTracker latency;
+    private final SelfMonitor self;
+    private final int warningThreshold;
+    private final int criticalThreshold;
+    // Distinguishes ETags of this instance from those handed out before a restart or redeploy
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private volatile Snapshot current;
+
+    ResponseCache(ThreadSampler sampler, LatencyTracker latency, SelfMonitor self, int warningThreshold,
+                  int criticalThreshold) {
+        this.sampler = sampler;
+        this.latency = latency;
+        this.self = self;
+        this.warningThreshold = warningThreshold;
+        this.criticalThreshold = criticalThreshold;
+    }
+
+    /**
+     * Must be registered after the {@link LatencyTracker}, so a snapshot carries the latency of its own sample.
+     */
+    @Override
+    public void onSample(ThreadInfo info) {
+        current = new Snapshot(this, sampler.getSampleCount(), info, latency.current(), sampler.getFailureCount());
+    }
+
+    /**
+     * Returns the latest snapshot, failing like {@link ThreadSampler#current()} if there is none yet.
+     */
+    Snapshot current() throws JMException {
+        Snapshot snapshot = current;
+        if (snapshot == null) {
+            sampler.current();
+            throw new JMException("No thread sample collected yet");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Whether an {@code Accept-Encoding} header admits gzip, i.e. lists {@code gzip} or {@code *} without {@code q=0}.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(parameter.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (!refused) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether an {@code If-None-Match} header lists {@code etag}, using the weak comparison RFC 7232 requires.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] encode(Representation representation, Snapshot snapshot) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        switch (representation) {
+            case JSON:
+                JsonFormat.write(snapshot.info, warningThreshold, criticalThreshold, snapshot.latency, out);
+                break;
+            case CSV:
+                CsvFormat.writeExport(snapshot.info, out);
+                break;
+            case METRICS:
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                MetricsWriter.write(snapshot.info, sampler, snapshot.latency, self, writer);
+                writer.flush();
+                break;
+            default:
+                throw new IllegalArgumentException(representation.name());
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+}
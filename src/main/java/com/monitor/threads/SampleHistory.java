@@ -0,0 +1,320 @@
+package com.monitor.threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Fixed-capacity ring buffer of thread samples.
+ * Columns are stored as primitive buffers (struct-of-arrays), so recording a sample never allocates.
+ * At 28 bytes per sample, 24 hours at 1 second resolution fits in about 2.3MB.
+ *
+ * <p>The columns either wrap heap arrays or are views of a memory-mapped file. In the mapped case the
+ * header keeps the ring cursor, so a restarted monitor serves the pre-restart window immediately and
+ * recording a sample is a handful of plain stores into the mapping.
+ */
+final class SampleHistory implements ThreadSampler.Listener {
+
+    static final int BUSY = 0;
+    static final int MAX = 1;
+    static final int TOTAL = 2;
+    static final int PEAK = 3;
+    static final int DAEMON = 4;
+    static final int METRIC_COUNT = 5;
+
+    private static final Logger LOG = Logger.getLogger(SampleHistory.class.getName());
+
+    // Mapped file layout: header ints, then the timestamp column, then the int columns
+    private static final int MAGIC = 0x544D4853; // "TMHS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 1;
+    private static final int HEADER_CAPACITY = 2;
+    private static final int HEADER_HEAD = 3;
+    private static final int HEADER_SIZE = 4;
+
+    interface BucketVisitor {
+        /**
+         * Called once per non-empty bucket in time order.
+         * The arrays are indexed by metric constant and are reused between calls.
+         */
+        void bucket(long bucketStart, int samples, long[] min, long[] max, double[] avg);
+    }
+
+    private final int capacity;
+    private final LongBuffer timestamps;
+    private final IntBuffer[] columns;
+    private final IntBuffer header;
+    private final MappedByteBuffer mapping;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Physical index of the oldest sample and number of valid samples
+    private int head;
+    private int size;
+
+    SampleHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("History capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.timestamps = LongBuffer.wrap(new long[capacity]);
+        this.columns = new IntBuffer[METRIC_COUNT];
+        for (int m = 0; m < METRIC_COUNT; m++) {
+            columns[m] = IntBuffer.wrap(new int[capacity]);
+        }
+        this.header = null;
+        this.mapping = null;
+    }
+
+    private SampleHistory(int capacity, MappedByteBuffer mapping) {
+        this.capacity = capacity;
+        this.mapping = mapping;
+
+        this.header = region(mapping, 0, HEADER_BYTES).asIntBuffer();
+        this.timestamps = region(mapping, HEADER_BYTES, capacity * 8).asLongBuffer();
+        this.columns = new IntBuffer[METRIC_COUNT];
+        for (int m = 0; m < METRIC_COUNT; m++) {
+            columns[m] = region(mapping, HEADER_BYTES + capacity * 8 + m * capacity * 4, capacity * 4).asIntBuffer();
+        }
+
+        if (header.get(HEADER_MAGIC) == MAGIC && header.get(HEADER_VERSION) == VERSION
+                && header.get(HEADER_CAPACITY) == capacity) {
+            int storedHead = header.get(HEADER_HEAD);
+            int storedSize = header.get(HEADER_SIZE);
+            if (storedHead >= 0 && storedHead < capacity && storedSize >= 0 && storedSize <= capacity) {
+                head = storedHead;
+                size = storedSize;
+                return;
+            }
+            LOG.warning("Ignoring history file with invalid cursor: head=" + storedHead + ", size=" + storedSize);
+        }
+        header.put(HEADER_MAGIC, MAGIC);
+        header.put(HEADER_VERSION, VERSION);
+        header.put(HEADER_CAPACITY, capacity);
+        header.put(HEADER_HEAD, 0);
+        header.put(HEADER_SIZE, 0);
+    }
+
+    /**
+     * Opens a history backed by a memory-mapped file, keeping the samples already in it.
+     * A file written with a different capacity is reset.
+     */
+    static SampleHistory mapped(File file, int capacity) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("History capacity must be positive: " + capacity);
+        }
+        long length = HEADER_BYTES + (long) capacity * (8 + 4 * METRIC_COUNT);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("History capacity too large to map: " + capacity);
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() != length) {
+                if (channel.size() > 0) {
+                    LOG.info("History file " + file + " has a different capacity; starting a new history");
+                }
+                // Clear the old header before resizing so stale data is never taken as valid
+                channel.truncate(0);
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            return new SampleHistory(capacity, mapping);
+        }
+    }
+
+    // Cast to Buffer so the Java 8 method signatures are linked, not the covariant overrides of later JDKs
+    private static ByteBuffer region(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).position(offset);
+        ((Buffer) view).limit(offset + length);
+        return view.slice();
+    }
+
+    boolean isPersistent() {
+        return mapping != null;
+    }
+
+    /**
+     * Asks the OS to write mapped pages back to disk. Not needed for restarts, only for machine crashes.
+     */
+    void force() {
+        if (mapping != null) {
+            lock.readLock().lock();
+            try {
+                mapping.force();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void onSample(ThreadInfo info) {
+        record(info.timestamp,
+               info.httpCurrentThreadsBusy + info.ajpCurrentThreadsBusy,
+               info.httpMaxThreads + info.ajpMaxThreads,
+               info.totalThreadCount,
+               info.peakThreadCount,
+               info.daemonThreadCount);
+    }
+
+    void record(long timestamp, int busy, int max, int total, int peak, int daemon) {
+        lock.writeLock().lock();
+        try {
+            int slot;
+            if (size < capacity) {
+                slot = (head + size) % capacity;
+                size++;
+            } else {
+                // Overwrite the oldest sample
+                slot = head;
+                head = (head + 1) % capacity;
+            }
+            timestamps.put(slot, timestamp);
+            columns[BUSY].put(slot, busy);
+            columns[MAX].put(slot, max);
+            columns[TOTAL].put(slot, total);
+            columns[PEAK].put(slot, peak);
+            columns[DAEMON].put(slot, daemon);
+            if (header != null) {
+                // Publish the cursor after the slot so a crash never exposes an unwritten sample
+                header.put(HEADER_HEAD, head);
+                header.put(HEADER_SIZE, size);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the timestamp of the oldest retained sample, or -1 if the history is empty.
+     */
+    long oldestTimestamp() {
+        lock.readLock().lock();
+        try {
+            return size == 0 ? -1 : timestamps.get(head);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Aggregates samples in [from, to] into buckets of {@code step} milliseconds aligned to {@code from},
+     * reporting min/max/avg per metric. Returns the number of buckets visited.
+     *
+     * <p>The buckets are aggregated under the read lock and visited after it is released, so a visitor
+     * writing to a slow client never holds up {@link #record}.
+     */
+    int downsample(long from, long to, long step, BucketVisitor visitor) {
+        if (step < 1) {
+            throw new IllegalArgumentException("Step must be positive: " + step);
+        }
+
+        long[] starts;
+        int[] counts;
+        long[] mins;
+        long[] maxs;
+        long[] sums;
+        int buckets = 0;
+
+        lock.readLock().lock();
+        try {
+            int i = firstIndexAtOrAfter(from);
+            int end = to == Long.MAX_VALUE ? size : firstIndexAtOrAfter(to + 1);
+            // Every bucket holds at least one sample, and there are no more buckets than steps in the range
+            long span = to - from;
+            long steps = span < 0 ? Long.MAX_VALUE : span / step + 1;
+            int limit = (int) Math.min(Math.max(0, end - i), steps);
+            starts = new long[limit];
+            counts = new int[limit];
+            mins = new long[limit * METRIC_COUNT];
+            maxs = new long[limit * METRIC_COUNT];
+            sums = new long[limit * METRIC_COUNT];
+
+            while (i < end && buckets < limit) {
+                int slot = (head + i) % capacity;
+                long bucketStart = from + ((timestamps.get(slot) - from) / step) * step;
+                int base = buckets * METRIC_COUNT;
+                Arrays.fill(mins, base, base + METRIC_COUNT, Long.MAX_VALUE);
+                Arrays.fill(maxs, base, base + METRIC_COUNT, Long.MIN_VALUE);
+                int samples = 0;
+
+                while (i < end) {
+                    slot = (head + i) % capacity;
+                    // Compared as a difference, since bucketStart + step can overflow
+                    if (timestamps.get(slot) - bucketStart >= step) {
+                        break;
+                    }
+                    for (int m = 0; m < METRIC_COUNT; m++) {
+                        int v = columns[m].get(slot);
+                        if (v < mins[base + m]) mins[base + m] = v;
+                        if (v > maxs[base + m]) maxs[base + m] = v;
+                        sums[base + m] += v;
+                    }
+                    samples++;
+                    i++;
+                }
+
+                starts[buckets] = bucketStart;
+                counts[buckets] = samples;
+                buckets++;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long[] min = new long[METRIC_COUNT];
+        long[] max = new long[METRIC_COUNT];
+        double[] avg = new double[METRIC_COUNT];
+        for (int b = 0; b < buckets; b++) {
+            int base = b * METRIC_COUNT;
+            System.arraycopy(mins, base, min, 0, METRIC_COUNT);
+            System.arraycopy(maxs, base, max, 0, METRIC_COUNT);
+            for (int m = 0; m < METRIC_COUNT; m++) {
+                avg[m] = (double) sums[base + m] / counts[b];
+            }
+            visitor.bucket(starts[b], counts[b], min, max, avg);
+        }
+
+        return buckets;
+    }
+
+    // Binary search over the logical (oldest-first) order; timestamps are appended in increasing order
+    private int firstIndexAtOrAfter(long from) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps.get((head + mid) % capacity) < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
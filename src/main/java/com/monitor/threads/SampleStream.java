@@ -0,0 +1,248 @@
+package com.monitor.threads;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes samples to Server-Sent Events subscribers.
+ * Each sample is encoded once and shared by all subscribers. Writes use Servlet 3.1 non-blocking I/O,
+ * so held connections do not pin container threads and a slow client cannot stall the sampler.
+ *
+ * <p>A subscriber first receives a {@code snapshot} event with every pool, then one {@code delta} event
+ * per sample listing only the pools whose values changed. A new snapshot is sent when the pool set changes.
+ */
+final class SampleStream implements ThreadSampler.Listener {
+
+    private static final Logger LOG = Logger.getLogger(SampleStream.class.getName());
+
+    // Events queued for a client that is not reading before it is disconnected
+    private static final int MAX_PENDING_EVENTS = 64;
+
+    private final int maxSubscribers;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private ThreadInfo last;
+    private byte[] lastSnapshot;
+
+    SampleStream(int maxSubscribers) {
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    /**
+     * Registers an already started async request as a subscriber.
+     * Returns false if the subscriber limit has been reached.
+     */
+    synchronized boolean subscribe(AsyncContext context) throws IOException {
+        if (subscribers.size() >= maxSubscribers) {
+            return false;
+        }
+
+        Subscriber subscriber = new Subscriber(context);
+        subscribers.add(subscriber);
+        context.addListener(subscriber);
+        if (lastSnapshot != null) {
+            subscriber.pending.add(lastSnapshot);
+        }
+        // The container calls onWritePossible once the listener is set, which flushes the snapshot
+        subscriber.out.setWriteListener(subscriber);
+        return true;
+    }
+
+    int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public synchronized void onSample(ThreadInfo info) {
+        boolean samePools = last != null && samePoolSet(last, info);
+        lastSnapshot = encodeSnapshot(info);
+        byte[] event = samePools ? encodeDelta(last, info) : lastSnapshot;
+        last = info;
+
+        for (Subscriber subscriber : subscribers) {
+            subscriber.send(event);
+        }
+    }
+
+    void close() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+    }
+
+    private static boolean samePoolSet(ThreadInfo previous, ThreadInfo current) {
+        if (previous.pools.size() != current.pools.size()) {
+            return false;
+        }
+        for (int i = 0; i < current.pools.size(); i++) {
+            PoolInfo a = previous.pools.get(i);
+            PoolInfo b = current.pools.get(i);
+            if (!a.name.equals(b.name) || !a.type.equals(b.type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // event: snapshot / data: {"t":..,"system":[total,peak,daemon],"pools":[[name,type,busy,...],...]}
+    private static byte[] encodeSnapshot(ThreadInfo info) {
+        StringBuilder event = new StringBuilder(256);
+        event.append("retry: 2000\nevent: snapshot\ndata: ");
+        appendHeader(event, info);
+        event.append(",\"pools\":[");
+        for (int i = 0; i < info.pools.size(); i++) {
+            PoolInfo pool = info.pools.get(i);
+            if (i > 0) {
+                event.append(',');
+            }
+            event.append("[\"").append(ThreadMonitorServlet.escapeJson(pool.name)).append("\",\"")
+                 .append(pool.type).append("\",");
+            appendValues(event, pool);
+            event.append(']');
+        }
+        event.append("]}\n\n");
+        return event.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // event: delta / data: {"t":..,"system":[total,peak,daemon],"pools":{"index":[busy,...],...}}
+    private static byte[] encodeDelta(ThreadInfo previous, ThreadInfo info) {
+        StringBuilder event = new StringBuilder(128);
+        event.append("event: delta\ndata: ");
+        appendHeader(event, info);
+        event.append(",\"pools\":{");
+        boolean first = true;
+        for (int i = 0; i < info.pools.size(); i++) {
+            PoolInfo pool = info.pools.get(i);
+            if (sameValues(previous.pools.get(i), pool)) {
+                continue;
+            }
+            if (!first) {
+                event.append(',');
+            }
+            first = false;
+            event.append('"').append(i).append("\":[");
+            appendValues(event, pool);
+            event.append(']');
+        }
+        event.append("}}\n\n");
+        return event.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendHeader(StringBuilder event, ThreadInfo info) {
+        event.append("{\"t\":").append(info.timestamp)
+             .append(",\"system\":[").append(info.totalThreadCount).append(',')
+             .append(info.peakThreadCount).append(',').append(info.daemonThreadCount).append(']');
+    }
+
+    private static void appendValues(StringBuilder event, PoolInfo pool) {
+        event.append(pool.busyThreads).append(',').append(pool.currentThreads).append(',')
+             .append(pool.maxThreads).append(',').append(pool.connectionCount).append(',')
+             .append(pool.maxConnections).append(',').append(pool.acceptCount).append(',')
+             .append(pool.queueSize);
+    }
+
+    private static boolean sameValues(PoolInfo a, PoolInfo b) {
+        return a.busyThreads == b.busyThreads && a.currentThreads == b.currentThreads
+            && a.maxThreads == b.maxThreads && a.connectionCount == b.connectionCount
+            && a.maxConnections == b.maxConnections && a.acceptCount == b.acceptCount
+            && a.queueSize == b.queueSize;
+    }
+
+    private final class Subscriber implements WriteListener, AsyncListener {
+
+        final AsyncContext context;
+        final ServletOutputStream out;
+        final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+        private boolean closed;
+
+        Subscriber(AsyncContext context) throws IOException {
+            this.context = context;
+            this.out = context.getResponse().getOutputStream();
+        }
+
+        synchronized void send(byte[] event) {
+            if (closed) {
+                return;
+            }
+            if (pending.size() >= MAX_PENDING_EVENTS) {
+                LOG.fine("Disconnecting stream subscriber that stopped reading");
+                close();
+                return;
+            }
+            pending.add(event);
+            drain();
+        }
+
+        // Writes queued events while the connection accepts data; otherwise onWritePossible resumes later
+        private synchronized void drain() {
+            try {
+                while (!pending.isEmpty() && out.isReady()) {
+                    out.write(pending.poll());
+                }
+                if (pending.isEmpty() && out.isReady()) {
+                    out.flush();
+                }
+            } catch (IOException | IllegalStateException e) {
+                close();
+            }
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.clear();
+            subscribers.remove(this);
+            try {
+                context.complete();
+            } catch (IllegalStateException e) {
+                // Already completed by the container
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            LOG.log(Level.FINE, "Stream subscriber write failed", t);
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            synchronized (this) {
+                closed = true;
+            }
+            subscribers.remove(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.monitor.threads;
+
+import java.util.List;
+
+/**
+ * The most recent samples with their sequence numbers, served to the dashboard by {@code ?action=delta}.
+ *
+ * <p>Samples are kept by reference; they are immutable and small, so a few hundred of them cost less than
+ * re-encoding them for every viewer. Each sample also records its pool layout, a number that changes whenever
+ * pools are added, removed or reordered, so that rows can refer to pools by index.
+ */
+final class SampleWindow implements ThreadSampler.Listener {
+
+    private final ThreadSampler sampler;
+    private final ThreadInfo[] samples;
+    private final long[] sequences;
+    private final int[] layouts;
+    // Distinguishes sequence numbers of this instance from those handed out before a restart or redeploy
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    // Ring cursor and the pool layout of the newest sample; guarded by this
+    private int head;
+    private int size;
+    private int layout;
+
+    SampleWindow(ThreadSampler sampler, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Window capacity must be positive: " + capacity);
+        }
+        this.sampler = sampler;
+        this.samples = new ThreadInfo[capacity];
+        this.sequences = new long[capacity];
+        this.layouts = new int[capacity];
+    }
+
+    @Override
+    public void onSample(ThreadInfo info) {
+        long sequence = sampler.getSampleCount();
+        synchronized (this) {
+            if (size > 0 && !sameLayout(samples[(head + size - 1) % samples.length], info)) {
+                layout++;
+            }
+            int slot;
+            if (size < samples.length) {
+                slot = (head + size) % samples.length;
+                size++;
+            } else {
+                slot = head;
+                head = (head + 1) % samples.length;
+            }
+            samples[slot] = info;
+            sequences[slot] = sequence;
+            layouts[slot] = layout;
+        }
+    }
+
+    /**
+     * Writes the samples newer than {@code since} as compact JSON:
+     *
+     * <pre>
+     * {"epoch":"...","seq":N,"samples":[[seq,t,total,peak,daemon,[[busy,current,max,connections,maxConnections,acceptCount,queueSize],...]],...]}
+     * </pre>
+     *
+     * If {@code since} is not a sample of the current pool layout in the window (the first request, a client
+     * that fell behind, a restart, or pools that changed) the response is a reset instead: {@code "reset":true},
+     * {@code resetMembers} (pre-encoded members such as configuration), the {@code "pools"} as
+     * {@code [name, type]} pairs, and every retained sample of the current layout.
+     */
+    void writeDelta(long since, String clientEpoch, String resetMembers, StringBuilder json) {
+        ThreadInfo[] selected;
+        long[] selectedSequences;
+        boolean reset;
+        synchronized (this) {
+            int newest = (head + size - 1) % samples.length;
+            int layoutStart = size;
+            int sinceIndex = -1;
+            for (int i = size - 1; i >= 0; i--) {
+                int slot = (head + i) % samples.length;
+                if (layouts[slot] != layouts[newest]) {
+                    break;
+                }
+                layoutStart = i;
+                if (sequences[slot] == since) {
+                    sinceIndex = i;
+                }
+            }
+            reset = sinceIndex < 0 || !epoch.equals(clientEpoch);
+            int first = reset ? layoutStart : sinceIndex + 1;
+            int count = size - first;
+            selected = new ThreadInfo[count];
+            selectedSequences = new long[count];
+            for (int i = 0; i < count; i++) {
+                int slot = (head + first + i) % samples.length;
+                selected[i] = samples[slot];
+                selectedSequences[i] = sequences[slot];
+            }
+        }
+
+        long sequence = selected.length > 0 ? selectedSequences[selected.length - 1] : since;
+        json.append("{\"epoch\":\"").append(epoch).append("\",\"seq\":").append(sequence);
+        if (reset) {
+            json.append(",\"reset\":true").append(resetMembers);
+            json.append(",\"pools\":[");
+            if (selected.length > 0) {
+                List<PoolInfo> pools = selected[selected.length - 1].pools;
+                for (int p = 0; p < pools.size(); p++) {
+                    json.append(p > 0 ? ",[\"" : "[\"").append(ThreadMonitorServlet.escapeJson(pools.get(p).name))
+                        .append("\",\"").append(pools.get(p).type).append("\"]");
+                }
+            }
+            json.append(']');
+        }
+        json.append(",\"samples\":[");
+        for (int i = 0; i < selected.length; i++) {
+            ThreadInfo info = selected[i];
+            json.append(i > 0 ? ",[" : "[").append(selectedSequences[i]).append(',').append(info.timestamp)
+                .append(',').append(info.totalThreadCount).append(',').append(info.peakThreadCount)
+                .append(',').append(info.daemonThreadCount).append(",[");
+            for (int p = 0; p < info.pools.size(); p++) {
+                PoolInfo pool = info.pools.get(p);
+                json.append(p > 0 ? ",[" : "[").append(pool.busyThreads).append(',').append(pool.currentThreads)
+                    .append(',').append(pool.maxThreads).append(',').append(pool.connectionCount)
+                    .append(',').append(pool.maxConnections).append(',').append(pool.acceptCount)
+                    .append(',').append(pool.queueSize).append(']');
+            }
+            json.append("]]");
+        }
+        json.append("]}");
+    }
+
+    private static boolean sameLayout(ThreadInfo previous, ThreadInfo next) {
+        if (previous.pools.size() != next.pools.size()) {
+            return false;
+        }
+        for (int p = 0; p < next.pools.size(); p++) {
+            PoolInfo a = previous.pools.get(p);
+            PoolInfo b = next.pools.get(p);
+            if (!a.name.equals(b.name) || !a.type.equals(b.type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
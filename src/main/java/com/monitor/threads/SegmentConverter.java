@@ -0,0 +1,74 @@
+package com.monitor.threads;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Command-line converter from binary log segments to the CSV log schema.
+ *
+ * <pre>
+ * java -cp WEB-INF/classes com.monitor.threads.SegmentConverter [-o out.csv] segment.tms...
+ * </pre>
+ * Segments are converted in the order given, under a single CSV header. Output goes to stdout unless -o is set.
+ * Compressed rotations ({@code .gz}) are read as well.
+ */
+public final class SegmentConverter {
+
+    private SegmentConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String output = null;
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = args[++i];
+            } else {
+                inputs.add(args[i]);
+            }
+        }
+
+        if (inputs.isEmpty()) {
+            System.err.println("Usage: SegmentConverter [-o out.csv] segment.tms...");
+            System.exit(2);
+        }
+
+        CsvFormat format = new CsvFormat();
+        ByteSink row = new ByteSink(1024);
+        try (OutputStream out = new BufferedOutputStream(output != null ? new FileOutputStream(output) : System.out)) {
+            format.beginFile(row, true);
+            row.writeTo(out);
+            for (String input : inputs) {
+                Predicate<ThreadInfo> writer = info -> {
+                    row.reset();
+                    format.append(info, row);
+                    try {
+                        row.writeTo(out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return true;
+                };
+                if (input.endsWith(LogCatalog.COMPRESSED_SUFFIX)) {
+                    try (InputStream in = new GZIPInputStream(new FileInputStream(input), 64 * 1024)) {
+                        SegmentFormat.scan(in, true, input, Long.MIN_VALUE, writer);
+                    }
+                } else {
+                    SegmentFormat.read(Paths.get(input), writer::test);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
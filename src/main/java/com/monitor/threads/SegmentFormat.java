@@ -0,0 +1,326 @@
+package com.monitor.threads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Compact binary log segments ({@code .tms}).
+ *
+ * <p>Layout: the 5-byte header {@code "TMSG" version}, followed by records that each start with a tag byte.
+ * <ul>
+ *   <li>{@code POOLS}: varint pool count, then per pool a type byte and a varint-length UTF-8 name.
+ *       Written at the start of every append session and whenever the pool set changes.</li>
+ *   <li>{@code SAMPLE}: zigzag varint deltas against the previous sample for the timestamp, total, peak and
+ *       daemon thread counts, then for each pool busy, current, max, connections, maxConnections,
+ *       acceptCount and queueSize. Deltas restart from zero after every {@code POOLS} record.</li>
+ *   <li>{@code SAMPLE_STATES} (version 2): a {@code SAMPLE} followed, for each pool, by a byte that is 1 when
+ *       worker thread states were collected and then zigzag varints for runnable, blocked, waiting,
+ *       timedWaiting, blockedMillis, blockedCount, waitedMillis and waitedCount. These are per-sample values
+ *       already, so they are not delta encoded. Written instead of {@code SAMPLE} when any pool has states.</li>
+ * </ul>
+ * Version 1 segments only hold {@code SAMPLE} records and are still read. Utilization and available threads
+ * are derived, so they are not stored, and neither are the worker thread IDs behind the states. In steady state a sample takes
+ * a few bytes per pool instead of a ~150 byte CSV row, and the file stays appendable one sample at a time.
+ */
+final class SegmentFormat implements LogFormat {
+
+    static final String EXTENSION = "tms";
+
+    private static final byte[] MAGIC = {'T', 'M', 'S', 'G'};
+    private static final int VERSION = 2;
+    private static final int POOLS = 1;
+    private static final int SAMPLE = 2;
+    private static final int SAMPLE_STATES = 3;
+    private static final int POOL_COLUMNS = 7;
+    private static final int STATE_COLUMNS = 8;
+    private static final long[] NO_WORKER_IDS = new long[0];
+    // Bounds past which a pool list can only be corrupt, checked before anything is allocated for it
+    private static final int MAX_POOLS = 4096;
+    private static final int MAX_NAME_LENGTH = 65536;
+
+    // Delta state of the file being appended to; owned by the log writer thread
+    private ThreadInfo previous;
+
+    @Override
+    public String extension() {
+        return EXTENSION;
+    }
+
+    @Override
+    public void beginFile(ByteSink out, boolean empty) {
+        if (empty) {
+            out.write(MAGIC, 0, MAGIC.length).write(VERSION);
+        }
+        // Appending to an existing file starts a fresh delta chain
+        previous = null;
+    }
+
+    @Override
+    public void append(ThreadInfo info, ByteSink out) {
+        if (previous == null || !samePools(previous, info)) {
+            out.write(POOLS).writeVarLong(info.pools.size());
+            for (PoolInfo pool : info.pools) {
+                byte[] name = pool.name.getBytes(StandardCharsets.UTF_8);
+                out.write(pool.isExecutor() ? 1 : 0).writeVarLong(name.length).write(name, 0, name.length);
+            }
+            previous = null;
+        }
+
+        boolean states = false;
+        for (int i = 0; i < info.pools.size() && !states; i++) {
+            states = info.pools.get(i).threads != null;
+        }
+        out.write(states ? SAMPLE_STATES : SAMPLE);
+        out.writeZigZag(info.timestamp - (previous != null ? previous.timestamp : 0));
+        out.writeZigZag(info.totalThreadCount - (previous != null ? previous.totalThreadCount : 0));
+        out.writeZigZag(info.peakThreadCount - (previous != null ? previous.peakThreadCount : 0));
+        out.writeZigZag(info.daemonThreadCount - (previous != null ? previous.daemonThreadCount : 0));
+        for (int i = 0; i < info.pools.size(); i++) {
+            PoolInfo pool = info.pools.get(i);
+            PoolInfo last = previous != null ? previous.pools.get(i) : null;
+            out.writeZigZag((long) pool.busyThreads - (last != null ? last.busyThreads : 0));
+            out.writeZigZag((long) pool.currentThreads - (last != null ? last.currentThreads : 0));
+            out.writeZigZag((long) pool.maxThreads - (last != null ? last.maxThreads : 0));
+            out.writeZigZag((long) pool.connectionCount - (last != null ? last.connectionCount : 0));
+            out.writeZigZag((long) pool.maxConnections - (last != null ? last.maxConnections : 0));
+            out.writeZigZag((long) pool.acceptCount - (last != null ? last.acceptCount : 0));
+            out.writeZigZag((long) pool.queueSize - (last != null ? last.queueSize : 0));
+        }
+        if (states) {
+            for (PoolInfo pool : info.pools) {
+                PoolThreadStates threads = pool.threads;
+                if (threads == null) {
+                    out.write(0);
+                    continue;
+                }
+                out.write(1);
+                out.writeZigZag(threads.runnable).writeZigZag(threads.blocked)
+                   .writeZigZag(threads.waiting).writeZigZag(threads.timedWaiting)
+                   .writeZigZag(threads.blockedTimeMillis).writeZigZag(threads.blockedCount)
+                   .writeZigZag(threads.waitedTimeMillis).writeZigZag(threads.waitedCount);
+            }
+        }
+        previous = info;
+    }
+
+    private static boolean samePools(ThreadInfo a, ThreadInfo b) {
+        if (a.pools.size() != b.pools.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.pools.size(); i++) {
+            PoolInfo x = a.pools.get(i);
+            PoolInfo y = b.pools.get(i);
+            if (!x.name.equals(y.name) || !x.type.equals(y.type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Memory-maps a segment and passes every complete sample to {@code consumer} in file order.
+     * A record cut short by a crash during writing ends the read without an error.
+     */
+    static void read(Path file, Consumer<ThreadInfo> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            scan(channel, file.toString(), Long.MIN_VALUE, info -> {
+                consumer.accept(info);
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Like {@link #read}, but samples older than {@code fromMillis} are decoded without being materialized, and
+     * the scan stops as soon as {@code consumer} returns false. {@code name} is only used in error messages.
+     */
+    static void scan(FileChannel channel, String name, long fromMillis, Predicate<ThreadInfo> consumer)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        readHeader(buffer, name);
+        new Decoder().decode(buffer, name, fromMillis, consumer);
+    }
+
+    /**
+     * Like {@link #scan(FileChannel, String, long, Predicate)} for a segment read as a stream, e.g. out of a
+     * compressed rotation. Without {@code header} the stream starts at a record boundary where the writer
+     * started a new delta chain, as {@link #beginFile} does.
+     */
+    static void scan(InputStream in, boolean header, String name, long fromMillis, Predicate<ThreadInfo> consumer)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        Decoder decoder = new Decoder();
+        boolean end = false;
+        while (!end) {
+            int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (read < 0) {
+                end = true;
+            } else {
+                buffer.position(buffer.position() + read);
+            }
+            buffer.flip();
+            if (header) {
+                if (buffer.remaining() < MAGIC.length + 1 && !end) {
+                    buffer.compact();
+                    continue;
+                }
+                readHeader(buffer, name);
+                header = false;
+            }
+            if (!decoder.decode(buffer, name, fromMillis, consumer)) {
+                return;
+            }
+            if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                // One record larger than the buffer, e.g. a pool list with very long names
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+        }
+    }
+
+    private static void readHeader(ByteBuffer buffer, String name) throws IOException {
+        for (byte b : MAGIC) {
+            if (!buffer.hasRemaining() || buffer.get() != b) {
+                throw new IOException("Not a thread monitor segment: " + name);
+            }
+        }
+        int version = buffer.hasRemaining() ? buffer.get() : -1;
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported segment version: " + name);
+        }
+    }
+
+    // Delta chain state of a segment being read
+    private static final class Decoder {
+        // Null until the first POOLS record, which every delta chain starts with
+        private String[] types;
+        private String[] names;
+        private long[] values = new long[0];
+        private long[] deltas = new long[0];
+        private boolean[] hasStates = new boolean[0];
+        private long[] states = new long[0];
+
+        /**
+         * Decodes the complete records in {@code buffer} and leaves it positioned at the first incomplete one.
+         * Returns false once {@code consumer} asked to stop.
+         */
+        boolean decode(ByteBuffer buffer, String name, long fromMillis, Predicate<ThreadInfo> consumer)
+                throws IOException {
+            while (buffer.hasRemaining()) {
+                int recordStart = buffer.position();
+                try {
+                    int tag = buffer.get();
+                    if (tag == POOLS) {
+                        long count = readVarLong(buffer);
+                        if (count < 0 || count > MAX_POOLS) {
+                            throw corrupt(name, "pool count " + count, recordStart);
+                        }
+                        String[] newTypes = new String[(int) count];
+                        String[] newNames = new String[(int) count];
+                        for (int i = 0; i < count; i++) {
+                            newTypes[i] = buffer.get() == 1 ? PoolInfo.EXECUTOR : PoolInfo.THREAD_POOL;
+                            long length = readVarLong(buffer);
+                            if (length < 0 || length > MAX_NAME_LENGTH) {
+                                throw corrupt(name, "pool name length " + length, recordStart);
+                            }
+                            byte[] poolName = new byte[(int) length];
+                            buffer.get(poolName);
+                            newNames[i] = new String(poolName, StandardCharsets.UTF_8);
+                        }
+                        types = newTypes;
+                        names = newNames;
+                        values = new long[4 + (int) count * POOL_COLUMNS];
+                        deltas = new long[values.length];
+                        hasStates = new boolean[(int) count];
+                        states = new long[(int) count * STATE_COLUMNS];
+                    } else if (tag == SAMPLE || tag == SAMPLE_STATES) {
+                        if (types == null) {
+                            throw corrupt(name, "sample before any pool list", recordStart);
+                        }
+                        // Deltas are applied only once the whole record was read
+                        for (int i = 0; i < deltas.length; i++) {
+                            deltas[i] = readZigZag(buffer);
+                        }
+                        for (int i = 0; i < hasStates.length; i++) {
+                            int present = tag == SAMPLE_STATES ? buffer.get() : 0;
+                            if (present != 0 && present != 1) {
+                                // States of a different number of pools than the list this sample follows
+                                throw corrupt(name, "thread states flag " + present, recordStart);
+                            }
+                            hasStates[i] = present == 1;
+                            for (int c = 0; hasStates[i] && c < STATE_COLUMNS; c++) {
+                                states[i * STATE_COLUMNS + c] = readZigZag(buffer);
+                            }
+                        }
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] += deltas[i];
+                        }
+                        if (values[0] < fromMillis) {
+                            continue;
+                        }
+                        PoolInfo[] pools = new PoolInfo[names.length];
+                        for (int i = 0; i < pools.length; i++) {
+                            int base = 4 + i * POOL_COLUMNS;
+                            pools[i] = new PoolInfo(types[i], names[i], (int) values[base], (int) values[base + 1],
+                                                    (int) values[base + 2], (int) values[base + 3], (int) values[base + 4],
+                                                    (int) values[base + 5], (int) values[base + 6], states(i));
+                        }
+                        if (!consumer.test(new ThreadInfo(values[0], (int) values[1], (int) values[2], (int) values[3], pools))) {
+                            return false;
+                        }
+                    } else {
+                        throw corrupt(name, "unknown record tag " + tag, recordStart);
+                    }
+                } catch (BufferUnderflowException e) {
+                    // A partial record: the rest is still to be read, or was cut short by a crash during writing
+                    buffer.position(recordStart);
+                    return true;
+                }
+            }
+            return true;
+        }
+
+        private static IOException corrupt(String name, String problem, int offset) {
+            return new IOException("Corrupt segment " + name + ": " + problem + " at offset " + offset);
+        }
+
+        private PoolThreadStates states(int pool) {
+            if (!hasStates[pool]) {
+                return null;
+            }
+            int base = pool * STATE_COLUMNS;
+            return new PoolThreadStates((int) states[base], (int) states[base + 1], (int) states[base + 2],
+                                        (int) states[base + 3], states[base + 4], states[base + 5],
+                                        states[base + 6], states[base + 7], NO_WORKER_IDS);
+        }
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long readZigZag(ByteBuffer buffer) {
+        long raw = readVarLong(buffer);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
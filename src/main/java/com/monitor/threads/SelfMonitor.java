@@ -0,0 +1,267 @@
+package com.monitor.threads;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * What the monitor costs the server it runs in, published as {@code com.monitor:type=ThreadMonitor}: the time
+ * and allocation of each stage of its work, from collecting a sample to serving a request, and the counters of
+ * the sampler and the log writer.
+ *
+ * <p>A stage is timed by its caller between {@link #allocatedBytes()} and {@link #record}, which read the clock
+ * and the current thread's allocation counter and allocate nothing themselves. Allocation is measured with
+ * {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes}; on a JVM without it only time is recorded.
+ */
+public final class SelfMonitor implements SelfMonitorMBean {
+
+    static final String OBJECT_NAME = "com.monitor:type=ThreadMonitor";
+
+    private static final Logger LOG = Logger.getLogger(SelfMonitor.class.getName());
+
+    enum Stage {
+        /** JMX reads of one sample, failed ones included. */
+        COLLECT(false),
+        /** Sample listeners: history, stream, alerts, latency, forecasts and the response cache. */
+        NOTIFY(false),
+        /** Encoding and gzipping a cached {@code json}, {@code export} or {@code metrics} body. */
+        ENCODE(false),
+        /** Formatting a batch of log rows and writing it to the file, rotations included. */
+        APPEND(false),
+        /** Forcing the log file to disk. */
+        SYNC(false),
+        /** Renaming and deleting log files on rotation. */
+        ROTATE(false),
+        /** Compressing one complete log file. */
+        COMPRESS(false),
+        /** One request to the servlet, on the container's thread. */
+        REQUEST(true);
+
+        final String label = name().toLowerCase();
+        // Recorded from many threads at once rather than from one of the monitor's own
+        final boolean concurrent;
+
+        Stage(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    // The counts before the first value, which percentiles since the start are taken against
+    private static final long[] NO_COUNTS = new long[LatencyHistogram.BUCKETS];
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final LatencyHistogram[] latency = new LatencyHistogram[STAGES.length];
+    private final LongAdder[] allocated = new LongAdder[STAGES.length];
+
+    private MBeanServer server;
+    private ObjectName name;
+    private volatile ThreadSampler sampler;
+    private volatile LogWriter logWriter;
+
+    SelfMonitor() {
+        this(ManagementFactory.getThreadMXBean());
+    }
+
+    SelfMonitor(ThreadMXBean threadBean) {
+        com.sun.management.ThreadMXBean extended = null;
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            extended = (com.sun.management.ThreadMXBean) threadBean;
+            if (!extended.isThreadAllocatedMemorySupported()) {
+                extended = null;
+            }
+        }
+        this.threads = extended;
+        for (Stage stage : STAGES) {
+            latency[stage.ordinal()] = stage.concurrent ? new LatencyHistogram() : new LatencyHistogram(1);
+            allocated[stage.ordinal()] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers the MBean. Another monitor instance in the same JVM may already own the name; stages are
+     * then still recorded and served over HTTP.
+     */
+    void register(MBeanServer server, ThreadSampler sampler, LogWriter logWriter) {
+        this.sampler = sampler;
+        this.logWriter = logWriter;
+        try {
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            server.registerMBean(this, objectName);
+            this.server = server;
+            this.name = objectName;
+        } catch (InstanceAlreadyExistsException e) {
+            LOG.warning(OBJECT_NAME + " is already registered; monitor overhead is only served over HTTP for this instance");
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Failed to register " + OBJECT_NAME, e);
+        }
+    }
+
+    void close() {
+        if (name != null) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOG.log(Level.WARNING, "Failed to unregister " + OBJECT_NAME, e);
+            }
+            name = null;
+        }
+    }
+
+    /**
+     * Bytes the current thread has allocated so far, or -1 when that is not measured.
+     */
+    long allocatedBytes() {
+        return threads != null ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    /**
+     * Records a stage that started at {@code startNanos} on the current thread, when it had allocated
+     * {@code allocatedBefore} bytes.
+     */
+    void record(Stage stage, long startNanos, long allocatedBefore) {
+        latency[stage.ordinal()].record((System.nanoTime() - startNanos) / 1000);
+        if (allocatedBefore >= 0) {
+            long after = allocatedBytes();
+            if (after >= allocatedBefore) {
+                allocated[stage.ordinal()].add(after - allocatedBefore);
+            }
+        }
+    }
+
+    /** Latency of a stage since the monitor started. */
+    LatencyTracker.Percentiles latency(Stage stage) {
+        LatencyHistogram histogram = latency[stage.ordinal()];
+        return LatencyTracker.percentiles(NO_COUNTS, histogram.counts(), 0, histogram.sum());
+    }
+
+    /** Bytes a stage allocated since the monitor started, or -1 when allocation is not measured. */
+    long allocated(Stage stage) {
+        return isAllocationMeasured() ? allocated[stage.ordinal()].sum() : -1;
+    }
+
+    @Override
+    public long getSampleCount() {
+        ThreadSampler s = sampler;
+        return s != null ? s.getSampleCount() : 0;
+    }
+
+    @Override
+    public long getSampleFailureCount() {
+        ThreadSampler s = sampler;
+        return s != null ? s.getFailureCount() : 0;
+    }
+
+    @Override
+    public long getDroppedSampleCount() {
+        LogWriter writer = logWriter;
+        return writer != null ? writer.getDroppedCount() : 0;
+    }
+
+    @Override
+    public int getLogQueueDepth() {
+        LogWriter writer = logWriter;
+        return writer != null ? writer.getQueueDepth() : 0;
+    }
+
+    @Override
+    public long getLogBytesWritten() {
+        LogWriter writer = logWriter;
+        return writer != null ? writer.getBytesWritten() : 0;
+    }
+
+    @Override
+    public long getLogWriteFailureCount() {
+        LogWriter writer = logWriter;
+        return writer != null ? writer.getWriteFailures() : 0;
+    }
+
+    @Override
+    public boolean isAllocationMeasured() {
+        return threads != null && threads.isThreadAllocatedMemoryEnabled();
+    }
+
+    @Override
+    public String[] getStages() {
+        String[] labels = new String[STAGES.length];
+        for (Stage stage : STAGES) {
+            labels[stage.ordinal()] = stage.label;
+        }
+        return labels;
+    }
+
+    @Override
+    public int getBucketCount() {
+        return LatencyHistogram.BUCKETS;
+    }
+
+    @Override
+    public long[] getStageCounts() {
+        long[] values = new long[STAGES.length];
+        for (Stage stage : STAGES) {
+            values[stage.ordinal()] = latency(stage).totalCount;
+        }
+        return values;
+    }
+
+    @Override
+    public long[] getStageSumMicros() {
+        long[] values = new long[STAGES.length];
+        for (Stage stage : STAGES) {
+            values[stage.ordinal()] = latency[stage.ordinal()].sum();
+        }
+        return values;
+    }
+
+    @Override
+    public long[] getStageP50Micros() {
+        long[] values = new long[STAGES.length];
+        for (Stage stage : STAGES) {
+            values[stage.ordinal()] = latency(stage).p50Micros;
+        }
+        return values;
+    }
+
+    @Override
+    public long[] getStageP99Micros() {
+        long[] values = new long[STAGES.length];
+        for (Stage stage : STAGES) {
+            values[stage.ordinal()] = latency(stage).p99Micros;
+        }
+        return values;
+    }
+
+    @Override
+    public long[] getStageP999Micros() {
+        long[] values = new long[STAGES.length];
+        for (Stage stage : STAGES) {
+            values[stage.ordinal()] = latency(stage).p999Micros;
+        }
+        return values;
+    }
+
+    @Override
+    public long[] getStageAllocatedBytes() {
+        long[] values = new long[STAGES.length];
+        for (Stage stage : STAGES) {
+            values[stage.ordinal()] = allocated(stage);
+        }
+        return values;
+    }
+
+    @Override
+    public long[] stageHistogram(String stage) {
+        for (Stage s : STAGES) {
+            if (s.label.equals(stage)) {
+                return latency[s.ordinal()].counts();
+            }
+        }
+        return null;
+    }
+}
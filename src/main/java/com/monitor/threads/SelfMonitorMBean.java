@@ -0,0 +1,44 @@
+package com.monitor.threads;
+
+/**
+ * Management interface of the monitor's own overhead. Per-stage arrays are in the order of {@link #getStages()};
+ * latencies are cumulative since the monitor started, as are the histogram counts, so a reader gets interval
+ * histograms by subtracting two reads.
+ */
+public interface SelfMonitorMBean {
+
+    long getSampleCount();
+
+    long getSampleFailureCount();
+
+    /** Samples the log writer dropped because its queue was full. */
+    long getDroppedSampleCount();
+
+    int getLogQueueDepth();
+
+    long getLogBytesWritten();
+
+    long getLogWriteFailureCount();
+
+    /** False when the JVM does not account allocation per thread; allocated bytes are then -1. */
+    boolean isAllocationMeasured();
+
+    String[] getStages();
+
+    int getBucketCount();
+
+    long[] getStageCounts();
+
+    long[] getStageSumMicros();
+
+    long[] getStageP50Micros();
+
+    long[] getStageP99Micros();
+
+    long[] getStageP999Micros();
+
+    long[] getStageAllocatedBytes();
+
+    /** Bucket counts of a stage's latency histogram, or null for an unknown stage. */
+    long[] stageHistogram(String stage);
+}
@@ -0,0 +1,558 @@
+package com.monitor.threads;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opt-in sampling profiler for pool worker threads.
+ *
+ * <p>A dedicated thread takes bounded-depth stacks of the worker threads at a fixed rate, skipping workers
+ * idle in their pool's task queue. Frames are interned into integer IDs and every stack becomes a node of
+ * one call tree (a trie of frame IDs), so a sample is recorded as a timestamp and a node ID in a ring buffer.
+ * Memory stays flat once the application's code paths have been seen. {@link #writeCollapsed} aggregates
+ * the samples of the last N seconds into flame-graph compatible collapsed stacks.
+ *
+ * <p>The tables are bounded. When the call tree or frame table fills, it is rebuilt from the samples of the
+ * last {@link #MAX_SECONDS}, the longest window a profile can ask for, so paths no longer seen are dropped.
+ * Should the live paths alone exceed the tables, new paths are cut short at their deepest known frame and
+ * those samples are counted as truncated.
+ *
+ * <p>The profiler measures the time it spends sampling. Whenever a one-second window used more than the
+ * configured share of one CPU it halves its rate, and it recovers the configured rate once the cost drops.
+ */
+final class StackProfiler implements ThreadSampler.Listener {
+
+    private static final Logger LOG = Logger.getLogger(StackProfiler.class.getName());
+
+    static final int MAX_SECONDS = 300;
+
+    private static final int MAX_NODES = 1 << 16;
+    private static final int MAX_FRAMES = 1 << 15;
+    private static final int RING_CAPACITY = 1 << 18;
+    private static final int ROOT = 0;
+    private static final int OVERFLOW_FRAME = 0;
+    private static final int TRUNCATED_FRAME = 1;
+    private static final long MAX_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long ADJUST_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // A rebuild walks the whole ring, so a tree the live window alone fills is not rebuilt on every tick
+    private static final long MIN_REBUILD_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final ThreadMXBean threads;
+    private final WorkerThreads workers;
+    private final long basePeriodNanos;
+    private final double maxOverhead;
+    private final int maxDepth;
+    private final Thread thread;
+
+    // Worker IDs and pool frame per worker, refreshed on every monitor sample
+    private volatile long[] workerIds = new long[0];
+    private volatile int[] workerPools = new int[0];
+
+    // Interned frames: StackTraceElement -> frame ID; frame names by ID
+    private final Map<StackTraceElement, Integer> frameIds = new HashMap<>();
+    private final Map<String, Integer> frameNameIds = new HashMap<>();
+    private final String[] frameNames = new String[MAX_FRAMES];
+    private int frameCount;
+
+    // Call tree: node parent and frame, children found through an open-addressing (parent, frame) -> node table
+    private final int[] nodeParent = new int[MAX_NODES];
+    private final int[] nodeFrame = new int[MAX_NODES];
+    private final long[] childKeys = new long[MAX_NODES * 2];
+    private final int[] childNodes = new int[MAX_NODES * 2];
+    private int nodeCount = 1;
+
+    // Samples: timestamp and leaf node, stored as ~node when the stack was truncated by full tables
+    private final long[] sampleTimes = new long[RING_CAPACITY];
+    private final int[] sampleNodes = new int[RING_CAPACITY];
+    private int sampleHead;
+    private int sampleSize;
+    private boolean full;
+    private long lastRebuildMillis;
+
+    private volatile boolean running = true;
+    private volatile long periodNanos;
+    private volatile long tickCount;
+    private volatile long sampleCount;
+    private volatile long samplingNanos;
+    private volatile long overflowCount;
+    private volatile long truncatedCount;
+    private volatile long rebuildCount;
+    private final long startNanos = System.nanoTime();
+
+    StackProfiler(WorkerThreads workers, int rateHz, double maxOverheadPercent, int maxDepth) {
+        this.threads = workers.threadBean();
+        this.workers = workers;
+        this.basePeriodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+        this.periodNanos = basePeriodNanos;
+        this.maxOverhead = maxOverheadPercent / 100;
+        this.maxDepth = maxDepth;
+        this.thread = new Thread(this::run, "thread-monitor-profiler");
+        this.thread.setDaemon(true);
+
+        Arrays.fill(childKeys, -1);
+        intern("[overflow]");
+        intern("[truncated]");
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onSample(ThreadInfo info) {
+        List<PoolInfo> pools = info.pools;
+        long[][] ids = pools.isEmpty() || pools.get(0).threads == null ? workers.ids(pools) : new long[pools.size()][];
+        for (int p = 0; p < ids.length; p++) {
+            if (ids[p] == null) {
+                // Worker IDs already resolved by the contention analyzer
+                ids[p] = pools.get(p).threads.workerIds;
+            }
+        }
+        int total = 0;
+        for (long[] poolIds : ids) {
+            total += poolIds.length;
+        }
+        long[] flatIds = new long[total];
+        int[] flatPools = new int[total];
+        int i = 0;
+        synchronized (this) {
+            for (int p = 0; p < ids.length; p++) {
+                // Keep the collapsed format parseable whatever the pool is called
+                int poolFrame = intern(pools.get(p).name.replace(';', '_').replace(' ', '_'));
+                for (long id : ids[p]) {
+                    flatIds[i] = id;
+                    flatPools[i] = poolFrame;
+                    i++;
+                }
+            }
+            // Published together under the lock, since a rebuild renumbers the pool frames
+            workerPools = flatPools;
+            workerIds = flatIds;
+        }
+    }
+
+    long getTickCount() {
+        return tickCount;
+    }
+
+    long getSampleCount() {
+        return sampleCount;
+    }
+
+    long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /** Samples whose stack was cut short because the tables were full. */
+    long getTruncatedCount() {
+        return truncatedCount;
+    }
+
+    /** Times the call tree was rebuilt from the retained samples. */
+    long getRebuildCount() {
+        return rebuildCount;
+    }
+
+    /** Configured sampling rate. */
+    double getRateHz() {
+        return 1e9 / basePeriodNanos;
+    }
+
+    /** Current sampling rate, lower than configured while the overhead cap is in effect. */
+    double getEffectiveRateHz() {
+        return 1e9 / periodNanos;
+    }
+
+    double getMaxOverheadPercent() {
+        return maxOverhead * 100;
+    }
+
+    /** Share of one CPU spent sampling since start, in percent. */
+    double getOverheadPercent() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? (double) samplingNanos / elapsed * 100 : 0;
+    }
+
+    synchronized int getNodeCount() {
+        return nodeCount;
+    }
+
+    synchronized int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns how many of the samples of the last {@code seconds} have a truncated stack.
+     */
+    synchronized long truncatedSamples(int seconds) {
+        long from = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(seconds);
+        long truncated = 0;
+        for (int i = sampleSize - 1; i >= 0; i--) {
+            int slot = (sampleHead + i) % RING_CAPACITY;
+            if (sampleTimes[slot] < from) {
+                break;
+            }
+            if (sampleNodes[slot] < 0) {
+                truncated++;
+            }
+        }
+        return truncated;
+    }
+
+    /**
+     * Writes the samples of the last {@code seconds} as collapsed stacks ({@code pool;frame;...;frame count}),
+     * root first. Returns the number of samples written.
+     */
+    long writeCollapsed(int seconds, Writer out) throws IOException {
+        long from = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(seconds);
+        int[] counts;
+        int nodes;
+        String[] paths;
+        synchronized (this) {
+            nodes = nodeCount;
+            counts = new int[nodes];
+            for (int i = sampleSize - 1; i >= 0; i--) {
+                int slot = (sampleHead + i) % RING_CAPACITY;
+                if (sampleTimes[slot] < from) {
+                    break;
+                }
+                counts[leaf(sampleNodes[slot])]++;
+            }
+            paths = new String[nodes];
+            for (int node = 1; node < nodes; node++) {
+                if (counts[node] > 0) {
+                    paths[node] = path(node);
+                }
+            }
+        }
+
+        long total = 0;
+        for (int node = 1; node < nodes; node++) {
+            if (counts[node] > 0) {
+                out.write(paths[node]);
+                out.write(' ');
+                out.write(Integer.toString(counts[node]));
+                out.write('\n');
+                total += counts[node];
+            }
+        }
+        return total;
+    }
+
+    private String path(int node) {
+        StringBuilder path = new StringBuilder();
+        for (int n = node; n != ROOT; n = nodeParent[n]) {
+            String name = frameNames[nodeFrame[n]];
+            path.insert(0, name);
+            if (nodeParent[n] != ROOT) {
+                path.insert(0, ';');
+            }
+        }
+        return path.toString();
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        long windowStart = next;
+        long windowNanos = 0;
+        while (running) {
+            long now = System.nanoTime();
+            if (now < next) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(next - now);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            long start = System.nanoTime();
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Profiler sample failed", e);
+            }
+            long end = System.nanoTime();
+            samplingNanos += end - start;
+            windowNanos += end - start;
+            tickCount++;
+            if (end - windowStart >= ADJUST_WINDOW_NANOS) {
+                adjustPeriod((double) windowNanos / (end - windowStart));
+                windowStart = end;
+                windowNanos = 0;
+            }
+            next = Math.max(next + periodNanos, System.nanoTime());
+        }
+    }
+
+    // Halve the rate while the last window's overhead is above the cap; double it back when well under
+    private void adjustPeriod(double overhead) {
+        long period = periodNanos;
+        if (overhead > maxOverhead && period < MAX_PERIOD_NANOS) {
+            periodNanos = Math.min(MAX_PERIOD_NANOS, period * 2);
+            LOG.fine("Profiler overhead " + String.format("%.3f", overhead * 100) + "% above cap, sampling every " +
+                     periodNanos / 1000000 + "ms");
+        } else if (overhead * 4 < maxOverhead && period > basePeriodNanos) {
+            periodNanos = Math.max(basePeriodNanos, period / 2);
+        }
+    }
+
+    private void tick() {
+        long[] ids = workerIds;
+        if (ids.length == 0) {
+            return;
+        }
+        java.lang.management.ThreadInfo[] infos = threads.getThreadInfo(ids, maxDepth);
+        long timestamp = System.currentTimeMillis();
+
+        synchronized (this) {
+            if (full && timestamp - lastRebuildMillis >= MIN_REBUILD_INTERVAL_MILLIS) {
+                rebuild(timestamp);
+            }
+            if (workerIds != ids) {
+                // The workers changed while their stacks were taken; the next tick samples the new ones
+                return;
+            }
+            int[] pools = workerPools;
+            for (int i = 0; i < infos.length; i++) {
+                java.lang.management.ThreadInfo info = infos[i];
+                if (info == null || isIdle(info)) {
+                    continue;
+                }
+                long overflows = overflowCount;
+                StackTraceElement[] stack = info.getStackTrace();
+                int node = child(ROOT, pools[i]);
+                if (stack.length == maxDepth) {
+                    node = child(node, TRUNCATED_FRAME);
+                }
+                for (int f = stack.length - 1; f >= 0; f--) {
+                    node = child(node, frameId(stack[f]));
+                }
+                record(timestamp, node, overflowCount != overflows);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the call tree and frame table from the samples a profile can still ask for, keeping node and
+     * frame order, and renumbers the retained samples and the pool frames to match.
+     */
+    private void rebuild(long now) {
+        int nodesBefore = nodeCount;
+        int framesBefore = frameCount;
+
+        // Samples older than the longest profile window are dropped along with their paths
+        long from = now - TimeUnit.SECONDS.toMillis(MAX_SECONDS);
+        while (sampleSize > 0 && sampleTimes[sampleHead] < from) {
+            sampleHead = (sampleHead + 1) % RING_CAPACITY;
+            sampleSize--;
+        }
+
+        boolean[] liveNodes = new boolean[nodeCount];
+        liveNodes[ROOT] = true;
+        for (int i = 0; i < sampleSize; i++) {
+            int node = leaf(sampleNodes[(sampleHead + i) % RING_CAPACITY]);
+            while (!liveNodes[node]) {
+                liveNodes[node] = true;
+                node = nodeParent[node];
+            }
+        }
+        boolean[] liveFrames = new boolean[frameCount];
+        liveFrames[OVERFLOW_FRAME] = true;
+        liveFrames[TRUNCATED_FRAME] = true;
+        for (int frame : workerPools) {
+            liveFrames[frame] = true;
+        }
+        for (int node = 1; node < nodeCount; node++) {
+            if (liveNodes[node]) {
+                liveFrames[nodeFrame[node]] = true;
+            }
+        }
+
+        // Renumbered in place: a kept entry only ever moves down
+        int[] frameMap = new int[frameCount];
+        int frames = 0;
+        frameNameIds.clear();
+        for (int frame = 0; frame < frameCount; frame++) {
+            if (liveFrames[frame]) {
+                frameMap[frame] = frames;
+                frameNames[frames] = frameNames[frame];
+                frameNameIds.put(frameNames[frames], frames);
+                frames++;
+            }
+        }
+        Arrays.fill(frameNames, frames, frameCount, null);
+        frameCount = frames;
+        for (Iterator<Map.Entry<StackTraceElement, Integer>> it = frameIds.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<StackTraceElement, Integer> entry = it.next();
+            if (liveFrames[entry.getValue()]) {
+                entry.setValue(frameMap[entry.getValue()]);
+            } else {
+                it.remove();
+            }
+        }
+
+        // Parents are always created before their children, so a parent is renumbered first
+        int[] nodeMap = new int[nodeCount];
+        int nodes = 1;
+        Arrays.fill(childKeys, -1);
+        for (int node = 1; node < nodeCount; node++) {
+            if (liveNodes[node]) {
+                int parent = nodeMap[nodeParent[node]];
+                int frame = frameMap[nodeFrame[node]];
+                nodeMap[node] = nodes;
+                nodeParent[nodes] = parent;
+                nodeFrame[nodes] = frame;
+                long key = childKey(parent, frame);
+                int slot = childSlot(key);
+                childKeys[slot] = key;
+                childNodes[slot] = nodes;
+                nodes++;
+            }
+        }
+        nodeCount = nodes;
+
+        for (int i = 0; i < sampleSize; i++) {
+            int slot = (sampleHead + i) % RING_CAPACITY;
+            int node = sampleNodes[slot];
+            sampleNodes[slot] = node < 0 ? ~nodeMap[~node] : nodeMap[node];
+        }
+        int[] pools = workerPools.clone();
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = frameMap[pools[i]];
+        }
+        workerPools = pools;
+
+        full = false;
+        lastRebuildMillis = now;
+        rebuildCount++;
+        String message = "Profiler tables full, rebuilt from the last " + MAX_SECONDS + "s of samples: " +
+            nodesBefore + " -> " + nodeCount + " nodes, " + framesBefore + " -> " + frameCount + " frames";
+        if (nodeCount > MAX_NODES / 2 || frameCount > MAX_FRAMES / 2) {
+            // The recent paths alone nearly fill the tables, so stacks will be truncated again soon
+            LOG.warning(message);
+        } else {
+            LOG.info(message);
+        }
+    }
+
+    // Workers parked in the pool's task queue are waiting for work, not holding a request
+    private static boolean isIdle(java.lang.management.ThreadInfo info) {
+        Thread.State state = info.getThreadState();
+        if (state != Thread.State.WAITING && state != Thread.State.TIMED_WAITING) {
+            return false;
+        }
+        for (StackTraceElement frame : info.getStackTrace()) {
+            if ("getTask".equals(frame.getMethodName()) && frame.getClassName().endsWith("ThreadPoolExecutor")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int leaf(int sampleNode) {
+        return sampleNode < 0 ? ~sampleNode : sampleNode;
+    }
+
+    private void record(long timestamp, int node, boolean truncated) {
+        int slot;
+        if (sampleSize < RING_CAPACITY) {
+            slot = (sampleHead + sampleSize) % RING_CAPACITY;
+            sampleSize++;
+        } else {
+            slot = sampleHead;
+            sampleHead = (sampleHead + 1) % RING_CAPACITY;
+        }
+        sampleTimes[slot] = timestamp;
+        sampleNodes[slot] = truncated ? ~node : node;
+        sampleCount++;
+        if (truncated) {
+            truncatedCount++;
+        }
+    }
+
+    private int frameId(StackTraceElement element) {
+        Integer id = frameIds.get(element);
+        if (id == null) {
+            id = intern(element.getClassName() + "." + element.getMethodName());
+            if (frameIds.size() < MAX_FRAMES * 4) {
+                frameIds.put(element, id);
+            }
+        }
+        return id;
+    }
+
+    private int intern(String name) {
+        Integer id = frameNameIds.get(name);
+        if (id == null) {
+            if (frameCount == MAX_FRAMES) {
+                overflowCount++;
+                full = true;
+                return OVERFLOW_FRAME;
+            }
+            id = frameCount;
+            frameNames[frameCount++] = name;
+            frameNameIds.put(name, id);
+        }
+        return id;
+    }
+
+    // Finds or adds the child of parent for a frame; once the tree is full, the parent absorbs the sample
+    private int child(int parent, int frame) {
+        long key = childKey(parent, frame);
+        int slot = childSlot(key);
+        if (childKeys[slot] == key) {
+            return childNodes[slot];
+        }
+        if (nodeCount == MAX_NODES) {
+            overflowCount++;
+            full = true;
+            return parent;
+        }
+        int node = nodeCount++;
+        nodeParent[node] = parent;
+        nodeFrame[node] = frame;
+        childKeys[slot] = key;
+        childNodes[slot] = node;
+        return node;
+    }
+
+    private static long childKey(int parent, int frame) {
+        return ((long) parent << 32) | frame;
+    }
+
+    // The slot holding key, or the empty slot it would go in
+    private int childSlot(long key) {
+        int mask = childKeys.length - 1;
+        int slot = (int) (mix(key) & mask);
+        while (childKeys[slot] != -1 && childKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,80 @@
+package com.monitor.threads;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of thread pool and JVM thread counts taken by the sampler.
+ * Instances are shared between request threads, so fields are never modified after construction.
+ */
+final class ThreadInfo {
+
+    final long timestamp;
+    final int totalThreadCount;
+    final int peakThreadCount;
+    final int daemonThreadCount;
+    final List<PoolInfo> pools;
+    // Names of threads in a deadlock, and the locks pool workers are blocked on, most contended first
+    final List<String> deadlockedThreads;
+    final List<LockContention> contendedLocks;
+    // Virtual thread scheduler and pools on virtual threads; null before Java 21
+    final VirtualThreadInfo virtualThreads;
+
+    // Connector totals kept for the original http/ajp outputs, summed over matching ThreadPools
+    final int httpMaxThreads;
+    final int httpCurrentThreadsBusy;
+    final int ajpMaxThreads;
+    final int ajpCurrentThreadsBusy;
+
+    ThreadInfo(long timestamp, int totalThreadCount, int peakThreadCount, int daemonThreadCount, PoolInfo[] pools) {
+        this(timestamp, totalThreadCount, peakThreadCount, daemonThreadCount, pools,
+             Collections.<String>emptyList(), Collections.<LockContention>emptyList());
+    }
+
+    ThreadInfo(long timestamp, int totalThreadCount, int peakThreadCount, int daemonThreadCount, PoolInfo[] pools,
+               List<String> deadlockedThreads, List<LockContention> contendedLocks) {
+        this(timestamp, totalThreadCount, peakThreadCount, daemonThreadCount,
+             Collections.unmodifiableList(Arrays.asList(pools.clone())),
+             Collections.unmodifiableList(deadlockedThreads), Collections.unmodifiableList(contendedLocks), null);
+    }
+
+    private ThreadInfo(long timestamp, int totalThreadCount, int peakThreadCount, int daemonThreadCount,
+                       List<PoolInfo> pools, List<String> deadlockedThreads, List<LockContention> contendedLocks,
+                       VirtualThreadInfo virtualThreads) {
+        this.timestamp = timestamp;
+        this.totalThreadCount = totalThreadCount;
+        this.peakThreadCount = peakThreadCount;
+        this.daemonThreadCount = daemonThreadCount;
+        this.pools = pools;
+        this.deadlockedThreads = deadlockedThreads;
+        this.contendedLocks = contendedLocks;
+        this.virtualThreads = virtualThreads;
+
+        int httpMax = 0;
+        int httpBusy = 0;
+        int ajpMax = 0;
+        int ajpBusy = 0;
+        for (PoolInfo pool : pools) {
+            if (pool.isExecutor()) {
+                continue;
+            }
+            if (pool.name.contains("http")) {
+                httpMax += pool.maxThreads;
+                httpBusy += pool.busyThreads;
+            } else if (pool.name.contains("ajp")) {
+                ajpMax += pool.maxThreads;
+                ajpBusy += pool.busyThreads;
+            }
+        }
+        this.httpMaxThreads = httpMax;
+        this.httpCurrentThreadsBusy = httpBusy;
+        this.ajpMaxThreads = ajpMax;
+        this.ajpCurrentThreadsBusy = ajpBusy;
+    }
+
+    ThreadInfo withVirtualThreads(VirtualThreadInfo virtualThreads) {
+        return new ThreadInfo(timestamp, totalThreadCount, peakThreadCount, daemonThreadCount, pools,
+                              deadlockedThreads, contendedLocks, virtualThreads);
+    }
+}
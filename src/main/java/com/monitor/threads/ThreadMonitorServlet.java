@@ -1,32 +1,89 @@
 package com.monitor.threads;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.management.MBeanServer;
-import javax.management.ObjectName;
-import javax.management.AttributeNotFoundException;
 import javax.management.JMException;
 import java.io.*;
 import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Set;
+import java.net.InetAddress;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
-@WebServlet("/thread-monitor")
+@WebServlet(urlPatterns = "/thread-monitor", asyncSupported = true)
 public class ThreadMonitorServlet extends HttpServlet {
 
+    private static final int MAX_HISTORY_POINTS = 1000;
+    private static final String HISTORY_FILE_NAME = "thread-monitor-history.dat";
+    private static final String[] HISTORY_METRIC_NAMES = {
+        "busyThreads", "maxThreads", "totalThreads", "peakThreads", "daemonThreads"
+    };
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter EXPORT_FILE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss");
+
     private String logDirectory;
     private int warningThreshold = 60;  // Default 60%
     private int criticalThreshold = 80; // Default 80%
     private long maxLogFileSize = 10 * 1024 * 1024; // Default 10MB
     private int maxLogFiles = 10; // Default keep 10 files
+    private long sampleInterval = 1000; // Default 1 second
+    private int historySize = 86400; // Default 24 hours at 1 second
+    private int maxStreamClients = 100; // Default 100 concurrent streams
+    private int logQueueSize = 1024; // Default 1024 pending rows
+    private long logSyncInterval = LogWriter.SYNC_NEVER; // Default leave syncing to the OS
+    private String logFormat = "csv"; // Default CSV log files
+    private boolean compressLogs = true; // Default gzip rotated and past log files
+    private boolean persistHistory = true; // Default keep history across restarts
+    private List<AlertRule> alertRules; // Default derived from criticalThreshold
+    private String alertCommand; // Default no command
+    private int hotThreadCaptures = 10; // Default keep 10 captures
+    private long hotThreadInterval = 60000; // Default at most one capture per pool per minute
+    private int hotThreadDepth = 32; // Default 32 frames per stack
+    private boolean contentionMonitoring = true; // Default measure blocked/waited time
+    private int profilerRate = 0; // Default profiler off
+    private double profilerMaxOverhead = 1.0; // Default at most 1% of one CPU
+    private int profilerDepth = 64; // Default 64 frames per stack
+    private long latencyWindow = 60000; // Default percentiles over the last minute
+    private int dashboardSamples = 300; // Default five minutes of sparkline at 1s sampling
+    private String peers; // Default no cluster peers
+    private long clusterInterval = 5000; // Default poll peers every 5 seconds
+    private int peerTimeout = 2000; // Default 2 seconds per peer
+    private int peerParallelism = 8; // Default at most 8 peers polled at once
+    private long forecastWindow = 300000; // Default trend over the last 5 minutes
+    private int sizingDays = 7; // Default sizing from the last week
+    private long pinnedThreshold = 20; // Default record virtual threads pinned for 20ms or more
+
+    private ThreadPoolCollector collector;
+    private ThreadSampler sampler;
+    private SampleHistory history;
+    private SampleStream stream;
+    private LogWriter logWriter;
+    private LogExport logExport;
+    private AlertEngine alerts;
+    private HotThreadCapture hotThreads;
+    private StackProfiler profiler;
+    private LatencyTracker latency;
+    private ResponseCache responses;
+    private SampleWindow window;
+    private ClusterPoller cluster;
+    private ContentionAnalyzer contention;
+    private CapacityForecaster forecaster;
+    private VirtualThreadProbe virtualThreads;
+    private SelfMonitor self;
+    // Members of a ?action=delta reset, fixed at init
+    private String dashboardConfig;
 
     @Override
     public void init() throws ServletException {
@@ -92,6 +149,309 @@ public class ThreadMonitorServlet extends HttpServlet {
             }
         }
 
+        // Load sampling configuration
+        String sampleIntervalParam = getServletContext().getInitParameter("sampleInterval");
+        if (sampleIntervalParam != null && !sampleIntervalParam.trim().isEmpty()) {
+            try {
+                sampleInterval = Long.parseLong(sampleIntervalParam);
+                if (sampleInterval < 100) { // Minimum 100ms
+                    log("sampleInterval too small, using default: 1000ms");
+                    sampleInterval = 1000;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid sampleInterval format, using default: 1000ms", e);
+            }
+        }
+
+        String historySizeParam = getServletContext().getInitParameter("historySize");
+        if (historySizeParam != null && !historySizeParam.trim().isEmpty()) {
+            try {
+                historySize = Integer.parseInt(historySizeParam);
+                if (historySize < 1) {
+                    log("historySize too small, using default: 86400");
+                    historySize = 86400;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid historySize format, using default: 86400", e);
+            }
+        }
+
+        String maxStreamClientsParam = getServletContext().getInitParameter("maxStreamClients");
+        if (maxStreamClientsParam != null && !maxStreamClientsParam.trim().isEmpty()) {
+            try {
+                maxStreamClients = Integer.parseInt(maxStreamClientsParam);
+                if (maxStreamClients < 0) {
+                    log("maxStreamClients negative, using default: 100");
+                    maxStreamClients = 100;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid maxStreamClients format, using default: 100", e);
+            }
+        }
+
+        String logQueueSizeParam = getServletContext().getInitParameter("logQueueSize");
+        if (logQueueSizeParam != null && !logQueueSizeParam.trim().isEmpty()) {
+            try {
+                logQueueSize = Integer.parseInt(logQueueSizeParam);
+                if (logQueueSize < 1) {
+                    log("logQueueSize too small, using default: 1024");
+                    logQueueSize = 1024;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid logQueueSize format, using default: 1024", e);
+            }
+        }
+
+        String logSyncIntervalParam = getServletContext().getInitParameter("logSyncInterval");
+        if (logSyncIntervalParam != null && !logSyncIntervalParam.trim().isEmpty()) {
+            try {
+                logSyncInterval = Long.parseLong(logSyncIntervalParam);
+                if (logSyncInterval < LogWriter.SYNC_NEVER) {
+                    log("Invalid logSyncInterval value, using default: -1 (never)");
+                    logSyncInterval = LogWriter.SYNC_NEVER;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid logSyncInterval format, using default: -1 (never)", e);
+            }
+        }
+
+        String logFormatParam = getServletContext().getInitParameter("logFormat");
+        if (logFormatParam != null && !logFormatParam.trim().isEmpty()) {
+            logFormat = logFormatParam.trim().toLowerCase();
+            if (!"csv".equals(logFormat) && !"binary".equals(logFormat)) {
+                log("Invalid logFormat value, using default: csv");
+                logFormat = "csv";
+            }
+        }
+
+        String compressLogsParam = getServletContext().getInitParameter("compressLogs");
+        if (compressLogsParam != null && !compressLogsParam.trim().isEmpty()) {
+            compressLogs = Boolean.parseBoolean(compressLogsParam.trim());
+        }
+
+        String persistHistoryParam = getServletContext().getInitParameter("persistHistory");
+        if (persistHistoryParam != null && !persistHistoryParam.trim().isEmpty()) {
+            persistHistory = Boolean.parseBoolean(persistHistoryParam.trim());
+        }
+
+        String alertRulesParam = getServletContext().getInitParameter("alertRules");
+        if (alertRulesParam != null && !alertRulesParam.trim().isEmpty()) {
+            try {
+                alertRules = AlertRule.parseAll(alertRulesParam);
+            } catch (IllegalArgumentException e) {
+                log("Invalid alertRules, using default: " + defaultAlertRule(), e);
+            }
+        }
+        if (alertRules == null) {
+            alertRules = AlertRule.parseAll(defaultAlertRule());
+        }
+
+        String alertCommandParam = getServletContext().getInitParameter("alertCommand");
+        if (alertCommandParam != null && !alertCommandParam.trim().isEmpty()) {
+            alertCommand = alertCommandParam.trim();
+        }
+
+        String hotThreadCapturesParam = getServletContext().getInitParameter("hotThreadCaptures");
+        if (hotThreadCapturesParam != null && !hotThreadCapturesParam.trim().isEmpty()) {
+            try {
+                hotThreadCaptures = Integer.parseInt(hotThreadCapturesParam);
+                if (hotThreadCaptures < 0) {
+                    log("hotThreadCaptures negative, using default: 10");
+                    hotThreadCaptures = 10;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid hotThreadCaptures format, using default: 10", e);
+            }
+        }
+
+        String hotThreadIntervalParam = getServletContext().getInitParameter("hotThreadInterval");
+        if (hotThreadIntervalParam != null && !hotThreadIntervalParam.trim().isEmpty()) {
+            try {
+                hotThreadInterval = Long.parseLong(hotThreadIntervalParam);
+                if (hotThreadInterval < 1000) { // Minimum 1 second
+                    log("hotThreadInterval too small, using default: 60000ms");
+                    hotThreadInterval = 60000;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid hotThreadInterval format, using default: 60000ms", e);
+            }
+        }
+
+        String hotThreadDepthParam = getServletContext().getInitParameter("hotThreadDepth");
+        if (hotThreadDepthParam != null && !hotThreadDepthParam.trim().isEmpty()) {
+            try {
+                hotThreadDepth = Integer.parseInt(hotThreadDepthParam);
+                if (hotThreadDepth < 1) {
+                    log("hotThreadDepth too small, using default: 32");
+                    hotThreadDepth = 32;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid hotThreadDepth format, using default: 32", e);
+            }
+        }
+
+        String contentionMonitoringParam = getServletContext().getInitParameter("contentionMonitoring");
+        if (contentionMonitoringParam != null && !contentionMonitoringParam.trim().isEmpty()) {
+            contentionMonitoring = Boolean.parseBoolean(contentionMonitoringParam.trim());
+        }
+
+        String profilerRateParam = getServletContext().getInitParameter("profilerRate");
+        if (profilerRateParam != null && !profilerRateParam.trim().isEmpty()) {
+            try {
+                profilerRate = Integer.parseInt(profilerRateParam);
+                if (profilerRate < 0 || profilerRate > 100) {
+                    log("Invalid profilerRate value, using default: 0 (off)");
+                    profilerRate = 0;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid profilerRate format, using default: 0 (off)", e);
+            }
+        }
+
+        String profilerMaxOverheadParam = getServletContext().getInitParameter("profilerMaxOverhead");
+        if (profilerMaxOverheadParam != null && !profilerMaxOverheadParam.trim().isEmpty()) {
+            try {
+                profilerMaxOverhead = Double.parseDouble(profilerMaxOverheadParam);
+                if (profilerMaxOverhead <= 0 || profilerMaxOverhead > 100) {
+                    log("Invalid profilerMaxOverhead value, using default: 1%");
+                    profilerMaxOverhead = 1.0;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid profilerMaxOverhead format, using default: 1%", e);
+            }
+        }
+
+        String profilerDepthParam = getServletContext().getInitParameter("profilerDepth");
+        if (profilerDepthParam != null && !profilerDepthParam.trim().isEmpty()) {
+            try {
+                profilerDepth = Integer.parseInt(profilerDepthParam);
+                if (profilerDepth < 8) {
+                    log("profilerDepth too small, using default: 64");
+                    profilerDepth = 64;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid profilerDepth format, using default: 64", e);
+            }
+        }
+
+        String latencyWindowParam = getServletContext().getInitParameter("latencyWindow");
+        if (latencyWindowParam != null && !latencyWindowParam.trim().isEmpty()) {
+            try {
+                latencyWindow = Long.parseLong(latencyWindowParam);
+                if (latencyWindow < 10000) { // Minimum 10 seconds
+                    log("latencyWindow too small, using default: 60000ms");
+                    latencyWindow = 60000;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid latencyWindow format, using default: 60000ms", e);
+            }
+        }
+
+        String dashboardSamplesParam = getServletContext().getInitParameter("dashboardSamples");
+        if (dashboardSamplesParam != null && !dashboardSamplesParam.trim().isEmpty()) {
+            try {
+                dashboardSamples = Integer.parseInt(dashboardSamplesParam);
+                if (dashboardSamples < 10 || dashboardSamples > 3600) {
+                    log("dashboardSamples out of range (10-3600), using default: 300");
+                    dashboardSamples = 300;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid dashboardSamples format, using default: 300", e);
+            }
+        }
+
+        peers = getServletContext().getInitParameter("peers");
+        if (peers != null && peers.trim().isEmpty()) {
+            peers = null;
+        }
+        // Validated before anything is started: the container does not call destroy() after a failed init()
+        List<ClusterPoller.Peer> remotePeers = null;
+        if (peers != null) {
+            try {
+                remotePeers = ClusterPoller.parsePeers(peers);
+            } catch (IllegalArgumentException e) {
+                throw new ServletException("Invalid peers parameter: " + e.getMessage(), e);
+            }
+        }
+
+        String clusterIntervalParam = getServletContext().getInitParameter("clusterInterval");
+        if (clusterIntervalParam != null && !clusterIntervalParam.trim().isEmpty()) {
+            try {
+                clusterInterval = Long.parseLong(clusterIntervalParam);
+                if (clusterInterval < 1000) { // Minimum 1 second
+                    log("clusterInterval too small, using default: 5000ms");
+                    clusterInterval = 5000;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid clusterInterval format, using default: 5000ms", e);
+            }
+        }
+
+        String peerTimeoutParam = getServletContext().getInitParameter("peerTimeout");
+        if (peerTimeoutParam != null && !peerTimeoutParam.trim().isEmpty()) {
+            try {
+                peerTimeout = Integer.parseInt(peerTimeoutParam);
+                if (peerTimeout < 100) { // Minimum 100ms
+                    log("peerTimeout too small, using default: 2000ms");
+                    peerTimeout = 2000;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid peerTimeout format, using default: 2000ms", e);
+            }
+        }
+
+        String peerParallelismParam = getServletContext().getInitParameter("peerParallelism");
+        if (peerParallelismParam != null && !peerParallelismParam.trim().isEmpty()) {
+            try {
+                peerParallelism = Integer.parseInt(peerParallelismParam);
+                if (peerParallelism < 1 || peerParallelism > 64) {
+                    log("peerParallelism out of range (1-64), using default: 8");
+                    peerParallelism = 8;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid peerParallelism format, using default: 8", e);
+            }
+        }
+
+        String forecastWindowParam = getServletContext().getInitParameter("forecastWindow");
+        if (forecastWindowParam != null && !forecastWindowParam.trim().isEmpty()) {
+            try {
+                forecastWindow = Long.parseLong(forecastWindowParam);
+                if (forecastWindow < 60000) { // Minimum 1 minute
+                    log("forecastWindow too small, using default: 300000ms");
+                    forecastWindow = 300000;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid forecastWindow format, using default: 300000ms", e);
+            }
+        }
+
+        String sizingDaysParam = getServletContext().getInitParameter("sizingDays");
+        if (sizingDaysParam != null && !sizingDaysParam.trim().isEmpty()) {
+            try {
+                sizingDays = Integer.parseInt(sizingDaysParam);
+                if (sizingDays < 1 || sizingDays > 90) {
+                    log("sizingDays out of range (1-90), using default: 7");
+                    sizingDays = 7;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid sizingDays format, using default: 7", e);
+            }
+        }
+
+        String pinnedThresholdParam = getServletContext().getInitParameter("pinnedThreshold");
+        if (pinnedThresholdParam != null && !pinnedThresholdParam.trim().isEmpty()) {
+            try {
+                pinnedThreshold = Long.parseLong(pinnedThresholdParam);
+                if (pinnedThreshold < -1) { // -1 disables pinning events
+                    log("pinnedThreshold out of range, using default: 20ms");
+                    pinnedThreshold = 20;
+                }
+            } catch (NumberFormatException e) {
+                log("Invalid pinnedThreshold format, using default: 20ms", e);
+            }
+        }
+
         // Create log directory if it doesn't exist
         File logDir = new File(logDirectory);
         if (!logDir.exists()) {
@@ -110,7 +470,205 @@ public class ThreadMonitorServlet extends HttpServlet {
             ", Warning threshold: " + warningThreshold + "%" +
             ", Critical threshold: " + criticalThreshold + "%" +
             ", Max log file size: " + (maxLogFileSize / 1024) + "KB" +
-            ", Max log files: " + maxLogFiles);
+            ", Max log files: " + maxLogFiles +
+            ", Sample interval: " + sampleInterval + "ms" +
+            ", History size: " + historySize + " samples" +
+            ", Max stream clients: " + maxStreamClients +
+            ", Log queue size: " + logQueueSize +
+            ", Log sync interval: " + logSyncInterval + "ms" +
+            ", Log format: " + logFormat +
+            ", Compress logs: " + compressLogs +
+            ", Persist history: " + persistHistory +
+            ", Alert rules: " + alertRules +
+            ", Alert command: " + (alertCommand != null ? alertCommand : "none") +
+            ", Hot thread captures: " + hotThreadCaptures +
+            ", Hot thread interval: " + hotThreadInterval + "ms" +
+            ", Hot thread depth: " + hotThreadDepth +
+            ", Contention monitoring: " + contentionMonitoring +
+            ", Profiler rate: " + (profilerRate > 0 ? profilerRate + "Hz" : "off") +
+            ", Profiler max overhead: " + profilerMaxOverhead + "%" +
+            ", Profiler depth: " + profilerDepth +
+            ", Latency window: " + latencyWindow + "ms" +
+            ", Dashboard samples: " + dashboardSamples +
+            ", Peers: " + describePeers(remotePeers) +
+            ", Cluster interval: " + clusterInterval + "ms" +
+            ", Peer timeout: " + peerTimeout + "ms" +
+            ", Peer parallelism: " + peerParallelism +
+            ", Forecast window: " + forecastWindow + "ms" +
+            ", Sizing days: " + sizingDays +
+            ", Pinned threshold: " + (pinnedThreshold >= 0 ? pinnedThreshold + "ms" : "off"));
+
+        try {
+            start(logDir, remotePeers);
+        } catch (ServletException | RuntimeException e) {
+            // Stop whatever did start, so a failed deploy leaves no threads or MBeans behind
+            destroy();
+            throw e;
+        }
+    }
+
+    private void start(File logDir, List<ClusterPoller.Peer> remotePeers) throws ServletException {
+        LogFormat format = "binary".equals(logFormat) ? new SegmentFormat() : new CsvFormat();
+        LogCatalog logCatalog = new LogCatalog(logDir, format.extension());
+        self = new SelfMonitor();
+        logWriter = new LogWriter(logCatalog, format, maxLogFileSize, maxLogFiles, logQueueSize, logSyncInterval,
+                                  compressLogs, self);
+        logWriter.start();
+        logExport = new LogExport(logCatalog);
+
+        // Start background sampling; requests only read the published snapshot
+        WorkerThreads workers = new WorkerThreads(ManagementFactory.getThreadMXBean(),
+                                                  ManagementFactory.getPlatformMBeanServer());
+        try {
+            collector = new ThreadPoolCollector(ManagementFactory.getPlatformMBeanServer());
+            contention = new ContentionAnalyzer(workers, contentionMonitoring);
+            collector.setAnalyzer(contention);
+            virtualThreads = VirtualThreadProbe.create(ManagementFactory.getPlatformMBeanServer(), pinnedThreshold);
+            if (virtualThreads != null) {
+                collector.setVirtualThreadProbe(virtualThreads);
+                virtualThreads.start();
+            }
+            collector.start();
+        } catch (JMException | IOException e) {
+            throw new ServletException("Failed to register for MBean notifications", e);
+        }
+        history = createHistory(logDir);
+        alerts = createAlertEngine(logDir);
+        sampler = new ThreadSampler(collector, sampleInterval);
+        sampler.setSelfMonitor(self);
+        self.register(ManagementFactory.getPlatformMBeanServer(), sampler, logWriter);
+        stream = new SampleStream(maxStreamClients);
+        sampler.addListener(history);
+        sampler.addListener(stream);
+        sampler.addListener(alerts);
+        latency = new LatencyTracker(ManagementFactory.getPlatformMBeanServer(), latencyWindow);
+        sampler.addListener(latency);
+        responses = new ResponseCache(sampler, latency, self, warningThreshold, criticalThreshold);
+        sampler.addListener(responses);
+        window = new SampleWindow(sampler, dashboardSamples);
+        sampler.addListener(window);
+        forecaster = new CapacityForecaster(forecastWindow, sampleInterval, sizingDays, warningThreshold, criticalThreshold);
+        sampler.addListener(forecaster);
+        dashboardConfig = ",\"intervalMillis\":" + sampleInterval +
+            ",\"windowSamples\":" + dashboardSamples +
+            ",\"thresholds\":[" + warningThreshold + "," + criticalThreshold + "]" +
+            ",\"latencyWindowMillis\":" + latencyWindow +
+            ",\"cluster\":" + (peers != null) +
+            ",\"virtualThreads\":" + (virtualThreads != null);
+        if (hotThreadCaptures > 0) {
+            hotThreads = new HotThreadCapture(workers, warningThreshold, criticalThreshold, hotThreadInterval,
+                                              hotThreadDepth, hotThreadCaptures);
+            sampler.addListener(hotThreads);
+        }
+        if (profilerRate > 0) {
+            profiler = new StackProfiler(workers, profilerRate, profilerMaxOverhead, profilerDepth);
+            sampler.addListener(profiler);
+        }
+        sampler.start();
+        if (profiler != null) {
+            profiler.start();
+        }
+        if (remotePeers != null) {
+            List<ClusterPoller.Peer> clusterPeers = new ArrayList<>();
+            clusterPeers.add(ClusterPoller.local(localNodeName(), sampler));
+            clusterPeers.addAll(remotePeers);
+            cluster = new ClusterPoller(clusterPeers, clusterInterval, peerTimeout, peerParallelism);
+            cluster.start();
+            log("Polling " + (cluster.getPeerCount() - 1) + " cluster peers");
+        }
+    }
+
+    // Parsed names and addresses only: the raw parameter can carry credentials
+    private static String describePeers(List<ClusterPoller.Peer> remotePeers) {
+        if (remotePeers == null) {
+            return "none";
+        }
+        StringBuilder description = new StringBuilder();
+        for (ClusterPoller.Peer peer : remotePeers) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(peer.name()).append('=').append(peer.address());
+        }
+        return description.toString();
+    }
+
+    private String localNodeName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "local";
+        }
+    }
+
+    private SampleHistory createHistory(File logDir) {
+        if (persistHistory) {
+            File historyFile = new File(logDir, HISTORY_FILE_NAME);
+            try {
+                SampleHistory mapped = SampleHistory.mapped(historyFile, historySize);
+                log("History mapped from " + historyFile.getAbsolutePath() + " with " + mapped.size() + " retained samples");
+                return mapped;
+            } catch (IOException e) {
+                log("Failed to map history file " + historyFile.getAbsolutePath() + ", keeping history in memory only", e);
+            }
+        }
+        return new SampleHistory(historySize);
+    }
+
+    private String defaultAlertRule() {
+        return "utilization > " + criticalThreshold + " for 30s";
+    }
+
+    private AlertEngine createAlertEngine(File logDir) {
+        List<AlertSink> sinks = new ArrayList<>();
+        sinks.add(new AlertLogSink(logDir));
+        AlertNotifier notifier = new AlertNotifier(ManagementFactory.getPlatformMBeanServer());
+        sinks.add(notifier);
+        if (alertCommand != null) {
+            sinks.add(new AlertCommandSink(alertCommand));
+        }
+        AlertEngine engine = new AlertEngine(alertRules, sampleInterval, sinks);
+        notifier.register(engine);
+        engine.start();
+        return engine;
+    }
+
+    @Override
+    public void destroy() {
+        if (cluster != null) {
+            cluster.stop();
+        }
+        if (profiler != null) {
+            profiler.stop();
+        }
+        if (sampler != null) {
+            sampler.stop();
+        }
+        if (stream != null) {
+            stream.close();
+        }
+        if (logWriter != null) {
+            logWriter.stop();
+        }
+        if (alerts != null) {
+            alerts.stop();
+        }
+        if (history != null) {
+            history.force();
+        }
+        if (collector != null) {
+            collector.stop();
+        }
+        if (contention != null) {
+            contention.close();
+        }
+        if (virtualThreads != null) {
+            virtualThreads.stop();
+        }
+        if (self != null) {
+            self.close();
+        }
+        super.destroy();
     }
     
     @Override
@@ -118,6 +676,8 @@ public class ThreadMonitorServlet extends HttpServlet {
             throws ServletException, IOException {
 
         String action = request.getParameter("action");
+        long allocated = self.allocatedBytes();
+        long start = System.nanoTime();
 
         try {
             if ("export".equals(action)) {
@@ -126,6 +686,28 @@ public class ThreadMonitorServlet extends HttpServlet {
                 handleLogToFile(request, response);
             } else if ("json".equals(action)) {
                 handleJsonExport(request, response);
+            } else if ("history".equals(action)) {
+                handleHistory(request, response);
+            } else if ("stream".equals(action)) {
+                handleStream(request, response);
+            } else if ("metrics".equals(action)) {
+                handleMetrics(request, response);
+            } else if ("alerts".equals(action)) {
+                handleAlerts(request, response);
+            } else if ("hotthreads".equals(action)) {
+                handleHotThreads(request, response);
+            } else if ("latency".equals(action)) {
+                handleLatency(request, response);
+            } else if ("profile".equals(action)) {
+                handleProfile(request, response);
+            } else if ("delta".equals(action)) {
+                handleDelta(request, response);
+            } else if ("cluster".equals(action)) {
+                handleCluster(request, response);
+            } else if ("forecast".equals(action)) {
+                handleForecast(request, response);
+            } else if ("self".equals(action)) {
+                handleSelf(request, response);
             } else {
                 handleMonitorDisplay(request, response);
             }
@@ -133,588 +715,603 @@ public class ThreadMonitorServlet extends HttpServlet {
             log("Error processing request: action=" + action, e);
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                 "An error occurred while processing your request. Please check server logs for details.");
+        } finally {
+            self.record(SelfMonitor.Stage.REQUEST, start, allocated);
         }
     }
     
     private void handleExport(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
 
+        if (request.getParameter("from") != null || request.getParameter("to") != null) {
+            handleRangeExport(request, response);
+            return;
+        }
+
         response.setContentType("text/csv");
+        response.setCharacterEncoding("UTF-8");
         response.setHeader("Content-Disposition", "attachment; filename=\"thread-monitor-" +
-                          new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").format(new Date()) + ".csv\"");
-
-        PrintWriter out = response.getWriter();
+                          EXPORT_FILE_TIME.format(LocalDateTime.now()) + ".csv\"");
 
         try {
-            ThreadInfo threadInfo = getThreadInformation();
-            String csvData = formatThreadInfoAsCSV(threadInfo);
-            out.print(csvData);
+            sendCached(request, response, responses.current(), ResponseCache.Representation.CSV);
 
         } catch (JMException e) {
             log("JMX error during CSV export", e);
-            out.println("Error,JMX data retrieval failed: " + e.getMessage());
+            response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            response.getWriter().println("Error,JMX data retrieval failed: " + e.getMessage());
         } catch (Exception e) {
             log("Unexpected error during CSV export", e);
-            out.println("Error,Unexpected error: " + e.getMessage());
+            response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            response.getWriter().println("Error,Unexpected error: " + e.getMessage());
         }
     }
 
-    private void handleJsonExport(HttpServletRequest request, HttpServletResponse response)
+    private void handleRangeExport(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
 
-        response.setContentType("application/json");
+        response.setContentType("text/csv");
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
 
-        PrintWriter out = response.getWriter();
+        ZoneId zone = ZoneId.systemDefault();
+        long to;
+        long from;
+        try {
+            to = parseLongParameter(request, "to", System.currentTimeMillis());
+            // Without from, export the day that contains to
+            LocalDate day = Instant.ofEpochMilli(to).atZone(zone).toLocalDate();
+            from = parseLongParameter(request, "from", day.atStartOfDay(zone).toInstant().toEpochMilli());
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().println("Error,Invalid export parameter: " + e.getMessage());
+            return;
+        }
+        if (from > to) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().println("Error,from must not be after to");
+            return;
+        }
+
+        response.setHeader("Content-Disposition", "attachment; filename=\"thread-monitor-" +
+                          EXPORT_FILE_TIME.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(from), zone)) + "-to-" +
+                          EXPORT_FILE_TIME.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(to), zone)) + ".csv\"");
+
+        // No Content-Length: the container sends the rows chunked as they are read
+        try {
+            logExport.write(from, to, response.getOutputStream());
+        } catch (IOException e) {
+            // Usually the client went away; the response is already committed either way
+            log("Range export from " + from + " to " + to + " aborted: " + e.getMessage());
+        }
+    }
+
+    private void handleJsonExport(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
 
         try {
-            ThreadInfo threadInfo = getThreadInformation();
-            String jsonData = formatThreadInfoAsJSON(threadInfo);
-            out.print(jsonData);
+            sendCached(request, response, responses.current(), ResponseCache.Representation.JSON);
 
         } catch (JMException e) {
             log("JMX error during JSON export", e);
+            response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"status\":\"error\",\"message\":\"JMX data retrieval failed: " +
+            response.getWriter().print("{\"status\":\"error\",\"message\":\"JMX data retrieval failed: " +
                      escapeJson(e.getMessage()) + "\"}");
         } catch (Exception e) {
             log("Unexpected error during JSON export", e);
+            response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.print("{\"status\":\"error\",\"message\":\"Unexpected error: " +
+            response.getWriter().print("{\"status\":\"error\",\"message\":\"Unexpected error: " +
                      escapeJson(e.getMessage()) + "\"}");
         }
     }
     
-    private void handleLogToFile(HttpServletRequest request, HttpServletResponse response)
+    private void handleMetrics(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+
+        try {
+            ResponseCache.Snapshot snapshot = responses.current();
+            response.setContentType(MetricsWriter.CONTENT_TYPE);
+            if (snapshot.isCurrent(ResponseCache.Representation.METRICS)) {
+                sendCached(request, response, snapshot, ResponseCache.Representation.METRICS);
+            } else {
+                // Sampling failed since the snapshot; report the current failure count
+                response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+                MetricsWriter.write(snapshot.info, sampler, latency.current(), self, response.getWriter());
+            }
+
+        } catch (JMException e) {
+            log("JMX error during metrics export", e);
+            response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "JMX data retrieval failed");
+        }
+    }
+
+    /**
+     * Sends a cached body of the latest sample, or 304 when the client already has it. Bodies are served
+     * gzipped to clients that accept it, under their own ETag.
+     */
+    private void sendCached(HttpServletRequest request, HttpServletResponse response, ResponseCache.Snapshot snapshot,
+                            ResponseCache.Representation representation) throws IOException {
+        boolean gzip = ResponseCache.acceptsGzip(request.getHeader("Accept-Encoding"));
+        String etag = snapshot.etag(representation, gzip);
+        // Clients may keep the body but must revalidate it, which costs them a 304 until the next sample
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Vary", "Accept-Encoding");
+        if (ResponseCache.matches(request.getHeader("If-None-Match"), etag)) {
+            response.setHeader("ETag", etag);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        // Encode before setting the entity headers, so a failure leaves the error response clean
+        byte[] body = snapshot.body(representation, gzip);
+        response.setHeader("ETag", etag);
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private void handleAlerts(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
 
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
-        PrintWriter out = response.getWriter();
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
 
-        try {
-            log("handleLogToFile called from: " + request.getRemoteAddr() +
-                " User-Agent: " + request.getHeader("User-Agent"));
+        StringBuilder json = new StringBuilder();
+        json.append("{\"rules\":[");
+        List<AlertRule> rules = alerts.getRules();
+        for (int i = 0; i < rules.size(); i++) {
+            json.append(i > 0 ? "," : "").append('"').append(escapeJson(rules.get(i).text)).append('"');
+        }
+        json.append("],\"active\":[");
+        appendAlertEvents(json, alerts.getActive());
+        json.append("],\"recent\":[");
+        appendAlertEvents(json, alerts.getRecent());
+        json.append("],\"firedCount\":").append(alerts.getFiredCount());
+        json.append(",\"droppedCount\":").append(alerts.getDroppedCount()).append('}');
+
+        response.getWriter().print(json);
+    }
 
-            ThreadInfo threadInfo = getThreadInformation();
-            String logResult = logThreadDataToFile(threadInfo);
+    private void appendAlertEvents(StringBuilder json, List<AlertEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            json.append(i > 0 ? "," : "").append(events.get(i).toJson());
+        }
+    }
 
-            log("Log result: " + logResult);
+    private void handleProfile(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
 
-            out.println("{");
-            out.println("  \"status\": \"success\",");
-            out.println("  \"message\": \"" + escapeJson(logResult) + "\",");
-            out.println("  \"timestamp\": \"" + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()) + "\"");
-            out.println("}");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
 
-            out.flush();
-            response.flushBuffer();
+        if (profiler == null) {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{\"status\":\"error\",\"message\":\"Profiler is disabled; set profilerRate to enable it\"}");
+            return;
+        }
 
-        } catch (JMException e) {
-            log("JMX error in handleLogToFile: " + e.getMessage(), e);
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.println("{");
-            out.println("  \"status\": \"error\",");
-            out.println("  \"message\": \"JMX data retrieval failed: " + escapeJson(e.getMessage()) + "\"");
-            out.println("}");
-            out.flush();
-        } catch (IOException e) {
-            log("I/O error in handleLogToFile: " + e.getMessage(), e);
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.println("{");
-            out.println("  \"status\": \"error\",");
-            out.println("  \"message\": \"File write failed: " + escapeJson(e.getMessage()) + "\"");
-            out.println("}");
-            out.flush();
-        } catch (Exception e) {
-            log("Unexpected error in handleLogToFile: " + e.getMessage(), e);
-            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            out.println("{");
-            out.println("  \"status\": \"error\",");
-            out.println("  \"message\": \"Unexpected error: " + escapeJson(e.getMessage()) + "\"");
-            out.println("}");
-            out.flush();
+        if (request.getParameter("stats") != null) {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().print("{\"rateHz\":" + String.format(Locale.ROOT, "%.2f", profiler.getRateHz()) +
+                ",\"effectiveRateHz\":" + String.format(Locale.ROOT, "%.2f", profiler.getEffectiveRateHz()) +
+                ",\"overheadPercent\":" + String.format(Locale.ROOT, "%.4f", profiler.getOverheadPercent()) +
+                ",\"maxOverheadPercent\":" + String.format(Locale.ROOT, "%.2f", profiler.getMaxOverheadPercent()) +
+                ",\"ticks\":" + profiler.getTickCount() +
+                ",\"samples\":" + profiler.getSampleCount() +
+                ",\"frames\":" + profiler.getFrameCount() +
+                ",\"nodes\":" + profiler.getNodeCount() +
+                ",\"overflows\":" + profiler.getOverflowCount() +
+                ",\"truncatedSamples\":" + profiler.getTruncatedCount() +
+                ",\"rebuilds\":" + profiler.getRebuildCount() + "}");
+            return;
+        }
+
+        long seconds;
+        try {
+            seconds = parseLongParameter(request, "seconds", 60);
+        } catch (NumberFormatException e) {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"status\":\"error\",\"message\":\"Invalid seconds parameter\"}");
+            return;
         }
+        seconds = Math.max(1, Math.min(StackProfiler.MAX_SECONDS, seconds));
+
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("X-Profile-Overhead-Percent", String.format(Locale.ROOT, "%.4f", profiler.getOverheadPercent()));
+        response.setHeader("X-Profile-Effective-Rate", String.format(Locale.ROOT, "%.2f", profiler.getEffectiveRateHz()));
+        response.setHeader("X-Profile-Truncated-Samples", Long.toString(profiler.truncatedSamples((int) seconds)));
+        profiler.writeCollapsed((int) seconds, response.getWriter());
     }
-    
-    private void handleMonitorDisplay(HttpServletRequest request, HttpServletResponse response)
-            throws ServletException, IOException {
 
-        response.setContentType("text/html;charset=UTF-8");
+    private void handleHotThreads(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
         response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
-        response.setHeader("Pragma", "no-cache");
-        response.setDateHeader("Expires", 0);
 
-        PrintWriter out = response.getWriter();
+        if (hotThreads == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{\"status\":\"error\",\"message\":\"Hot thread capture is disabled\"}");
+            return;
+        }
 
-        try {
-            String refreshParam = request.getParameter("refresh");
-            int refreshInterval = 30; // default 30 seconds
-
-            if (refreshParam != null && !refreshParam.isEmpty()) {
-                try {
-                    refreshInterval = Integer.parseInt(refreshParam);
-                    if (refreshInterval < 5) refreshInterval = 5; // minimum 5 seconds
-                    if (refreshInterval > 3600) refreshInterval = 3600; // maximum 1 hour
-                } catch (NumberFormatException e) {
-                    log("Invalid refresh interval: " + refreshParam + ", using default 30s");
-                    refreshInterval = 30;
+        StringBuilder json = new StringBuilder();
+        json.append("{\"captureCount\":").append(hotThreads.getCaptureCount());
+        json.append(",\"skippedCount\":").append(hotThreads.getSkippedCount());
+        json.append(",\"captures\":[");
+        List<HotThreadCapture.Capture> captures = hotThreads.getCaptures();
+        for (int c = 0; c < captures.size(); c++) {
+            HotThreadCapture.Capture capture = captures.get(c);
+            json.append(c > 0 ? "," : "").append('{');
+            json.append("\"timestamp\":").append(capture.timestamp);
+            json.append(",\"time\":\"").append(TIMESTAMP.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(capture.timestamp), ZoneId.systemDefault()))).append('"');
+            json.append(",\"pool\":\"").append(escapeJson(capture.pool)).append('"');
+            json.append(",\"utilizationPercent\":").append(String.format(Locale.ROOT, "%.2f", capture.utilizationPercent));
+            json.append(",\"intervalMillis\":").append(capture.intervalMillis);
+            json.append(",\"workerCount\":").append(capture.workerCount);
+            json.append(",\"threads\":[");
+            for (int t = 0; t < capture.threads.size(); t++) {
+                HotThreadCapture.HotThread thread = capture.threads.get(t);
+                json.append(t > 0 ? "," : "").append('{');
+                json.append("\"id\":").append(thread.id);
+                json.append(",\"name\":\"").append(escapeJson(thread.name)).append('"');
+                json.append(",\"state\":\"").append(thread.state).append('"');
+                json.append(",\"cpuMillis\":").append(thread.cpuNanos < 0 ? "null" : String.format(Locale.ROOT, "%.3f", thread.cpuNanos / 1e6));
+                json.append(",\"lock\":").append(thread.lockName != null ? "\"" + escapeJson(thread.lockName) + "\"" : "null");
+                json.append(",\"stack\":[");
+                for (int f = 0; f < thread.stack.length; f++) {
+                    json.append(f > 0 ? "," : "").append('"').append(escapeJson(thread.stack[f].toString())).append('"');
                 }
+                json.append("]}");
             }
-            
-            out.println("<!DOCTYPE html>");
-            out.println("<html>");
-            out.println("<head>");
-            out.println("<title>Tomcat Thread Monitor</title>");
-            out.println("<meta http-equiv=\"refresh\" content=\"" + refreshInterval + "\">");
-            out.println("<style>");
-            out.println("body { font-family: Arial, sans-serif; margin: 20px; background-color: #f5f5f5; }");
-            out.println(".container { max-width: 1200px; margin: 0 auto; }");
-            out.println(".header { background: #2c3e50; color: white; padding: 20px; border-radius: 8px; margin-bottom: 20px; }");
-            out.println(".metric-card { background: white; padding: 20px; margin: 10px 0; border-radius: 8px; box-shadow: 0 2px 4px rgba(0,0,0,0.1); }");
-            out.println(".metric-title { font-size: 18px; font-weight: bold; color: #2c3e50; margin-bottom: 10px; }");
-            out.println(".metric-value { font-size: 24px; font-weight: bold; }");
-            out.println(".normal { color: #27ae60; }");
-            out.println(".warning { color: #f39c12; }");
-            out.println(".critical { color: #e74c3c; }");
-            out.println(".grid { display: grid; grid-template-columns: repeat(auto-fit, minmax(300px, 1fr)); gap: 15px; }");
-            out.println(".controls { background: white; padding: 15px; border-radius: 8px; margin-bottom: 20px; }");
-            out.println(".controls button { background: #3498db; color: white; padding: 8px 16px; border: none; border-radius: 4px; margin: 0 5px; cursor: pointer; }");
-            out.println(".controls button:hover { background: #2980b9; }");
-            out.println(".controls .success { background: #27ae60; }");
-            out.println(".controls .error { background: #e74c3c; }");
-            out.println(".thread-details { background: white; padding: 20px; border-radius: 8px; margin-top: 20px; }");
-            out.println("table { width: 100%; border-collapse: collapse; margin-top: 10px; }");
-            out.println("th, td { padding: 8px; text-align: left; border-bottom: 1px solid #ddd; }");
-            out.println("th { background-color: #f8f9fa; font-weight: bold; }");
-            out.println("#logStatus { margin-left: 10px; padding: 5px 10px; border-radius: 4px; font-size: 12px; }");
-            out.println("</style>");
-            out.println("<script>");
-            out.println("function exportCSV() {");
-            out.println("  window.location.href = '?action=export';");
-            out.println("}");
-            out.println("function logToFile() {");
-            out.println("  fetch('?action=log')");
-            out.println("    .then(response => response.json())");
-            out.println("    .then(data => {");
-            out.println("      const status = document.getElementById('logStatus');");
-            out.println("      status.textContent = data.message;");
-            out.println("      status.className = data.status === 'success' ? 'success' : 'error';");
-            out.println("      setTimeout(() => { status.textContent = ''; status.className = ''; }, 5000);");
-            out.println("    })");
-            out.println("    .catch(err => {");
-            out.println("      const status = document.getElementById('logStatus');");
-            out.println("      status.textContent = 'Error: ' + err.message;");
-            out.println("      status.className = 'error';");
-            out.println("      setTimeout(() => { status.textContent = ''; status.className = ''; }, 5000);");
-            out.println("    });");
-            out.println("}");
-            out.println("</script>");
-            out.println("</head>");
-            out.println("<body>");
-            
-            out.println("<div class=\"container\">");
-            out.println("<div class=\"header\">");
-            out.println("<h1>Tomcat Thread Monitor</h1>");
-            out.println("<p>Real-time monitoring of Tomcat thread pools and system threads</p>");
-            out.println("</div>");
-            
-            // Refresh controls
-            out.println("<div class=\"controls\">");
-            out.println("<form method=\"get\" style=\"display: inline;\">");
-            out.println("Auto-refresh interval: ");
-            out.println("<select name=\"refresh\" onchange=\"this.form.submit()\">");
-            int[] intervals = {5, 10, 30, 60, 120};
-            for (int interval : intervals) {
-                String selected = (interval == refreshInterval) ? "selected" : "";
-                out.println("<option value=\"" + interval + "\" " + selected + ">" + interval + " seconds</option>");
-            }
-            out.println("</select>");
-            out.println("</form>");
-            out.println("<button onclick=\"exportCSV()\">Export CSV</button>");
-            out.println("<button onclick=\"logToFile()\">Log to File</button>");
-            out.println("<span id=\"logStatus\"></span>");
-            out.println("<span style=\"float: right;\">Last updated: " + new java.util.Date() + "</span>");
-            out.println("</div>");
-            
-            // Get thread information
-            ThreadInfo threadInfo = getThreadInformation();
-
-            // Main metrics grid
-            out.println("<div class=\"grid\">");
-            
-            // Tomcat Thread Pool Status
-            out.println("<div class=\"metric-card\">");
-            out.println("<div class=\"metric-title\">Tomcat HTTP Connector Threads</div>");
-            out.println("<div class=\"metric-value " + getStatusClass(threadInfo.httpCurrentThreadsBusy, threadInfo.httpMaxThreads) + "\">");
-            out.println(threadInfo.httpCurrentThreadsBusy + " / " + threadInfo.httpMaxThreads + " busy");
-            out.println("</div>");
-            out.println("<div>Available: " + (threadInfo.httpMaxThreads - threadInfo.httpCurrentThreadsBusy) + "</div>");
-            out.println("</div>");
-            
-            // AJP Thread Pool (if available)
-            if (threadInfo.ajpMaxThreads > 0) {
-                out.println("<div class=\"metric-card\">");
-                out.println("<div class=\"metric-title\">Tomcat AJP Connector Threads</div>");
-                out.println("<div class=\"metric-value " + getStatusClass(threadInfo.ajpCurrentThreadsBusy, threadInfo.ajpMaxThreads) + "\">");
-                out.println(threadInfo.ajpCurrentThreadsBusy + " / " + threadInfo.ajpMaxThreads + " busy");
-                out.println("</div>");
-                out.println("<div>Available: " + (threadInfo.ajpMaxThreads - threadInfo.ajpCurrentThreadsBusy) + "</div>");
-                out.println("</div>");
-            }
-            
-            // Total System Threads
-            out.println("<div class=\"metric-card\">");
-            out.println("<div class=\"metric-title\">Total System Threads</div>");
-            out.println("<div class=\"metric-value normal\">" + threadInfo.totalThreadCount + "</div>");
-            out.println("<div>Peak: " + threadInfo.peakThreadCount + "</div>");
-            out.println("</div>");
-            
-            // Daemon Threads
-            out.println("<div class=\"metric-card\">");
-            out.println("<div class=\"metric-title\">Daemon Threads</div>");
-            out.println("<div class=\"metric-value normal\">" + threadInfo.daemonThreadCount + "</div>");
-            out.println("<div>Non-daemon: " + (threadInfo.totalThreadCount - threadInfo.daemonThreadCount) + "</div>");
-            out.println("</div>");
-            
-            out.println("</div>");
-            
-            // Detailed thread information table
-            out.println("<div class=\"thread-details\">");
-            out.println("<h2>Thread Pool Details</h2>");
-            out.println("<table>");
-            out.println("<tr><th>Connector</th><th>Current Busy</th><th>Max Threads</th><th>Available</th><th>Utilization %</th></tr>");
-            
-            if (threadInfo.httpMaxThreads > 0) {
-                double httpUtilization = (double) threadInfo.httpCurrentThreadsBusy / threadInfo.httpMaxThreads * 100;
-                out.println("<tr>");
-                out.println("<td>HTTP/1.1</td>");
-                out.println("<td>" + threadInfo.httpCurrentThreadsBusy + "</td>");
-                out.println("<td>" + threadInfo.httpMaxThreads + "</td>");
-                out.println("<td>" + (threadInfo.httpMaxThreads - threadInfo.httpCurrentThreadsBusy) + "</td>");
-                out.println("<td class=\"" + getUtilizationClass(httpUtilization) + "\">" + String.format("%.1f%%", httpUtilization) + "</td>");
-                out.println("</tr>");
-            }
-            
-            if (threadInfo.ajpMaxThreads > 0) {
-                double ajpUtilization = (double) threadInfo.ajpCurrentThreadsBusy / threadInfo.ajpMaxThreads * 100;
-                out.println("<tr>");
-                out.println("<td>AJP/1.3</td>");
-                out.println("<td>" + threadInfo.ajpCurrentThreadsBusy + "</td>");
-                out.println("<td>" + threadInfo.ajpMaxThreads + "</td>");
-                out.println("<td>" + (threadInfo.ajpMaxThreads - threadInfo.ajpCurrentThreadsBusy) + "</td>");
-                out.println("<td class=\"" + getUtilizationClass(ajpUtilization) + "\">" + String.format("%.1f%%", ajpUtilization) + "</td>");
-                out.println("</tr>");
-            }
-            
-            out.println("</table>");
-            out.println("</div>");
-            
-            out.println("</div>");
-            out.println("</body>");
-            out.println("</html>");
-
-        } catch (JMException e) {
-            log("JMX error retrieving thread information for display", e);
-            out.println("<h2>Error retrieving thread information</h2>");
-            out.println("<p>Unable to retrieve JMX data from Tomcat. Please check:</p>");
-            out.println("<ul>");
-            out.println("<li>Tomcat is running properly</li>");
-            out.println("<li>JMX is enabled and accessible</li>");
-            out.println("<li>Application has proper permissions</li>");
-            out.println("</ul>");
-            out.println("<p>Error details: " + escapeHtml(e.getMessage()) + "</p>");
-        } catch (Exception e) {
-            log("Unexpected error rendering display", e);
-            out.println("<h2>Error retrieving thread information</h2>");
-            out.println("<p>An unexpected error occurred. Please check the server logs for details.</p>");
-            out.println("<p>Error: " + escapeHtml(e.getMessage()) + "</p>");
+            json.append("]}");
         }
+        json.append("]}");
+
+        response.getWriter().print(json);
     }
-    
-    private ThreadInfo getThreadInformation() throws JMException {
-        ThreadInfo info = new ThreadInfo();
 
-        try {
-            // Get system thread information
-            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
-            info.totalThreadCount = threadMXBean.getThreadCount();
-            info.peakThreadCount = threadMXBean.getPeakThreadCount();
-            info.daemonThreadCount = threadMXBean.getDaemonThreadCount();
-
-            // Get Tomcat-specific thread pool information
-            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
-
-            // Look for HTTP connector
-            Set<ObjectName> httpConnectors = server.queryNames(
-                new ObjectName("Catalina:type=ThreadPool,name=*http*"), null);
-
-            for (ObjectName name : httpConnectors) {
-                try {
-                    Object maxThreads = server.getAttribute(name, "maxThreads");
-                    Object currentThreadsBusy = server.getAttribute(name, "currentThreadsBusy");
-
-                    if (maxThreads != null && currentThreadsBusy != null) {
-                        info.httpMaxThreads = (Integer) maxThreads;
-                        info.httpCurrentThreadsBusy = (Integer) currentThreadsBusy;
-                        break;
-                    }
-                } catch (AttributeNotFoundException e) {
-                    // Try alternative attribute names
-                    try {
-                        Object maxThreads = server.getAttribute(name, "maxThreads");
-                        Object currentThreadCount = server.getAttribute(name, "currentThreadCount");
-
-                        if (maxThreads != null && currentThreadCount != null) {
-                            info.httpMaxThreads = (Integer) maxThreads;
-                            info.httpCurrentThreadsBusy = (Integer) currentThreadCount;
-                            break;
-                        }
-                    } catch (Exception ex) {
-                        log("Failed to retrieve HTTP connector attributes from: " + name, ex);
-                        // Continue to next connector
-                    }
-                }
-            }
+    private void handleCluster(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
 
-            // Look for AJP connector
-            Set<ObjectName> ajpConnectors = server.queryNames(
-                new ObjectName("Catalina:type=ThreadPool,name=*ajp*"), null);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
 
-            for (ObjectName name : ajpConnectors) {
-                try {
-                    Object maxThreads = server.getAttribute(name, "maxThreads");
-                    Object currentThreadsBusy = server.getAttribute(name, "currentThreadsBusy");
+        if (cluster == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().print("{\"status\":\"error\",\"message\":\"No cluster peers are configured\"}");
+            return;
+        }
 
-                    if (maxThreads != null && currentThreadsBusy != null) {
-                        info.ajpMaxThreads = (Integer) maxThreads;
-                        info.ajpCurrentThreadsBusy = (Integer) currentThreadsBusy;
-                        break;
-                    }
-                } catch (Exception e) {
-                    log("AJP connector query failed (might not be configured): " + e.getMessage());
-                    // AJP connector might not be configured, continue
+        ClusterPoller.View view = cluster.current();
+        StringBuilder json = new StringBuilder();
+        json.append("{\"timestamp\":").append(view.timestamp);
+        json.append(",\"intervalMillis\":").append(cluster.getIntervalMillis());
+        json.append(",\"fleet\":{\"nodes\":").append(view.nodes.size());
+        json.append(",\"reporting\":").append(view.reporting);
+        json.append(",\"failed\":").append(view.nodes.size() - view.reporting);
+        json.append(",\"busyThreads\":").append(view.busyThreads);
+        json.append(",\"maxThreads\":").append(view.maxThreads);
+        json.append(",\"utilizationPercent\":").append(String.format(Locale.ROOT, "%.2f", view.utilizationPercent));
+        json.append(",\"deadlockedThreads\":").append(view.deadlockedThreads);
+        json.append("},\"nodes\":[");
+        for (int n = 0; n < view.nodes.size(); n++) {
+            ClusterPoller.Node node = view.nodes.get(n);
+            json.append(n > 0 ? ",{" : "{");
+            json.append("\"rank\":").append(n + 1);
+            json.append(",\"name\":\"").append(escapeJson(node.name)).append('"');
+            json.append(",\"address\":\"").append(escapeJson(node.address)).append('"');
+            json.append(",\"status\":\"").append(node.reporting ? "ok" : "failed").append('"');
+            json.append(",\"error\":").append(node.error != null ? "\"" + escapeJson(node.error) + "\"" : "null");
+            json.append(",\"pollMillis\":").append(node.pollMillis);
+            json.append(",\"lastSuccess\":").append(node.info != null ? String.valueOf(node.lastSuccessMillis) : "null");
+            if (node.info != null) {
+                json.append(",\"busyThreads\":").append(node.busyThreads);
+                json.append(",\"maxThreads\":").append(node.maxThreads);
+                json.append(",\"utilizationPercent\":").append(String.format(Locale.ROOT, "%.2f", node.utilizationPercent));
+                json.append(",\"totalThreads\":").append(node.info.totalThreadCount);
+                json.append(",\"deadlockedThreads\":").append(node.info.deadlockedThreads.size());
+                json.append(",\"hottestPool\":");
+                if (node.hottestPool != null) {
+                    json.append("{\"name\":\"").append(escapeJson(node.hottestPool.name)).append('"');
+                    json.append(",\"type\":\"").append(escapeJson(node.hottestPool.type)).append('"');
+                    json.append(",\"utilizationPercent\":").append(String.format(Locale.ROOT, "%.2f", node.hottestPool.utilizationPercent()));
+                    json.append('}');
+                } else {
+                    json.append("null");
                 }
             }
+            json.append('}');
+        }
+        json.append("]}");
+        response.getWriter().print(json);
+    }
 
-            return info;
+    private void handleForecast(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
 
-        } catch (Exception e) {
-            throw new JMException("Failed to retrieve thread information: " + e.getMessage());
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+
+        List<CapacityForecaster.Forecast> forecasts = forecaster.current();
+        StringBuilder json = new StringBuilder();
+        json.append("{\"windowMillis\":").append(forecaster.getWindowMillis());
+        json.append(",\"sizingDays\":").append(forecaster.getSizingDays());
+        json.append(",\"pools\":[");
+        for (int p = 0; p < forecasts.size(); p++) {
+            CapacityForecaster.Forecast forecast = forecasts.get(p);
+            CapacityForecaster.Sizing sizing = forecast.sizing;
+            json.append(p > 0 ? ",{" : "{");
+            json.append("\"name\":\"").append(escapeJson(forecast.name)).append('"');
+            json.append(",\"type\":\"").append(forecast.type).append('"');
+            json.append(",\"busyThreads\":").append(forecast.busyThreads);
+            json.append(",\"maxThreads\":").append(forecast.maxThreads);
+            json.append(",\"ewma1m\":").append(String.format(Locale.ROOT, "%.2f", forecast.shortAverage));
+            json.append(",\"ewma15m\":").append(String.format(Locale.ROOT, "%.2f", forecast.longAverage));
+            json.append(",\"trendPerMinute\":").append(Double.isNaN(forecast.trendPerMinute) ? "null"
+                                                          : String.format(Locale.ROOT, "%.3f", forecast.trendPerMinute));
+            json.append(",\"exhaustionSeconds\":").append(forecast.exhaustionSeconds >= 0
+                                                           ? String.valueOf(forecast.exhaustionSeconds) : "null");
+            json.append(",\"sizing\":{\"coverageMillis\":").append(sizing.coverageMillis);
+            json.append(",\"samples\":").append(sizing.samples);
+            json.append(",\"p50\":").append(sizing.p50);
+            json.append(",\"p99\":").append(sizing.p99);
+            json.append(",\"p999\":").append(sizing.p999);
+            json.append(",\"peak\":").append(sizing.peak);
+            json.append(",\"recommendedMaxThreads\":").append(sizing.recommendedMaxThreads);
+            json.append(",\"verdict\":\"").append(sizing.verdict).append('"');
+            json.append(",\"summary\":\"").append(escapeJson(sizing.summary)).append("\"}}");
         }
+        json.append("]}");
+        response.getWriter().print(json);
     }
-    
-    private String logThreadDataToFile(ThreadInfo threadInfo) throws IOException {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        String today = dateFormat.format(new Date());
 
-        File logFile = new File(logDirectory, "thread-monitor-" + today + ".csv");
-        boolean isNewFile = !logFile.exists();
+    private void handleLatency(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
 
-        // Check if we can write to the directory
-        File logDir = new File(logDirectory);
-        if (!logDir.exists()) {
-            boolean created = logDir.mkdirs();
-            if (!created) {
-                throw new IOException("Cannot create log directory: " + logDirectory);
-            }
-        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
 
-        if (!logDir.canWrite()) {
-            throw new IOException("Cannot write to log directory: " + logDirectory);
-        }
+        JsonFormat.writeLatency(latencyWindow, latency.current(), response.getOutputStream());
+    }
 
-        // Check if log rotation is needed
-        if (logFile.exists() && logFile.length() > maxLogFileSize) {
-            rotateLogFile(logFile);
-            isNewFile = true; // New file after rotation
-        }
+    private void handleSelf(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
 
-        try (FileWriter writer = new FileWriter(logFile, true);
-             PrintWriter out = new PrintWriter(writer)) {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
 
-            // Write header if new file
-            if (isNewFile) {
-                out.println("Timestamp,HTTP_Busy_Threads,HTTP_Max_Threads,HTTP_Available,HTTP_Utilization_Percent," +
-                           "AJP_Busy_Threads,AJP_Max_Threads,AJP_Available,AJP_Utilization_Percent," +
-                           "Total_System_Threads,Peak_System_Threads,Daemon_Threads");
-            }
+        JsonFormat.writeSelf(self, response.getOutputStream());
+    }
 
-            // Write data using shared formatter
-            String csvData = formatThreadInfoAsCSVRow(threadInfo);
-            out.print(csvData);
+    private void handleStream(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+
+        if (!request.isAsyncSupported()) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Asynchronous requests are not supported");
+            return;
         }
 
-        return "Data logged to: " + logFile.getAbsolutePath();
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        // Stop reverse proxies such as nginx from buffering the event stream
+        response.setHeader("X-Accel-Buffering", "no");
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+        if (!stream.subscribe(context)) {
+            log("Rejected stream subscriber from " + request.getRemoteAddr() + ": limit of " + maxStreamClients + " reached");
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            context.complete();
+        }
     }
 
-    private void rotateLogFile(File currentFile) throws IOException {
-        // Find existing rotation number
-        String baseName = currentFile.getName();
-        int maxRotation = 0;
-
-        File parentDir = currentFile.getParentFile();
-        File[] files = parentDir.listFiles((dir, name) -> name.startsWith(baseName));
-
-        if (files != null) {
-            for (File file : files) {
-                String name = file.getName();
-                if (name.matches(baseName + "\\.\\d+")) {
-                    String numStr = name.substring(baseName.length() + 1);
-                    try {
-                        int num = Integer.parseInt(numStr);
-                        maxRotation = Math.max(maxRotation, num);
-                    } catch (NumberFormatException e) {
-                        // Ignore malformed rotation numbers
-                    }
-                }
-            }
+    private void handleHistory(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+
+        long to;
+        long from;
+        long step;
+        try {
+            to = parseLongParameter(request, "to", System.currentTimeMillis());
+            long oldest = history.oldestTimestamp();
+            from = parseLongParameter(request, "from", oldest >= 0 ? oldest : to);
+            step = parseLongParameter(request, "step", 0);
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"status\":\"error\",\"message\":\"Invalid history parameter: " +
+                                       escapeJson(e.getMessage()) + "\"}");
+            return;
         }
 
-        // Rotate existing files
-        for (int i = maxRotation; i >= 1; i--) {
-            File oldFile = new File(parentDir, baseName + "." + i);
-            if (oldFile.exists()) {
-                if (i >= maxLogFiles - 1) {
-                    // Delete oldest file
-                    if (!oldFile.delete()) {
-                        log("Failed to delete old log file: " + oldFile.getAbsolutePath());
-                    }
-                } else {
-                    // Rename to higher number
-                    File newFile = new File(parentDir, baseName + "." + (i + 1));
-                    if (!oldFile.renameTo(newFile)) {
-                        log("Failed to rotate log file: " + oldFile.getAbsolutePath());
-                    }
-                }
-            }
+        if (from > to) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"status\":\"error\",\"message\":\"from must not be after to\"}");
+            return;
         }
 
-        // Rotate current file to .1
-        File rotatedFile = new File(parentDir, baseName + ".1");
-        if (!currentFile.renameTo(rotatedFile)) {
-            throw new IOException("Failed to rotate current log file: " + currentFile.getAbsolutePath());
+        // Never return more than MAX_HISTORY_POINTS buckets, whatever step was requested
+        long range = to - from + 1;
+        long minStep = Math.max(sampleInterval, (range + MAX_HISTORY_POINTS - 1) / MAX_HISTORY_POINTS);
+        if (step < minStep) {
+            step = minStep;
         }
 
-        log("Log file rotated: " + currentFile.getName() + " -> " + rotatedFile.getName());
-    }
-    
-    private String getStatusClass(int busy, int max) {
-        if (max == 0) return "normal";
-        double utilization = (double) busy / max * 100;
-        if (utilization >= criticalThreshold) return "critical";
-        if (utilization >= warningThreshold) return "warning";
-        return "normal";
+        PrintWriter out = response.getWriter();
+        out.print("{\"from\":" + from + ",\"to\":" + to + ",\"step\":" + step + ",\"points\":[");
+        final boolean[] first = {true};
+        history.downsample(from, to, step, (bucketStart, samples, min, max, avg) -> {
+            if (!first[0]) {
+                out.print(',');
+            }
+            first[0] = false;
+            out.print("{\"timestamp\":" + bucketStart + ",\"samples\":" + samples);
+            for (int m = 0; m < SampleHistory.METRIC_COUNT; m++) {
+                out.print(",\"" + HISTORY_METRIC_NAMES[m] + "\":[" + min[m] + "," + max[m] + "," +
+                          String.format(Locale.ROOT, "%.2f", avg[m]) + "]");
+            }
+            out.print('}');
+        });
+        out.print("]}");
     }
 
-    private String getUtilizationClass(double utilization) {
-        if (utilization >= criticalThreshold) return "critical";
-        if (utilization >= warningThreshold) return "warning";
-        return "normal";
+    private long parseLongParameter(HttpServletRequest request, String name, long defaultValue) {
+        String value = request.getParameter(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException(name + "=" + value);
+        }
     }
 
-    private String formatThreadInfoAsCSV(ThreadInfo threadInfo) {
-        StringBuilder csv = new StringBuilder();
+    private void handleLogToFile(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
 
-        // CSV Header
-        csv.append("Timestamp,HTTP_Busy_Threads,HTTP_Max_Threads,HTTP_Available,HTTP_Utilization_Percent,");
-        csv.append("AJP_Busy_Threads,AJP_Max_Threads,AJP_Available,AJP_Utilization_Percent,");
-        csv.append("Total_System_Threads,Peak_System_Threads,Daemon_Threads\n");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
 
-        // CSV Data
-        csv.append(formatThreadInfoAsCSVRow(threadInfo));
+        try {
+            log("handleLogToFile called from: " + request.getRemoteAddr() +
+                " User-Agent: " + request.getHeader("User-Agent"));
+
+            ThreadInfo threadInfo = sampler.current();
+
+            // Only enqueue here; the log writer thread does all file I/O
+            if (!logWriter.offer(threadInfo)) {
+                log("Log queue full, sample dropped (queue size: " + logQueueSize + ")");
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                out.println("{");
+                out.println("  \"status\": \"error\",");
+                out.println("  \"message\": \"Log queue full, sample dropped\"");
+                out.println("}");
+                out.flush();
+                return;
+            }
+            String logResult = "Data queued for: " + logWriter.fileFor(threadInfo.timestamp).getAbsolutePath();
+
+            log("Log result: " + logResult);
+
+            out.println("{");
+            out.println("  \"status\": \"success\",");
+            out.println("  \"message\": \"" + escapeJson(logResult) + "\",");
+            out.println("  \"timestamp\": \"" + TIMESTAMP.format(LocalDateTime.now()) + "\"");
+            out.println("}");
+
+            out.flush();
+            response.flushBuffer();
 
-        return csv.toString();
+        } catch (JMException e) {
+            log("JMX error in handleLogToFile: " + e.getMessage(), e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.println("{");
+            out.println("  \"status\": \"error\",");
+            out.println("  \"message\": \"JMX data retrieval failed: " + escapeJson(e.getMessage()) + "\"");
+            out.println("}");
+            out.flush();
+        } catch (Exception e) {
+            log("Unexpected error in handleLogToFile: " + e.getMessage(), e);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.println("{");
+            out.println("  \"status\": \"error\",");
+            out.println("  \"message\": \"Unexpected error: " + escapeJson(e.getMessage()) + "\"");
+            out.println("}");
+            out.flush();
+        }
     }
+    
+    /**
+     * The dashboard is static (index.html, dashboard.js and dashboard.css at the context root) and polls
+     * {@code ?action=delta}; the servlet path only redirects there.
+     */
+    private void handleMonitorDisplay(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
 
-    private String formatThreadInfoAsCSVRow(ThreadInfo threadInfo) {
-        SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        double httpUtilization = threadInfo.httpMaxThreads > 0 ?
-            (double) threadInfo.httpCurrentThreadsBusy / threadInfo.httpMaxThreads * 100 : 0;
-        double ajpUtilization = threadInfo.ajpMaxThreads > 0 ?
-            (double) threadInfo.ajpCurrentThreadsBusy / threadInfo.ajpMaxThreads * 100 : 0;
-
-        return String.format("%s,%d,%d,%d,%.2f,%d,%d,%d,%.2f,%d,%d,%d%n",
-            timestampFormat.format(new Date()),
-            threadInfo.httpCurrentThreadsBusy,
-            threadInfo.httpMaxThreads,
-            threadInfo.httpMaxThreads - threadInfo.httpCurrentThreadsBusy,
-            httpUtilization,
-            threadInfo.ajpCurrentThreadsBusy,
-            threadInfo.ajpMaxThreads,
-            threadInfo.ajpMaxThreads - threadInfo.ajpCurrentThreadsBusy,
-            ajpUtilization,
-            threadInfo.totalThreadCount,
-            threadInfo.peakThreadCount,
-            threadInfo.daemonThreadCount
-        );
+        response.sendRedirect(response.encodeRedirectURL(request.getContextPath() + "/index.html"));
     }
 
-    private String formatThreadInfoAsJSON(ThreadInfo threadInfo) {
-        SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-        double httpUtilization = threadInfo.httpMaxThreads > 0 ?
-            (double) threadInfo.httpCurrentThreadsBusy / threadInfo.httpMaxThreads * 100 : 0;
-        double ajpUtilization = threadInfo.ajpMaxThreads > 0 ?
-            (double) threadInfo.ajpCurrentThreadsBusy / threadInfo.ajpMaxThreads * 100 : 0;
+    private void handleDelta(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
 
-        StringBuilder json = new StringBuilder();
-        json.append("{\n");
-        json.append("  \"timestamp\": \"").append(timestampFormat.format(new Date())).append("\",\n");
-        json.append("  \"http\": {\n");
-        json.append("    \"busyThreads\": ").append(threadInfo.httpCurrentThreadsBusy).append(",\n");
-        json.append("    \"maxThreads\": ").append(threadInfo.httpMaxThreads).append(",\n");
-        json.append("    \"availableThreads\": ").append(threadInfo.httpMaxThreads - threadInfo.httpCurrentThreadsBusy).append(",\n");
-        json.append("    \"utilizationPercent\": ").append(String.format("%.2f", httpUtilization)).append("\n");
-        json.append("  },\n");
-        json.append("  \"ajp\": {\n");
-        json.append("    \"busyThreads\": ").append(threadInfo.ajpCurrentThreadsBusy).append(",\n");
-        json.append("    \"maxThreads\": ").append(threadInfo.ajpMaxThreads).append(",\n");
-        json.append("    \"availableThreads\": ").append(threadInfo.ajpMaxThreads - threadInfo.ajpCurrentThreadsBusy).append(",\n");
-        json.append("    \"utilizationPercent\": ").append(String.format("%.2f", ajpUtilization)).append("\n");
-        json.append("  },\n");
-        json.append("  \"system\": {\n");
-        json.append("    \"totalThreads\": ").append(threadInfo.totalThreadCount).append(",\n");
-        json.append("    \"peakThreads\": ").append(threadInfo.peakThreadCount).append(",\n");
-        json.append("    \"daemonThreads\": ").append(threadInfo.daemonThreadCount).append(",\n");
-        json.append("    \"nonDaemonThreads\": ").append(threadInfo.totalThreadCount - threadInfo.daemonThreadCount).append("\n");
-        json.append("  },\n");
-        json.append("  \"thresholds\": {\n");
-        json.append("    \"warningPercent\": ").append(warningThreshold).append(",\n");
-        json.append("    \"criticalPercent\": ").append(criticalThreshold).append("\n");
-        json.append("  }\n");
-        json.append("}\n");
-
-        return json.toString();
-    }
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache, no-store, must-revalidate");
 
-    private String escapeJson(String input) {
-        if (input == null) return "";
-        return input.replace("\\", "\\\\")
-                   .replace("\"", "\\\"")
-                   .replace("\n", "\\n")
-                   .replace("\r", "\\r")
-                   .replace("\t", "\\t");
+        long since;
+        try {
+            since = parseLongParameter(request, "since", -1);
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().print("{\"status\":\"error\",\"message\":\"Invalid since parameter: " +
+                                       escapeJson(e.getMessage()) + "\"}");
+            return;
+        }
+
+        StringBuilder json = new StringBuilder(256);
+        window.writeDelta(since, request.getParameter("epoch"), dashboardConfig, json);
+        response.getWriter().print(json);
     }
 
-    private String escapeHtml(String input) {
+    static String escapeJson(String input) {
         if (input == null) return "";
-        return input.replace("&", "&amp;")
-                   .replace("<", "&lt;")
-                   .replace(">", "&gt;")
-                   .replace("\"", "&quot;")
-                   .replace("'", "&#x27;");
+        StringBuilder escaped = null;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            String replacement;
+            switch (c) {
+                case '\\': replacement = "\\\\"; break;
+                case '"': replacement = "\\\""; break;
+                case '\n': replacement = "\\n"; break;
+                case '\r': replacement = "\\r"; break;
+                case '\t': replacement = "\\t"; break;
+                default: replacement = null;
+            }
+            escaped = appendEscaped(escaped, input, i, c, replacement);
+        }
+        return escaped != null ? escaped.toString() : input;
     }
-    
-    private static class ThreadInfo {
-        int totalThreadCount = 0;
-        int peakThreadCount = 0;
-        int daemonThreadCount = 0;
-        int httpMaxThreads = 0;
-        int httpCurrentThreadsBusy = 0;
-        int ajpMaxThreads = 0;
-        int ajpCurrentThreadsBusy = 0;
+
+    // Strings with nothing to escape are returned without copying
+    private static StringBuilder appendEscaped(StringBuilder escaped, String input, int index, char c,
+                                               String replacement) {
+        if (replacement == null) {
+            if (escaped != null) {
+                escaped.append(c);
+            }
+            return escaped;
+        }
+        if (escaped == null) {
+            escaped = new StringBuilder(input.length() + 16).append(input, 0, index);
+        }
+        return escaped.append(replacement);
     }
 }
\ No newline at end of file
@@ -0,0 +1,291 @@
+package com.monitor.threads;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads every Tomcat connector thread pool and shared executor, plus JVM thread counts.
+ * Pool ObjectNames are resolved once and re-resolved only after the MBeanServer reports a
+ * ThreadPool or Executor registration or unregistration, so a sample costs one getAttributes call per pool.
+ * The server may be a remote connection, as for cluster peers polled over JMX.
+ *
+ * <p>With a {@link VirtualThreadProbe}, connectors with {@code useVirtualThreads} and virtual thread executors
+ * are told apart when names are resolved. They have no busy or maximum thread counts, so they are reported
+ * with the scheduler in {@link ThreadInfo#virtualThreads} instead of among the pools.
+ */
+final class ThreadPoolCollector implements ThreadSampler.Collector {
+
+    private static final Logger LOG = Logger.getLogger(ThreadPoolCollector.class.getName());
+
+    private static final String[] THREAD_POOL_ATTRIBUTES = {
+        "maxThreads", "currentThreadsBusy", "currentThreadCount", "connectionCount", "maxConnections", "acceptCount"
+    };
+    private static final String[] EXECUTOR_ATTRIBUTES = {
+        "maxThreads", "activeCount", "poolSize", "queueSize"
+    };
+    // Read once per name resolution; modelerType is the class of the MBean's Tomcat component
+    private static final String[] VIRTUAL_ATTRIBUTES = {"useVirtualThreads", "modelerType"};
+
+    private final MBeanServerConnection server;
+    private final ThreadMXBean threadMXBean;
+    private final ObjectName threadPoolPattern;
+    private final ObjectName executorPattern;
+
+    private final NotificationListener registrationListener = this::handleRegistration;
+
+    // Set by MBeanServer notifications, cleared by the sampler thread when it re-resolves names
+    private volatile boolean namesStale = true;
+    private ObjectName[] threadPools = new ObjectName[0];
+    private ObjectName[] executors = new ObjectName[0];
+    private ObjectName[] virtualPools = new ObjectName[0];
+    private ContentionAnalyzer analyzer;
+    private VirtualThreadProbe virtualThreadProbe;
+
+    ThreadPoolCollector(MBeanServer server) throws JMException {
+        this(server, ManagementFactory.getThreadMXBean());
+    }
+
+    /**
+     * Reads pools through {@code server} and JVM thread counts from {@code threadMXBean}, e.g. a platform
+     * MXBean proxy of the same remote JVM.
+     */
+    ThreadPoolCollector(MBeanServerConnection server, ThreadMXBean threadMXBean) throws JMException {
+        this.server = server;
+        this.threadMXBean = threadMXBean;
+        this.threadPoolPattern = new ObjectName("Catalina:type=ThreadPool,*");
+        this.executorPattern = new ObjectName("Catalina:type=Executor,*");
+    }
+
+    /**
+     * Adds a per-pool thread state breakdown to every sample. Must be called before the sampler starts.
+     */
+    void setAnalyzer(ContentionAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Adds the virtual thread scheduler and virtual thread pools to every sample. Must be called before the
+     * sampler starts.
+     */
+    void setVirtualThreadProbe(VirtualThreadProbe virtualThreadProbe) {
+        this.virtualThreadProbe = virtualThreadProbe;
+    }
+
+    void start() throws JMException, IOException {
+        server.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener, null, null);
+        namesStale = true;
+    }
+
+    void stop() {
+        try {
+            server.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener);
+        } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+            LOG.log(Level.FINE, "Registration listener already removed", e);
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Connection closed before the registration listener was removed", e);
+        }
+    }
+
+    @Override
+    public ThreadInfo collect() throws JMException {
+        try {
+            long timestamp = System.currentTimeMillis();
+
+            // Get system thread information
+            int totalThreadCount = threadMXBean.getThreadCount();
+            int peakThreadCount = threadMXBean.getPeakThreadCount();
+            int daemonThreadCount = threadMXBean.getDaemonThreadCount();
+
+            if (namesStale) {
+                resolvePools();
+            }
+
+            List<PoolInfo> pools = new ArrayList<>(threadPools.length + executors.length);
+            for (ObjectName name : threadPools) {
+                PoolInfo pool = readThreadPool(name);
+                if (pool != null) {
+                    pools.add(pool);
+                }
+            }
+            for (ObjectName name : executors) {
+                PoolInfo pool = readExecutor(name);
+                if (pool != null) {
+                    pools.add(pool);
+                }
+            }
+
+            ThreadInfo info = analyzer != null
+                ? analyzer.analyze(timestamp, totalThreadCount, peakThreadCount, daemonThreadCount, pools)
+                : new ThreadInfo(timestamp, totalThreadCount, peakThreadCount, daemonThreadCount,
+                                 pools.toArray(new PoolInfo[0]));
+            if (virtualThreadProbe != null) {
+                List<PoolInfo> virtual = new ArrayList<>(virtualPools.length);
+                for (ObjectName name : virtualPools) {
+                    PoolInfo pool = readVirtualPool(name);
+                    if (pool != null) {
+                        virtual.add(pool);
+                    }
+                }
+                info = info.withVirtualThreads(virtualThreadProbe.read(virtual));
+            }
+            return info;
+
+        } catch (Exception e) {
+            throw new JMException("Failed to retrieve thread information: " + e.getMessage());
+        }
+    }
+
+    private void resolvePools() throws IOException {
+        // Clear first so a notification arriving during the query triggers another refresh
+        namesStale = false;
+        threadPools = query(threadPoolPattern);
+        executors = query(executorPattern);
+        if (virtualThreadProbe != null) {
+            List<ObjectName> virtual = new ArrayList<>();
+            threadPools = withoutVirtual(threadPools, virtual);
+            executors = withoutVirtual(executors, virtual);
+            virtualPools = virtual.toArray(new ObjectName[0]);
+        }
+        LOG.fine("Resolved " + threadPools.length + " thread pools, " + executors.length + " executors and " +
+                 virtualPools.length + " virtual thread pools");
+    }
+
+    // Moves pools running on virtual threads from names to virtual
+    private ObjectName[] withoutVirtual(ObjectName[] names, List<ObjectName> virtual) throws IOException {
+        List<ObjectName> platform = new ArrayList<>(names.length);
+        for (ObjectName name : names) {
+            boolean isVirtual = false;
+            try {
+                for (Attribute attribute : server.getAttributes(name, VIRTUAL_ATTRIBUTES).asList()) {
+                    Object value = attribute.getValue();
+                    isVirtual |= Boolean.TRUE.equals(value)
+                        || value instanceof String && ((String) value).contains("VirtualThread");
+                }
+            } catch (JMException e) {
+                LOG.log(Level.FINE, "Cannot tell whether " + name + " runs on virtual threads", e);
+            }
+            (isVirtual ? virtual : platform).add(name);
+        }
+        return platform.toArray(new ObjectName[0]);
+    }
+
+    private ObjectName[] query(ObjectName pattern) throws IOException {
+        ObjectName[] names = server.queryNames(pattern, null).toArray(new ObjectName[0]);
+        // Sort so pools keep a stable order across samples and outputs
+        Arrays.sort(names, (a, b) -> poolName(a).compareTo(poolName(b)));
+        return names;
+    }
+
+    private PoolInfo readThreadPool(ObjectName name) {
+        int[] values = readAttributes(name, THREAD_POOL_ATTRIBUTES);
+        if (values == null) {
+            return null;
+        }
+        int maxThreads = values[0];
+        int busyThreads = values[1];
+        int currentThreads = values[2];
+
+        // Fall back to currentThreadCount when the pool does not expose currentThreadsBusy
+        if (busyThreads == PoolInfo.NOT_AVAILABLE) {
+            busyThreads = currentThreads;
+        }
+        if (maxThreads == PoolInfo.NOT_AVAILABLE || busyThreads == PoolInfo.NOT_AVAILABLE) {
+            return null;
+        }
+        return new PoolInfo(PoolInfo.THREAD_POOL, poolName(name), busyThreads, currentThreads, maxThreads,
+                            values[3], values[4], values[5], PoolInfo.NOT_AVAILABLE);
+    }
+
+    private PoolInfo readExecutor(ObjectName name) {
+        int[] values = readAttributes(name, EXECUTOR_ATTRIBUTES);
+        if (values == null || values[0] == PoolInfo.NOT_AVAILABLE || values[1] == PoolInfo.NOT_AVAILABLE) {
+            return null;
+        }
+        return new PoolInfo(PoolInfo.EXECUTOR, poolName(name), values[1], values[2], values[0],
+                            PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE, values[3]);
+    }
+
+    private PoolInfo readVirtualPool(ObjectName name) {
+        boolean executor = "Executor".equals(name.getKeyProperty("type"));
+        int[] values = executor ? new int[THREAD_POOL_ATTRIBUTES.length] : readAttributes(name, THREAD_POOL_ATTRIBUTES);
+        if (values == null) {
+            return null;
+        }
+        if (executor) {
+            Arrays.fill(values, PoolInfo.NOT_AVAILABLE);
+        }
+        return new PoolInfo(executor ? PoolInfo.EXECUTOR : PoolInfo.THREAD_POOL, poolName(name),
+                            PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE,
+                            values[3], values[4], values[5], PoolInfo.NOT_AVAILABLE);
+    }
+
+    /**
+     * Reads the given attributes with a single getAttributes call.
+     * Returns values in request order with NOT_AVAILABLE for missing ones, or null if the MBean cannot be read.
+     */
+    private int[] readAttributes(ObjectName name, String[] attributeNames) {
+        try {
+            AttributeList attributes = server.getAttributes(name, attributeNames);
+            int[] values = new int[attributeNames.length];
+            Arrays.fill(values, PoolInfo.NOT_AVAILABLE);
+            for (Attribute attribute : attributes.asList()) {
+                Object value = attribute.getValue();
+                if (!(value instanceof Number)) {
+                    continue;
+                }
+                for (int i = 0; i < attributeNames.length; i++) {
+                    if (attributeNames[i].equals(attribute.getName())) {
+                        values[i] = (int) Math.min(((Number) value).longValue(), Integer.MAX_VALUE);
+                        break;
+                    }
+                }
+            }
+            return values;
+        } catch (InstanceNotFoundException e) {
+            // Unregistered since the last refresh; the notification will trigger a re-resolve
+            namesStale = true;
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to retrieve pool attributes from: " + name, e);
+        }
+        return null;
+    }
+
+    static String poolName(ObjectName name) {
+        String value = name.getKeyProperty("name");
+        if (value == null) {
+            return name.getKeyPropertyListString();
+        }
+        return value.startsWith("\"") ? ObjectName.unquote(value) : value;
+    }
+
+    private void handleRegistration(Notification notification, Object handback) {
+        if (!(notification instanceof MBeanServerNotification)) {
+            return;
+        }
+        ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+        if ("Catalina".equals(name.getDomain())) {
+            String type = name.getKeyProperty("type");
+            if (PoolInfo.THREAD_POOL.equals(type) || PoolInfo.EXECUTOR.equals(type)) {
+                namesStale = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.monitor.threads;
+
+import javax.management.JMException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects thread information on a fixed schedule and publishes the latest snapshot.
+ * Readers only perform a volatile read, so HTTP requests never trigger JMX calls.
+ */
+final class ThreadSampler {
+
+    private static final Logger LOG = Logger.getLogger(ThreadSampler.class.getName());
+
+    interface Collector {
+        ThreadInfo collect() throws JMException;
+    }
+
+    interface Listener {
+        /**
+         * Called on the sampler thread after each successful sample is published.
+         */
+        void onSample(ThreadInfo info);
+    }
+
+    private final Collector collector;
+    private final long intervalMillis;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile ThreadInfo latest;
+    private volatile JMException lastError;
+
+    // Collection cost counters, written only by the sampler thread
+    private volatile long sampleCount;
+    private volatile long failureCount;
+    private volatile long collectionNanos;
+    private ScheduledExecutorService scheduler;
+    private SelfMonitor self;
+
+    ThreadSampler(Collector collector, long intervalMillis) {
+        this.collector = collector;
+        this.intervalMillis = intervalMillis;
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Records collection and listener time as {@link SelfMonitor} stages. Must be set before {@link #start()}.
+     */
+    void setSelfMonitor(SelfMonitor self) {
+        this.self = self;
+    }
+
+    synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        // Take the first sample synchronously so endpoints have data as soon as init() returns
+        sample();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "thread-monitor-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOG.warning("Sampler thread did not terminate within 5 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    /**
+     * Returns the most recent snapshot. Fails only if no sample has been collected successfully yet.
+     */
+    ThreadInfo current() throws JMException {
+        ThreadInfo info = latest;
+        if (info == null) {
+            JMException error = lastError;
+            throw error != null ? error : new JMException("No thread sample collected yet");
+        }
+        return info;
+    }
+
+    long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Number of successful samples, which listeners can use as the sequence number of the sample they are given.
+     */
+    long getSampleCount() {
+        return sampleCount;
+    }
+
+    long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Total wall-clock time spent collecting samples, including failed attempts.
+     */
+    long getCollectionNanos() {
+        return collectionNanos;
+    }
+
+    private void sample() {
+        long allocated = self != null ? self.allocatedBytes() : -1;
+        long start = System.nanoTime();
+        try {
+            ThreadInfo info = collector.collect();
+            collectionNanos += System.nanoTime() - start;
+            recordStage(SelfMonitor.Stage.COLLECT, start, allocated);
+            sampleCount++;
+            latest = info;
+            lastError = null;
+            allocated = self != null ? self.allocatedBytes() : -1;
+            start = System.nanoTime();
+            notifyListeners(info);
+            recordStage(SelfMonitor.Stage.NOTIFY, start, allocated);
+        } catch (JMException e) {
+            collectionNanos += System.nanoTime() - start;
+            recordStage(SelfMonitor.Stage.COLLECT, start, allocated);
+            failureCount++;
+            // Keep serving the previous snapshot; only log the first failure of a streak
+            if (lastError == null) {
+                LOG.log(Level.WARNING, "Thread sampling failed: " + e.getMessage(), e);
+            }
+            lastError = e;
+        } catch (RuntimeException e) {
+            // An escaping exception would silently cancel the scheduled task
+            LOG.log(Level.SEVERE, "Unexpected error during thread sampling", e);
+        }
+    }
+
+    private void recordStage(SelfMonitor.Stage stage, long start, long allocated) {
+        if (self != null) {
+            self.record(stage, start, allocated);
+        }
+    }
+
+    private void notifyListeners(ThreadInfo info) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onSample(info);
+            } catch (RuntimeException e) {
+                LOG.log(Level.SEVERE, "Sample listener failed: " + listener.getClass().getSimpleName(), e);
+            }
+        }
+    }
+}
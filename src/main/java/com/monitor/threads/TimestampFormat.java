@@ -0,0 +1,74 @@
+package com.monitor.threads;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Writes {@code yyyy-MM-dd HH:mm:ss} local timestamps, as {@code SimpleDateFormat} does in the default time
+ * zone, without allocating. The date and UTC offset are cached for the span of time in which neither changes,
+ * so only the first timestamp of each day, or after a daylight saving change, consults the zone rules.
+ * Not thread-safe; each format or pooled writer owns one.
+ */
+final class TimestampFormat {
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private final ZoneRules rules = ZoneId.systemDefault().getRules();
+    private final byte[] date = new byte[10];
+
+    // Epoch millis range for which date and offsetMillis hold
+    private long validFrom = Long.MAX_VALUE;
+    private long validUntil = Long.MIN_VALUE;
+    private long offsetMillis;
+
+    /**
+     * Writes the date, {@code separator}, then the time of day.
+     */
+    void write(long epochMillis, char separator, ByteSink out) {
+        if (epochMillis < validFrom || epochMillis >= validUntil) {
+            refresh(epochMillis);
+        }
+        int secondOfDay = (int) (Math.floorMod(epochMillis + offsetMillis, MILLIS_PER_DAY) / 1000);
+        out.write(date, 0, date.length).write(separator);
+        twoDigits(secondOfDay / 3600, out).write(':');
+        twoDigits(secondOfDay / 60 % 60, out).write(':');
+        twoDigits(secondOfDay % 60, out);
+    }
+
+    private void refresh(long epochMillis) {
+        Instant instant = Instant.ofEpochMilli(epochMillis);
+        offsetMillis = rules.getOffset(instant).getTotalSeconds() * 1000L;
+        long epochDay = Math.floorDiv(epochMillis + offsetMillis, MILLIS_PER_DAY);
+        validFrom = epochDay * MILLIS_PER_DAY - offsetMillis;
+        validUntil = validFrom + MILLIS_PER_DAY;
+
+        ZoneOffsetTransition previous = rules.previousTransition(instant);
+        if (previous != null && previous.toEpochSecond() * 1000 > validFrom) {
+            validFrom = previous.toEpochSecond() * 1000;
+        }
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        if (next != null && next.toEpochSecond() * 1000 < validUntil) {
+            validUntil = next.toEpochSecond() * 1000;
+        }
+
+        LocalDate day = LocalDate.ofEpochDay(epochDay);
+        int year = day.getYear();
+        date[0] = (byte) ('0' + year / 1000 % 10);
+        date[1] = (byte) ('0' + year / 100 % 10);
+        date[2] = (byte) ('0' + year / 10 % 10);
+        date[3] = (byte) ('0' + year % 10);
+        date[4] = '-';
+        date[5] = (byte) ('0' + day.getMonthValue() / 10);
+        date[6] = (byte) ('0' + day.getMonthValue() % 10);
+        date[7] = '-';
+        date[8] = (byte) ('0' + day.getDayOfMonth() / 10);
+        date[9] = (byte) ('0' + day.getDayOfMonth() % 10);
+    }
+
+    private static ByteSink twoDigits(int value, ByteSink out) {
+        return out.write('0' + value / 10).write('0' + value % 10);
+    }
+}
@@ -0,0 +1,40 @@
+package com.monitor.threads;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of the JVM's virtual thread scheduler and of the Tomcat pools that run on virtual threads,
+ * taken with each sample on Java 21 and later. Values the running JDK does not expose are
+ * {@link PoolInfo#NOT_AVAILABLE}.
+ */
+final class VirtualThreadInfo {
+
+    // Target parallelism of the carrier pool, carrier threads started, and virtual threads mounted on them
+    final int parallelism;
+    final int carrierThreads;
+    final int mountedThreads;
+    // Virtual threads ready to run but waiting for a carrier; only reported by Java 24 and later
+    final int queuedThreads;
+    // Cumulative jdk.VirtualThreadPinned events, or NOT_AVAILABLE when pinning is not recorded
+    final long pinnedCount;
+    final long pinnedMillis;
+    // Connectors with useVirtualThreads and virtual thread executors; busy and max threads do not apply
+    final List<PoolInfo> pools;
+
+    VirtualThreadInfo(int parallelism, int carrierThreads, int mountedThreads, int queuedThreads,
+                      long pinnedCount, long pinnedMillis, List<PoolInfo> pools) {
+        this.parallelism = parallelism;
+        this.carrierThreads = carrierThreads;
+        this.mountedThreads = mountedThreads;
+        this.queuedThreads = queuedThreads;
+        this.pinnedCount = pinnedCount;
+        this.pinnedMillis = pinnedMillis;
+        this.pools = Collections.unmodifiableList(pools);
+    }
+
+    /** Mounted virtual threads as a share of the carrier parallelism. */
+    double carrierUtilizationPercent() {
+        return parallelism > 0 && mountedThreads >= 0 ? (double) mountedThreads / parallelism * 100 : 0;
+    }
+}
@@ -0,0 +1,211 @@
+package com.monitor.threads;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the virtual thread scheduler of Java 21 and later while the monitor itself is built for Java 8, so every
+ * newer API is reached by reflection or through the MBeanServer.
+ *
+ * <ul>
+ *   <li>Java 24 and later register {@code jdk.management:type=VirtualThreadScheduler}, which reports the carrier
+ *       parallelism, pool size, mounted and queued virtual threads directly.</li>
+ *   <li>On Java 21 to 23 the carriers are found by class among the live platform threads; a carrier that is
+ *       runnable counts as having a virtual thread mounted. Queued threads are not available.</li>
+ *   <li>{@code jdk.VirtualThreadPinned} JFR events above a threshold are counted from an in-process event
+ *       stream, which only enables that one event.</li>
+ * </ul>
+ */
+final class VirtualThreadProbe {
+
+    private static final Logger LOG = Logger.getLogger(VirtualThreadProbe.class.getName());
+
+    private static final String SCHEDULER_NAME = "jdk.management:type=VirtualThreadScheduler";
+    private static final String[] SCHEDULER_ATTRIBUTES = {
+        "Parallelism", "PoolSize", "MountedVirtualThreadCount", "QueuedVirtualThreadCount"
+    };
+    private static final String CARRIER_CLASS = "jdk.internal.misc.CarrierThread";
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final MBeanServer server;
+    private final ObjectName schedulerName;
+    private final long pinnedThresholdMillis;
+
+    private final AtomicLong pinnedCount = new AtomicLong();
+    private final AtomicLong pinnedNanos = new AtomicLong();
+    private AutoCloseable pinnedStream;
+
+    // Owned by the sampler thread
+    private Thread[] threads = new Thread[256];
+
+    private VirtualThreadProbe(MBeanServer server, long pinnedThresholdMillis) throws MalformedObjectNameException {
+        this.server = server;
+        this.schedulerName = new ObjectName(SCHEDULER_NAME);
+        this.pinnedThresholdMillis = pinnedThresholdMillis;
+    }
+
+    /**
+     * Returns a probe when the JVM has virtual threads (Java 21 or later), otherwise null.
+     * {@code pinnedThresholdMillis} below zero leaves pinning unrecorded.
+     */
+    static VirtualThreadProbe create(MBeanServer server, long pinnedThresholdMillis) {
+        if (featureVersion() < 21) {
+            return null;
+        }
+        try {
+            return new VirtualThreadProbe(server, pinnedThresholdMillis);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Runtime.version() exists from Java 9; a Java 8 JVM has no virtual threads either way
+    static int featureVersion() {
+        try {
+            Object version = Runtime.class.getMethod("version").invoke(null);
+            return (Integer) version.getClass().getMethod("feature").invoke(version);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return 8;
+        }
+    }
+
+    /**
+     * Starts counting pinned virtual threads. Failing to open the event stream, e.g. on a JVM built without
+     * JFR, is logged and leaves pinning unreported.
+     */
+    synchronized void start() {
+        if (pinnedThresholdMillis < 0 || pinnedStream != null) {
+            return;
+        }
+        try {
+            Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Class<?> settingsClass = Class.forName("jdk.jfr.EventSettings");
+            Class<?> eventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+            Method getDuration = eventClass.getMethod("getDuration");
+
+            AutoCloseable stream = (AutoCloseable) streamClass.getConstructor().newInstance();
+            Object settings = streamClass.getMethod("enable", String.class).invoke(stream, PINNED_EVENT);
+            settingsClass.getMethod("withThreshold", Duration.class).invoke(settings, Duration.ofMillis(pinnedThresholdMillis));
+            Consumer<Object> counter = event -> {
+                pinnedCount.incrementAndGet();
+                try {
+                    pinnedNanos.addAndGet(((Duration) getDuration.invoke(event)).toNanos());
+                } catch (ReflectiveOperationException e) {
+                    // Counted without a duration
+                }
+            };
+            streamClass.getMethod("onEvent", String.class, Consumer.class).invoke(stream, PINNED_EVENT, counter);
+            streamClass.getMethod("startAsync").invoke(stream);
+            pinnedStream = stream;
+            LOG.info("Recording pinned virtual threads above " + pinnedThresholdMillis + "ms");
+        } catch (InvocationTargetException e) {
+            LOG.log(Level.INFO, "Pinned virtual threads are not recorded: " + e.getCause(), e.getCause());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.log(Level.INFO, "Pinned virtual threads are not recorded: " + e, e);
+        }
+    }
+
+    synchronized void stop() {
+        if (pinnedStream != null) {
+            try {
+                pinnedStream.close();
+            } catch (Exception e) {
+                LOG.log(Level.FINE, "Failed to close the pinned virtual thread event stream", e);
+            }
+            pinnedStream = null;
+        }
+    }
+
+    /**
+     * Reads the scheduler and combines it with {@code virtualPools}, the Tomcat pools found running on
+     * virtual threads.
+     */
+    VirtualThreadInfo read(List<PoolInfo> virtualPools) {
+        int parallelism = PoolInfo.NOT_AVAILABLE;
+        int carriers = PoolInfo.NOT_AVAILABLE;
+        int mounted = PoolInfo.NOT_AVAILABLE;
+        int queued = PoolInfo.NOT_AVAILABLE;
+
+        int[] scheduler = readScheduler();
+        if (scheduler != null) {
+            parallelism = scheduler[0];
+            carriers = scheduler[1];
+            mounted = scheduler[2];
+            queued = scheduler[3];
+        } else {
+            parallelism = Integer.getInteger("jdk.virtualThreadScheduler.parallelism",
+                                             Runtime.getRuntime().availableProcessors());
+            carriers = 0;
+            mounted = 0;
+            int count = enumerateThreads();
+            for (int i = 0; i < count; i++) {
+                Thread thread = threads[i];
+                if (CARRIER_CLASS.equals(thread.getClass().getName())) {
+                    carriers++;
+                    if (thread.getState() == Thread.State.RUNNABLE) {
+                        mounted++;
+                    }
+                }
+                threads[i] = null;
+            }
+        }
+
+        boolean pinningRecorded;
+        synchronized (this) {
+            pinningRecorded = pinnedStream != null;
+        }
+        return new VirtualThreadInfo(parallelism, carriers, mounted, queued,
+                                     pinningRecorded ? pinnedCount.get() : PoolInfo.NOT_AVAILABLE,
+                                     pinningRecorded ? pinnedNanos.get() / 1000000 : PoolInfo.NOT_AVAILABLE,
+                                     virtualPools);
+    }
+
+    // Scheduler MXBean values in SCHEDULER_ATTRIBUTES order, or null before Java 24
+    private int[] readScheduler() {
+        if (!server.isRegistered(schedulerName)) {
+            return null;
+        }
+        try {
+            AttributeList attributes = server.getAttributes(schedulerName, SCHEDULER_ATTRIBUTES);
+            int[] values = {PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE, PoolInfo.NOT_AVAILABLE};
+            for (Attribute attribute : attributes.asList()) {
+                for (int i = 0; i < SCHEDULER_ATTRIBUTES.length; i++) {
+                    if (SCHEDULER_ATTRIBUTES[i].equals(attribute.getName()) && attribute.getValue() instanceof Number) {
+                        values[i] = (int) Math.min(((Number) attribute.getValue()).longValue(), Integer.MAX_VALUE);
+                    }
+                }
+            }
+            return values;
+        } catch (JMException e) {
+            LOG.log(Level.FINE, "Cannot read " + SCHEDULER_NAME, e);
+            return null;
+        }
+    }
+
+    // Live platform threads of the whole JVM into threads; returns how many
+    private int enumerateThreads() {
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        while (true) {
+            int count = root.enumerate(threads, true);
+            if (count < threads.length) {
+                return count;
+            }
+            threads = new Thread[threads.length * 2];
+        }
+    }
+}
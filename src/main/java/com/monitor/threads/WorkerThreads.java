@@ -0,0 +1,93 @@
+package com.monitor.threads;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds the worker threads of a pool by name: {@code <pool>-exec-N} for connector pools, the executor's
+ * {@code namePrefix} for executors.
+ */
+final class WorkerThreads {
+
+    private static final Logger LOG = Logger.getLogger(WorkerThreads.class.getName());
+
+    private final ThreadMXBean threads;
+    private final MBeanServer server;
+    private final ConcurrentHashMap<String, String> executorPrefixes = new ConcurrentHashMap<>();
+
+    WorkerThreads(ThreadMXBean threads, MBeanServer server) {
+        this.threads = threads;
+        this.server = server;
+    }
+
+    ThreadMXBean threadBean() {
+        return threads;
+    }
+
+    long[] ids(PoolInfo pool) {
+        return ids(Collections.singletonList(pool))[0];
+    }
+
+    /**
+     * Returns the worker thread IDs of each pool, indexed like {@code pools}, from one pass over all threads.
+     */
+    long[][] ids(List<PoolInfo> pools) {
+        String[] prefixes = new String[pools.size()];
+        for (int p = 0; p < prefixes.length; p++) {
+            prefixes[p] = prefix(pools.get(p));
+        }
+
+        long[] all = threads.getAllThreadIds();
+        java.lang.management.ThreadInfo[] infos = threads.getThreadInfo(all, 0);
+        long[][] matched = new long[prefixes.length][all.length];
+        int[] counts = new int[prefixes.length];
+        for (java.lang.management.ThreadInfo thread : infos) {
+            if (thread == null) {
+                continue;
+            }
+            String name = thread.getThreadName();
+            for (int p = 0; p < prefixes.length; p++) {
+                if (name.startsWith(prefixes[p])) {
+                    matched[p][counts[p]++] = thread.getThreadId();
+                    break;
+                }
+            }
+        }
+        for (int p = 0; p < prefixes.length; p++) {
+            matched[p] = Arrays.copyOf(matched[p], counts[p]);
+        }
+        return matched;
+    }
+
+    String prefix(PoolInfo pool) {
+        return pool.isExecutor() ? executorPrefix(pool.name) : pool.name + "-exec-";
+    }
+
+    private String executorPrefix(String name) {
+        String prefix = executorPrefixes.get(name);
+        if (prefix == null) {
+            try {
+                ObjectName objectName = new ObjectName("Catalina:type=Executor,name=" + ObjectName.quote(name));
+                if (!server.isRegistered(objectName)) {
+                    // Names without special characters are registered unquoted
+                    objectName = new ObjectName("Catalina:type=Executor,name=" + name);
+                }
+                prefix = (String) server.getAttribute(objectName, "namePrefix");
+            } catch (Exception e) {
+                LOG.log(Level.FINE, "Cannot read namePrefix of executor " + name, e);
+            }
+            if (prefix == null || prefix.isEmpty()) {
+                prefix = name + "-";
+            }
+            executorPrefixes.put(name, prefix);
+        }
+        return prefix;
+    }
+}
@@ -0,0 +1,246 @@
+// Tomcat Thread Monitor dashboard: polls thread-monitor?action=delta for the samples it has not seen yet
+// and renders the latest values plus sparklines of the retained window.
+(function () {
+  'use strict';
+
+  const API = 'thread-monitor';
+
+  let epoch = '';
+  let seq = -1;
+  let config = { intervalMillis: 1000, windowSamples: 300, thresholds: [60, 80], latencyWindowMillis: 60000,
+                 cluster: false, virtualThreads: false };
+  let clusterTimer = null;
+  let virtualTimer = null;
+  // [name, type] per pool, and samples as [seq, t, total, peak, daemon, [[busy, current, max, connections,
+  // maxConnections, acceptCount, queueSize], ...]] in the pool order
+  let pools = [];
+  let samples = [];
+
+  function $(id) {
+    return document.getElementById(id);
+  }
+
+  function esc(s) {
+    return String(s).replace(/[&<>"']/g, c => ({'&': '&amp;', '<': '&lt;', '>': '&gt;', '"': '&quot;', "'": '&#x27;'})[c]);
+  }
+
+  function opt(v) {
+    return v < 0 ? '-' : v;
+  }
+
+  function utilClass(u) {
+    return u >= config.thresholds[1] ? 'critical' : (u >= config.thresholds[0] ? 'warning' : 'normal');
+  }
+
+  function ms(v) {
+    return v.toFixed(1) + ' ms';
+  }
+
+  // SVG polyline points for values scaled to a 300x40 viewBox, 0 at the bottom
+  function sparkPoints(values, max) {
+    const top = Math.max(max, 1);
+    const step = values.length > 1 ? 300 / (config.windowSamples - 1) : 0;
+    const offset = 300 - step * (values.length - 1);
+    return values.map((v, i) => (offset + i * step).toFixed(1) + ',' + (40 - v / top * 38).toFixed(1)).join(' ');
+  }
+
+  function sparkline(values, max, cls) {
+    return '<svg class="sparkline ' + cls + '" viewBox="0 0 300 40" preserveAspectRatio="none">' +
+      '<polyline points="' + sparkPoints(values, max) + '"></polyline></svg>';
+  }
+
+  function render() {
+    if (samples.length === 0) {
+      return;
+    }
+    const latest = samples[samples.length - 1];
+    let cards = '';
+    let rows = '';
+    pools.forEach((pool, i) => {
+      const p = latest[5][i];
+      const u = p[2] > 0 ? p[0] / p[2] * 100 : 0;
+      const cls = p[2] > 0 ? utilClass(u) : 'normal';
+      cards += '<div class="metric-card"><div class="metric-title">' + esc(pool[0]) + ' (' + esc(pool[1]) + ')</div>' +
+        '<div class="metric-value ' + cls + '">' + p[0] + ' / ' + p[2] + ' busy</div>' +
+        '<div>Available: ' + (p[2] - p[0]) + '</div>' +
+        sparkline(samples.map(s => s[5][i][0]), p[2], cls) + '</div>';
+      rows += '<tr><td>' + esc(pool[0]) + '</td><td>' + esc(pool[1]) + '</td><td>' + p[0] + '</td><td>' + opt(p[1]) +
+        '</td><td>' + p[2] + '</td><td>' + (p[2] - p[0]) + '</td><td class="' + utilClass(u) + '">' + u.toFixed(1) +
+        '%</td><td>' + opt(p[3]) + '</td><td>' + opt(p[4]) + '</td><td>' + opt(p[5]) + '</td><td>' + opt(p[6]) + '</td></tr>';
+    });
+    $('poolCards').innerHTML = cards;
+    $('poolRows').innerHTML = rows;
+
+    $('totalThreads').textContent = latest[2];
+    $('peakThreads').textContent = latest[3];
+    $('daemonThreads').textContent = latest[4];
+    $('nonDaemonThreads').textContent = latest[2] - latest[4];
+    $('lastUpdated').textContent = new Date(latest[1]).toString();
+    const peak = Math.max.apply(null, samples.map(s => s[3]));
+    $('totalSparkline').querySelector('polyline').setAttribute('points', sparkPoints(samples.map(s => s[2]), peak));
+    $('daemonSparkline').querySelector('polyline').setAttribute('points', sparkPoints(samples.map(s => s[4]), peak));
+  }
+
+  function applyDelta(d) {
+    if (d.reset) {
+      epoch = d.epoch;
+      config = { intervalMillis: d.intervalMillis, windowSamples: d.windowSamples, thresholds: d.thresholds,
+                 latencyWindowMillis: d.latencyWindowMillis, cluster: d.cluster, virtualThreads: d.virtualThreads };
+      $('latencyWindow').textContent = Math.round(config.latencyWindowMillis / 1000);
+      if (config.cluster && clusterTimer === null) {
+        pollCluster();
+        clusterTimer = setInterval(pollCluster, 5000);
+      }
+      if (config.virtualThreads && virtualTimer === null) {
+        pollVirtualThreads();
+        virtualTimer = setInterval(pollVirtualThreads, 5000);
+      }
+      pools = d.pools;
+      samples = [];
+    }
+    samples = samples.concat(d.samples);
+    if (samples.length > config.windowSamples) {
+      samples = samples.slice(samples.length - config.windowSamples);
+    }
+    seq = d.seq;
+    render();
+  }
+
+  function poll() {
+    fetch(API + '?action=delta&since=' + seq + '&epoch=' + encodeURIComponent(epoch), { cache: 'no-store' })
+      .then(response => {
+        if (!response.ok) {
+          throw new Error('HTTP ' + response.status);
+        }
+        return response.json();
+      })
+      .then(d => {
+        applyDelta(d);
+        $('streamStatus').textContent = 'Live';
+        $('streamStatus').className = 'normal';
+      })
+      .catch(() => {
+        $('streamStatus').textContent = 'Reconnecting...';
+        $('streamStatus').className = 'warning';
+      })
+      .then(() => setTimeout(poll, Math.max(config.intervalMillis, 1000)));
+  }
+
+  function renderLatency(d) {
+    let rows = '';
+    d.sources.forEach(s => {
+      const q = s.queue.count > 0;
+      rows += '<tr><td>' + esc(s.source) + '</td><td>' + s.service.count + '</td><td>' + ms(s.service.meanMillis) +
+        '</td><td>' + ms(s.service.p50Millis) + '</td><td>' + ms(s.service.p99Millis) + '</td><td>' + ms(s.service.p999Millis) +
+        '</td><td>' + (q ? ms(s.queue.p50Millis) : '-') + '</td><td>' + (q ? ms(s.queue.p99Millis) : '-') +
+        '</td><td>' + (q ? ms(s.queue.p999Millis) : '-') + '</td><td>' + (s.inFlight >= 0 ? s.inFlight : '-') + '</td></tr>';
+    });
+    $('latencyRows').innerHTML = rows;
+    $('latencyDetails').style.display = d.sources.length > 0 ? '' : 'none';
+  }
+
+  function pollLatency() {
+    fetch(API + '?action=latency').then(response => response.json()).then(renderLatency).catch(() => {});
+  }
+
+  function duration(seconds) {
+    if (seconds === 0) {
+      return 'now';
+    }
+    const m = Math.floor(seconds / 60);
+    return m >= 60 ? Math.floor(m / 60) + 'h ' + (m % 60) + 'm' : (m > 0 ? m + 'm ' : '') + (seconds % 60) + 's';
+  }
+
+  function renderForecast(d) {
+    const sizingClass = { 'undersized': 'critical', 'oversized': 'warning', 'ok': 'normal' };
+    let rows = '';
+    d.pools.forEach(p => {
+      const s = p.sizing;
+      const known = s.verdict !== 'insufficient-data';
+      rows += '<tr><td>' + esc(p.name) + '</td><td>' + p.busyThreads + '</td><td>' + p.ewma1m + '</td><td>' + p.ewma15m +
+        '</td><td>' + (p.trendPerMinute === null ? '-' : p.trendPerMinute.toFixed(1)) + '</td><td class="' +
+        (p.exhaustionSeconds === null ? '">-' : 'critical">' + duration(p.exhaustionSeconds)) + '</td><td>' +
+        (known ? s.p99 : '-') + '</td><td>' + (known ? s.peak : '-') + '</td><td>' + (known ? s.recommendedMaxThreads : '-') +
+        '</td><td class="' + (sizingClass[s.verdict] || '') + '" title="' + esc(s.summary) + '">' + esc(s.verdict) + '</td></tr>';
+    });
+    $('forecastWindow').textContent = Math.round(d.windowMillis / 60000);
+    $('forecastRows').innerHTML = rows;
+    $('forecastDetails').style.display = d.pools.length > 0 ? '' : 'none';
+  }
+
+  function pollForecast() {
+    fetch(API + '?action=forecast', { cache: 'no-store' }).then(response => response.json())
+      .then(renderForecast).catch(() => {});
+  }
+
+  function renderVirtualThreads(d) {
+    const v = d.virtualThreads;
+    if (!v) {
+      return;
+    }
+    let rows = '';
+    v.pools.forEach(p => {
+      rows += '<tr><td>' + esc(p.name) + '</td><td>' + esc(p.type) + '</td><td>' + opt(p.connectionCount) + '</td><td>' +
+        opt(p.maxConnections) + '</td><td>' + opt(p.acceptCount) + '</td></tr>';
+    });
+    $('virtualSummary').textContent = opt(v.mountedThreads) + ' mounted on ' + opt(v.carrierThreads) + ' carriers (parallelism ' +
+      v.parallelism + ', ' + v.carrierUtilizationPercent + '%), ' + (v.queuedThreads >= 0 ? v.queuedThreads + ' queued, ' : '') +
+      (v.pinnedCount >= 0 ? v.pinnedCount + ' pinned for ' + v.pinnedMillis + ' ms' : 'pinning not recorded');
+    $('virtualRows').innerHTML = rows;
+    $('virtualDetails').style.display = '';
+  }
+
+  function pollVirtualThreads() {
+    fetch(API + '?action=json', { cache: 'no-store' }).then(response => response.json())
+      .then(renderVirtualThreads).catch(() => {});
+  }
+
+  function renderCluster(d) {
+    let rows = '';
+    d.nodes.forEach(n => {
+      const ok = n.status === 'ok';
+      const seen = n.lastSuccess !== null;
+      const hot = seen && n.hottestPool ? esc(n.hottestPool.name) + ' (' + n.hottestPool.utilizationPercent + '%)' : '-';
+      rows += '<tr><td>' + n.rank + '</td><td title="' + esc(n.address) + '">' + esc(n.name) + '</td><td class="' +
+        (ok ? 'normal">OK' : 'critical" title="' + esc(n.error) + '">Failed') + '</td><td>' +
+        (seen ? n.busyThreads : '-') + '</td><td>' + (seen ? n.maxThreads : '-') + '</td><td class="' +
+        (seen ? utilClass(n.utilizationPercent) + '">' + n.utilizationPercent : '">-') + '</td><td>' + hot +
+        '</td><td>' + (seen ? n.totalThreads : '-') + '</td><td>' + (seen ? n.deadlockedThreads : '-') +
+        '</td><td>' + n.pollMillis + ' ms</td></tr>';
+    });
+    const f = d.fleet;
+    $('clusterSummary').textContent = f.reporting + '/' + f.nodes + ' reporting, ' + f.busyThreads + '/' +
+      f.maxThreads + ' busy, ' + f.utilizationPercent + '%';
+    $('clusterRows').innerHTML = rows;
+    $('clusterDetails').style.display = '';
+  }
+
+  function pollCluster() {
+    fetch(API + '?action=cluster', { cache: 'no-store' }).then(response => response.json())
+      .then(renderCluster).catch(() => {});
+  }
+
+  function showLogStatus(text, cls) {
+    const status = $('logStatus');
+    status.textContent = text;
+    status.className = cls;
+    setTimeout(() => { status.textContent = ''; status.className = ''; }, 5000);
+  }
+
+  function logToFile() {
+    fetch(API + '?action=log')
+      .then(response => response.json())
+      .then(data => showLogStatus(data.message, data.status === 'success' ? 'success' : 'error'))
+      .catch(err => showLogStatus('Error: ' + err.message, 'error'));
+  }
+
+  document.addEventListener('DOMContentLoaded', () => {
+    $('exportButton').addEventListener('click', () => { window.location.href = API + '?action=export'; });
+    $('logButton').addEventListener('click', logToFile);
+    poll();
+    pollLatency();
+    setInterval(pollLatency, 5000);
+    pollForecast();
+    setInterval(pollForecast, 5000);
+  });
+})();
@@ -0,0 +1,278 @@
+package com.monitor.threads;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Cluster polling against stand-in peers on loopback: a monitor served over HTTP by {@link ServletHost}, a
+ * Tomcat stand-in behind a {@code JMXConnectorServer}, a port that accepts connections but never answers, and
+ * a port that refuses them.
+ */
+public class ClusterPollerTest {
+
+    private static final int TIMEOUT_MILLIS = 1000;
+    // A failure must come from the peer's own timeout, not from a hang the round gives up on
+    private static final long FAIL_WITHIN_MILLIS = TIMEOUT_MILLIS * 4;
+
+    private final List<FakePool> pools = new ArrayList<>();
+    private final List<ServletHost> hosts = new ArrayList<>();
+    private final List<File> directories = new ArrayList<>();
+    private String monitorUrl;
+    private Registry registry;
+    private JMXConnectorServer jmxServer;
+    private String jmxUrl;
+    private ServerSocket silent;
+    private int refusedPort;
+
+    @Before
+    public void setUp() throws Exception {
+        // This JVM, as seen by the monitor: 50 of 200 threads busy
+        pools.add(FakePool.threadPool("http-nio-8080", 200, "plateau 50 10m")
+                          .register(ManagementFactory.getPlatformMBeanServer()));
+        monitorUrl = host(new HashMap<>()).listen();
+
+        // Another Tomcat over JMX: 180 of 200 threads busy
+        MBeanServer remote = MBeanServerFactory.newMBeanServer();
+        remote.registerMBean(ManagementFactory.getThreadMXBean(), new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME));
+        pools.add(FakePool.threadPool("http-nio-9090", 200, "plateau 180 10m").register(remote));
+        int registryPort = freePort();
+        registry = LocateRegistry.createRegistry(registryPort);
+        jmxUrl = "service:jmx:rmi:///jndi/rmi://127.0.0.1:" + registryPort + "/jmxrmi";
+        jmxServer = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL(jmxUrl), null, remote);
+        jmxServer.start();
+
+        // Connections complete in the backlog, but nothing ever reads or answers them
+        silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        refusedPort = freePort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (ServletHost host : hosts) {
+            host.close();
+        }
+        if (jmxServer != null) {
+            jmxServer.stop();
+        }
+        if (registry != null) {
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+        if (silent != null) {
+            silent.close();
+        }
+        for (FakePool pool : pools) {
+            pool.unregister();
+        }
+        for (File directory : directories) {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void httpPeerRevalidatesWithItsETag() throws Exception {
+        HttpPeer peer = new HttpPeer("web", monitorUrl.replace("http://", "http://monitor:secret@"));
+        assertFalse("Credentials in the address: " + peer.address(), peer.address().contains("secret"));
+
+        ThreadInfo first = peer.poll(TIMEOUT_MILLIS);
+        PoolInfo pool = pool(first, "http-nio-8080");
+        assertEquals(50, pool.busyThreads);
+        assertEquals(200, pool.maxThreads);
+        // The sample has not changed, so the monitor answers 304 and the peer keeps its last sample
+        assertSame(first, peer.poll(TIMEOUT_MILLIS));
+    }
+
+    @Test
+    public void jmxPeerReadsALoopbackConnector() throws Exception {
+        JmxPeer peer = new JmxPeer("jmx", jmxUrl);
+        try {
+            assertEquals(180, pool(peer.poll(TIMEOUT_MILLIS), "http-nio-9090").busyThreads);
+            // The connection is kept and still works on the next poll
+            assertEquals(180, pool(peer.poll(TIMEOUT_MILLIS), "http-nio-9090").busyThreads);
+        } finally {
+            peer.close();
+        }
+        // And is opened again after a close
+        try {
+            assertEquals(180, pool(peer.poll(TIMEOUT_MILLIS), "http-nio-9090").busyThreads);
+        } finally {
+            peer.close();
+        }
+    }
+
+    @Test
+    public void peerThatNeverAnswersFailsWithinItsTimeout() {
+        int port = silent.getLocalPort();
+        assertFailsQuickly(new HttpPeer("silent-http", "http://127.0.0.1:" + port + "/thread-monitor/thread-monitor"));
+        assertFailsQuickly(new JmxPeer("silent-jmx", "service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"));
+    }
+
+    @Test
+    public void refusedPortFails() {
+        assertFailsQuickly(new HttpPeer("refused-http", "http://127.0.0.1:" + refusedPort + "/thread-monitor/thread-monitor"));
+        assertFailsQuickly(new JmxPeer("refused-jmx", "service:jmx:rmi:///jndi/rmi://127.0.0.1:" + refusedPort + "/jmxrmi"));
+    }
+
+    @Test
+    public void reportsPartialFailureAndRanksHottestFirst() throws Exception {
+        List<ClusterPoller.Peer> peers = Arrays.asList(
+            new HttpPeer("web", monitorUrl),
+            new JmxPeer("silent", "service:jmx:rmi:///jndi/rmi://127.0.0.1:" + silent.getLocalPort() + "/jmxrmi"),
+            new JmxPeer("jmx", jmxUrl),
+            new HttpPeer("refused", "http://127.0.0.1:" + refusedPort + "/thread-monitor/thread-monitor"));
+        // Fewer threads than peers, so the silent peer must not keep the others from being polled
+        ClusterPoller cluster = new ClusterPoller(peers, 500, TIMEOUT_MILLIS, 2);
+        cluster.start();
+        ClusterPoller.View view;
+        try {
+            view = awaitRounds(cluster, 3);
+        } finally {
+            cluster.stop();
+        }
+
+        assertEquals(4, view.nodes.size());
+        assertEquals(2, view.reporting);
+        assertEquals("jmx", view.nodes.get(0).name);
+        assertEquals("web", view.nodes.get(1).name);
+        assertEquals(90.0, view.nodes.get(0).utilizationPercent, 0.01);
+        assertEquals("http-nio-9090", view.nodes.get(0).hottestPool.name);
+        for (ClusterPoller.Node failed : view.nodes.subList(2, 4)) {
+            assertFalse(failed.name + " reported", failed.reporting);
+            assertNotNull(failed.name + " without an error", failed.error);
+            assertEquals(null, failed.info);
+        }
+        // Fleet totals count the reporting nodes only
+        assertEquals(230, view.busyThreads);
+        assertEquals(400, view.maxThreads);
+    }
+
+    @Test
+    public void clusterEndpointReportsFailedPeers() throws Exception {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("peers", "web=" + monitorUrl + ", jmx=" + jmxUrl +
+                                ", refused=http://127.0.0.1:" + refusedPort + "/thread-monitor/thread-monitor");
+        parameters.put("clusterInterval", "1000");
+        parameters.put("peerTimeout", String.valueOf(TIMEOUT_MILLIS));
+        ServletHost aggregator = host(parameters);
+
+        Map<?, ?> cluster = null;
+        long deadline = System.currentTimeMillis() + 15000;
+        while (System.currentTimeMillis() < deadline) {
+            cluster = (Map<?, ?>) JsonReader.parse(aggregator.get("action=cluster").text());
+            if (((Number) ((Map<?, ?>) cluster.get("fleet")).get("reporting")).intValue() == 3) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        Map<?, ?> fleet = (Map<?, ?>) cluster.get("fleet");
+        assertEquals(4, ((Number) fleet.get("nodes")).intValue());
+        assertEquals(3, ((Number) fleet.get("reporting")).intValue());
+        assertEquals(1, ((Number) fleet.get("failed")).intValue());
+        // This JVM reports as a node of its own: 50 + 50 + 180 of 600
+        assertEquals(280.0 / 600 * 100, ((Number) fleet.get("utilizationPercent")).doubleValue(), 0.01);
+
+        List<?> nodes = (List<?>) cluster.get("nodes");
+        Map<?, ?> hottest = (Map<?, ?>) nodes.get(0);
+        assertEquals("jmx", hottest.get("name"));
+        assertEquals(1, ((Number) hottest.get("rank")).intValue());
+        Map<?, ?> last = (Map<?, ?>) nodes.get(nodes.size() - 1);
+        assertEquals("refused", last.get("name"));
+        assertEquals("failed", last.get("status"));
+        assertNotNull(last.get("error"));
+    }
+
+    private ServletHost host(Map<String, String> parameters) throws Exception {
+        File directory = Files.createTempDirectory("thread-monitor-cluster").toFile();
+        directories.add(directory);
+        Map<String, String> all = new HashMap<>(parameters);
+        all.put("logDirectory", directory.getAbsolutePath());
+        // One sample for the whole test, so revalidation always finds it unchanged
+        all.put("sampleInterval", "600000");
+        all.put("persistHistory", "false");
+        ServletHost host = new ServletHost(all);
+        hosts.add(host);
+        return host;
+    }
+
+    private static ClusterPoller.View awaitRounds(ClusterPoller cluster, int rounds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15000;
+        long last = 0;
+        int seen = 0;
+        while (System.currentTimeMillis() < deadline) {
+            ClusterPoller.View view = cluster.current();
+            if (view.timestamp != last && view.timestamp > 0) {
+                last = view.timestamp;
+                if (++seen == rounds) {
+                    return view;
+                }
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Fewer than " + rounds + " cluster rounds within 15s");
+    }
+
+    private static void assertFailsQuickly(ClusterPoller.Peer peer) {
+        long start = System.currentTimeMillis();
+        try {
+            peer.poll(TIMEOUT_MILLIS);
+            fail(peer.name() + " answered");
+        } catch (Exception expected) {
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(peer.name() + " took " + elapsed + "ms to fail", elapsed < FAIL_WITHIN_MILLIS);
+        } finally {
+            peer.close();
+        }
+    }
+
+    private static PoolInfo pool(ThreadInfo info, String name) {
+        for (PoolInfo pool : info.pools) {
+            if (pool.name.equals(name)) {
+                return pool;
+            }
+        }
+        throw new AssertionError("No pool " + name + " in " + info.pools);
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
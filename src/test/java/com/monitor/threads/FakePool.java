@@ -0,0 +1,184 @@
+package com.monitor.threads;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@code Catalina:type=ThreadPool} or {@code Catalina:type=Executor} MBean whose load follows a
+ * {@link UtilizationCurve} from the moment it is registered.
+ *
+ * <p>Attributes are computed on every read from the demand at that instant: busy threads are the demand up to
+ * {@code maxThreads}, a connector's excess waits as open connections and an executor's in its queue. Like
+ * Tomcat's own MBeans the attribute names are lowercase, which only a dynamic MBean can expose.
+ */
+final class FakePool implements DynamicMBean {
+
+    // Idle threads Tomcat keeps started above the busy ones, like minSpareThreads
+    private static final int SPARE_THREADS = 10;
+
+    private final String type;
+    private final String name;
+    private final int maxThreads;
+    private final UtilizationCurve curve;
+    private final MBeanInfo info;
+    private final AtomicLong reads = new AtomicLong();
+
+    private volatile long startMillis = System.currentTimeMillis();
+    private MBeanServer server;
+    private ObjectName objectName;
+
+    private FakePool(String type, String name, int maxThreads, UtilizationCurve curve, String[] attributes) {
+        this.type = type;
+        this.name = name;
+        this.maxThreads = maxThreads;
+        this.curve = curve;
+        MBeanAttributeInfo[] infos = new MBeanAttributeInfo[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            infos[i] = new MBeanAttributeInfo(attributes[i], "int", attributes[i], true, false, false);
+        }
+        this.info = new MBeanInfo(FakePool.class.getName(), "Scripted " + type + " " + name, infos, null, null, null);
+    }
+
+    static FakePool threadPool(String name, int maxThreads, String script) {
+        return new FakePool(PoolInfo.THREAD_POOL, name, maxThreads, UtilizationCurve.parse(script), new String[] {
+            "maxThreads", "currentThreadsBusy", "currentThreadCount", "connectionCount", "maxConnections", "acceptCount"
+        });
+    }
+
+    static FakePool executor(String name, int maxThreads, String script) {
+        return new FakePool(PoolInfo.EXECUTOR, name, maxThreads, UtilizationCurve.parse(script), new String[] {
+            "maxThreads", "activeCount", "poolSize", "queueSize"
+        });
+    }
+
+    /**
+     * Registers the pool and starts its curve.
+     */
+    FakePool register(MBeanServer server) throws JMException {
+        ObjectName objectName = new ObjectName("Catalina:type=" + type + ",name=" + ObjectName.quote(name));
+        startMillis = System.currentTimeMillis();
+        server.registerMBean(this, objectName);
+        this.server = server;
+        this.objectName = objectName;
+        return this;
+    }
+
+    void unregister() throws JMException {
+        if (objectName != null) {
+            server.unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    String name() {
+        return name;
+    }
+
+    String type() {
+        return type;
+    }
+
+    int maxThreads() {
+        return maxThreads;
+    }
+
+    UtilizationCurve curve() {
+        return curve;
+    }
+
+    /** Busy threads the pool reports at this instant. */
+    int busyThreads() {
+        return Math.min(maxThreads, demand());
+    }
+
+    /** Attribute reads so far; the collector should make one {@code getAttributes} call per pool and sample. */
+    long readCount() {
+        return reads.get();
+    }
+
+    private int demand() {
+        return curve.demandAt(System.currentTimeMillis() - startMillis);
+    }
+
+    private Integer value(String attribute, int demand) {
+        int busy = Math.min(maxThreads, demand);
+        switch (attribute) {
+            case "maxThreads":
+                return maxThreads;
+            case "currentThreadsBusy":
+            case "activeCount":
+                return busy;
+            case "currentThreadCount":
+            case "poolSize":
+                return Math.min(maxThreads, busy + SPARE_THREADS);
+            case "connectionCount":
+                return demand;
+            case "maxConnections":
+                return 8192;
+            case "acceptCount":
+                return 100;
+            case "queueSize":
+                return PoolInfo.EXECUTOR.equals(type) ? Math.max(0, demand - maxThreads) : null;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        reads.incrementAndGet();
+        Integer value = value(attribute, demand());
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        reads.incrementAndGet();
+        // One demand for the whole read, as a real pool's attributes come from one moment too
+        int demand = demand();
+        AttributeList list = new AttributeList(attributes.length);
+        for (String attribute : attributes) {
+            Integer value = value(attribute, demand);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException(attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return info;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + name + " (maxThreads " + maxThreads + "): " + curve;
+    }
+}
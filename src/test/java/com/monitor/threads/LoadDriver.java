@@ -0,0 +1,259 @@
+package com.monitor.threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Simulated pollers hammering a {@link ServletHost}: each poller is a thread that requests one endpoint over
+ * and over, the way a dashboard tab, a Prometheus scraper or a cron job would, optionally with a pause in
+ * between. Stream subscribers are held open for the whole run. Every response is checked, and latency is
+ * recorded per endpoint in a {@link LatencyHistogram}.
+ */
+final class LoadDriver {
+
+    // Errors kept with their message; the rest are only counted
+    private static final int MAX_ERROR_MESSAGES = 20;
+
+    /** One kind of poller: what it asks for and how it checks the answer. */
+    abstract static class Endpoint {
+        final String name;
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        /** A fresh state per poller, e.g. the ETag or sequence number it has seen. */
+        Object newPoller() {
+            return null;
+        }
+
+        abstract ServletHost.Exchange request(ServletHost host, Object poller) throws Exception;
+
+        /** Returns why the response is wrong, or null. Statuses are the endpoint's to judge. */
+        abstract String check(ServletHost.Exchange exchange, Object poller);
+    }
+
+    /** Latency and outcome of one endpoint over the run. */
+    static final class EndpointStats {
+        final String name;
+        final long requests;
+        final long errors;
+        final Map<Integer, Long> statuses;
+        final LatencyTracker.Percentiles latency;
+        final long maxMicros;
+        final double requestsPerSecond;
+
+        EndpointStats(String name, long requests, long errors, Map<Integer, Long> statuses,
+                      LatencyTracker.Percentiles latency, long maxMicros, double requestsPerSecond) {
+            this.name = name;
+            this.requests = requests;
+            this.errors = errors;
+            this.statuses = statuses;
+            this.latency = latency;
+            this.maxMicros = maxMicros;
+            this.requestsPerSecond = requestsPerSecond;
+        }
+    }
+
+    /** What a run measured. */
+    static final class Report {
+        final long durationMillis;
+        final int pollers;
+        final List<EndpointStats> endpoints;
+        final int streamClients;
+        final long minStreamEvents;
+        final long streamEvents;
+        final int stalledDisconnected;
+        final int stalledClients;
+        final List<String> errors;
+
+        Report(long durationMillis, int pollers, List<EndpointStats> endpoints, int streamClients,
+               long minStreamEvents, long streamEvents, int stalledDisconnected, int stalledClients,
+               List<String> errors) {
+            this.durationMillis = durationMillis;
+            this.pollers = pollers;
+            this.endpoints = endpoints;
+            this.streamClients = streamClients;
+            this.minStreamEvents = minStreamEvents;
+            this.streamEvents = streamEvents;
+            this.stalledDisconnected = stalledDisconnected;
+            this.stalledClients = stalledClients;
+            this.errors = errors;
+        }
+
+        long totalErrors() {
+            long total = 0;
+            for (EndpointStats endpoint : endpoints) {
+                total += endpoint.errors;
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%d pollers for %.1fs%n", pollers, durationMillis / 1000.0));
+            text.append(String.format("%-10s %9s %9s %9s %9s %9s %9s %7s  %s%n",
+                                      "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "statuses"));
+            for (EndpointStats e : endpoints) {
+                text.append(String.format("%-10s %9d %9.0f %9.3f %9.3f %9.3f %9.3f %7d  %s%n", e.name, e.requests,
+                                          e.requestsPerSecond, e.latency.p50Micros / 1000.0, e.latency.p99Micros / 1000.0,
+                                          e.latency.p999Micros / 1000.0, e.maxMicros / 1000.0, e.errors, e.statuses));
+            }
+            text.append(String.format("stream: %d clients, %d events, at least %d per client; %d of %d stalled clients disconnected%n",
+                                      streamClients, streamEvents, minStreamEvents, stalledDisconnected, stalledClients));
+            for (String error : errors) {
+                text.append("  ").append(error).append(String.format("%n"));
+            }
+            return text.toString();
+        }
+    }
+
+    private final ServletHost host;
+    private final List<Endpoint> endpoints;
+    private final int pollers;
+    private final long pauseMillis;
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+
+    /**
+     * {@code pollers} threads are spread evenly over {@code endpoints}; each waits a random time up to
+     * {@code pauseMillis} between requests, or none with zero.
+     */
+    LoadDriver(ServletHost host, List<Endpoint> endpoints, int pollers, long pauseMillis) {
+        this.host = host;
+        this.endpoints = endpoints;
+        this.pollers = pollers;
+        this.pauseMillis = pauseMillis;
+    }
+
+    Report run(long durationMillis, int streamClients, int stalledClients) throws Exception {
+        List<ServletHost.StreamClient> streams = new ArrayList<>();
+        for (int i = 0; i < streamClients; i++) {
+            streams.add(host.stream(false));
+        }
+        List<ServletHost.StreamClient> stalled = new ArrayList<>();
+        for (int i = 0; i < stalledClients; i++) {
+            stalled.add(host.stream(true));
+        }
+
+        int n = endpoints.size();
+        LatencyHistogram[] latency = new LatencyHistogram[n];
+        AtomicLongArray requests = new AtomicLongArray(n);
+        AtomicLongArray failures = new AtomicLongArray(n);
+        AtomicLongArray max = new AtomicLongArray(n);
+        List<Map<Integer, AtomicLong>> statuses = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            latency[i] = new LatencyHistogram();
+            statuses.add(Collections.synchronizedMap(new TreeMap<>()));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        List<Thread> threads = new ArrayList<>(pollers);
+        for (int p = 0; p < pollers; p++) {
+            int index = p % n;
+            Endpoint endpoint = endpoints.get(index);
+            Thread thread = new Thread(() -> {
+                Object poller = endpoint.newPoller();
+                try {
+                    start.await();
+                    while (System.nanoTime() < deadline[0]) {
+                        long begin = System.nanoTime();
+                        ServletHost.Exchange exchange = null;
+                        String problem = null;
+                        try {
+                            exchange = endpoint.request(host, poller);
+                        } catch (Exception e) {
+                            problem = e.toString();
+                        }
+                        long micros = (System.nanoTime() - begin) / 1000;
+                        int status = -1;
+                        if (exchange != null) {
+                            // Checked outside the measured time, which is the monitor's alone
+                            status = exchange.status();
+                            try {
+                                problem = endpoint.check(exchange, poller);
+                            } catch (RuntimeException e) {
+                                problem = e.toString();
+                            }
+                        }
+                        latency[index].record(micros);
+                        requests.incrementAndGet(index);
+                        long previous;
+                        while (micros > (previous = max.get(index)) && !max.compareAndSet(index, previous, micros)) {
+                            // Retry until the maximum holds
+                        }
+                        statuses.get(index).computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+                        if (problem != null) {
+                            failures.incrementAndGet(index);
+                            if (errors.size() < MAX_ERROR_MESSAGES) {
+                                errors.add(endpoint.name + ": " + problem);
+                            }
+                        }
+                        if (pauseMillis > 0) {
+                            Thread.sleep(ThreadLocalRandom.current().nextLong(pauseMillis + 1));
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "load-poller-" + endpoint.name + "-" + p);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long began = System.nanoTime();
+        deadline[0] = began + durationMillis * 1000000;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(durationMillis + 30000);
+            if (thread.isAlive()) {
+                errors.add(thread.getName() + " did not finish; a request is stuck");
+            }
+        }
+        double seconds = (System.nanoTime() - began) / 1e9;
+
+        List<EndpointStats> stats = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long[] counts = latency[i].counts();
+            Map<Integer, Long> byStatus = new TreeMap<>();
+            synchronized (statuses.get(i)) {
+                for (Map.Entry<Integer, AtomicLong> entry : statuses.get(i).entrySet()) {
+                    byStatus.put(entry.getKey(), entry.getValue().get());
+                }
+            }
+            stats.add(new EndpointStats(endpoints.get(i).name, requests.get(i), failures.get(i), byStatus,
+                                        LatencyTracker.percentiles(new long[counts.length], counts, 0, latency[i].sum()),
+                                        max.get(i), requests.get(i) / seconds));
+        }
+
+        long minEvents = streams.isEmpty() ? 0 : Long.MAX_VALUE;
+        long events = 0;
+        for (ServletHost.StreamClient stream : streams) {
+            if (stream.status() != 200) {
+                errors.add("stream: status " + stream.status());
+            } else if (stream.snapshots() == 0) {
+                errors.add("stream: no snapshot event received");
+            }
+            minEvents = Math.min(minEvents, stream.events());
+            events += stream.events();
+        }
+        int disconnected = 0;
+        for (ServletHost.StreamClient stream : stalled) {
+            if (stream.completed()) {
+                disconnected++;
+            }
+        }
+        return new Report((long) (seconds * 1000), pollers, stats, streamClients, minEvents, events, disconnected,
+                          stalledClients, new ArrayList<>(errors));
+    }
+}
@@ -0,0 +1,371 @@
+package com.monitor.threads;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Saturating pools under hundreds of concurrent pollers. Scripted pools ramp to exhaustion, spike, flap around
+ * the alert threshold and overflow an executor queue while the driver hammers the dashboard, JSON, delta, log
+ * and metrics endpoints and holds stream subscriptions open. The test fails on any wrong response, logged
+ * error or lost stream, and prints the monitor's latency and throughput per endpoint.
+ *
+ * <p>The load is tunable with system properties, e.g. for a longer soak:
+ * {@code mvn test -Dtest=MonitorLoadTest -Dthreadmonitor.load.seconds=120 -Dthreadmonitor.load.pollers=800}.
+ */
+public class MonitorLoadTest {
+
+    private static final long SECONDS = Long.getLong("threadmonitor.load.seconds", 8);
+    private static final int POLLERS = Integer.getInteger("threadmonitor.load.pollers", 200);
+    private static final int STREAMS = Integer.getInteger("threadmonitor.load.streams", 50);
+    private static final int STALLED_STREAMS = Integer.getInteger("threadmonitor.load.stalledStreams", 5);
+    private static final long PAUSE_MILLIS = Long.getLong("threadmonitor.load.pauseMillis", 0);
+    private static final long SAMPLE_INTERVAL = 100;
+    // SampleStream's MAX_PENDING_EVENTS; the sample after that many unread events disconnects a subscriber
+    private static final int MAX_PENDING_EVENTS = 64;
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final List<FakePool> pools = new ArrayList<>();
+    private File logDirectory;
+    private ServletHost host;
+
+    @Before
+    public void setUp() throws Exception {
+        pools.add(FakePool.threadPool("http-nio-8080", 200, "ramp 20 200 3s, plateau 200 1s").register(server));
+        pools.add(FakePool.threadPool("https-jsse-nio-8443", 200,
+                                      "plateau 40 1s, spike 40 200 2s 500ms, plateau 40 1s, spike 40 200 2s 500ms").register(server));
+        pools.add(FakePool.threadPool("ajp-nio-8009", 100, "flap 20 95 2m 600ms").register(server));
+        pools.add(FakePool.executor("tomcatThreadPool", 150, "ramp 0 300 4s, plateau 300 1s").register(server));
+
+        logDirectory = Files.createTempDirectory("thread-monitor-load").toFile();
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("logDirectory", logDirectory.getAbsolutePath());
+        parameters.put("sampleInterval", String.valueOf(SAMPLE_INTERVAL));
+        parameters.put("historySize", "3000");
+        parameters.put("persistHistory", "false");
+        // Small files, so rotation and compression run during the test as well
+        parameters.put("maxLogFileSize", "65536");
+        parameters.put("maxLogFiles", "3");
+        parameters.put("alertRules", "utilization > 90 for 1s");
+        parameters.put("maxStreamClients", String.valueOf(STREAMS + STALLED_STREAMS));
+        parameters.put("latencyWindow", "10000");
+        host = new ServletHost(parameters);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (host != null) {
+            host.close();
+        }
+        for (FakePool pool : pools) {
+            pool.unregister();
+        }
+        delete(logDirectory);
+    }
+
+    @Test
+    public void curvesFollowTheirScript() {
+        UtilizationCurve curve = UtilizationCurve.parse("ramp 0 100 10s, spike 10 90 4s 2s, flap 5 50 1s 200ms");
+        assertEquals(0, curve.demandAt(0));
+        assertEquals(50, curve.demandAt(5000));
+        assertEquals(10, curve.demandAt(10500));
+        assertEquals(90, curve.demandAt(12000));
+        assertEquals(5, curve.demandAt(14050));
+        assertEquals(50, curve.demandAt(14150));
+        assertEquals(15000, curve.durationMillis());
+        assertEquals(100, curve.peak());
+        // The last plateau holds
+        assertEquals(7, UtilizationCurve.parse("ramp 1 7 1s").demandAt(60000));
+        try {
+            UtilizationCurve.parse("wobble 1 2 3s");
+            fail("Unknown phase accepted");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void servesSaturatingPoolsUnderConcurrentPollers() throws Exception {
+        long samplesBefore = selfCount("sampleCount");
+        List<LoadDriver.Endpoint> endpoints = Arrays.asList(dashboard(), json(), delta(), log(), metrics());
+        LoadDriver.Report report = new LoadDriver(host, endpoints, POLLERS, PAUSE_MILLIS)
+            .run(SECONDS * 1000, STREAMS, STALLED_STREAMS);
+        long samples = selfCount("sampleCount") - samplesBefore;
+
+        System.out.println("Monitor under load, " + samples + " samples taken:\n" + report);
+        System.out.println("Monitor overhead: " + host.get("action=self").text());
+
+        assertTrue(report.errors.toString(), report.errors.isEmpty());
+        assertEquals(report.toString(), 0, report.totalErrors());
+        assertTrue(host.loggedErrors().toString(), host.loggedErrors().isEmpty());
+        assertTrue("Stream subscriber without events: " + report, report.minStreamEvents > 0);
+
+        // Every request went through the servlet's own accounting
+        long requests = 0;
+        for (LoadDriver.EndpointStats endpoint : report.endpoints) {
+            requests += endpoint.requests;
+        }
+        assertTrue("Self-monitoring missed requests", requestStageCount() >= requests);
+
+        // The monitor saw the curves: the ramped pool saturated, the executor queued and an alert fired
+        Map<String, Map<String, Object>> latest = poolsByName(host.get("action=json").text());
+        assertEquals(200, (int) number(latest.get("http-nio-8080").get("busyThreads")));
+        assertTrue(number(latest.get("tomcatThreadPool").get("queueSize")) > 0);
+        Map<?, ?> alerts = (Map<?, ?>) JsonReader.parse(host.get("action=alerts").text());
+        assertTrue("No alert fired for a saturated pool", number(alerts.get("firedCount")) >= 1);
+        for (FakePool pool : pools) {
+            assertTrue(pool + " never read", pool.readCount() > 0);
+        }
+    }
+
+    /**
+     * Without pollers competing for the CPU, so the sampler keeps its interval and the stalled subscribers
+     * reach the pending event limit within seconds.
+     */
+    @Test
+    public void disconnectsStalledStreamSubscribers() throws Exception {
+        ServletHost.StreamClient reader = host.stream(false);
+        List<ServletHost.StreamClient> stalled = new ArrayList<>();
+        for (int i = 0; i < STALLED_STREAMS; i++) {
+            stalled.add(host.stream(true));
+        }
+        long samplesBefore = selfCount("sampleCount");
+        long deadline = System.currentTimeMillis() + (MAX_PENDING_EVENTS + 2) * SAMPLE_INTERVAL * 4;
+        int disconnected = 0;
+        while (System.currentTimeMillis() < deadline) {
+            disconnected = 0;
+            for (ServletHost.StreamClient stream : stalled) {
+                if (stream.completed()) {
+                    disconnected++;
+                }
+            }
+            if (disconnected == stalled.size()) {
+                break;
+            }
+            Thread.sleep(SAMPLE_INTERVAL);
+        }
+        long samples = selfCount("sampleCount") - samplesBefore;
+
+        assertEquals("Stalled subscribers held after " + samples + " samples", STALLED_STREAMS, disconnected);
+        assertTrue("Disconnected before the pending event limit", samples >= MAX_PENDING_EVENTS);
+        assertFalse("Reading subscriber disconnected", reader.completed());
+        assertTrue("Reading subscriber fell behind", reader.events() >= MAX_PENDING_EVENTS);
+        assertTrue(host.loggedErrors().toString(), host.loggedErrors().isEmpty());
+    }
+
+    private static LoadDriver.Endpoint dashboard() {
+        return new LoadDriver.Endpoint("dashboard") {
+            @Override
+            ServletHost.Exchange request(ServletHost host, Object poller) throws Exception {
+                return host.get("");
+            }
+
+            @Override
+            String check(ServletHost.Exchange exchange, Object poller) {
+                if (exchange.status() != 302 || !String.valueOf(exchange.header("Location")).endsWith("/index.html")) {
+                    return "expected a redirect to index.html, got " + exchange.status();
+                }
+                return null;
+            }
+        };
+    }
+
+    /** A JSON poller revalidating with its last ETag, as browsers and integrations do; half of them take gzip. */
+    private LoadDriver.Endpoint json() {
+        return new LoadDriver.Endpoint("json") {
+            @Override
+            Object newPoller() {
+                return new String[] {null, ThreadLocalRandom.current().nextBoolean() ? "gzip" : "identity"};
+            }
+
+            @Override
+            ServletHost.Exchange request(ServletHost host, Object poller) throws Exception {
+                String[] state = (String[]) poller;
+                return state[0] != null
+                    ? host.get("action=json", "Accept-Encoding", state[1], "If-None-Match", state[0])
+                    : host.get("action=json", "Accept-Encoding", state[1]);
+            }
+
+            @Override
+            String check(ServletHost.Exchange exchange, Object poller) {
+                String[] state = (String[]) poller;
+                if (exchange.status() == 304) {
+                    return state[0] != null && state[0].equals(exchange.header("ETag")) ? null : "304 for another ETag";
+                }
+                if (exchange.status() != 200) {
+                    return "status " + exchange.status();
+                }
+                state[0] = exchange.header("ETag");
+                String body;
+                try {
+                    body = "gzip".equals(exchange.header("Content-Encoding")) ? gunzip(exchange.body()) : exchange.text();
+                } catch (IOException e) {
+                    return "gzip body unreadable: " + e;
+                }
+                Map<String, Map<String, Object>> byName = poolsByName(body);
+                return byName.keySet().equals(poolNames()) ? null : "pools " + byName.keySet();
+            }
+        };
+    }
+
+    /** A dashboard tab following the sample window by sequence number. */
+    private LoadDriver.Endpoint delta() {
+        return new LoadDriver.Endpoint("delta") {
+            @Override
+            Object newPoller() {
+                return new Object[] {-1L, ""};
+            }
+
+            @Override
+            ServletHost.Exchange request(ServletHost host, Object poller) throws Exception {
+                Object[] state = (Object[]) poller;
+                return host.get("action=delta&since=" + state[0] + "&epoch=" + state[1]);
+            }
+
+            @Override
+            String check(ServletHost.Exchange exchange, Object poller) {
+                if (exchange.status() != 200) {
+                    return "status " + exchange.status();
+                }
+                Object[] state = (Object[]) poller;
+                Map<?, ?> delta = (Map<?, ?>) JsonReader.parse(exchange.text());
+                long seq = (long) number(delta.get("seq"));
+                if (Boolean.TRUE.equals(delta.get("reset"))) {
+                    if (((List<?>) delta.get("pools")).size() != pools.size()) {
+                        return "reset with pools " + delta.get("pools");
+                    }
+                } else if (seq < (Long) state[0]) {
+                    return "sequence went back from " + state[0] + " to " + seq;
+                }
+                state[0] = seq;
+                state[1] = delta.get("epoch");
+                return null;
+            }
+        };
+    }
+
+    /** Cron-style logging; a full queue answers 503 by design, so that is not an error. */
+    private static LoadDriver.Endpoint log() {
+        return new LoadDriver.Endpoint("log") {
+            @Override
+            ServletHost.Exchange request(ServletHost host, Object poller) throws Exception {
+                return host.get("action=log", "User-Agent", "curl/8.5.0");
+            }
+
+            @Override
+            String check(ServletHost.Exchange exchange, Object poller) {
+                if (exchange.status() == 503 && exchange.text().contains("Log queue full")) {
+                    return null;
+                }
+                return exchange.status() == 200 && exchange.text().contains("\"success\"")
+                    ? null : "status " + exchange.status() + ": " + exchange.text();
+            }
+        };
+    }
+
+    private LoadDriver.Endpoint metrics() {
+        return new LoadDriver.Endpoint("metrics") {
+            @Override
+            ServletHost.Exchange request(ServletHost host, Object poller) throws Exception {
+                return host.get("action=metrics");
+            }
+
+            @Override
+            String check(ServletHost.Exchange exchange, Object poller) {
+                if (exchange.status() != 200) {
+                    return "status " + exchange.status();
+                }
+                String text = exchange.text();
+                for (String name : poolNames()) {
+                    if (!text.contains("threadmonitor_pool_busy_threads{pool=\"" + name + "\"")) {
+                        return "no busy threads for " + name;
+                    }
+                }
+                return text.contains("threadmonitor_self_stage_seconds") ? null : "no self-monitoring metrics";
+            }
+        };
+    }
+
+    private java.util.Set<String> poolNames() {
+        java.util.Set<String> names = new java.util.TreeSet<>();
+        for (FakePool pool : pools) {
+            names.add(pool.name());
+        }
+        return names;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Object>> poolsByName(String json) {
+        Map<String, Map<String, Object>> byName = new java.util.TreeMap<>();
+        for (Object pool : (List<?>) ((Map<?, ?>) JsonReader.parse(json)).get("pools")) {
+            Map<String, Object> fields = (Map<String, Object>) pool;
+            byName.put((String) fields.get("name"), fields);
+        }
+        return byName;
+    }
+
+    private long selfCount(String field) throws Exception {
+        return (long) number(((Map<?, ?>) JsonReader.parse(host.get("action=self").text())).get(field));
+    }
+
+    private long requestStageCount() throws Exception {
+        for (Object stage : (List<?>) ((Map<?, ?>) JsonReader.parse(host.get("action=self").text())).get("stages")) {
+            Map<?, ?> fields = (Map<?, ?>) stage;
+            if ("request".equals(fields.get("stage"))) {
+                return (long) number(((Map<?, ?>) fields.get("latency")).get("totalCount"));
+            }
+        }
+        throw new AssertionError("No request stage in ?action=self");
+    }
+
+    private static double number(Object value) {
+        return ((Number) value).doubleValue();
+    }
+
+    private static String gunzip(byte[] body) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 8);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void delete(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
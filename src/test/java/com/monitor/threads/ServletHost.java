@@ -0,0 +1,509 @@
+package com.monitor.threads;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a {@link ThreadMonitorServlet} in-process, without a container: requests go straight to
+ * {@code service()} on the caller's thread, with request and response stand-ins that implement the parts of
+ * the Servlet API the monitor uses. Asynchronous requests get an {@link AsyncContext} whose write callbacks run
+ * on a small pool, as a container would call them from its own threads.
+ *
+ * <p>What is measured is the monitor's own handling, from {@code service()} entry to the last byte written;
+ * connection handling and network I/O are not part of it.
+ */
+final class ServletHost implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(ServletHost.class.getName());
+
+    private final ThreadMonitorServlet servlet = new ThreadMonitorServlet();
+    private final Map<String, String> contextParameters;
+    private final ExecutorService container;
+    private final List<String> errors = new CopyOnWriteArrayList<>();
+    private HttpServer http;
+
+    ServletHost(Map<String, String> contextParameters) throws ServletException {
+        this.contextParameters = new HashMap<>(contextParameters);
+        AtomicInteger threads = new AtomicInteger();
+        this.container = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "servlet-host-async-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        servlet.init(proxy(ServletConfig.class, this::config));
+    }
+
+    /** Messages the servlet logged with an exception. */
+    List<String> loggedErrors() {
+        return errors;
+    }
+
+    /**
+     * Sends a GET request with {@code query} (without the leading {@code ?}) and header name/value pairs.
+     */
+    Exchange get(String query, String... headers) throws IOException, ServletException {
+        Exchange exchange = new Exchange(query, headers);
+        servlet.service(exchange.request, exchange.response);
+        exchange.finish();
+        return exchange;
+    }
+
+    /**
+     * Opens a {@code ?action=stream} subscription. With {@code stalled} the client never becomes writable
+     * again after its first event, like a browser tab that stopped reading.
+     */
+    StreamClient stream(boolean stalled) throws IOException, ServletException {
+        StreamClient client = new StreamClient(stalled);
+        servlet.service(client.exchange.request, client.exchange.response);
+        return client;
+    }
+
+    /**
+     * Serves the monitor over HTTP on a loopback port, for clients that need a real connection such as
+     * {@link HttpPeer}. Each request is passed to {@link #get} with its query and headers. Returns the URL of
+     * the monitor; the server stops on {@link #close}.
+     */
+    synchronized String listen() throws IOException {
+        if (http == null) {
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            http.createContext("/thread-monitor", this::serve);
+            http.setExecutor(container);
+            http.start();
+        }
+        return "http://127.0.0.1:" + http.getAddress().getPort() + "/thread-monitor/thread-monitor";
+    }
+
+    private void serve(HttpExchange request) throws IOException {
+        try {
+            String query = request.getRequestURI().getRawQuery();
+            List<String> headers = new ArrayList<>();
+            for (Map.Entry<String, List<String>> header : request.getRequestHeaders().entrySet()) {
+                headers.add(header.getKey());
+                headers.add(header.getValue().get(0));
+            }
+            Exchange exchange = get(query != null ? query : "", headers.toArray(new String[0]));
+            for (Map.Entry<String, String> header : exchange.responseHeaders.entrySet()) {
+                // The server frames the body itself
+                if (!"Content-Length".equalsIgnoreCase(header.getKey())) {
+                    request.getResponseHeaders().set(header.getKey(), header.getValue());
+                }
+            }
+            byte[] body = exchange.body();
+            boolean empty = body.length == 0 || exchange.status() == HttpServletResponse.SC_NOT_MODIFIED;
+            request.sendResponseHeaders(exchange.status(), empty ? -1 : body.length);
+            if (!empty) {
+                try (OutputStream out = request.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        } catch (ServletException e) {
+            request.sendResponseHeaders(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, -1);
+        } finally {
+            request.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (http != null) {
+                http.stop(0);
+                http = null;
+            }
+        }
+        servlet.destroy();
+        container.shutdown();
+        try {
+            container.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Object config(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getServletName":
+                return "ThreadMonitorServlet";
+            case "getServletContext":
+                return proxy(ServletContext.class, this::context);
+            case "getInitParameterNames":
+                return Collections.emptyEnumeration();
+            default:
+                return null;
+        }
+    }
+
+    private Object context(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getInitParameter":
+                return contextParameters.get((String) args[0]);
+            case "getInitParameterNames":
+                return Collections.enumeration(contextParameters.keySet());
+            case "getContextPath":
+                return "/thread-monitor";
+            case "log":
+                if (args.length > 1 && args[1] instanceof Throwable) {
+                    errors.add(args[0] + ": " + args[1]);
+                    LOG.log(Level.WARNING, (String) args[0], (Throwable) args[1]);
+                } else {
+                    LOG.fine(String.valueOf(args[0]));
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(ServletHost.class.getClassLoader(), new Class<?>[] {type},
+                                          (InvocationHandler) (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + " stand-in";
+                }
+            }
+            Object result = handler.handle(method, args != null ? args : new Object[0]);
+            return result != null ? result : defaultValue(method.getReturnType());
+        });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return -1L;
+        }
+        return null;
+    }
+
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Exception;
+    }
+
+    /** One request and the response the servlet produced. */
+    final class Exchange {
+        final HttpServletRequest request;
+        final HttpServletResponse response;
+
+        private final Map<String, String> parameters = new HashMap<>();
+        private final Map<String, String> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final Output output;
+        private volatile int status = HttpServletResponse.SC_OK;
+        private PrintWriter writer;
+        private volatile AsyncContext async;
+
+        private Exchange(String query, String[] headers) {
+            this(query, headers, null);
+        }
+
+        private Exchange(String query, String[] headers, Output output) {
+            for (String pair : query.isEmpty() ? new String[0] : query.split("&")) {
+                int eq = pair.indexOf('=');
+                parameters.put(decode(eq < 0 ? pair : pair.substring(0, eq)), eq < 0 ? "" : decode(pair.substring(eq + 1)));
+            }
+            for (int i = 0; i + 1 < headers.length; i += 2) {
+                requestHeaders.put(headers[i], headers[i + 1]);
+            }
+            this.output = output != null ? output : new Output(body, false, false);
+            this.request = proxy(HttpServletRequest.class, this::request);
+            this.response = proxy(HttpServletResponse.class, this::response);
+        }
+
+        int status() {
+            return status;
+        }
+
+        String header(String name) {
+            return responseHeaders.get(name);
+        }
+
+        byte[] body() {
+            return body.toByteArray();
+        }
+
+        String text() {
+            return new String(body(), StandardCharsets.UTF_8);
+        }
+
+        private void finish() {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        private Object request(Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getMethod":
+                    return "GET";
+                case "getProtocol":
+                    return "HTTP/1.1";
+                case "getParameter":
+                    return parameters.get((String) args[0]);
+                case "getHeader":
+                    return requestHeaders.get((String) args[0]);
+                case "getRemoteAddr":
+                    return "127.0.0.1";
+                case "getContextPath":
+                    return "/thread-monitor";
+                case "getRequestURI":
+                    return "/thread-monitor/";
+                case "isAsyncSupported":
+                    return true;
+                case "isAsyncStarted":
+                    return async != null;
+                case "startAsync":
+                    async = proxy(AsyncContext.class, new AsyncHandler(this));
+                    return async;
+                case "getAsyncContext":
+                    return async;
+                default:
+                    return null;
+            }
+        }
+
+        private Object response(Method method, Object[] args) throws IOException {
+            switch (method.getName()) {
+                case "setStatus":
+                    status = (Integer) args[0];
+                    return null;
+                case "getStatus":
+                    return status;
+                case "sendError":
+                    status = (Integer) args[0];
+                    return null;
+                case "sendRedirect":
+                    status = HttpServletResponse.SC_FOUND;
+                    responseHeaders.put("Location", (String) args[0]);
+                    return null;
+                case "encodeRedirectURL":
+                case "encodeURL":
+                    return args[0];
+                case "setHeader":
+                case "addHeader":
+                    responseHeaders.put((String) args[0], (String) args[1]);
+                    return null;
+                case "setIntHeader":
+                    responseHeaders.put((String) args[0], String.valueOf(args[1]));
+                    return null;
+                case "setContentType":
+                    responseHeaders.put("Content-Type", (String) args[0]);
+                    return null;
+                case "getContentType":
+                    return responseHeaders.get("Content-Type");
+                case "setContentLength":
+                case "setContentLengthLong":
+                    responseHeaders.put("Content-Length", String.valueOf(args[0]));
+                    return null;
+                case "getHeader":
+                    return responseHeaders.get((String) args[0]);
+                case "containsHeader":
+                    return responseHeaders.containsKey((String) args[0]);
+                case "getCharacterEncoding":
+                    return "UTF-8";
+                case "getOutputStream":
+                    return output;
+                case "getWriter":
+                    if (writer == null) {
+                        writer = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+                    }
+                    return writer;
+                case "flushBuffer":
+                    if (writer != null) {
+                        writer.flush();
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final class AsyncHandler implements Handler {
+        private final Exchange exchange;
+        private final List<AsyncListener> listeners = new CopyOnWriteArrayList<>();
+        private boolean completed;
+
+        AsyncHandler(Exchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public Object handle(Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getRequest":
+                    return exchange.request;
+                case "getResponse":
+                    return exchange.response;
+                case "addListener":
+                    listeners.add((AsyncListener) args[0]);
+                    return null;
+                case "complete":
+                    synchronized (this) {
+                        if (completed) {
+                            throw new IllegalStateException("Already completed");
+                        }
+                        completed = true;
+                    }
+                    exchange.output.completed = true;
+                    // Containers report completion from their own thread
+                    container.execute(() -> {
+                        for (AsyncListener listener : listeners) {
+                            try {
+                                listener.onComplete(new AsyncEvent(exchange.async));
+                            } catch (IOException e) {
+                                errors.add("onComplete failed: " + e);
+                            }
+                        }
+                    });
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * A response body that is always writable, or, when stalled, only until its first write. A stream's
+     * events are counted instead of kept.
+     */
+    private final class Output extends ServletOutputStream {
+        private final ByteArrayOutputStream sink;
+        private final boolean stream;
+        private final boolean stalled;
+        private final AtomicLong writes = new AtomicLong();
+        private final AtomicLong snapshots = new AtomicLong();
+        private volatile boolean completed;
+        private volatile boolean blocked;
+
+        Output(ByteArrayOutputStream sink, boolean stream, boolean stalled) {
+            this.sink = sink;
+            this.stream = stream;
+            this.stalled = stalled;
+        }
+
+        @Override
+        public boolean isReady() {
+            return !blocked;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            container.execute(() -> {
+                try {
+                    listener.onWritePossible();
+                } catch (IOException e) {
+                    listener.onError(e);
+                }
+            });
+        }
+
+        @Override
+        public void write(int b) {
+            synchronized (sink) {
+                sink.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            if (blocked) {
+                throw new IllegalStateException("Write while not ready");
+            }
+            synchronized (sink) {
+                writes.incrementAndGet();
+                if (!stream) {
+                    sink.write(bytes, offset, length);
+                } else if (new String(bytes, offset, Math.min(length, 40), StandardCharsets.UTF_8)
+                               .contains("event: snapshot")) {
+                    // SampleStream writes one whole event per call
+                    snapshots.incrementAndGet();
+                }
+            }
+            if (stalled) {
+                blocked = true;
+            }
+        }
+    }
+
+    /** A subscriber of {@code ?action=stream}; events are counted rather than kept. */
+    final class StreamClient {
+        private final Exchange exchange;
+
+        private StreamClient(boolean stalled) {
+            this.exchange = new Exchange("action=stream", new String[0], new Output(new ByteArrayOutputStream(), true, stalled));
+        }
+
+        int status() {
+            return exchange.status();
+        }
+
+        long events() {
+            return exchange.output.writes.get();
+        }
+
+        long snapshots() {
+            return exchange.output.snapshots.get();
+        }
+
+        /** Whether the monitor has ended the stream. */
+        boolean completed() {
+            return exchange.output.completed;
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
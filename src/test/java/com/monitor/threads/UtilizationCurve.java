@@ -0,0 +1,162 @@
+package com.monitor.threads;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Demand on a fake pool over time, scripted as a sequence of phases separated by commas:
+ *
+ * <pre>
+ * plateau &lt;level&gt; &lt;duration&gt;
+ * ramp    &lt;from&gt; &lt;to&gt; &lt;duration&gt;
+ * spike   &lt;base&gt; &lt;peak&gt; &lt;duration&gt; &lt;width&gt;     peak for width in the middle of the phase
+ * flap    &lt;low&gt; &lt;high&gt; &lt;duration&gt; &lt;period&gt;     low and high alternating every half period
+ * </pre>
+ *
+ * Levels are threads wanted; above the pool's {@code maxThreads} the excess queues. Durations take an
+ * {@code ms}, {@code s} or {@code m} suffix. Once the script has run out the curve holds its last value, so
+ * {@code "ramp 10 200 20s"} saturates the pool after 20 seconds and stays there.
+ */
+final class UtilizationCurve {
+
+    private static final int PLATEAU = 0;
+    private static final int RAMP = 1;
+    private static final int SPIKE = 2;
+    private static final int FLAP = 3;
+
+    private final String script;
+    private final int[] shapes;
+    private final int[] from;
+    private final int[] to;
+    private final long[] durations;
+    private final long[] periods;
+
+    private UtilizationCurve(String script, List<long[]> phases) {
+        this.script = script;
+        int n = phases.size();
+        shapes = new int[n];
+        from = new int[n];
+        to = new int[n];
+        durations = new long[n];
+        periods = new long[n];
+        for (int i = 0; i < n; i++) {
+            long[] phase = phases.get(i);
+            shapes[i] = (int) phase[0];
+            from[i] = (int) phase[1];
+            to[i] = (int) phase[2];
+            durations[i] = phase[3];
+            periods[i] = phase[4];
+        }
+    }
+
+    static UtilizationCurve parse(String script) {
+        List<long[]> phases = new ArrayList<>();
+        for (String part : script.split(",")) {
+            String[] words = part.trim().split("\\s+");
+            try {
+                switch (words[0]) {
+                    case "plateau":
+                        expect(words, 3, part);
+                        phases.add(new long[] {PLATEAU, level(words[1]), level(words[1]), duration(words[2]), 0});
+                        break;
+                    case "ramp":
+                        expect(words, 4, part);
+                        phases.add(new long[] {RAMP, level(words[1]), level(words[2]), duration(words[3]), 0});
+                        break;
+                    case "spike":
+                        expect(words, 5, part);
+                        phases.add(new long[] {SPIKE, level(words[1]), level(words[2]), duration(words[3]), duration(words[4])});
+                        break;
+                    case "flap":
+                        expect(words, 5, part);
+                        phases.add(new long[] {FLAP, level(words[1]), level(words[2]), duration(words[3]),
+                                               Math.max(2, duration(words[4]))});
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown phase '" + words[0] + "' in: " + part.trim());
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number in phase: " + part.trim(), e);
+            }
+        }
+        return new UtilizationCurve(script, phases);
+    }
+
+    /**
+     * Threads wanted {@code elapsedMillis} after the curve started.
+     */
+    int demandAt(long elapsedMillis) {
+        long t = Math.max(0, elapsedMillis);
+        for (int i = 0; i < shapes.length; i++) {
+            if (t < durations[i]) {
+                return valueAt(i, t);
+            }
+            t -= durations[i];
+        }
+        int last = shapes.length - 1;
+        return shapes[last] == PLATEAU || shapes[last] == RAMP ? to[last] : valueAt(last, durations[last]);
+    }
+
+    /** Total length of the script. */
+    long durationMillis() {
+        long total = 0;
+        for (long duration : durations) {
+            total += duration;
+        }
+        return total;
+    }
+
+    /** Highest demand anywhere in the script. */
+    int peak() {
+        int peak = 0;
+        for (int i = 0; i < shapes.length; i++) {
+            peak = Math.max(peak, Math.max(from[i], to[i]));
+        }
+        return peak;
+    }
+
+    private int valueAt(int phase, long t) {
+        switch (shapes[phase]) {
+            case RAMP:
+                return durations[phase] == 0 ? to[phase]
+                    : (int) (from[phase] + (to[phase] - from[phase]) * t / durations[phase]);
+            case SPIKE:
+                long start = (durations[phase] - periods[phase]) / 2;
+                return t >= start && t < start + periods[phase] ? to[phase] : from[phase];
+            case FLAP:
+                return t % periods[phase] < periods[phase] / 2 ? from[phase] : to[phase];
+            default:
+                return from[phase];
+        }
+    }
+
+    private static void expect(String[] words, int count, String part) {
+        if (words.length != count) {
+            throw new IllegalArgumentException("Expected " + (count - 1) + " arguments in phase: " + part.trim());
+        }
+    }
+
+    private static long level(String word) {
+        long level = Long.parseLong(word);
+        if (level < 0) {
+            throw new NumberFormatException("negative level " + word);
+        }
+        return level;
+    }
+
+    static long duration(String word) {
+        if (word.endsWith("ms")) {
+            return Long.parseLong(word.substring(0, word.length() - 2));
+        } else if (word.endsWith("s")) {
+            return Long.parseLong(word.substring(0, word.length() - 1)) * 1000;
+        } else if (word.endsWith("m")) {
+            return Long.parseLong(word.substring(0, word.length() - 1)) * 60000;
+        }
+        return Long.parseLong(word);
+    }
+
+    @Override
+    public String toString() {
+        return script;
+    }
+}
@@ -0,0 +1,82 @@
+package com.monitor.threads;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Valve variant of {@link LatencyFilter} that measures every request of the Engine or Host it is attached to,
+ * across all web applications. Built by the {@code tomcat-valve} profile into
+ * {@code thread-monitor-valve.jar}, which goes into Tomcat's {@code lib} directory:
+ *
+ * <pre>
+ * &lt;Valve className="com.monitor.threads.LatencyValve" source="localhost" queueHeader="X-Request-Start"/&gt;
+ * </pre>
+ *
+ * Without a {@code source} attribute the recorder is named after the container.
+ */
+public final class LatencyValve extends ValveBase {
+
+    private String source;
+    private String queueHeader = LatencyRecorder.DEFAULT_QUEUE_HEADER;
+    private LatencyRecorder recorder;
+
+    public LatencyValve() {
+        super(true);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getQueueHeader() {
+        return queueHeader;
+    }
+
+    public void setQueueHeader(String queueHeader) {
+        this.queueHeader = queueHeader;
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        String name = source != null && !source.trim().isEmpty() ? source.trim() : getContainer().getName();
+        recorder = new LatencyRecorder(name);
+        recorder.register(ManagementFactory.getPlatformMBeanServer());
+        super.startInternal();
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        if (recorder != null) {
+            recorder.unregister();
+            recorder = null;
+        }
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        LatencyRecorder recorder = this.recorder;
+        long start = System.nanoTime();
+        long queueMicros = LatencyRecorder.queueDelayMicros(request.getHeader(queueHeader), System.currentTimeMillis());
+        recorder.begin();
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new LatencyFilter.AsyncCompletion(recorder, start, queueMicros));
+            } else {
+                recorder.record(System.nanoTime() - start, queueMicros);
+            }
+        }
+    }
+}